@@ -2,10 +2,20 @@ package com.atlassian.bitbucket.jenkins.internal.client;
 
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketBuildStatus;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Client to post build status to remote server
  */
 public interface BitbucketBuildStatusClient {
 
     void post(BitbucketBuildStatus buildStatus);
+
+    /**
+     * Posts the build status without blocking the calling thread.
+     *
+     * @param buildStatus the build status to post
+     * @return a future completed once Bitbucket has accepted the build status
+     */
+    CompletableFuture<Void> postAsync(BitbucketBuildStatus buildStatus);
 }
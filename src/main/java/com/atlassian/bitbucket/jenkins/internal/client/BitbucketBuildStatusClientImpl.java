@@ -5,6 +5,7 @@ import okhttp3.Headers;
 import okhttp3.HttpUrl;
 
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.stripToNull;
@@ -22,13 +23,22 @@ public class BitbucketBuildStatusClientImpl implements BitbucketBuildStatusClien
 
     @Override
     public void post(BitbucketBuildStatus buildStatus) {
-        HttpUrl url = bitbucketRequestExecutor.getBaseUrl().newBuilder()
+        bitbucketRequestExecutor.makeRetrySafePostRequest(getUrl(), buildStatus, Headers.of(Collections.emptyMap()));
+    }
+
+    @Override
+    public CompletableFuture<Void> postAsync(BitbucketBuildStatus buildStatus) {
+        return bitbucketRequestExecutor.makeRetrySafePostRequestAsync(getUrl(), buildStatus,
+                Headers.of(Collections.emptyMap()));
+    }
+
+    private HttpUrl getUrl() {
+        return bitbucketRequestExecutor.getBaseUrl().newBuilder()
                 .addPathSegment("rest")
                 .addPathSegment("build-status")
                 .addPathSegment(BUILD_STATUS_VERSION)
                 .addPathSegment("commits")
                 .addPathSegment(revisionSha)
                 .build();
-        bitbucketRequestExecutor.makePostRequest(url, buildStatus, Headers.of(Collections.emptyMap()));
     }
 }
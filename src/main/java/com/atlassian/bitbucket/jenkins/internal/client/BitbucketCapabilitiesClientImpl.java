@@ -1,36 +1,33 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
 import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketMissingCapabilityException;
+import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesCache;
 import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesSupplier;
 import com.atlassian.bitbucket.jenkins.internal.model.AtlassianServerCapabilities;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketCICapabilities;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhookSupportedEvents;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import okhttp3.HttpUrl;
 
 import javax.annotation.Nullable;
-import java.util.concurrent.TimeUnit;
 
+import static com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesCache.SERVER_CAPABILITIES_KEY;
 import static com.atlassian.bitbucket.jenkins.internal.model.AtlassianServerCapabilities.RICH_BUILDSTATUS_CAPABILITY_KEY;
 import static com.atlassian.bitbucket.jenkins.internal.model.AtlassianServerCapabilities.WEBHOOK_CAPABILITY_KEY;
-import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
 import static java.util.Collections.emptySet;
 import static okhttp3.HttpUrl.parse;
 
 public class BitbucketCapabilitiesClientImpl implements BitbucketCapabilitiesClient {
 
-    /**
-     * Cache duration for the capabilities response. Defaults to 1 hour in ms.
-     */
-    public static final long CAPABILITIES_CACHE_DURATION =
-            parsePositiveLongFromSystemProperty("bitbucket.client.capabilities.cache.duration", 360000);
     private final BitbucketRequestExecutor bitbucketRequestExecutor;
-    private final Supplier<AtlassianServerCapabilities> capabilitiesCache;
+    private final BitbucketCapabilitiesCache capabilitiesCache;
+    private final BitbucketCapabilitiesSupplier capabilitiesSupplier;
 
-    BitbucketCapabilitiesClientImpl(BitbucketRequestExecutor bitbucketRequestExecutor, BitbucketCapabilitiesSupplier supplier) {
+    BitbucketCapabilitiesClientImpl(BitbucketRequestExecutor bitbucketRequestExecutor,
+                                    BitbucketCapabilitiesSupplier capabilitiesSupplier,
+                                    BitbucketCapabilitiesCache capabilitiesCache) {
         this.bitbucketRequestExecutor = bitbucketRequestExecutor;
-        capabilitiesCache = Suppliers.memoizeWithExpiration(supplier, CAPABILITIES_CACHE_DURATION, TimeUnit.MILLISECONDS);
+        this.capabilitiesSupplier = capabilitiesSupplier;
+        this.capabilitiesCache = capabilitiesCache;
     }
 
     @Override
@@ -44,7 +41,7 @@ public class BitbucketCapabilitiesClientImpl implements BitbucketCapabilitiesCli
 
     @Override
     public AtlassianServerCapabilities getServerCapabilities() {
-        return capabilitiesCache.get();
+        return capabilitiesCache.get(getCacheKey(), SERVER_CAPABILITIES_KEY, capabilitiesSupplier);
     }
 
     @Override
@@ -71,6 +68,11 @@ public class BitbucketCapabilitiesClientImpl implements BitbucketCapabilitiesCli
             throw new IllegalStateException(
                     "URL to fetch supported webhook supported event is wrong. URL: " + urlStr);
         }
-        return bitbucketRequestExecutor.makeGetRequest(url, returnType).getBody();
+        return capabilitiesCache.get(getCacheKey(), key,
+                () -> bitbucketRequestExecutor.makeGetRequest(url, returnType).getBody());
+    }
+
+    private String getCacheKey() {
+        return bitbucketRequestExecutor.getBaseUrl().toString();
     }
 }
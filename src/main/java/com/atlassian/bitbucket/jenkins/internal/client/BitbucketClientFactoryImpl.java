@@ -1,24 +1,28 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
+import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesCache;
 import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesSupplier;
 import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketCICapabilities;
 import com.atlassian.bitbucket.jenkins.internal.provider.InstanceKeyPairProvider;
 import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import org.jenkinsci.plugins.displayurlapi.DisplayURLProvider;
 
 public class BitbucketClientFactoryImpl implements BitbucketClientFactory {
 
     private final BitbucketRequestExecutor bitbucketRequestExecutor;
+    private final BitbucketCapabilitiesCache capabilitiesCache;
     private final BitbucketCapabilitiesSupplier capabilitiesSupplier;
 
-    BitbucketClientFactoryImpl(String serverUrl, BitbucketCredentials credentials, ObjectMapper objectMapper,
-                               HttpRequestExecutor httpRequestExecutor) {
-        bitbucketRequestExecutor = new BitbucketRequestExecutor(serverUrl, httpRequestExecutor, objectMapper,
-                credentials);
+    BitbucketClientFactoryImpl(String serverUrl, BitbucketCredentials credentials,
+                               JsonReaderWriterRegistry readerWriterRegistry, HttpRequestExecutor httpRequestExecutor,
+                               BitbucketCapabilitiesCache capabilitiesCache, BitbucketResponseCache responseCache,
+                               GetRequestCoalescer coalescer) {
+        bitbucketRequestExecutor = new BitbucketRequestExecutor(serverUrl, httpRequestExecutor, readerWriterRegistry,
+                credentials, responseCache, coalescer);
         capabilitiesSupplier = new BitbucketCapabilitiesSupplier(bitbucketRequestExecutor);
+        this.capabilitiesCache = capabilitiesCache;
     }
 
     @Override
@@ -28,7 +32,7 @@ public class BitbucketClientFactoryImpl implements BitbucketClientFactory {
 
     @Override
     public BitbucketCapabilitiesClient getCapabilityClient() {
-        return new BitbucketCapabilitiesClientImpl(bitbucketRequestExecutor, capabilitiesSupplier);
+        return new BitbucketCapabilitiesClientImpl(bitbucketRequestExecutor, capabilitiesSupplier, capabilitiesCache);
     }
 
     @VisibleForTesting
@@ -1,5 +1,6 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
+import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesCache;
 import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -16,13 +17,46 @@ import static java.util.Objects.requireNonNull;
 @Singleton
 public class BitbucketClientFactoryProvider {
 
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonReaderWriterRegistry readerWriterRegistry =
+            new JsonReaderWriterRegistry(new ObjectMapper());
 
+    private final BitbucketCapabilitiesCache capabilitiesCache;
+    private final GetRequestCoalescer coalescer;
     private final HttpRequestExecutor httpRequestExecutor;
+    private final BitbucketResponseCache responseCache;
 
-    @Inject
     public BitbucketClientFactoryProvider(HttpRequestExecutor httpRequestExecutor) {
+        this(httpRequestExecutor, new BitbucketCapabilitiesCache(), new BitbucketResponseCache(),
+                new GetRequestCoalescer());
+    }
+
+    @Inject
+    public BitbucketClientFactoryProvider(HttpRequestExecutor httpRequestExecutor,
+                                          BitbucketCapabilitiesCache capabilitiesCache,
+                                          BitbucketResponseCache responseCache, GetRequestCoalescer coalescer) {
         this.httpRequestExecutor = httpRequestExecutor;
+        this.capabilitiesCache = capabilitiesCache;
+        this.coalescer = coalescer;
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Returns the coalescer shared by every client factory, which lets identical concurrent GET requests share a
+     * single request.
+     *
+     * @return the GET request coalescer
+     */
+    public GetRequestCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Returns the conditional GET response cache shared by every client factory.
+     *
+     * @return the response cache
+     */
+    public BitbucketResponseCache getResponseCache() {
+        return responseCache;
     }
 
     /**
@@ -38,7 +72,10 @@ public class BitbucketClientFactoryProvider {
         return new BitbucketClientFactoryImpl(
                 baseUrl,
                 credentials,
-                objectMapper,
-                httpRequestExecutor);
+                readerWriterRegistry,
+                httpRequestExecutor,
+                capabilitiesCache,
+                responseCache,
+                coalescer);
     }
 }
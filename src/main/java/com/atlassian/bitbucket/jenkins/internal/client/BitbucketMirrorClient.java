@@ -5,6 +5,8 @@ import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirroredRepositor
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirroredRepositoryDescriptor;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Client to do the mirror related operation for a given repository
  */
@@ -24,6 +26,13 @@ public interface BitbucketMirrorClient {
      */
     BitbucketPage<BitbucketMirroredRepositoryDescriptor> getMirroredRepositoryDescriptors();
 
+    /**
+     * Asynchronous variant of {@link #getMirroredRepositoryDescriptors()}.
+     *
+     * @return a future of the mirrored repository descriptors for the given repository
+     */
+    CompletableFuture<BitbucketPage<BitbucketMirroredRepositoryDescriptor>> getMirroredRepositoryDescriptorsAsync();
+
     /**
      * Returns the mirrored repository details for the given repository url.
      *
@@ -31,4 +40,14 @@ public interface BitbucketMirrorClient {
      * @return mirrored repository details
      */
     BitbucketMirroredRepository getRepositoryDetails(BitbucketMirroredRepositoryDescriptor repositoryDescriptor);
+
+    /**
+     * Asynchronous variant of {@link #getRepositoryDetails(BitbucketMirroredRepositoryDescriptor)}, allowing the
+     * details of several mirrors to be fetched concurrently.
+     *
+     * @param repositoryDescriptor the descriptor of repository.
+     * @return a future of the mirrored repository details
+     */
+    CompletableFuture<BitbucketMirroredRepository> getRepositoryDetailsAsync(
+            BitbucketMirroredRepositoryDescriptor repositoryDescriptor);
 }
@@ -4,14 +4,20 @@ import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketClient
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirroredRepository;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirroredRepositoryDescriptor;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketResponse;
 import com.fasterxml.jackson.core.type.TypeReference;
 import okhttp3.HttpUrl;
 
+import java.util.concurrent.CompletableFuture;
+
 import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 public class BitbucketMirrorClientImpl implements BitbucketMirrorClient {
 
+    private static final TypeReference<BitbucketPage<BitbucketMirroredRepositoryDescriptor>> DESCRIPTOR_PAGE_TYPE =
+            new TypeReference<BitbucketPage<BitbucketMirroredRepositoryDescriptor>>() {};
+
     private final BitbucketRequestExecutor bitbucketRequestExecutor;
     private final int repositoryId;
 
@@ -23,22 +29,51 @@ public class BitbucketMirrorClientImpl implements BitbucketMirrorClient {
 
     @Override
     public BitbucketPage<BitbucketMirroredRepositoryDescriptor> getMirroredRepositoryDescriptors() {
-        HttpUrl url =
-                bitbucketRequestExecutor.getBaseUrl().newBuilder()
-                        .addPathSegment("rest")
-                        .addPathSegment("mirroring")
-                        .addPathSegment("1.0")
-                        .addPathSegment("repos")
-                        .addPathSegment(String.valueOf(repositoryId))
-                        .addPathSegment("mirrors")
-                        .build();
-        return bitbucketRequestExecutor.makeGetRequest(url,
-                new TypeReference<BitbucketPage<BitbucketMirroredRepositoryDescriptor>>() {}).getBody();
+        return bitbucketRequestExecutor.makeGetRequest(getMirrorsUrl(),
+                DESCRIPTOR_PAGE_TYPE).getBody();
+    }
+
+    @Override
+    public CompletableFuture<BitbucketPage<BitbucketMirroredRepositoryDescriptor>> getMirroredRepositoryDescriptorsAsync() {
+        return bitbucketRequestExecutor.makeGetRequestAsync(getMirrorsUrl(),
+                DESCRIPTOR_PAGE_TYPE)
+                .thenApply(BitbucketResponse::getBody);
     }
 
     @Override
     public BitbucketMirroredRepository getRepositoryDetails(
             BitbucketMirroredRepositoryDescriptor repositoryDescriptor) {
+        return bitbucketRequestExecutor.makeGetRequest(getRepositoryUrl(repositoryDescriptor),
+                BitbucketMirroredRepository.class).getBody();
+    }
+
+    @Override
+    public CompletableFuture<BitbucketMirroredRepository> getRepositoryDetailsAsync(
+            BitbucketMirroredRepositoryDescriptor repositoryDescriptor) {
+        HttpUrl mirrorUrl;
+        try {
+            mirrorUrl = getRepositoryUrl(repositoryDescriptor);
+        } catch (BitbucketClientException e) {
+            CompletableFuture<BitbucketMirroredRepository> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return bitbucketRequestExecutor.makeGetRequestAsync(mirrorUrl, BitbucketMirroredRepository.class)
+                .thenApply(BitbucketResponse::getBody);
+    }
+
+    private HttpUrl getMirrorsUrl() {
+        return bitbucketRequestExecutor.getBaseUrl().newBuilder()
+                .addPathSegment("rest")
+                .addPathSegment("mirroring")
+                .addPathSegment("1.0")
+                .addPathSegment("repos")
+                .addPathSegment(String.valueOf(repositoryId))
+                .addPathSegment("mirrors")
+                .build();
+    }
+
+    private static HttpUrl getRepositoryUrl(BitbucketMirroredRepositoryDescriptor repositoryDescriptor) {
         String repoUrl = repositoryDescriptor.getSelfLink();
         if (isEmpty(repoUrl)) {
             throw new BitbucketClientException("Empty Repo URL");
@@ -48,7 +83,6 @@ public class BitbucketMirrorClientImpl implements BitbucketMirrorClient {
         if (mirrorUrl == null) {
             throw new BitbucketClientException("Invalid repo URL " + repoUrl);
         }
-
-        return bitbucketRequestExecutor.makeGetRequest(mirrorUrl, BitbucketMirroredRepository.class).getBody();
+        return mirrorUrl;
     }
 }
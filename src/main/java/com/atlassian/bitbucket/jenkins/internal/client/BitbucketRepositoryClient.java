@@ -3,6 +3,8 @@ package com.atlassian.bitbucket.jenkins.internal.client;
 import com.atlassian.bitbucket.jenkins.internal.client.exception.*;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Repository client, used to interact with a remote repository for all operations except cloning
  * source code.
@@ -23,6 +25,13 @@ public interface BitbucketRepositoryClient {
      */
     BitbucketRepository getRepository();
 
+    /**
+     * Asynchronous variant of {@link #getRepository()}.
+     *
+     * @return a future of the result of the call
+     */
+    CompletableFuture<BitbucketRepository> getRepositoryAsync();
+
     /**
      * A client for performing various webhook related operations.
      *
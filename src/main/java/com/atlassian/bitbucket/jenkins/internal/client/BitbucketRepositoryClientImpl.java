@@ -1,8 +1,11 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketResponse;
 import okhttp3.HttpUrl;
 
+import java.util.concurrent.CompletableFuture;
+
 import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.stripToNull;
 
@@ -20,17 +23,26 @@ public class BitbucketRepositoryClientImpl implements BitbucketRepositoryClient
 
     @Override
     public BitbucketRepository getRepository() {
-        HttpUrl.Builder urlBuilder = bitbucketRequestExecutor.getCoreRestPath().newBuilder()
-                .addPathSegment("projects")
-                .addPathSegment(projectKey)
-                .addPathSegment("repos")
-                .addPathSegment(repositorySlug);
+        return bitbucketRequestExecutor.makeGetRequest(getRepositoryUrl(), BitbucketRepository.class).getBody();
+    }
 
-        return bitbucketRequestExecutor.makeGetRequest(urlBuilder.build(), BitbucketRepository.class).getBody();
+    @Override
+    public CompletableFuture<BitbucketRepository> getRepositoryAsync() {
+        return bitbucketRequestExecutor.makeGetRequestAsync(getRepositoryUrl(), BitbucketRepository.class)
+                .thenApply(BitbucketResponse::getBody);
     }
 
     @Override
     public BitbucketWebhookClient getWebhookClient() {
         return new BitbucketWebhookClientImpl(bitbucketRequestExecutor, projectKey, repositorySlug);
     }
+
+    private HttpUrl getRepositoryUrl() {
+        return bitbucketRequestExecutor.getCoreRestPath().newBuilder()
+                .addPathSegment("projects")
+                .addPathSegment(projectKey)
+                .addPathSegment("repos")
+                .addPathSegment(repositorySlug)
+                .build();
+    }
 }
@@ -1,23 +1,34 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
+import com.atlassian.bitbucket.jenkins.internal.client.BitbucketResponseCache.CachedResponse;
 import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketClientException;
 import com.atlassian.bitbucket.jenkins.internal.client.exception.NoContentException;
+import com.atlassian.bitbucket.jenkins.internal.client.paging.BitbucketPageValuesIterator;
 import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
+import com.atlassian.bitbucket.jenkins.internal.http.HttpRequestExecutorImpl;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketResponse;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import okhttp3.Headers;
-import okhttp3.HttpUrl;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
+import okhttp3.*;
+import okio.BufferedSink;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import static com.atlassian.bitbucket.jenkins.internal.client.HttpRequestExecutor.ResponseConsumer.EMPTY_RESPONSE;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.util.Objects.requireNonNull;
 import static okhttp3.HttpUrl.parse;
 
@@ -28,13 +39,37 @@ public class BitbucketRequestExecutor {
 
     private final HttpUrl bitbucketBaseUrl;
     private final HttpUrl bitbucketCoreRestPathUrl;
+    private final GetRequestCoalescer coalescer;
     private final BitbucketCredentials credentials;
-    private final ObjectMapper objectMapper;
+    private final JsonReaderWriterRegistry readerWriterRegistry;
     private final HttpRequestExecutor httpRequestExecutor;
+    private final BitbucketResponseCache responseCache;
 
     public BitbucketRequestExecutor(String bitbucketBaseUrl,
                                     HttpRequestExecutor httpRequestExecutor, ObjectMapper objectMapper,
                                     BitbucketCredentials credentials) {
+        this(bitbucketBaseUrl, httpRequestExecutor, objectMapper, credentials, BitbucketResponseCache.DISABLED);
+    }
+
+    public BitbucketRequestExecutor(String bitbucketBaseUrl,
+                                    HttpRequestExecutor httpRequestExecutor, ObjectMapper objectMapper,
+                                    BitbucketCredentials credentials, BitbucketResponseCache responseCache) {
+        this(bitbucketBaseUrl, httpRequestExecutor, new JsonReaderWriterRegistry(objectMapper), credentials,
+                responseCache);
+    }
+
+    public BitbucketRequestExecutor(String bitbucketBaseUrl,
+                                    HttpRequestExecutor httpRequestExecutor,
+                                    JsonReaderWriterRegistry readerWriterRegistry, BitbucketCredentials credentials,
+                                    BitbucketResponseCache responseCache) {
+        this(bitbucketBaseUrl, httpRequestExecutor, readerWriterRegistry, credentials, responseCache,
+                GetRequestCoalescer.DISABLED);
+    }
+
+    public BitbucketRequestExecutor(String bitbucketBaseUrl,
+                                    HttpRequestExecutor httpRequestExecutor,
+                                    JsonReaderWriterRegistry readerWriterRegistry, BitbucketCredentials credentials,
+                                    BitbucketResponseCache responseCache, GetRequestCoalescer coalescer) {
         this.bitbucketBaseUrl = requireNonNull(parse(requireNonNull(bitbucketBaseUrl)));
         this.bitbucketCoreRestPathUrl = this.bitbucketBaseUrl.newBuilder()
                 .addPathSegment("rest")
@@ -42,8 +77,10 @@ public class BitbucketRequestExecutor {
                 .addPathSegment(API_VERSION)
                 .build();
         this.httpRequestExecutor = httpRequestExecutor;
-        this.objectMapper = objectMapper;
+        this.readerWriterRegistry = readerWriterRegistry;
         this.credentials = credentials;
+        this.responseCache = requireNonNull(responseCache, "responseCache");
+        this.coalescer = requireNonNull(coalescer, "coalescer");
     }
 
     /**
@@ -73,6 +110,16 @@ public class BitbucketRequestExecutor {
         httpRequestExecutor.executeDelete(url, credentials);
     }
 
+    /**
+     * Make a DELETE request to given URL without blocking the calling thread.
+     *
+     * @param url, the delete URL
+     * @return a future completed once the resource has been deleted
+     */
+    public CompletableFuture<Void> makeDeleteRequestAsync(HttpUrl url) {
+        return httpRequestExecutor.executeDeleteAsync(url, credentials);
+    }
+
     /**
      * Make a GET request to the url given. This method will add authentication headers as needed.
      * If the requested resource is paged, or the return type is generified use this method,
@@ -85,7 +132,8 @@ public class BitbucketRequestExecutor {
      * @see #makeGetRequest(HttpUrl, Class)
      */
     public <T> BitbucketResponse<T> makeGetRequest(HttpUrl url, TypeReference<T> returnType) {
-        return makeGetRequest(url, in -> objectMapper.readValue(in, returnType));
+        ObjectReader reader = readerWriterRegistry.getReader(returnType);
+        return makeGetRequest(url, returnType.getType(), reader::readValue);
     }
 
     /**
@@ -102,7 +150,60 @@ public class BitbucketRequestExecutor {
      * @see #makeGetRequest(HttpUrl, TypeReference)
      */
     public <T> BitbucketResponse<T> makeGetRequest(HttpUrl url, Class<T> returnType) {
-        return makeGetRequest(url, in -> objectMapper.readValue(in, returnType));
+        ObjectReader reader = readerWriterRegistry.getReader(returnType);
+        return makeGetRequest(url, returnType, reader::readValue);
+    }
+
+    /**
+     * Asynchronous variant of {@link #makeGetRequest(HttpUrl, TypeReference)}.
+     *
+     * @param url        url to connect to
+     * @param returnType type reference used when getting generified objects (such as pages)
+     * @param <T>        type to return
+     * @return a future of the deserialized object of type T
+     */
+    public <T> CompletableFuture<BitbucketResponse<T>> makeGetRequestAsync(HttpUrl url, TypeReference<T> returnType) {
+        ObjectReader reader = readerWriterRegistry.getReader(returnType);
+        return makeGetRequestAsync(url, returnType.getType(), reader::readValue);
+    }
+
+    /**
+     * Asynchronous variant of {@link #makeGetRequest(HttpUrl, Class)}.
+     *
+     * @param url        url to connect to
+     * @param returnType class of the desired return type
+     * @param <T>        type to return
+     * @return a future of the deserialized object of type T
+     */
+    public <T> CompletableFuture<BitbucketResponse<T>> makeGetRequestAsync(HttpUrl url, Class<T> returnType) {
+        ObjectReader reader = readerWriterRegistry.getReader(returnType);
+        return makeGetRequestAsync(url, returnType, reader::readValue);
+    }
+
+    /**
+     * Make a GET request for a page of values and pass the values of the page to the given function while the response
+     * is being read. Values are deserialized lazily as the stream is consumed, and every other field of the page is
+     * skipped, so a function that stops early never reads the remaining values. The stream is only valid until the
+     * function returns.
+     *
+     * @param url            url of a paged resource
+     * @param valueType      class of the values in the page
+     * @param valuesFunction function consuming the values of the page
+     * @param <T>            type of the values in the page
+     * @param <R>            type to return
+     * @return the result of the function
+     */
+    public <T, R> R makeStreamingGetRequest(HttpUrl url, Class<T> valueType, Function<Stream<T>, R> valuesFunction) {
+        ObjectReader valueReader = readerWriterRegistry.getReader(valueType);
+        return httpRequestExecutor.executeGet(url, credentials, response -> {
+            ensureNonEmptyBody(response);
+            try (JsonParser parser = valueReader.getFactory().createParser(response.body().byteStream())) {
+                return valuesFunction.apply(BitbucketPageValuesIterator.stream(parser, valueReader));
+            } catch (IOException e) {
+                log.info("Bitbucket - io exception while reading the page values, Reason " + e.getMessage());
+                throw new BitbucketClientException(e);
+            }
+        });
     }
 
     /**
@@ -117,7 +218,7 @@ public class BitbucketRequestExecutor {
      */
     public <T, R> BitbucketResponse<R> makePostRequest(HttpUrl url, T requestPayload, Headers headers,
                                                        Class<R> returnType) {
-        ObjectReader<R> reader = in -> objectMapper.readValue(in, returnType);
+        BodyReader<R> reader = readerWriterRegistry.getReader(returnType)::readValue;
         return httpRequestExecutor.executePost(url, credentials, marshall(requestPayload), response ->
                 new BitbucketResponse<>(response.headers().toMultimap(), unmarshall(reader, response.body())), headers);
     }
@@ -133,6 +234,47 @@ public class BitbucketRequestExecutor {
         httpRequestExecutor.executePost(url, credentials, marshall(requestPayload), EMPTY_RESPONSE, headers);
     }
 
+    /**
+     * Makes a POST request to the given URL with given request payload without blocking the calling thread.
+     *
+     * @param url            the URL to make the request to
+     * @param requestPayload JSON payload which will be marshalled to send it with POST
+     * @param <T>            Type of Request payload
+     * @return a future completed once the request has been accepted
+     */
+    public <T> CompletableFuture<Void> makePostRequestAsync(HttpUrl url, T requestPayload, Headers headers) {
+        return httpRequestExecutor.executePostAsync(url, credentials, marshall(requestPayload), EMPTY_RESPONSE,
+                headers);
+    }
+
+    /**
+     * Makes a POST request that is safe to repeat to the given URL with given request payload. The request is retried
+     * if it fails with a transient error, so it must only be used for resources where posting the same payload twice
+     * has the same effect as posting it once.
+     *
+     * @param url            the URL to make the request to
+     * @param requestPayload JSON payload which will be marshalled to send it with POST
+     * @param <T>            Type of Request payload
+     */
+    public <T> void makeRetrySafePostRequest(HttpUrl url, T requestPayload, Headers headers) {
+        httpRequestExecutor.executeRetrySafePost(url, credentials, marshall(requestPayload), EMPTY_RESPONSE, headers);
+    }
+
+    /**
+     * Makes a POST request that is safe to repeat to the given URL with given request payload without blocking the
+     * calling thread.
+     *
+     * @param url            the URL to make the request to
+     * @param requestPayload JSON payload which will be marshalled to send it with POST
+     * @param <T>            Type of Request payload
+     * @return a future completed once the request has been accepted
+     * @see #makeRetrySafePostRequest(HttpUrl, Object, Headers)
+     */
+    public <T> CompletableFuture<Void> makeRetrySafePostRequestAsync(HttpUrl url, T requestPayload, Headers headers) {
+        return httpRequestExecutor.executeRetrySafePostAsync(url, credentials, marshall(requestPayload),
+                EMPTY_RESPONSE, headers);
+    }
+
     /**
      * Makes a PUT request to the the given URL with given request payload
      *
@@ -144,11 +286,28 @@ public class BitbucketRequestExecutor {
      * @return the result
      */
     public <T, R> BitbucketResponse<R> makePutRequest(HttpUrl url, T requestPayload, Class<R> returnType) {
-        ObjectReader<R> reader = in -> objectMapper.readValue(in, returnType);
+        BodyReader<R> reader = readerWriterRegistry.getReader(returnType)::readValue;
         return httpRequestExecutor.executePut(url, credentials, marshall(requestPayload), response ->
                 new BitbucketResponse<>(response.headers().toMultimap(), unmarshall(reader, response.body())));
     }
 
+    /**
+     * Asynchronous variant of {@link #makePutRequest(HttpUrl, Object, Class)}.
+     *
+     * @param url            the URL to make the request to
+     * @param requestPayload JSON payload which will be marshalled to send it with PUT
+     * @param returnType,    Class of expected return type
+     * @param <T>            Type of result
+     * @param <R>            Type of return
+     * @return a future of the result
+     */
+    public <T, R> CompletableFuture<BitbucketResponse<R>> makePutRequestAsync(HttpUrl url, T requestPayload,
+                                                                              Class<R> returnType) {
+        BodyReader<R> reader = readerWriterRegistry.getReader(returnType)::readValue;
+        return httpRequestExecutor.executePutAsync(url, credentials, marshall(requestPayload), response ->
+                new BitbucketResponse<>(response.headers().toMultimap(), unmarshall(reader, response.body())));
+    }
+
     private void ensureNonEmptyBody(Response response) {
         if (response.body() == null) {
             log.info("Bitbucket - No content in response");
@@ -157,27 +316,77 @@ public class BitbucketRequestExecutor {
         }
     }
 
-    private <T> BitbucketResponse<T> makeGetRequest(HttpUrl url, ObjectReader<T> reader) {
-        return httpRequestExecutor.executeGet(url, credentials,
-                response -> {
-                    ensureNonEmptyBody(response);
-                    T result = unmarshall(reader, response.body());
-                    return new BitbucketResponse<>(
-                            response.headers().toMultimap(), result);
-                });
+    private <T> BitbucketResponse<T> makeGetRequest(HttpUrl url, Type type, BodyReader<T> reader) {
+        // Concurrent callers share the response as it was received, and each of them deserializes its own copy
+        return toBitbucketResponse(coalescer.execute(url, credentials, type, () -> getRawResponse(url, type)),
+                reader);
     }
 
-    private <T> String marshall(T requestPayload) {
-        requireNonNull(requestPayload);
+    private <T> CompletableFuture<BitbucketResponse<T>> makeGetRequestAsync(HttpUrl url, Type type,
+                                                                            BodyReader<T> reader) {
+        return coalescer.executeAsync(url, credentials, type, () -> getRawResponseAsync(url, type))
+                .thenApply(response -> toBitbucketResponse(response, reader));
+    }
+
+    private RawResponse getRawResponse(HttpUrl url, Type type) {
+        if (!responseCache.isEnabled()) {
+            return httpRequestExecutor.executeGet(url, credentials, this::toRawResponse);
+        }
+        String key = BitbucketResponseCache.createKey(url, credentials, type);
+        CachedResponse cached = responseCache.get(key);
+        return httpRequestExecutor.executeGet(url, credentials, conditionalHeaders(cached),
+                response -> toCachedRawResponse(url, key, cached, response));
+    }
+
+    private CompletableFuture<RawResponse> getRawResponseAsync(HttpUrl url, Type type) {
+        if (!responseCache.isEnabled()) {
+            return httpRequestExecutor.executeGetAsync(url, credentials, this::toRawResponse);
+        }
+        String key = BitbucketResponseCache.createKey(url, credentials, type);
+        CachedResponse cached = responseCache.get(key);
+        return httpRequestExecutor.executeGetAsync(url, credentials, conditionalHeaders(cached),
+                response -> toCachedRawResponse(url, key, cached, response));
+    }
+
+    private static Headers conditionalHeaders(@Nullable CachedResponse cached) {
+        return cached == null ? Headers.of() : cached.toConditionalHeaders();
+    }
+
+    private RawResponse toCachedRawResponse(HttpUrl url, String key, @Nullable CachedResponse cached,
+                                            Response response) {
+        if (cached != null && response.code() == HTTP_NOT_MODIFIED) {
+            responseCache.recordHit(url);
+            return new RawResponse(cached.getHeaders(), cached.getBody());
+        }
+        responseCache.recordMiss(url);
+        RawResponse result = toRawResponse(response);
+        responseCache.put(key, response, result.body);
+        return result;
+    }
+
+    private RawResponse toRawResponse(Response response) {
+        ensureNonEmptyBody(response);
         try {
-            return objectMapper.writeValueAsString(requestPayload);
-        } catch (JsonProcessingException e) {
-            log.info("Programming error while marshalling webhook model." + e.getMessage());
+            return new RawResponse(response.headers(), response.body().bytes());
+        } catch (IOException e) {
+            log.info("Bitbucket - io exception while reading the body, Reason " + e.getMessage());
             throw new BitbucketClientException(e);
         }
     }
 
-    private <T> T unmarshall(ObjectReader<T> reader, ResponseBody body) {
+    /**
+     * Deserializes a new copy of the response, so callers never share the mutable collections of a model.
+     */
+    private <T> BitbucketResponse<T> toBitbucketResponse(RawResponse response, BodyReader<T> reader) {
+        return new BitbucketResponse<>(response.headers.toMultimap(), unmarshall(reader, response.body));
+    }
+
+    private <T> RequestBody marshall(T requestPayload) {
+        requireNonNull(requestPayload);
+        return new JsonRequestBody(readerWriterRegistry.getWriter(requestPayload.getClass()), requestPayload);
+    }
+
+    private <T> T unmarshall(BodyReader<T> reader, ResponseBody body) {
         requireNonNull(body);
         try {
             return reader.readObject(body.byteStream());
@@ -187,8 +396,55 @@ public class BitbucketRequestExecutor {
         }
     }
 
-    private interface ObjectReader<T> {
+    private <T> T unmarshall(BodyReader<T> reader, byte[] body) {
+        try {
+            return reader.readObject(new ByteArrayInputStream(body));
+        } catch (IOException e) {
+            log.info("Bitbucket - io exception while unmarshalling the body, Reason " + e.getMessage());
+            throw new BitbucketClientException(e);
+        }
+    }
+
+    private interface BodyReader<T> {
 
         T readObject(InputStream in) throws IOException;
     }
+
+    /**
+     * A GET response as it was received, which may be shared by concurrent callers and kept in the response cache.
+     */
+    private static final class RawResponse {
+
+        private final byte[] body;
+        private final Headers headers;
+
+        private RawResponse(Headers headers, byte[] body) {
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Serializes the payload straight into the request, instead of building the JSON as a string first.
+     */
+    private static final class JsonRequestBody extends RequestBody {
+
+        private final Object payload;
+        private final ObjectWriter writer;
+
+        private JsonRequestBody(ObjectWriter writer, Object payload) {
+            this.payload = payload;
+            this.writer = writer;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return HttpRequestExecutorImpl.JSON;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            writer.writeValue(sink.outputStream(), payload);
+        }
+    }
 }
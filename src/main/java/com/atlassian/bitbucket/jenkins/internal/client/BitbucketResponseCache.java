@@ -0,0 +1,176 @@
+package com.atlassian.bitbucket.jenkins.internal.client;
+
+import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
+import com.google.common.annotations.VisibleForTesting;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Response;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.reflect.Type;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials.ANONYMOUS_CREDENTIALS;
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toEndpointTemplate;
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+
+/**
+ * A bounded cache of GET responses that carry an {@code ETag} or {@code Last-Modified} header. When a cached response
+ * exists the request is made conditional, and a {@code 304 Not Modified} answer is served from the cached body. The
+ * body is kept as it was received and deserialized again on every hit, so callers never share a model instance.
+ * <p>
+ * Entries are keyed by URL, the identity of the credentials used and the type the body was read as, so responses are
+ * never shared between credentials. The least recently used entry is evicted once the cache is full. The cache is
+ * disabled unless {@code bitbucket.client.response.cache.size} is set to a positive number of entries.
+ */
+@ThreadSafe
+@Singleton
+public class BitbucketResponseCache {
+
+    /**
+     * The maximum number of cached responses. Defaults to 0, which disables the cache.
+     */
+    public static final long RESPONSE_CACHE_SIZE =
+            parsePositiveLongFromSystemProperty("bitbucket.client.response.cache.size", 0);
+    public static final BitbucketResponseCache DISABLED = new BitbucketResponseCache(0);
+
+    private static final String ETAG = "ETag";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    private final Map<String, CachedResponse> cache;
+    private final int maximumSize;
+    private final ConcurrentMap<String, EndpointStatistics> statistics = new ConcurrentHashMap<>();
+
+    @Inject
+    public BitbucketResponseCache() {
+        this((int) Math.min(RESPONSE_CACHE_SIZE, Integer.MAX_VALUE));
+    }
+
+    @VisibleForTesting
+    public BitbucketResponseCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+        cache = Collections.synchronizedMap(new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > BitbucketResponseCache.this.maximumSize;
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return maximumSize > 0;
+    }
+
+    /**
+     * Returns the hit and miss counts of the cache, keyed by endpoint template.
+     *
+     * @return a snapshot of the statistics of every endpoint requested through the cache
+     */
+    public Map<String, EndpointStatistics> getStatistics() {
+        return new TreeMap<>(statistics);
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @CheckForNull
+    CachedResponse get(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Caches the body of the response if the response can be revalidated later.
+     */
+    void put(String key, Response response, byte[] body) {
+        String etag = response.header(ETAG);
+        String lastModified = response.header(LAST_MODIFIED);
+        if (etag != null || lastModified != null) {
+            cache.put(key, new CachedResponse(etag, lastModified, response.headers(), body));
+        } else {
+            cache.remove(key);
+        }
+    }
+
+    void recordHit(HttpUrl url) {
+        getStatistics(url).hitCount.incrementAndGet();
+    }
+
+    void recordMiss(HttpUrl url) {
+        getStatistics(url).missCount.incrementAndGet();
+    }
+
+    static String createKey(HttpUrl url, BitbucketCredentials credentials, Type type) {
+        // Hash the credentials so the cache never holds on to them in plain text
+        String identity = credentials == ANONYMOUS_CREDENTIALS ? "anonymous" : sha256Hex(credentials.toHeaderValue());
+        return url + " " + identity + " " + type.getTypeName();
+    }
+
+    private EndpointStatistics getStatistics(HttpUrl url) {
+        return statistics.computeIfAbsent(toEndpointTemplate(url), template -> new EndpointStatistics());
+    }
+
+    static final class CachedResponse {
+
+        private final byte[] body;
+        private final String etag;
+        private final Headers headers;
+        private final String lastModified;
+
+        private CachedResponse(@Nullable String etag, @Nullable String lastModified, Headers headers, byte[] body) {
+            this.body = body;
+            this.etag = etag;
+            this.headers = headers;
+            this.lastModified = lastModified;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        Headers getHeaders() {
+            return headers;
+        }
+
+        Headers toConditionalHeaders() {
+            Headers.Builder builder = new Headers.Builder();
+            if (etag != null) {
+                builder.add(IF_NONE_MATCH, etag);
+            }
+            if (lastModified != null) {
+                builder.add(IF_MODIFIED_SINCE, lastModified);
+            }
+            return builder.build();
+        }
+    }
+
+    public static final class EndpointStatistics {
+
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+
+        public long getHitCount() {
+            return hitCount.get();
+        }
+
+        public double getHitRate() {
+            long hits = getHitCount();
+            long total = hits + getMissCount();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        public long getMissCount() {
+            return missCount.get();
+        }
+    }
+}
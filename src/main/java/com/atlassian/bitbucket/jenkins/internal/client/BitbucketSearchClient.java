@@ -4,6 +4,9 @@ import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketProject;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
 
+import java.util.Optional;
+import java.util.function.Predicate;
+
 public interface BitbucketSearchClient {
 
     /**
@@ -18,6 +21,15 @@ public interface BitbucketSearchClient {
      */
     BitbucketPage<BitbucketProject> findProjects();
 
+    /**
+     * Search for Bitbucket Server projects as {@link #findProjects()} does, requesting the given number of projects.
+     *
+     * @param pageSize the number of projects to return, 0 to use the server default. Bitbucket Server may return fewer
+     *                 projects if the page size exceeds its configured maximum
+     * @return a page of projects matching the query
+     */
+    BitbucketPage<BitbucketProject> findProjects(int pageSize);
+
     /**
      * Search for Bitbucket Server repositories whose names match the provided value. Matching is
      * done with Elasticsearch so the filter will go through some tokenization before attempting to
@@ -32,4 +44,26 @@ public interface BitbucketSearchClient {
      * @return a page of repositories matching the filter
      */
     BitbucketPage<BitbucketRepository> findRepositories(String repositoryName);
+
+    /**
+     * Search for Bitbucket Server repositories as {@link #findRepositories(String)} does, requesting the given number
+     * of repositories.
+     *
+     * @param repositoryName the terms to use when searching for repositories
+     * @param pageSize       the number of repositories to return, 0 to use the server default. Bitbucket Server may
+     *                       return fewer repositories if the page size exceeds its configured maximum
+     * @return a page of repositories matching the filter
+     */
+    BitbucketPage<BitbucketRepository> findRepositories(String repositoryName, int pageSize);
+
+    /**
+     * Search for the first Bitbucket Server repository matching both the provided search terms, as
+     * {@link #findRepositories(String)} does, and the given predicate. The search results are read as they arrive
+     * and reading stops at the first match, so the full page of results is never built.
+     *
+     * @param repositoryName the terms to use when searching for repositories
+     * @param matcher        the predicate the returned repository must match
+     * @return the first matching repository, or {@link Optional#empty()} if none of the results match
+     */
+    Optional<BitbucketRepository> findRepository(String repositoryName, Predicate<BitbucketRepository> matcher);
 }
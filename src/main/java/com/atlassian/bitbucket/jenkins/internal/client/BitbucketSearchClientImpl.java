@@ -7,13 +7,22 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import okhttp3.HttpUrl;
 
 import javax.annotation.CheckForNull;
+import java.util.Optional;
+import java.util.function.Predicate;
 
+import static com.atlassian.bitbucket.jenkins.internal.client.paging.BitbucketPageSizeUtil.DEFAULT_PAGE_SIZE;
+import static com.atlassian.bitbucket.jenkins.internal.client.paging.BitbucketPageSizeUtil.addLimit;
 import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.stripToEmpty;
 
 public class BitbucketSearchClientImpl implements BitbucketSearchClient {
 
+    private static final TypeReference<BitbucketPage<BitbucketProject>> PROJECT_PAGE_TYPE =
+            new TypeReference<BitbucketPage<BitbucketProject>>() {};
+    private static final TypeReference<BitbucketPage<BitbucketRepository>> REPOSITORY_PAGE_TYPE =
+            new TypeReference<BitbucketPage<BitbucketRepository>>() {};
+
     private final BitbucketRequestExecutor bitbucketRequestExecutor;
     private final String projectName;
 
@@ -24,17 +33,41 @@ public class BitbucketSearchClientImpl implements BitbucketSearchClient {
 
     @Override
     public BitbucketPage<BitbucketProject> findProjects() {
+        return findProjects(DEFAULT_PAGE_SIZE);
+    }
+
+    @Override
+    public BitbucketPage<BitbucketProject> findProjects(int pageSize) {
         HttpUrl.Builder urlBuilder = bitbucketRequestExecutor.getCoreRestPath().newBuilder().addPathSegment("projects");
         if (!isBlank(projectName)) {
             urlBuilder.addQueryParameter("name", projectName);
         }
-        HttpUrl url = urlBuilder.build();
-        return bitbucketRequestExecutor.makeGetRequest(url, new TypeReference<BitbucketPage<BitbucketProject>>() {})
+        HttpUrl url = addLimit(urlBuilder, pageSize).build();
+        return bitbucketRequestExecutor.makeGetRequest(url, PROJECT_PAGE_TYPE)
                 .getBody();
     }
 
     @Override
     public BitbucketPage<BitbucketRepository> findRepositories(String repositoryName) {
+        return findRepositories(repositoryName, DEFAULT_PAGE_SIZE);
+    }
+
+    @Override
+    public BitbucketPage<BitbucketRepository> findRepositories(String repositoryName, int pageSize) {
+        HttpUrl url = addLimit(repositoriesUrl(repositoryName), pageSize).build();
+        return bitbucketRequestExecutor.makeGetRequest(url, REPOSITORY_PAGE_TYPE)
+                .getBody();
+    }
+
+    @Override
+    public Optional<BitbucketRepository> findRepository(String repositoryName,
+                                                        Predicate<BitbucketRepository> matcher) {
+        HttpUrl url = addLimit(repositoriesUrl(repositoryName), DEFAULT_PAGE_SIZE).build();
+        return bitbucketRequestExecutor.makeStreamingGetRequest(url, BitbucketRepository.class,
+                repositories -> repositories.filter(matcher).findFirst());
+    }
+
+    private HttpUrl.Builder repositoriesUrl(@CheckForNull String repositoryName) {
         HttpUrl.Builder urlBuilder = bitbucketRequestExecutor
                 .getCoreRestPath()
                 .newBuilder()
@@ -43,8 +76,6 @@ public class BitbucketSearchClientImpl implements BitbucketSearchClient {
         if (!isBlank(repositoryName)) {
             urlBuilder.addQueryParameter("name", repositoryName);
         }
-        HttpUrl url = urlBuilder.build();
-        return bitbucketRequestExecutor.makeGetRequest(url, new TypeReference<BitbucketPage<BitbucketRepository>>() {})
-                .getBody();
+        return urlBuilder;
     }
 }
@@ -28,11 +28,9 @@ public final class BitbucketSearchHelper {
 
     public static BitbucketRepository getRepositoryByNameOrSlug(String projectNameOrKey, String repositoryNameOrSlug,
                                                                 BitbucketClientFactory clientFactory) throws BitbucketClientException {
-        return findRepositories(repositoryNameOrSlug, projectNameOrKey, clientFactory)
-                .stream()
-                .filter(r -> repositoryNameOrSlug.equalsIgnoreCase(r.getName()))
-                // Repo names are unique within a project
-                .findAny()
+        // Repo names are unique within a project, so stop reading the results at the first match
+        return clientFactory.getSearchClient(projectNameOrKey)
+                .findRepository(repositoryNameOrSlug, r -> repositoryNameOrSlug.equalsIgnoreCase(r.getName()))
                 // Maybe the project and repo names they gave us are actually a key and slug
                 .orElseGet(() -> clientFactory
                         .getProjectClient(getProjectByNameOrKey(projectNameOrKey, clientFactory).getKey())
@@ -21,6 +21,16 @@ public interface BitbucketWebhookClient {
      */
     Stream<BitbucketWebhook> getWebhooks(String... eventId);
 
+    /**
+     * Returns a stream of existing webhooks, requesting the given number of webhooks per page. Bitbucket Server may
+     * return fewer webhooks per page if the requested page size exceeds its configured maximum.
+     *
+     * @param pageSize the number of webhooks to fetch per request, 0 to use the server default
+     * @param eventId  Event id filters
+     * @return a stream of webhooks.
+     */
+    Stream<BitbucketWebhook> getWebhooks(int pageSize, String... eventId);
+
     /**
      * Registers the given webhook in the Bitbucket Server.
      *
@@ -1,5 +1,6 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
+import com.atlassian.bitbucket.jenkins.internal.client.paging.BitbucketPageSizeUtil;
 import com.atlassian.bitbucket.jenkins.internal.client.paging.BitbucketPageStreamUtil;
 import com.atlassian.bitbucket.jenkins.internal.client.paging.NextPageFetcher;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
@@ -13,6 +14,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.stream.Stream;
 
+import static com.atlassian.bitbucket.jenkins.internal.client.paging.BitbucketPageSizeUtil.addLimit;
+import static com.atlassian.bitbucket.jenkins.internal.client.paging.BitbucketPageSizeUtil.nextPageSize;
 import static java.lang.String.valueOf;
 import static java.util.Arrays.stream;
 import static java.util.Objects.requireNonNull;
@@ -20,6 +23,9 @@ import static org.apache.commons.lang3.StringUtils.stripToNull;
 
 public class BitbucketWebhookClientImpl implements BitbucketWebhookClient {
 
+    private static final TypeReference<BitbucketPage<BitbucketWebhook>> WEBHOOK_PAGE_TYPE =
+            new TypeReference<BitbucketPage<BitbucketWebhook>>() {};
+
     private final BitbucketRequestExecutor bitbucketRequestExecutor;
     private final HttpUrl url;
 
@@ -54,12 +60,19 @@ public class BitbucketWebhookClientImpl implements BitbucketWebhookClient {
 
     @Override
     public Stream<BitbucketWebhook> getWebhooks(String... eventIdFilter) {
+        return getWebhooks(BitbucketPageSizeUtil.DEFAULT_PAGE_SIZE, eventIdFilter);
+    }
+
+    @Override
+    public Stream<BitbucketWebhook> getWebhooks(int pageSize, String... eventIdFilter) {
         HttpUrl.Builder urlBuilder = url.newBuilder();
         stream(eventIdFilter).forEach(eventId -> urlBuilder.addQueryParameter("event", eventId));
         HttpUrl url = urlBuilder.build();
         BitbucketPage<BitbucketWebhook> firstPage =
-                bitbucketRequestExecutor.makeGetRequest(url, new TypeReference<BitbucketPage<BitbucketWebhook>>() {}).getBody();
-        return BitbucketPageStreamUtil.toStream(firstPage, new NextPageFetcherImpl(url, bitbucketRequestExecutor))
+                bitbucketRequestExecutor.makeGetRequest(addLimit(url.newBuilder(), pageSize).build(),
+                        WEBHOOK_PAGE_TYPE).getBody();
+        return BitbucketPageStreamUtil.toStream(firstPage,
+                new NextPageFetcherImpl(url, bitbucketRequestExecutor, pageSize))
                 .map(BitbucketPage::getValues).flatMap(Collection::stream);
     }
 
@@ -76,11 +89,19 @@ public class BitbucketWebhookClientImpl implements BitbucketWebhookClient {
 
         private final HttpUrl url;
         private final BitbucketRequestExecutor bitbucketRequestExecutor;
+        private final int pageSize;
 
         NextPageFetcherImpl(HttpUrl url,
                             BitbucketRequestExecutor bitbucketRequestExecutor) {
+            this(url, bitbucketRequestExecutor, BitbucketPageSizeUtil.DEFAULT_PAGE_SIZE);
+        }
+
+        NextPageFetcherImpl(HttpUrl url,
+                            BitbucketRequestExecutor bitbucketRequestExecutor,
+                            int pageSize) {
             this.url = url;
             this.bitbucketRequestExecutor = bitbucketRequestExecutor;
+            this.pageSize = pageSize;
         }
 
         @Override
@@ -90,11 +111,13 @@ public class BitbucketWebhookClientImpl implements BitbucketWebhookClient {
             }
             return bitbucketRequestExecutor.makeGetRequest(
                     nextPageUrl(previous),
-                    new TypeReference<BitbucketPage<BitbucketWebhook>>() {}).getBody();
+                    WEBHOOK_PAGE_TYPE).getBody();
         }
 
         private HttpUrl nextPageUrl(BitbucketPage<BitbucketWebhook> previous) {
-            return url.newBuilder().addQueryParameter("start", valueOf(previous.getNextPageStart())).build();
+            HttpUrl.Builder urlBuilder =
+                    url.newBuilder().addQueryParameter("start", valueOf(previous.getNextPageStart()));
+            return addLimit(urlBuilder, nextPageSize(previous, pageSize)).build();
         }
     }
 }
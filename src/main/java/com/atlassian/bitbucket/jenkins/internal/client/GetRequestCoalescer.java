@@ -0,0 +1,187 @@
+package com.atlassian.bitbucket.jenkins.internal.client;
+
+import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
+import com.google.common.annotations.VisibleForTesting;
+import okhttp3.HttpUrl;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toEndpointTemplate;
+
+/**
+ * Lets identical GET requests that are made at the same time share a single request. The first caller makes the
+ * request, and every caller asking for the same URL, with the same credentials and for the same type before it
+ * completes receives the same result, or the same exception. Nothing is kept once the request completes, so callers
+ * arriving after that make a new request. The {@link BitbucketRequestExecutor} shares the response as it was
+ * received, so every caller deserializes its own copy of the model.
+ * <p>
+ * Requests are keyed the same way as in the {@link BitbucketResponseCache}, so results are never shared between
+ * credentials. Coalescing can be disabled by setting {@code bitbucket.client.coalescing.disabled} to {@code true}.
+ */
+@ThreadSafe
+@Singleton
+public class GetRequestCoalescer {
+
+    public static final GetRequestCoalescer DISABLED = new GetRequestCoalescer(false);
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, EndpointStatistics> statistics = new ConcurrentHashMap<>();
+
+    @Inject
+    public GetRequestCoalescer() {
+        this(!Boolean.getBoolean("bitbucket.client.coalescing.disabled"));
+    }
+
+    @VisibleForTesting
+    public GetRequestCoalescer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns how many requests were made and how many callers shared a request made by another caller, keyed by
+     * endpoint template.
+     *
+     * @return a snapshot of the statistics of every endpoint requested through the coalescer
+     */
+    public Map<String, EndpointStatistics> getStatistics() {
+        return new TreeMap<>(statistics);
+    }
+
+    /**
+     * Makes the request, unless an identical request is already in flight, in which case its result is returned.
+     *
+     * @param url         the request URL
+     * @param credentials the credentials the request is made with
+     * @param type        the type the response is read as
+     * @param request     makes the request
+     * @param <T>         the type of the result
+     * @return the result of the request
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(HttpUrl url, BitbucketCredentials credentials, Type type, Supplier<T> request) {
+        if (!enabled) {
+            return request.get();
+        }
+        String key = BitbucketResponseCache.createKey(url, credentials, type);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, result);
+        if (existing != null) {
+            getStatistics(url).coalescedCount.incrementAndGet();
+            return (T) join(existing);
+        }
+        getStatistics(url).requestCount.incrementAndGet();
+        try {
+            T value = request.get();
+            result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, result);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute(HttpUrl, BitbucketCredentials, Type, Supplier)}. Every caller receives
+     * its own future, so one caller cancelling its future does not affect the others. The shared request itself is
+     * not cancelled.
+     *
+     * @param url         the request URL
+     * @param credentials the credentials the request is made with
+     * @param type        the type the response is read as
+     * @param request     starts the request
+     * @param <T>         the type of the result
+     * @return a future of the result of the request
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> executeAsync(HttpUrl url, BitbucketCredentials credentials, Type type,
+                                          Supplier<CompletableFuture<T>> request) {
+        if (!enabled) {
+            return request.get();
+        }
+        String key = BitbucketResponseCache.createKey(url, credentials, type);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, result);
+        if (existing != null) {
+            getStatistics(url).coalescedCount.incrementAndGet();
+            return existing.thenApply(value -> (T) value);
+        }
+        getStatistics(url).requestCount.incrementAndGet();
+        try {
+            request.get().whenComplete((value, throwable) -> {
+                inFlight.remove(key, result);
+                if (throwable == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(throwable);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, result);
+            result.completeExceptionally(e);
+        }
+        return result.thenApply(value -> (T) value);
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow the original exception, as the caller that made the request received it
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private EndpointStatistics getStatistics(HttpUrl url) {
+        return statistics.computeIfAbsent(toEndpointTemplate(url), template -> new EndpointStatistics());
+    }
+
+    public static final class EndpointStatistics {
+
+        private final AtomicLong coalescedCount = new AtomicLong();
+        private final AtomicLong requestCount = new AtomicLong();
+
+        /**
+         * @return the number of callers that shared a request made by another caller
+         */
+        public long getCoalescedCount() {
+            return coalescedCount.get();
+        }
+
+        /**
+         * @return the fraction of callers that shared a request made by another caller
+         */
+        public double getCoalescingRatio() {
+            long coalesced = getCoalescedCount();
+            long total = coalesced + getRequestCount();
+            return total == 0 ? 0 : (double) coalesced / total;
+        }
+
+        /**
+         * @return the number of requests actually made
+         */
+        public long getRequestCount() {
+            return requestCount.get();
+        }
+    }
+}
@@ -6,12 +6,22 @@ import com.atlassian.bitbucket.jenkins.internal.http.HttpRequestExecutorImpl;
 import com.google.inject.ImplementedBy;
 import okhttp3.Headers;
 import okhttp3.HttpUrl;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Responsible for making remote HTTP calls to the given URL using passed in credentials. The implementation is tightly
  * bound with OkHttpClient library. Methods also takes {@link ResponseConsumer} instead of returning response in order
  * to have better handle on cleaning of resources.
+ * <p>
+ * Every call is available in a blocking and a non-blocking flavour. The non-blocking methods return a
+ * {@link CompletableFuture} which is completed on an HTTP client thread, either with the result of the consumer or
+ * exceptionally with the same exceptions the blocking method would throw. Cancelling the future cancels the call.
+ * <p>
+ * GET, PUT and DELETE calls, and POSTs explicitly marked as safe to repeat, may be retried when they fail with a
+ * transient error. The exceptions listed for each method are only thrown once retrying has given up.
  */
 @ImplementedBy(HttpRequestExecutorImpl.class)
 public interface HttpRequestExecutor {
@@ -30,6 +40,16 @@ public interface HttpRequestExecutor {
      */
     void executeDelete(HttpUrl url, BitbucketCredentials credentials);
 
+    /**
+     * Executes a delete call without blocking the calling thread.
+     *
+     * @param url         the delete url
+     * @param credentials credentials to use for deletion
+     * @return a future completed once the call is done, or completed exceptionally with the exceptions listed in
+     * {@link #executeDelete(HttpUrl, BitbucketCredentials)}
+     */
+    CompletableFuture<Void> executeDeleteAsync(HttpUrl url, BitbucketCredentials credentials);
+
     /**
      * Executes a Get call to a given URL.
      *
@@ -47,6 +67,52 @@ public interface HttpRequestExecutor {
      */
     <T> T executeGet(HttpUrl url, BitbucketCredentials credentials, ResponseConsumer<T> consumer);
 
+    /**
+     * Executes a Get call to a given URL with additional headers. If the headers make the request conditional
+     * ({@code If-None-Match} or {@code If-Modified-Since}) a {@code 304 Not Modified} response is passed to the
+     * consumer instead of being treated as an error.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param headers     the headers to send with the request
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param <T>         result that consumer wish to return
+     * @return result
+     * @throws AuthorizationException     if the credentials did not allow access to the given url
+     * @throws ConnectionFailureException if the server did not respond
+     * @throws NotFoundException          if the requested url does not exist
+     * @throws BadRequestException        if the request was malformed and thus rejected by the server
+     * @throws ServerErrorException       if the server failed to process the request
+     * @throws BitbucketClientException   for all errors not already captured
+     */
+    <T> T executeGet(HttpUrl url, BitbucketCredentials credentials, Headers headers, ResponseConsumer<T> consumer);
+
+    /**
+     * Executes a Get call to a given URL without blocking the calling thread.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param <T>         result that consumer wish to return
+     * @return a future of the result, or completed exceptionally with the exceptions listed in
+     * {@link #executeGet(HttpUrl, BitbucketCredentials, ResponseConsumer)}
+     */
+    <T> CompletableFuture<T> executeGetAsync(HttpUrl url, BitbucketCredentials credentials,
+                                             ResponseConsumer<T> consumer);
+
+    /**
+     * Asynchronous variant of {@link #executeGet(HttpUrl, BitbucketCredentials, Headers, ResponseConsumer)}.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param headers     the headers to send with the request
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param <T>         result that consumer wish to return
+     * @return a future of the result
+     */
+    <T> CompletableFuture<T> executeGetAsync(HttpUrl url, BitbucketCredentials credentials, Headers headers,
+                                             ResponseConsumer<T> consumer);
+
     /**
      * Executes a POST with a given URL and request payload, with any custom headers.
      *
@@ -67,6 +133,85 @@ public interface HttpRequestExecutor {
     <T> T executePost(HttpUrl url, BitbucketCredentials credentials, String requestBodyAsJson,
                       ResponseConsumer<T> consumer, Headers headers);
 
+    /**
+     * Executes a POST with a given URL and request payload, with any custom headers, without blocking the calling
+     * thread.
+     *
+     * @param url               The URL to hit on bitbucket server end
+     * @param credentials       Credentials that will be used in making calls
+     * @param requestBodyAsJson the request payload to send in JSON format
+     * @param consumer          on successful execution, {@link Response} will be passed to consumer
+     * @param headers           the headers to send with the request. Use Collections.emptyMap if headers are empty
+     * @param <T>               result that consumer wish to return
+     * @return a future of the result computed by consumer, or completed exceptionally with the exceptions listed in
+     * {@link #executePost(HttpUrl, BitbucketCredentials, String, ResponseConsumer, Headers)}
+     */
+    <T> CompletableFuture<T> executePostAsync(HttpUrl url, BitbucketCredentials credentials, String requestBodyAsJson,
+                                              ResponseConsumer<T> consumer, Headers headers);
+
+    /**
+     * Executes a POST with a given URL and request body, with any custom headers. The body is written directly to the
+     * connection, so payloads can be serialized without building an intermediate string.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param requestBody the request body to send
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param headers     the headers to send with the request
+     * @param <T>         result that consumer wish to return
+     * @return result computed by consumer
+     * @see #executePost(HttpUrl, BitbucketCredentials, String, ResponseConsumer, Headers)
+     */
+    <T> T executePost(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                      ResponseConsumer<T> consumer, Headers headers);
+
+    /**
+     * Asynchronous variant of {@link #executePost(HttpUrl, BitbucketCredentials, RequestBody, ResponseConsumer,
+     * Headers)}.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param requestBody the request body to send
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param headers     the headers to send with the request
+     * @param <T>         result that consumer wish to return
+     * @return a future of the result computed by consumer
+     */
+    <T> CompletableFuture<T> executePostAsync(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                                              ResponseConsumer<T> consumer, Headers headers);
+
+    /**
+     * Executes a POST that is safe to send more than once, such as one that creates or replaces a resource identified
+     * by the request itself. Unlike other POSTs, the request is retried when it fails with a transient error.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param requestBody the request body to send
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param headers     the headers to send with the request
+     * @param <T>         result that consumer wish to return
+     * @return result computed by consumer
+     * @see #executePost(HttpUrl, BitbucketCredentials, String, ResponseConsumer, Headers)
+     */
+    <T> T executeRetrySafePost(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                               ResponseConsumer<T> consumer, Headers headers);
+
+    /**
+     * Asynchronous variant of {@link #executeRetrySafePost(HttpUrl, BitbucketCredentials, RequestBody,
+     * ResponseConsumer, Headers)}.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param requestBody the request body to send
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param headers     the headers to send with the request
+     * @param <T>         result that consumer wish to return
+     * @return a future of the result computed by consumer
+     */
+    <T> CompletableFuture<T> executeRetrySafePostAsync(HttpUrl url, BitbucketCredentials credentials,
+                                                       RequestBody requestBody, ResponseConsumer<T> consumer,
+                                                       Headers headers);
+
     /**
      * Executes a PUT with a given URL and request payload.
      *
@@ -86,6 +231,47 @@ public interface HttpRequestExecutor {
     <T> T executePut(HttpUrl url, BitbucketCredentials credentials, String requestBodyAsJson,
                      ResponseConsumer<T> consumer);
 
+    /**
+     * Executes a PUT with a given URL and request payload without blocking the calling thread.
+     *
+     * @param url               The URL to hit on bitbucket server end
+     * @param credentials       Credentials that will be used in making calls
+     * @param requestBodyAsJson the request payload to send in JSON format
+     * @param consumer          on successful execution, {@link Response} will be passed to consumer
+     * @param <T>               Type of result
+     * @return a future of the result computed by consumer, or completed exceptionally with the exceptions listed in
+     * {@link #executePut(HttpUrl, BitbucketCredentials, String, ResponseConsumer)}
+     */
+    <T> CompletableFuture<T> executePutAsync(HttpUrl url, BitbucketCredentials credentials, String requestBodyAsJson,
+                                             ResponseConsumer<T> consumer);
+
+    /**
+     * Executes a PUT with a given URL and request body. The body is written directly to the connection.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param requestBody the request body to send
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param <T>         Type of result
+     * @return result computed by consumer
+     * @see #executePut(HttpUrl, BitbucketCredentials, String, ResponseConsumer)
+     */
+    <T> T executePut(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                     ResponseConsumer<T> consumer);
+
+    /**
+     * Asynchronous variant of {@link #executePut(HttpUrl, BitbucketCredentials, RequestBody, ResponseConsumer)}.
+     *
+     * @param url         The URL to hit on bitbucket server end
+     * @param credentials Credentials that will be used in making calls
+     * @param requestBody the request body to send
+     * @param consumer    on successful execution, {@link Response} will be passed to consumer
+     * @param <T>         Type of result
+     * @return a future of the result computed by consumer
+     */
+    <T> CompletableFuture<T> executePutAsync(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                                             ResponseConsumer<T> consumer);
+
     interface ResponseConsumer<T> {
 
         ResponseConsumer<Void> EMPTY_RESPONSE = response -> null;
@@ -0,0 +1,100 @@
+package com.atlassian.bitbucket.jenkins.internal.client;
+
+import com.atlassian.bitbucket.jenkins.internal.model.*;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the Jackson {@link ObjectReader readers} and {@link ObjectWriter writers} used to talk to Bitbucket Server,
+ * so the type of every request and response only has to be resolved once. Readers and writers for the model types,
+ * and readers for the pages of model types returned by paged resources, are resolved when the registry is created.
+ * Other types are resolved the first time they are used.
+ */
+@ThreadSafe
+public class JsonReaderWriterRegistry {
+
+    private static final List<Class<?>> MODEL_TYPES = Arrays.asList(
+            AtlassianServerCapabilities.class,
+            BitbucketBuildStatus.class,
+            BitbucketCICapabilities.class,
+            BitbucketMirror.class,
+            BitbucketMirrorServer.class,
+            BitbucketMirroredRepository.class,
+            BitbucketMirroredRepositoryDescriptor.class,
+            BitbucketMirroredRepositoryStatus.class,
+            BitbucketNamedLink.class,
+            BitbucketPage.class,
+            BitbucketProject.class,
+            BitbucketRef.class,
+            BitbucketRefChange.class,
+            BitbucketRefChangeType.class,
+            BitbucketRefType.class,
+            BitbucketRepository.class,
+            BitbucketRepositorySynchronizationType.class,
+            BitbucketUser.class,
+            BitbucketWebhook.class,
+            BitbucketWebhookRequest.class,
+            BitbucketWebhookSupportedEvents.class,
+            BuildState.class,
+            RepositoryState.class,
+            TestResults.class);
+    private static final List<TypeReference<?>> PAGE_TYPES = Arrays.asList(
+            new TypeReference<BitbucketPage<BitbucketMirroredRepositoryDescriptor>>() {},
+            new TypeReference<BitbucketPage<BitbucketProject>>() {},
+            new TypeReference<BitbucketPage<BitbucketRepository>>() {},
+            new TypeReference<BitbucketPage<BitbucketWebhook>>() {});
+
+    private final ObjectMapper objectMapper;
+    private final ConcurrentMap<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public JsonReaderWriterRegistry(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        MODEL_TYPES.forEach(type -> {
+            getReader(type);
+            getWriter(type);
+        });
+        PAGE_TYPES.forEach(this::getReader);
+    }
+
+    /**
+     * Returns the reader for the given type.
+     *
+     * @param type the type to read, either a class or a generic type
+     * @return a reader for the given type
+     */
+    public ObjectReader getReader(Type type) {
+        return readers.computeIfAbsent(type, t -> objectMapper.readerFor(objectMapper.constructType(t)));
+    }
+
+    /**
+     * Returns the reader for the given generic type.
+     *
+     * @param type reference to the type to read
+     * @return a reader for the given type
+     */
+    public ObjectReader getReader(TypeReference<?> type) {
+        return getReader(type.getType());
+    }
+
+    /**
+     * Returns the writer for the given type. The writer never closes the stream it writes to.
+     *
+     * @param type the type to write
+     * @return a writer for the given type
+     */
+    public ObjectWriter getWriter(Class<?> type) {
+        return writers.computeIfAbsent(type,
+                t -> objectMapper.writerFor(t).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+    }
+}
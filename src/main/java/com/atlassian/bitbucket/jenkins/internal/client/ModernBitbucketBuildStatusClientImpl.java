@@ -15,6 +15,7 @@ import java.security.Signature;
 import java.security.SignatureException;
 import java.security.interfaces.RSAPrivateKey;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.stripToNull;
@@ -57,7 +58,17 @@ public class ModernBitbucketBuildStatusClientImpl implements BitbucketBuildStatu
 
     @Override
     public void post(BitbucketBuildStatus buildStatus) {
-        HttpUrl url = bitbucketRequestExecutor.getBaseUrl().newBuilder()
+        bitbucketRequestExecutor.makeRetrySafePostRequest(getUrl(), buildStatus, generateHeaders(buildStatus));
+    }
+
+    @Override
+    public CompletableFuture<Void> postAsync(BitbucketBuildStatus buildStatus) {
+        return bitbucketRequestExecutor.makeRetrySafePostRequestAsync(getUrl(), buildStatus,
+                generateHeaders(buildStatus));
+    }
+
+    private HttpUrl getUrl() {
+        return bitbucketRequestExecutor.getBaseUrl().newBuilder()
                 .addPathSegment("rest")
                 .addPathSegment("api")
                 .addPathSegment(BUILD_STATUS_VERSION)
@@ -69,7 +80,6 @@ public class ModernBitbucketBuildStatusClientImpl implements BitbucketBuildStatu
                 .addPathSegment(revisionSha)
                 .addPathSegment("builds")
                 .build();
-        bitbucketRequestExecutor.makePostRequest(url, buildStatus, generateHeaders(buildStatus));
     }
 
     private Headers generateHeaders(BitbucketBuildStatus buildStatus) {
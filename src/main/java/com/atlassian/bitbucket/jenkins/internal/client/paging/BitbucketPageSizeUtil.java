@@ -0,0 +1,71 @@
+package com.atlassian.bitbucket.jenkins.internal.client.paging;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
+import okhttp3.HttpUrl;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+
+/**
+ * Controls how many values paged Bitbucket Server resources return per request, through the {@code limit} query
+ * parameter. Bitbucket Server may return fewer values per page than requested, in which case the limit reported by the
+ * returned page is used for the following requests.
+ */
+public final class BitbucketPageSizeUtil {
+
+    /**
+     * The number of values requested per page when a caller does not ask for a specific page size. Defaults to 0, which
+     * leaves the page size to Bitbucket Server (25 by default).
+     */
+    public static final int DEFAULT_PAGE_SIZE = toPageSize(
+            parsePositiveLongFromSystemProperty("bitbucket.client.paging.page.size", 0));
+    /**
+     * The largest page size that is ever requested. Bitbucket Server clamps larger values to its own configured
+     * maximum.
+     */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String LIMIT = "limit";
+    private static final Logger LOGGER = Logger.getLogger(BitbucketPageSizeUtil.class.getName());
+
+    /**
+     * Adds the {@code limit} query parameter for the given page size to the URL.
+     *
+     * @param urlBuilder the URL of the paged resource
+     * @param pageSize   the number of values to request, 0 to leave the page size to the server
+     * @return the given URL builder
+     */
+    public static HttpUrl.Builder addLimit(HttpUrl.Builder urlBuilder, int pageSize) {
+        int limit = toPageSize(pageSize);
+        if (limit > 0) {
+            urlBuilder.setQueryParameter(LIMIT, String.valueOf(limit));
+        }
+        return urlBuilder;
+    }
+
+    /**
+     * Returns the page size to request for the page following the given one. If the server returned a smaller limit
+     * than was requested it has clamped the page size, and asking for more again would not make any difference.
+     *
+     * @param previous          the last page returned by the server
+     * @param requestedPageSize the page size the caller asked for
+     * @return the page size to request next
+     */
+    public static int nextPageSize(BitbucketPage<?> previous, int requestedPageSize) {
+        int serverLimit = previous.getLimit();
+        if (requestedPageSize > 0 && serverLimit > 0 && serverLimit < requestedPageSize) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(String.format("Bitbucket Server clamped the page size from %d to %d", requestedPageSize,
+                        serverLimit));
+            }
+            return serverLimit;
+        }
+        return requestedPageSize;
+    }
+
+    private static int toPageSize(long pageSize) {
+        return (int) Math.max(0, Math.min(pageSize, MAX_PAGE_SIZE));
+    }
+}
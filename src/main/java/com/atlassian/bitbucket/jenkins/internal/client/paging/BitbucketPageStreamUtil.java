@@ -1,20 +1,41 @@
 package com.atlassian.bitbucket.jenkins.internal.client.paging;
 
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
+import com.google.common.annotations.VisibleForTesting;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 
-import java.util.Iterator;
-import java.util.NoSuchElementException;
+import javax.annotation.CheckForNull;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+
 /**
  * Provides a way to return Stream of page based on first page and {@link NextPageFetcher}.
  */
 public final class BitbucketPageStreamUtil {
 
+    /**
+     * The number of pages fetched ahead of the consumer of a page stream. Defaults to 0, which fetches every page only
+     * once the previous one has been consumed.
+     */
+    public static final int PAGE_PREFETCH_DEPTH =
+            (int) Math.min(parsePositiveLongFromSystemProperty("bitbucket.client.paging.prefetch.depth", 0), 16);
+    /**
+     * The number of threads fetching pages ahead of their consumers, shared by every page stream. Defaults to 4.
+     */
+    public static final int PAGE_PREFETCH_THREADS =
+            (int) Math.max(1, Math.min(
+                    parsePositiveLongFromSystemProperty("bitbucket.client.paging.prefetch.threads", 4), 64));
+
+    private static final int PAGE_PREFETCH_QUEUE_SIZE = 100;
+
     /**
      * Returns a Stream of Bitbucket Pages. {@link NextPageFetcher} provides a way for individual client to provide a way
-     * to fetch next page.
+     * to fetch next page. Pages are prefetched if {@link #PAGE_PREFETCH_DEPTH} is configured.
      *
      * @param firstPage       First Page
      * @param nextPageFetcher Used for fetching next page
@@ -23,7 +44,35 @@ public final class BitbucketPageStreamUtil {
      */
     public static <T> Stream<BitbucketPage<T>> toStream(BitbucketPage<T> firstPage,
                                                         NextPageFetcher<T> nextPageFetcher) {
-        return StreamSupport.stream(pageIterable(firstPage, nextPageFetcher).spliterator(), false);
+        return toStream(firstPage, nextPageFetcher, PAGE_PREFETCH_DEPTH);
+    }
+
+    /**
+     * Returns a Stream of Bitbucket Pages that fetches up to {@code prefetchDepth} pages ahead of the consumer, so the
+     * next page is being requested while the current one is consumed. Closing the stream cancels the pending requests,
+     * and errors raised while fetching a page are thrown to the consumer when it reaches that page.
+     *
+     * @param firstPage       First Page
+     * @param nextPageFetcher Used for fetching next page
+     * @param prefetchDepth   the maximum number of pages to fetch ahead, 0 to disable prefetching
+     * @param <T>             Type for Page
+     * @return Stream of pages.
+     */
+    public static <T> Stream<BitbucketPage<T>> toStream(BitbucketPage<T> firstPage,
+                                                        NextPageFetcher<T> nextPageFetcher, int prefetchDepth) {
+        if (prefetchDepth <= 0 || firstPage == null || firstPage.isLastPage()) {
+            return StreamSupport.stream(pageIterable(firstPage, nextPageFetcher).spliterator(), false);
+        }
+        return toStream(firstPage, nextPageFetcher, prefetchDepth, PrefetchExecutorHolder.EXECUTOR);
+    }
+
+    @VisibleForTesting
+    static <T> Stream<BitbucketPage<T>> toStream(BitbucketPage<T> firstPage, NextPageFetcher<T> nextPageFetcher,
+                                                 int prefetchDepth, Executor executor) {
+        PrefetchingPageIterator<T> iterator =
+                new PrefetchingPageIterator<>(nextPageFetcher, firstPage, prefetchDepth, executor);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(iterator::close);
     }
 
     private static <T> Iterable<BitbucketPage<T>> pageIterable(BitbucketPage<T> firstPage,
@@ -31,6 +80,25 @@ public final class BitbucketPageStreamUtil {
         return () -> new PageIterator<>(nextPageFetcher, firstPage);
     }
 
+    /**
+     * Holds the executor fetching pages ahead, created on first use. Its threads and queue are bounded so slow servers
+     * cannot tie up the shared Jenkins timer threads. Once the queue is full a page is fetched by the thread asking for
+     * it, just as if prefetching were disabled.
+     */
+    private static class PrefetchExecutorHolder {
+
+        private static final ExecutorService EXECUTOR = createExecutor();
+
+        private static ExecutorService createExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(PAGE_PREFETCH_THREADS, PAGE_PREFETCH_THREADS, 60,
+                    TimeUnit.SECONDS, new ArrayBlockingQueue<>(PAGE_PREFETCH_QUEUE_SIZE),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "BitbucketPagePrefetcher"),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
     private static class PageIterator<T> implements Iterator<BitbucketPage<T>> {
 
         private final NextPageFetcher<T> nextPageFetcher;
@@ -63,4 +131,137 @@ public final class BitbucketPageStreamUtil {
             return result;
         }
     }
+
+    /**
+     * Iterates over pages while keeping up to a fixed number of following pages in flight. A page can only be requested
+     * once the page before it is known, so each prefetch is chained on the one before it. A {@code null} page from the
+     * {@link NextPageFetcher} ends the iteration, just as the last page does.
+     */
+    private static class PrefetchingPageIterator<T> implements Iterator<BitbucketPage<T>> {
+
+        private final Executor executor;
+        private final NextPageFetcher<T> nextPageFetcher;
+        private final Deque<PageFetch> prefetchedPages = new ArrayDeque<>();
+        private final int prefetchDepth;
+        private boolean closed;
+        private BitbucketPage<T> nextPage;
+
+        PrefetchingPageIterator(NextPageFetcher<T> nextPageFetcher, BitbucketPage<T> firstPage, int prefetchDepth,
+                                Executor executor) {
+            this.executor = executor;
+            this.nextPage = firstPage;
+            this.nextPageFetcher = nextPageFetcher;
+            this.prefetchDepth = prefetchDepth;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (nextPage == null) {
+                PageFetch fetch = prefetchedPages.poll();
+                nextPage = fetch == null ? null : await(fetch.future);
+                if (nextPage == null) {
+                    close();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public BitbucketPage<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("There are no more pages");
+            }
+            BitbucketPage<T> page = nextPage;
+            nextPage = null;
+            if (page.isLastPage()) {
+                close();
+            } else {
+                prefetch(page);
+            }
+            return page;
+        }
+
+        void close() {
+            closed = true;
+            nextPage = null;
+            prefetchedPages.forEach(PageFetch::cancel);
+            prefetchedPages.clear();
+        }
+
+        private BitbucketPage<T> await(CompletableFuture<BitbucketPage<T>> future) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                close();
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        @CheckForNull
+        private BitbucketPage<T> fetchAfter(@CheckForNull BitbucketPage<T> previous) {
+            // A null page marks the end of the stream, there is nothing left to fetch after it
+            return previous == null || previous.isLastPage() ? null : nextPageFetcher.next(previous);
+        }
+
+        private void prefetch(BitbucketPage<T> currentPage) {
+            while (prefetchedPages.size() < prefetchDepth) {
+                CompletableFuture<BitbucketPage<T>> previous = prefetchedPages.isEmpty() ?
+                        CompletableFuture.completedFuture(currentPage) : prefetchedPages.peekLast().future;
+                PageFetch fetch = new PageFetch();
+                fetch.future = previous.thenApplyAsync(fetch::run, executor);
+                prefetchedPages.add(fetch);
+            }
+        }
+
+        /**
+         * A page being prefetched. Cancelling a {@link CompletableFuture} does not interrupt the thread running it, so
+         * the thread is tracked here and interrupted when the fetch is cancelled while it runs.
+         */
+        private final class PageFetch {
+
+            private boolean cancelled;
+            private CompletableFuture<BitbucketPage<T>> future;
+            private Thread runner;
+
+            synchronized void cancel() {
+                cancelled = true;
+                future.cancel(true);
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+
+            @CheckForNull
+            BitbucketPage<T> run(@CheckForNull BitbucketPage<T> previous) {
+                synchronized (this) {
+                    if (cancelled) {
+                        throw new CancellationException("The page stream was closed");
+                    }
+                    runner = Thread.currentThread();
+                }
+                try {
+                    return fetchAfter(previous);
+                } finally {
+                    synchronized (this) {
+                        runner = null;
+                        if (cancelled) {
+                            // Do not leave the interrupt behind for whatever the thread runs next
+                            Thread.interrupted();
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
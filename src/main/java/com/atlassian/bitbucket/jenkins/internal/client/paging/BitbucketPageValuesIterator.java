@@ -0,0 +1,106 @@
+package com.atlassian.bitbucket.jenkins.internal.client.paging;
+
+import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketClientException;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the {@code values} of a serialized {@link BitbucketPage} one element at a time, without reading the rest of
+ * the page into memory. Every other field of the page is skipped. Elements are only deserialized when they are
+ * requested, so a consumer that stops early never reads the remaining elements.
+ *
+ * @param <T> the type of the values in the page
+ */
+public final class BitbucketPageValuesIterator<T> implements Iterator<T> {
+
+    private static final String VALUES = "values";
+
+    private final JsonParser parser;
+    private final ObjectReader reader;
+    private boolean done;
+    private JsonToken nextToken;
+    private boolean positioned;
+
+    private BitbucketPageValuesIterator(JsonParser parser, ObjectReader reader) {
+        this.parser = parser;
+        this.reader = reader;
+    }
+
+    /**
+     * Returns a lazy stream of the values of the page being read by the given parser. The parser must be positioned
+     * before the start of the page object and must stay open until the stream has been consumed.
+     *
+     * @param parser the parser reading a serialized page
+     * @param reader the reader used to deserialize each value
+     * @param <T>    the type of the values in the page
+     * @return a stream of the page values
+     */
+    public static <T> Stream<T> stream(JsonParser parser, ObjectReader reader) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new BitbucketPageValuesIterator<T>(parser,
+                reader), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done) {
+            return false;
+        }
+        try {
+            if (!positioned) {
+                positioned = true;
+                if (!moveToValues()) {
+                    done = true;
+                    return false;
+                }
+            }
+            if (nextToken == null) {
+                nextToken = parser.nextToken();
+                if (nextToken == null || nextToken == JsonToken.END_ARRAY) {
+                    done = true;
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new BitbucketClientException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("There are no more values in the page");
+        }
+        nextToken = null;
+        try {
+            return reader.readValue(parser);
+        } catch (IOException e) {
+            throw new BitbucketClientException(e);
+        }
+    }
+
+    private boolean moveToValues() throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new BitbucketClientException("Expected a page object but found " + parser.currentToken());
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if (VALUES.equals(fieldName) && valueToken == JsonToken.START_ARRAY) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,244 @@
+package com.atlassian.bitbucket.jenkins.internal.client.supply;
+
+import com.atlassian.bitbucket.jenkins.internal.client.HttpRequestExecutor;
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketPluginConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.http.HttpRequestExecutorImpl;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import jenkins.util.Timer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+
+/**
+ * Plugin wide cache of the capabilities advertised by each Bitbucket Server instance. Entries are keyed by the base URL
+ * of the server and the capability document being fetched, so every client factory created for the same server shares
+ * a single copy of {@code /rest/capabilities} and of the capability documents it links to.
+ * <p>
+ * Entries that are about to expire are refreshed in the background while the cached value is still being served. A
+ * document which is not cached is loaded only once, however many callers ask for it at the same time. The whole cache
+ * is invalidated whenever the {@link BitbucketPluginConfiguration} is saved.
+ */
+@ThreadSafe
+@Singleton
+public class BitbucketCapabilitiesCache {
+
+    /**
+     * Cache duration for the capabilities response. Defaults to 6 minutes in ms.
+     */
+    public static final long CAPABILITIES_CACHE_DURATION =
+            parsePositiveLongFromSystemProperty("bitbucket.client.capabilities.cache.duration", 360000);
+    /**
+     * Age after which a cached capability is refreshed in the background. Defaults to 80% of the cache duration.
+     */
+    public static final long CAPABILITIES_REFRESH_AFTER =
+            parsePositiveLongFromSystemProperty("bitbucket.client.capabilities.cache.refresh",
+                    CAPABILITIES_CACHE_DURATION * 4 / 5);
+    public static final String SERVER_CAPABILITIES_KEY = "capabilities";
+
+    private static final Logger LOGGER = Logger.getLogger(BitbucketCapabilitiesCache.class.getName());
+
+    private final ConcurrentMap<CacheKey, CachedValue> cache = new ConcurrentHashMap<>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final ConcurrentMap<CacheKey, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong missCount = new AtomicLong();
+    private final Executor refreshExecutor;
+
+    @Inject
+    public BitbucketCapabilitiesCache() {
+        this(Timer.get());
+    }
+
+    @VisibleForTesting
+    public BitbucketCapabilitiesCache(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Returns the cached capability document for the given server, loading it with the provided loader if it is not
+     * cached or has expired.
+     *
+     * @param baseUrl the base URL of the Bitbucket Server instance
+     * @param key     the capability key, {@link #SERVER_CAPABILITIES_KEY} for the root capabilities document
+     * @param loader  used to fetch the document from the server
+     * @param <T>     type of the capability document
+     * @return the capability document
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String baseUrl, String key, Supplier<T> loader) {
+        CacheKey cacheKey = new CacheKey(baseUrl, key);
+        CachedValue cached = getUnexpired(cacheKey);
+        if (cached != null) {
+            hitCount.incrementAndGet();
+            if (System.currentTimeMillis() - cached.loadedAt >= CAPABILITIES_REFRESH_AFTER) {
+                refreshInBackground(cacheKey, cached, loader);
+            }
+            return (T) cached.value;
+        }
+        missCount.incrementAndGet();
+        return (T) load(cacheKey, loader);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Drops every cached capability, forcing the next request for each server to go to the remote server.
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    @CheckForNull
+    private CachedValue getUnexpired(CacheKey cacheKey) {
+        CachedValue cached = cache.get(cacheKey);
+        return cached != null && System.currentTimeMillis() - cached.loadedAt < CAPABILITIES_CACHE_DURATION ?
+                cached : null;
+    }
+
+    /**
+     * Loads the document, unless another caller is loading it already, in which case its result is returned.
+     */
+    private Object load(CacheKey cacheKey, Supplier<?> loader) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        CompletableFuture<Object> existing = loading.putIfAbsent(cacheKey, result);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            // Another caller may have finished loading it since the cache was looked at
+            CachedValue cached = getUnexpired(cacheKey);
+            Object value = cached == null ? loader.get() : cached.value;
+            if (cached == null) {
+                cache.put(cacheKey, new CachedValue(value));
+            }
+            result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(cacheKey, result);
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // Rethrow the original exception, as the caller that loaded the document received it
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void refreshInBackground(CacheKey cacheKey, CachedValue cached, Supplier<?> loader) {
+        if (!cached.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshExecutor.execute(() -> {
+            try {
+                // Only replace the entry we refreshed, an invalidation in the meantime must win
+                cache.replace(cacheKey, cached, new CachedValue(loader.get()));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to refresh capabilities for " + cacheKey.baseUrl, e);
+                cached.refreshing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Invalidates the capabilities cache whenever the global Bitbucket configuration changes, since server URLs and
+     * credentials may no longer match what the cached documents were fetched with. The HTTP clients of servers which
+     * are no longer configured are dropped at the same time.
+     */
+    @Extension
+    public static class ConfigurationChangeListener extends SaveableListener {
+
+        @Inject
+        private BitbucketCapabilitiesCache capabilitiesCache;
+        @Inject
+        private HttpRequestExecutor httpRequestExecutor;
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (!(o instanceof BitbucketPluginConfiguration)) {
+                return;
+            }
+            if (capabilitiesCache != null) {
+                capabilitiesCache.invalidateAll();
+            }
+            if (httpRequestExecutor instanceof HttpRequestExecutorImpl) {
+                ((HttpRequestExecutorImpl) httpRequestExecutor).onConfigurationChanged();
+            }
+        }
+    }
+
+    private static final class CacheKey {
+
+        private final String baseUrl;
+        private final String key;
+
+        private CacheKey(String baseUrl, String key) {
+            this.baseUrl = baseUrl;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) o;
+            return baseUrl.equals(cacheKey.baseUrl) && key.equals(cacheKey.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(baseUrl, key);
+        }
+    }
+
+    private static final class CachedValue {
+
+        private final long loadedAt = System.currentTimeMillis();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private final Object value;
+
+        private CachedValue(Object value) {
+            this.value = value;
+        }
+    }
+}
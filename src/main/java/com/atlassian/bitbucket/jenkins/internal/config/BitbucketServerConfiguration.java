@@ -10,6 +10,7 @@ import com.atlassian.bitbucket.jenkins.internal.credentials.CredentialUtils;
 import com.atlassian.bitbucket.jenkins.internal.credentials.GlobalCredentialsProvider;
 import com.atlassian.bitbucket.jenkins.internal.credentials.JenkinsToBitbucketCredentials;
 import com.atlassian.bitbucket.jenkins.internal.credentials.JenkinsToBitbucketCredentialsModule;
+import com.atlassian.bitbucket.jenkins.internal.http.CircuitBreakerRegistry;
 import com.atlassian.bitbucket.jenkins.internal.model.AtlassianServerCapabilities;
 import com.cloudbees.plugins.credentials.Credentials;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
@@ -64,6 +65,7 @@ public class BitbucketServerConfiguration
     private final String credentialsId;
     private final String id;
     private String baseUrl;
+    private HttpClientProfile httpClientProfile;
     private String serverName;
 
     @DataBoundConstructor
@@ -159,6 +161,26 @@ public class BitbucketServerConfiguration
         return id;
     }
 
+    /**
+     * Returns the dedicated HTTP connection settings for this server, if any
+     *
+     * @return the connection settings, or {@code null} if this server uses the shared HTTP client
+     */
+    @Nullable
+    public HttpClientProfile getHttpClientProfile() {
+        return httpClientProfile;
+    }
+
+    /**
+     * Sets the dedicated HTTP connection settings for this server
+     *
+     * @param httpClientProfile the connection settings, or {@code null} to use the shared HTTP client
+     */
+    @DataBoundSetter
+    public void setHttpClientProfile(@Nullable HttpClientProfile httpClientProfile) {
+        this.httpClientProfile = httpClientProfile;
+    }
+
     /**
      * Returns the name assigned to the server in Jenkins
      *
@@ -271,10 +293,27 @@ public class BitbucketServerConfiguration
     @Extension
     public static class DescriptorImpl extends Descriptor<BitbucketServerConfiguration> {
 
+        @Inject
+        private CircuitBreakerRegistry circuitBreakers;
         @Inject
         private BitbucketClientFactoryProvider clientFactoryProvider;
         private transient JenkinsToBitbucketCredentials jenkinsToBitbucketCredentials;
 
+        /**
+         * Returns the state of the circuit breaker guarding requests to the given server.
+         *
+         * @param baseUrl the base URL of the server
+         * @return the circuit state, or {@code null} if requests are let through as usual
+         */
+        @Nullable
+        public CircuitBreakerRegistry.State getCircuitState(@Nullable String baseUrl) {
+            if (circuitBreakers == null) {
+                return null;
+            }
+            CircuitBreakerRegistry.State state = circuitBreakers.getState(baseUrl);
+            return state == CircuitBreakerRegistry.State.CLOSED ? null : state;
+        }
+
         @SuppressWarnings("MethodMayBeStatic")
         @POST
         public FormValidation doCheckAdminCredentialsId(@QueryParameter String value) {
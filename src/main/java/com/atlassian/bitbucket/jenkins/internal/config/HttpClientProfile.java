@@ -0,0 +1,144 @@
+package com.atlassian.bitbucket.jenkins.internal.config;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import java.util.Objects;
+
+/**
+ * Connection settings used for the HTTP client talking to a single Bitbucket Server instance. Each server with a
+ * profile gets its own connection pool and dispatcher, derived from the shared plugin HTTP client, so a slow or busy
+ * server cannot starve connections to the others.
+ */
+@SuppressWarnings("unused") // Stapler calls many of the methods via reflection
+public class HttpClientProfile extends AbstractDescribableImpl<HttpClientProfile> {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_KEEP_ALIVE_SECONDS = 300;
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 5;
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_WRITE_TIMEOUT_SECONDS = 10;
+
+    private int connectTimeoutSeconds = DEFAULT_CONNECT_TIMEOUT_SECONDS;
+    private int keepAliveSeconds = DEFAULT_KEEP_ALIVE_SECONDS;
+    private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    private int maxRequestsPerHost = DEFAULT_MAX_REQUESTS_PER_HOST;
+    private boolean preferHttp2 = true;
+    private int readTimeoutSeconds = DEFAULT_READ_TIMEOUT_SECONDS;
+    private int writeTimeoutSeconds = DEFAULT_WRITE_TIMEOUT_SECONDS;
+
+    @DataBoundConstructor
+    public HttpClientProfile() {
+    }
+
+    public int getConnectTimeoutSeconds() {
+        return connectTimeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setConnectTimeoutSeconds(int connectTimeoutSeconds) {
+        this.connectTimeoutSeconds = Math.max(0, connectTimeoutSeconds);
+    }
+
+    public int getKeepAliveSeconds() {
+        return keepAliveSeconds;
+    }
+
+    @DataBoundSetter
+    public void setKeepAliveSeconds(int keepAliveSeconds) {
+        this.keepAliveSeconds = Math.max(1, keepAliveSeconds);
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = Math.max(0, maxIdleConnections);
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    @DataBoundSetter
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+    }
+
+    public boolean isPreferHttp2() {
+        return preferHttp2;
+    }
+
+    @DataBoundSetter
+    public void setPreferHttp2(boolean preferHttp2) {
+        this.preferHttp2 = preferHttp2;
+    }
+
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeoutSeconds(int readTimeoutSeconds) {
+        this.readTimeoutSeconds = Math.max(0, readTimeoutSeconds);
+    }
+
+    public int getWriteTimeoutSeconds() {
+        return writeTimeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setWriteTimeoutSeconds(int writeTimeoutSeconds) {
+        this.writeTimeoutSeconds = Math.max(0, writeTimeoutSeconds);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        HttpClientProfile that = (HttpClientProfile) o;
+        return connectTimeoutSeconds == that.connectTimeoutSeconds &&
+               keepAliveSeconds == that.keepAliveSeconds &&
+               maxIdleConnections == that.maxIdleConnections &&
+               maxRequestsPerHost == that.maxRequestsPerHost &&
+               preferHttp2 == that.preferHttp2 &&
+               readTimeoutSeconds == that.readTimeoutSeconds &&
+               writeTimeoutSeconds == that.writeTimeoutSeconds;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(connectTimeoutSeconds, keepAliveSeconds, maxIdleConnections, maxRequestsPerHost,
+                preferHttp2, readTimeoutSeconds, writeTimeoutSeconds);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<HttpClientProfile> {
+
+        @SuppressWarnings("MethodMayBeStatic")
+        @POST
+        public FormValidation doCheckMaxRequestsPerHost(@QueryParameter int value) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            return value < 1 ? FormValidation.error("Must be at least 1") : FormValidation.ok();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Connection settings";
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.atlassian.bitbucket.jenkins.internal.http.HttpMetricsRecorder.CompletedCall;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import jenkins.metrics.api.Metrics;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.commons.lang3.StringUtils.defaultIfEmpty;
+import static org.apache.commons.lang3.StringUtils.strip;
+
+/**
+ * Publishes the outbound calls to Bitbucket Server through the Jenkins metrics plugin, when it is installed. Metrics
+ * for an endpoint are registered the first time it is called:
+ * <ul>
+ *     <li>{@code bitbucket.http.<endpoint>.latency}, a timer of the call latency</li>
+ *     <li>{@code bitbucket.http.<endpoint>.response.bytes}, a histogram of the response sizes</li>
+ *     <li>{@code bitbucket.http.<endpoint>.status.<code>}, a meter per status code, or {@code failed}</li>
+ *     <li>{@code bitbucket.http.connect.<baseUrl>.dns}, {@code .connect} and {@code .tls}, timers of the connection
+ *     setup</li>
+ * </ul>
+ * The endpoint is the HTTP method and endpoint template of the call, such as
+ * {@code GET_rest_api_1_0_projects_projectKey}, and the base URL is written the same way, such as
+ * {@code http_localhost_7990_bitbucket}: any character other than a letter, a digit, {@code -} or {@code _} is
+ * replaced, so each of them stays a single segment of the metric name.
+ */
+@Extension(optional = true)
+public class BitbucketClientMetricProvider extends MetricProvider {
+
+    private static final String PREFIX = name("bitbucket", "http");
+    private static final Pattern UNSAFE_CHARACTERS = Pattern.compile("[^A-Za-z0-9_-]+");
+
+    private HttpMetricsRecorder metricsRecorder;
+
+    @Override
+    public MetricSet getMetricSet() {
+        return () -> {
+            Map<String, Metric> metrics = new HashMap<>();
+            metrics.put(name(PREFIX, "endpoints"), (Gauge<Integer>) () -> metricsRecorder.getEndpointMetrics().size());
+            return metrics;
+        };
+    }
+
+    @Inject
+    public void setMetricsRecorder(HttpMetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+        metricsRecorder.addObserver(BitbucketClientMetricProvider::publish);
+    }
+
+    /**
+     * Turns a value into a single segment of a metric name, replacing every run of characters other than letters,
+     * digits, {@code -} and {@code _} with {@code _}. The dots, slashes, braces, spaces and colons of endpoint
+     * templates and URLs would otherwise split the name or break the tools reading it.
+     *
+     * @param value the value, such as an endpoint template or a base URL
+     * @return the metric name segment
+     */
+    @VisibleForTesting
+    static String toSegment(String value) {
+        return defaultIfEmpty(strip(UNSAFE_CHARACTERS.matcher(value).replaceAll("_"), "_"), "unknown");
+    }
+
+    private static void publish(CompletedCall call) {
+        MetricRegistry registry = Metrics.metricRegistry();
+        if (registry == null) {
+            return;
+        }
+        String endpoint = name(PREFIX, toSegment(call.getEndpoint()));
+        registry.timer(name(endpoint, "latency")).update(call.getLatencyMillis(), MILLISECONDS);
+        registry.meter(name(endpoint, "status",
+                call.getStatusCode() < 0 ? "failed" : String.valueOf(call.getStatusCode()))).mark();
+        if (call.getResponseBytes() >= 0) {
+            registry.histogram(name(endpoint, "response", "bytes")).update(call.getResponseBytes());
+        }
+        String connection = name(PREFIX, "connect", toSegment(call.getBaseUrl()));
+        if (call.getDnsMillis() >= 0) {
+            registry.timer(name(connection, "dns")).update(call.getDnsMillis(), MILLISECONDS);
+        }
+        if (call.getConnectMillis() >= 0) {
+            registry.timer(name(connection, "connect")).update(call.getConnectMillis(), MILLISECONDS);
+        }
+        if (call.getTlsMillis() >= 0) {
+            registry.timer(name(connection, "tls")).update(call.getTlsMillis(), MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.atlassian.bitbucket.jenkins.internal.client.BitbucketClientFactoryProvider;
+import com.atlassian.bitbucket.jenkins.internal.client.HttpRequestExecutor;
+import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.annotation.CheckForNull;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the metrics of the outbound calls to Bitbucket Server as JSON, for administrators only, at
+ * {@code /bitbucket-client-metrics}. This includes the latency, status codes and response sizes per endpoint, the
+ * connection timings per server, and the state of the caches, retries, circuit breakers and concurrency limits.
+ * Every {@link BitbucketMetricsContributor} adds its own sections, such as those of the incoming webhooks.
+ */
+@Extension
+public class BitbucketClientMetricsAction implements RootAction {
+
+    public static final String URL_NAME = "bitbucket-client-metrics";
+
+    private static final ObjectWriter WRITER = new ObjectMapper().writerWithDefaultPrettyPrinter();
+
+    @Inject
+    private BitbucketCapabilitiesCache capabilitiesCache;
+    @Inject
+    private CircuitBreakerRegistry circuitBreakers;
+    @Inject
+    private BitbucketClientFactoryProvider clientFactoryProvider;
+    @Inject
+    private ConcurrencyLimiterRegistry concurrencyLimiters;
+    @Inject
+    private HttpRequestExecutor httpRequestExecutor;
+    @Inject
+    private HttpMetricsRecorder metricsRecorder;
+
+    public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        response.setContentType("application/json;charset=UTF-8");
+        WRITER.writeValue(response.getWriter(), getMetrics());
+    }
+
+    @CheckForNull
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @CheckForNull
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    private Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("endpoints", metricsRecorder.getEndpointMetrics());
+        metrics.put("connections", metricsRecorder.getConnectionMetrics());
+        if (httpRequestExecutor instanceof HttpRequestExecutorImpl) {
+            HttpRequestExecutorImpl executor = (HttpRequestExecutorImpl) httpRequestExecutor;
+            metrics.put("connectionPools", executor.getConnectionPoolStatistics());
+            metrics.put("retries", executor.getRetryCounts());
+        }
+        metrics.put("circuitBreakers", circuitBreakers.getStates());
+        metrics.put("concurrencyLimits", concurrencyLimiters.getStatistics());
+        metrics.put("responseCache", clientFactoryProvider.getResponseCache().getStatistics());
+        metrics.put("coalescing", clientFactoryProvider.getCoalescer().getStatistics());
+        Map<String, Long> capabilities = new LinkedHashMap<>();
+        capabilities.put("hitCount", capabilitiesCache.getHitCount());
+        capabilities.put("missCount", capabilitiesCache.getMissCount());
+        metrics.put("capabilitiesCache", capabilities);
+        BitbucketMetricsContributor.all().forEach(contributor -> contributor.contribute(metrics));
+        return metrics;
+    }
+}
@@ -0,0 +1,27 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+
+import java.util.Map;
+
+/**
+ * Adds sections to the metrics exposed by the {@link BitbucketClientMetricsAction}, so features outside of the HTTP
+ * client, such as receiving webhooks, can publish their own metrics without the client depending on them.
+ */
+public abstract class BitbucketMetricsContributor implements ExtensionPoint {
+
+    /**
+     * @return every registered contributor
+     */
+    public static ExtensionList<BitbucketMetricsContributor> all() {
+        return ExtensionList.lookup(BitbucketMetricsContributor.class);
+    }
+
+    /**
+     * Adds the sections of this contributor to the metrics, each under a key of its own.
+     *
+     * @param metrics the metrics to add to, keyed by section
+     */
+    public abstract void contribute(Map<String, Object> metrics);
+}
@@ -0,0 +1,250 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.google.common.annotations.VisibleForTesting;
+import okhttp3.HttpUrl;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toBaseUrl;
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static java.net.HttpURLConnection.*;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Keeps a circuit breaker for every Bitbucket Server instance, keyed by its base URL. Once a number of consecutive
+ * requests to an instance fail because it could not be reached, timed out or answered that it is unavailable, the
+ * circuit opens and further requests fail immediately instead of waiting for the same timeout. After a while a single
+ * trial request is let through: if it succeeds the circuit closes again, otherwise it stays open for another period.
+ * A trial request which has not reported its outcome after {@code bitbucket.client.circuit.trial.timeout} is given up
+ * on, and the next request becomes the trial.
+ */
+@ThreadSafe
+@Singleton
+public class CircuitBreakerRegistry {
+
+    /**
+     * The number of consecutive failures after which the circuit of a server opens. Defaults to 5, 0 disables the
+     * circuit breakers.
+     */
+    public static final int FAILURE_THRESHOLD =
+            (int) Math.min(parsePositiveLongFromSystemProperty("bitbucket.client.circuit.failure.threshold", 5), 1000);
+    /**
+     * How long an open circuit fails requests before a trial request is let through. Defaults to 30 seconds in ms.
+     */
+    public static final long OPEN_DURATION =
+            parsePositiveLongFromSystemProperty("bitbucket.client.circuit.open.duration", 30000);
+    /**
+     * How long a trial request may take before another request becomes the trial. Defaults to 2 minutes in ms.
+     */
+    public static final long TRIAL_TIMEOUT =
+            parsePositiveLongFromSystemProperty("bitbucket.client.circuit.trial.timeout", 120000);
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreakerRegistry.class.getName());
+
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+    private final int failureThreshold;
+    private final long openDurationMillis;
+    private final long trialTimeoutMillis;
+
+    @Inject
+    public CircuitBreakerRegistry() {
+        this(FAILURE_THRESHOLD, OPEN_DURATION, TRIAL_TIMEOUT, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    CircuitBreakerRegistry(int failureThreshold, long openDurationMillis, LongSupplier clock) {
+        this(failureThreshold, openDurationMillis, TRIAL_TIMEOUT, clock);
+    }
+
+    @VisibleForTesting
+    CircuitBreakerRegistry(int failureThreshold, long openDurationMillis, long trialTimeoutMillis,
+                           LongSupplier clock) {
+        this.clock = clock;
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.trialTimeoutMillis = trialTimeoutMillis;
+    }
+
+    /**
+     * Returns the state of the circuit of the server with the given base URL.
+     *
+     * @param baseUrl the base URL of a Bitbucket Server instance
+     * @return the state of its circuit, {@link State#CLOSED} if no request has been made to it yet
+     */
+    public State getState(@CheckForNull String baseUrl) {
+        HttpUrl url = baseUrl == null ? null : HttpUrl.parse(baseUrl);
+        CircuitBreaker circuitBreaker = url == null ? null : circuitBreakers.get(toBaseUrl(url));
+        return circuitBreaker == null ? State.CLOSED : circuitBreaker.getState();
+    }
+
+    /**
+     * Returns the state of the circuit of every server a request has been made to, keyed by base URL.
+     *
+     * @return a snapshot of the circuit states
+     */
+    public Map<String, State> getStates() {
+        return circuitBreakers.entrySet().stream()
+                .collect(toMap(Map.Entry::getKey, entry -> entry.getValue().getState()));
+    }
+
+    /**
+     * Returns the circuit breaker guarding requests to the given URL.
+     *
+     * @param url the request URL
+     * @return the circuit breaker of the server the URL belongs to
+     */
+    CircuitBreaker get(HttpUrl url) {
+        return circuitBreakers.computeIfAbsent(toBaseUrl(url), CircuitBreaker::new);
+    }
+
+    public enum State {
+        /**
+         * Requests are let through.
+         */
+        CLOSED,
+        /**
+         * Requests fail without being sent.
+         */
+        OPEN,
+        /**
+         * A trial request is in flight, other requests fail without being sent until it completes.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * The circuit breaker of a single server. Every request must {@link #tryAcquire() acquire} the circuit before it
+     * is sent and report its outcome through one of the {@code record} methods, or through
+     * {@link #onInconclusive()} if it ends without being answered or failing to connect, for instance because it was
+     * interrupted or cancelled.
+     */
+    class CircuitBreaker {
+
+        private final String baseUrl;
+        @GuardedBy("this")
+        private int consecutiveFailures;
+        @GuardedBy("this")
+        private long openUntil;
+        @GuardedBy("this")
+        private State state = State.CLOSED;
+        @GuardedBy("this")
+        private long trialUntil;
+
+        private CircuitBreaker(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * Returns whether a request may be sent. When the circuit is open and the open period has passed, or the
+         * trial request in flight has timed out, the request becomes the trial request.
+         *
+         * @return {@code true} if the request may be sent, {@code false} if it must fail immediately
+         */
+        synchronized boolean tryAcquire() {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (clock.getAsLong() < openUntil) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    trialUntil = clock.getAsLong() + trialTimeoutMillis;
+                    LOGGER.info("Bitbucket - trying to reach " + baseUrl + " again");
+                    return true;
+                default:
+                    if (clock.getAsLong() < trialUntil) {
+                        return false;
+                    }
+                    // The trial request never reported its outcome, let this request be the trial instead
+                    trialUntil = clock.getAsLong() + trialTimeoutMillis;
+                    LOGGER.info("Bitbucket - the trial request to " + baseUrl + " timed out, trying again");
+                    return true;
+            }
+        }
+
+        /**
+         * Records a request that failed with the given exception.
+         *
+         * @param e the failure
+         */
+        void record(IOException e) {
+            if (e instanceof ConnectException || e instanceof SocketTimeoutException) {
+                onFailure();
+            } else {
+                // Not a sign of the server being unhealthy, but a trial request has to release the circuit
+                onInconclusive();
+            }
+        }
+
+        /**
+         * Records a request that was answered with the given status code.
+         *
+         * @param responseCode the HTTP status code
+         */
+        void record(int responseCode) {
+            switch (responseCode) {
+                case HTTP_BAD_GATEWAY:
+                case HTTP_UNAVAILABLE:
+                case HTTP_GATEWAY_TIMEOUT:
+                    onFailure();
+                    break;
+                default:
+                    onSuccess();
+            }
+        }
+
+        private synchronized void onFailure() {
+            if (failureThreshold <= 0) {
+                return;
+            }
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+                if (state == State.CLOSED) {
+                    LOGGER.warning(String.format("Bitbucket - %d consecutive requests to %s failed, failing further " +
+                                                 "requests for %dms", consecutiveFailures, baseUrl, openDurationMillis));
+                }
+                state = State.OPEN;
+                openUntil = clock.getAsLong() + openDurationMillis;
+            }
+        }
+
+        /**
+         * Records a request which acquired the circuit but ended without an outcome telling whether the server is
+         * healthy, for instance because it was interrupted or cancelled before being sent. A trial request releases
+         * the circuit, so the next request becomes the trial.
+         */
+        synchronized void onInconclusive() {
+            if (state == State.HALF_OPEN) {
+                // Let the next request be the trial
+                state = State.OPEN;
+                openUntil = 0;
+            }
+        }
+
+        private synchronized void onSuccess() {
+            if (state != State.CLOSED) {
+                LOGGER.info("Bitbucket - " + baseUrl + " is reachable again");
+            }
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.google.common.annotations.VisibleForTesting;
+import okhttp3.HttpUrl;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toBaseUrl;
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toEndpointTemplate;
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+
+/**
+ * Bounds the number of concurrent requests sent to every Bitbucket Server instance, keyed by its base URL. The limit
+ * of each instance adapts to how it copes with the load (additive increase, multiplicative decrease): it grows slowly
+ * while requests succeed with the limit in use, and is cut whenever the instance signals it is overloaded, by
+ * answering {@code 429} or {@code 502}-{@code 504}, timing out, or responding much slower than usual. The usual
+ * latency is tracked for every endpoint of an instance, as a quick capabilities request tells nothing about how long
+ * listing repositories should take.
+ * <p>
+ * Requests over the limit wait in a queue ordered by {@link RequestPriority}, and in arrival order within the same
+ * priority. So that a steady stream of higher priority requests cannot starve the others, a request which has waited
+ * for {@code bitbucket.client.limiter.max.wait.millis} goes next whatever its priority. The limiter can be disabled by
+ * setting {@code bitbucket.client.limiter.max.concurrency} to 0.
+ */
+@ThreadSafe
+@Singleton
+public class ConcurrencyLimiterRegistry {
+
+    /**
+     * The concurrency a server starts with. Defaults to 16.
+     */
+    public static final int INITIAL_CONCURRENCY =
+            (int) parsePositiveLongFromSystemProperty("bitbucket.client.limiter.initial.concurrency", 16);
+    /**
+     * The highest concurrency a server can reach. Defaults to 64, 0 disables the limiter.
+     */
+    public static final int MAX_CONCURRENCY =
+            (int) Math.min(parsePositiveLongFromSystemProperty("bitbucket.client.limiter.max.concurrency", 64), 10000);
+    /**
+     * How long a request waits before it is let through ahead of requests of a higher priority. Defaults to 10
+     * seconds, 0 lets requests through in arrival order.
+     */
+    public static final long MAX_WAIT_MILLIS =
+            parsePositiveLongFromSystemProperty("bitbucket.client.limiter.max.wait.millis", 10000);
+
+    /**
+     * The minimum time between two decreases of the limit, so a burst of failures caused by the same overload only
+     * cuts the limit once.
+     */
+    private static final long DECREASE_INTERVAL_MILLIS = 1000;
+    private static final double LATENCY_DECREASE_FACTOR = 0.75;
+    /**
+     * How many times slower than the usual latency of a server a response has to be to count as a sign of overload.
+     */
+    private static final double LATENCY_TOLERANCE = 3;
+    /**
+     * How much of the difference between a response latency and the usual latency of its endpoint is added to the
+     * usual latency. Faster responses are followed quickly, slower ones only gradually so a slow spell does not
+     * become the norm at once.
+     */
+    private static final double LATENCY_WEIGHT_FASTER = 0.5;
+    private static final double LATENCY_WEIGHT_SLOWER = 0.05;
+    /**
+     * The maximum number of endpoints whose usual latency is tracked per server, the least recently called endpoint
+     * is forgotten beyond it.
+     */
+    private static final int MAX_TRACKED_ENDPOINTS = 256;
+    private static final Logger LOGGER = Logger.getLogger(ConcurrencyLimiterRegistry.class.getName());
+    private static final double OVERLOAD_DECREASE_FACTOR = 0.5;
+
+    private final LongSupplier clock;
+    private final int initialConcurrency;
+    private final ConcurrentMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+    private final int maxConcurrency;
+    private final long maxWaitMillis;
+
+    @Inject
+    public ConcurrencyLimiterRegistry() {
+        this(INITIAL_CONCURRENCY, MAX_CONCURRENCY, MAX_WAIT_MILLIS, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    ConcurrencyLimiterRegistry(int initialConcurrency, int maxConcurrency, LongSupplier clock) {
+        this(initialConcurrency, maxConcurrency, MAX_WAIT_MILLIS, clock);
+    }
+
+    @VisibleForTesting
+    ConcurrencyLimiterRegistry(int initialConcurrency, int maxConcurrency, long maxWaitMillis, LongSupplier clock) {
+        this.clock = clock;
+        this.initialConcurrency = Math.max(1, Math.min(initialConcurrency, maxConcurrency));
+        this.maxConcurrency = maxConcurrency;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Returns the current limit, the number of requests in flight and the number of queued requests of every server a
+     * request has been made to, keyed by base URL.
+     *
+     * @return a snapshot of the limiter statistics
+     */
+    public Map<String, LimiterStatistics> getStatistics() {
+        Map<String, LimiterStatistics> statistics = new TreeMap<>();
+        limiters.forEach((baseUrl, limiter) -> statistics.put(baseUrl, limiter.getStatistics()));
+        return statistics;
+    }
+
+    /**
+     * Requests a permit to send a request to the given URL. The returned future completes once the request may be
+     * sent; cancelling it gives up the place in the queue. The permit must be {@link Permit#release released} once
+     * the server has answered or the request has failed.
+     *
+     * @param url      the request URL
+     * @param priority the priority of the request
+     * @return a future of the permit
+     */
+    CompletableFuture<Permit> acquire(HttpUrl url, RequestPriority priority) {
+        if (maxConcurrency <= 0) {
+            return CompletableFuture.completedFuture(Permit.NONE);
+        }
+        return limiters.computeIfAbsent(toBaseUrl(url), Limiter::new).acquire(toEndpointTemplate(url), priority);
+    }
+
+    /**
+     * Allows a single request to be sent, and reports how it went so the limit can adapt.
+     */
+    static class Permit {
+
+        static final Permit NONE = new Permit(null, null, 0);
+
+        private final String endpoint;
+        private final Limiter limiter;
+        private final long startMillis;
+        private boolean released;
+
+        private Permit(Limiter limiter, String endpoint, long startMillis) {
+            this.endpoint = endpoint;
+            this.limiter = limiter;
+            this.startMillis = startMillis;
+        }
+
+        /**
+         * Releases the permit without sending a request.
+         */
+        void discard() {
+            if (markReleased()) {
+                limiter.release(null, false);
+            }
+        }
+
+        /**
+         * Releases the permit once the request has been answered or has failed. Releasing a permit more than once has
+         * no effect.
+         *
+         * @param overloaded whether the outcome of the request signals that the server is overloaded
+         */
+        void release(boolean overloaded) {
+            if (markReleased()) {
+                limiter.release(this, overloaded);
+            }
+        }
+
+        private synchronized boolean markReleased() {
+            if (limiter == null || released) {
+                return false;
+            }
+            released = true;
+            return true;
+        }
+    }
+
+    public static final class LimiterStatistics {
+
+        private final int inFlightCount;
+        private final int limit;
+        private final int queuedCount;
+
+        private LimiterStatistics(int limit, int inFlightCount, int queuedCount) {
+            this.inFlightCount = inFlightCount;
+            this.limit = limit;
+            this.queuedCount = queuedCount;
+        }
+
+        public int getInFlightCount() {
+            return inFlightCount;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getQueuedCount() {
+            return queuedCount;
+        }
+    }
+
+    private class Limiter {
+
+        /**
+         * The waiting requests in arrival order, to find the one which has waited the longest. Requests which were
+         * let through or gave up are only removed once they reach the head.
+         */
+        @GuardedBy("this")
+        private final Deque<Waiter> arrivals = new ArrayDeque<>();
+        private final String baseUrl;
+        /**
+         * The usual latency of every endpoint recently called, keyed by endpoint template.
+         */
+        @GuardedBy("this")
+        private final Map<String, Double> baselineLatencies = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+                return size() > MAX_TRACKED_ENDPOINTS;
+            }
+        };
+        @GuardedBy("this")
+        private int inFlight;
+        @GuardedBy("this")
+        private long lastDecreaseMillis = -DECREASE_INTERVAL_MILLIS;
+        @GuardedBy("this")
+        private double limit = initialConcurrency;
+        @GuardedBy("this")
+        private long sequence;
+        @GuardedBy("this")
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+
+        private Limiter(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        synchronized CompletableFuture<Permit> acquire(String endpoint, RequestPriority priority) {
+            while (!waiters.isEmpty() && waiters.peek().permit.isDone()) {
+                // Drop the requests that gave up waiting
+                waiters.poll();
+            }
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit(this, endpoint, clock.getAsLong()));
+            }
+            Waiter waiter = new Waiter(endpoint, priority, sequence++, clock.getAsLong());
+            waiters.add(waiter);
+            arrivals.add(waiter);
+            return waiter.permit;
+        }
+
+        synchronized LimiterStatistics getStatistics() {
+            waiters.removeIf(waiter -> waiter.permit.isDone());
+            arrivals.removeIf(waiter -> waiter.granted || waiter.permit.isDone());
+            return new LimiterStatistics((int) limit, inFlight, waiters.size());
+        }
+
+        /**
+         * Releases a permit and lets waiting requests through if the limit allows it.
+         *
+         * @param permit     the released permit, or {@code null} if a granted permit was never used
+         * @param overloaded whether the request signalled that the server is overloaded
+         */
+        void release(@CheckForNull Permit permit, boolean overloaded) {
+            List<Waiter> granted = new ArrayList<>();
+            long now = clock.getAsLong();
+            synchronized (this) {
+                boolean limitReached = inFlight >= (int) limit;
+                inFlight--;
+                long latency = permit == null ? 0 : now - permit.startMillis;
+                if (permit == null) {
+                    // Nothing was sent, so there is nothing to learn from
+                } else if (overloaded) {
+                    decrease(now, OVERLOAD_DECREASE_FACTOR, "is overloaded");
+                } else if (isSlow(permit.endpoint, latency)) {
+                    decrease(now, LATENCY_DECREASE_FACTOR, "is responding slowly");
+                } else if (limitReached) {
+                    // Additive increase, by about one request once every request in flight has succeeded
+                    limit = Math.min(maxConcurrency, limit + 1 / limit);
+                }
+                if (permit != null && !overloaded) {
+                    updateBaseline(permit.endpoint, latency);
+                }
+                Waiter waiter;
+                while (inFlight < (int) limit && (waiter = pollWaiter(now)) != null) {
+                    inFlight++;
+                    granted.add(waiter);
+                }
+            }
+            // Complete the waiters outside of the lock, as completing them may start their requests
+            for (Waiter waiter : granted) {
+                if (!waiter.permit.complete(new Permit(this, waiter.endpoint, now))) {
+                    // The waiter gave up in the meantime
+                    release(null, false);
+                }
+            }
+        }
+
+        @GuardedBy("this")
+        private void decrease(long now, double factor, String reason) {
+            if (now - lastDecreaseMillis < DECREASE_INTERVAL_MILLIS) {
+                return;
+            }
+            lastDecreaseMillis = now;
+            limit = Math.max(1, limit * factor);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(String.format("Bitbucket - %s %s, reducing the concurrency limit to %d", baseUrl, reason,
+                        (int) limit));
+            }
+        }
+
+        @GuardedBy("this")
+        private boolean isSlow(String endpoint, long latency) {
+            Double baseline = baselineLatencies.get(endpoint);
+            return baseline != null && latency > baseline * LATENCY_TOLERANCE;
+        }
+
+        /**
+         * Removes the next request to let through from the queue: the one which has waited the longest if it has
+         * waited for too long, otherwise the first one by priority.
+         *
+         * @param now the current time
+         * @return the request to let through, or {@code null} if no request is waiting
+         */
+        @CheckForNull
+        @GuardedBy("this")
+        private Waiter pollWaiter(long now) {
+            Waiter oldest;
+            while ((oldest = arrivals.peek()) != null && (oldest.granted || oldest.permit.isDone())) {
+                arrivals.poll();
+            }
+            Waiter waiter;
+            if (oldest != null && now - oldest.queuedMillis >= maxWaitMillis) {
+                arrivals.poll();
+                waiters.remove(oldest);
+                waiter = oldest;
+            } else {
+                do {
+                    waiter = waiters.poll();
+                } while (waiter != null && waiter.permit.isDone());
+            }
+            if (waiter != null) {
+                waiter.granted = true;
+            }
+            return waiter;
+        }
+
+        @GuardedBy("this")
+        private void updateBaseline(String endpoint, long latency) {
+            baselineLatencies.merge(endpoint, Math.max(1d, latency), (baseline, sample) -> Math.max(1, baseline +
+                    (sample - baseline) * (sample < baseline ? LATENCY_WEIGHT_FASTER : LATENCY_WEIGHT_SLOWER)));
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+
+        private final String endpoint;
+        private final CompletableFuture<Permit> permit = new CompletableFuture<>();
+        private final RequestPriority priority;
+        private final long queuedMillis;
+        private final long sequence;
+        private boolean granted;
+
+        private Waiter(String endpoint, RequestPriority priority, long sequence, long queuedMillis) {
+            this.endpoint = endpoint;
+            this.priority = priority;
+            this.queuedMillis = queuedMillis;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
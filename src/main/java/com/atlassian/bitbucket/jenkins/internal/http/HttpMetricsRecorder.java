@@ -0,0 +1,449 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import okhttp3.*;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toBaseUrl;
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toEndpointTemplate;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Records the latency, status codes and response sizes of every call made to Bitbucket Server, keyed by HTTP method
+ * and endpoint template (see {@link com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils}), as well
+ * as the DNS, connect and TLS handshake timings of every server, keyed by base URL.
+ * <p>
+ * The recorder is an OkHttp {@link EventListener.Factory}, so it sees every attempt, including retries and redirects.
+ * The latency of a call runs from the moment it starts until its response body has been consumed or it has failed.
+ */
+@ThreadSafe
+@Singleton
+public class HttpMetricsRecorder implements EventListener.Factory {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpMetricsRecorder.class.getName());
+
+    private final ConcurrentMap<String, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private final List<Consumer<CompletedCall>> observers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers an observer that is told about every completed call, e.g. to publish the calls to another metrics
+     * system. Observers are called on the thread that completes the call, so they must be fast.
+     *
+     * @param observer the observer
+     */
+    public void addObserver(Consumer<CompletedCall> observer) {
+        observers.add(observer);
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallListener();
+    }
+
+    /**
+     * Returns the DNS, connect and TLS handshake timings of every server a connection has been made to, keyed by base
+     * URL.
+     *
+     * @return the connection metrics
+     */
+    public Map<String, ConnectionMetrics> getConnectionMetrics() {
+        return new TreeMap<>(connections);
+    }
+
+    /**
+     * Returns the metrics of every endpoint that has been called, keyed by HTTP method and endpoint template, e.g.
+     * {@code GET /rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/webhooks}.
+     *
+     * @return the endpoint metrics
+     */
+    public Map<String, EndpointMetrics> getEndpointMetrics() {
+        return new TreeMap<>(endpoints);
+    }
+
+    private void record(CompletedCall call) {
+        endpoints.computeIfAbsent(call.getEndpoint(), endpoint -> new EndpointMetrics()).record(call);
+        for (Consumer<CompletedCall> observer : observers) {
+            try {
+                observer.accept(call);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to notify an observer of a Bitbucket call", e);
+            }
+        }
+    }
+
+    private ConnectionMetrics getConnectionMetrics(Call call) {
+        return connections.computeIfAbsent(toBaseUrl(call.request().url()), baseUrl -> new ConnectionMetrics());
+    }
+
+    /**
+     * A completed call, successful or not.
+     */
+    public static final class CompletedCall {
+
+        private final String baseUrl;
+        private final long connectMillis;
+        private final long dnsMillis;
+        private final String endpoint;
+        private final IOException failure;
+        private final long latencyMillis;
+        private final long responseBytes;
+        private final int statusCode;
+        private final long tlsMillis;
+
+        private CompletedCall(String baseUrl, String endpoint, CallListener listener, long latencyMillis,
+                              @Nullable IOException failure) {
+            this.baseUrl = baseUrl;
+            this.endpoint = endpoint;
+            this.failure = failure;
+            this.latencyMillis = latencyMillis;
+            connectMillis = listener.connectMillis;
+            dnsMillis = listener.dnsMillis;
+            responseBytes = listener.responseBytes;
+            statusCode = listener.statusCode;
+            tlsMillis = listener.tlsMillis;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        /**
+         * @return the time taken to establish a new connection, or -1 if the call reused a pooled connection
+         */
+        public long getConnectMillis() {
+            return connectMillis;
+        }
+
+        /**
+         * @return the time taken to resolve the host name, or -1 if the call reused a pooled connection
+         */
+        public long getDnsMillis() {
+            return dnsMillis;
+        }
+
+        /**
+         * @return the HTTP method and endpoint template of the call
+         */
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        /**
+         * @return the exception the call failed with, or {@code null} if it succeeded
+         */
+        @Nullable
+        public IOException getFailure() {
+            return failure;
+        }
+
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * @return the size of the response body in bytes, or -1 if no body has been read
+         */
+        public long getResponseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         * @return the status code of the response, or -1 if no response has been received
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return the time taken by the TLS handshake, or -1 if there was none
+         */
+        public long getTlsMillis() {
+            return tlsMillis;
+        }
+    }
+
+    /**
+     * The timings of the connections made to a server.
+     */
+    public static final class ConnectionMetrics {
+
+        private final AtomicLong connectFailureCount = new AtomicLong();
+        private final LatencyHistogram connectLatency = new LatencyHistogram();
+        private final LatencyHistogram dnsLatency = new LatencyHistogram();
+        private final LatencyHistogram tlsLatency = new LatencyHistogram();
+
+        public long getConnectFailureCount() {
+            return connectFailureCount.get();
+        }
+
+        /**
+         * @return the time taken to establish connections, including the TLS handshake
+         */
+        public LatencyHistogram getConnectLatency() {
+            return connectLatency;
+        }
+
+        public LatencyHistogram getDnsLatency() {
+            return dnsLatency;
+        }
+
+        public LatencyHistogram getTlsLatency() {
+            return tlsLatency;
+        }
+    }
+
+    /**
+     * The latency, status codes and response sizes of the calls made to an endpoint.
+     */
+    public static final class EndpointMetrics {
+
+        private final AtomicLong failureCount = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong responseBytes = new AtomicLong();
+        private final AtomicLong responseCount = new AtomicLong();
+        private final ConcurrentMap<Integer, AtomicLong> statusCodeCounts = new ConcurrentHashMap<>();
+
+        /**
+         * @return the number of calls that failed without a response, or while reading it
+         */
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the average size of the response bodies that have been read, in bytes
+         */
+        public long getMeanResponseBytes() {
+            long count = responseCount.get();
+            return count == 0 ? 0 : responseBytes.get() / count;
+        }
+
+        /**
+         * @return the total size of the response bodies that have been read, in bytes
+         */
+        public long getResponseBytes() {
+            return responseBytes.get();
+        }
+
+        /**
+         * @return the number of responses received, keyed by status code
+         */
+        public Map<Integer, Long> getStatusCodeCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            statusCodeCounts.forEach((statusCode, count) -> counts.put(statusCode, count.get()));
+            return counts;
+        }
+
+        private void record(CompletedCall call) {
+            latency.record(call.getLatencyMillis());
+            if (call.getStatusCode() >= 0) {
+                statusCodeCounts.computeIfAbsent(call.getStatusCode(), statusCode -> new AtomicLong())
+                        .incrementAndGet();
+            }
+            if (call.getResponseBytes() >= 0) {
+                responseBytes.addAndGet(call.getResponseBytes());
+                responseCount.incrementAndGet();
+            }
+            if (call.getFailure() != null) {
+                failureCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A histogram of durations with fixed buckets, cheap enough to be updated on every call.
+     */
+    public static final class LatencyHistogram {
+
+        private static final long[] BUCKET_BOUNDS_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000,
+                30000, 60000};
+
+        private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_MILLIS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+
+        /**
+         * @return the number of durations in each bucket, keyed by the upper bound of the bucket, e.g. {@code <=250ms}
+         */
+        public Map<String, Long> getBuckets() {
+            Map<String, Long> buckets = new LinkedHashMap<>();
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                buckets.put("<=" + BUCKET_BOUNDS_MILLIS[i] + "ms", bucketCounts.get(i));
+            }
+            buckets.put(">" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1] + "ms",
+                    bucketCounts.get(BUCKET_BOUNDS_MILLIS.length));
+            return buckets;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMaxMillis() {
+            return maxMillis.get();
+        }
+
+        public long getMeanMillis() {
+            long currentCount = count.get();
+            return currentCount == 0 ? 0 : totalMillis.get() / currentCount;
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket it falls in, capped at the maximum duration.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the estimated percentile, in milliseconds
+         */
+        public long getPercentileMillis(double percentile) {
+            long currentCount = count.get();
+            if (currentCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(currentCount * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                seen += bucketCounts.get(i);
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MILLIS[i], getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+
+        /**
+         * @return the estimated 50th, 95th and 99th percentiles, in milliseconds
+         */
+        public Map<String, Long> getPercentiles() {
+            Map<String, Long> percentiles = new LinkedHashMap<>();
+            percentiles.put("p50", getPercentileMillis(50));
+            percentiles.put("p95", getPercentileMillis(95));
+            percentiles.put("p99", getPercentileMillis(99));
+            return percentiles;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis.get();
+        }
+
+        public void record(long millis) {
+            int bucket = Arrays.binarySearch(BUCKET_BOUNDS_MILLIS, millis);
+            bucketCounts.incrementAndGet(bucket >= 0 ? bucket : -bucket - 1);
+            count.incrementAndGet();
+            totalMillis.addAndGet(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+    }
+
+    /**
+     * Follows a single call. OkHttp creates one listener per call and reports its events one after the other, so no
+     * synchronization is needed.
+     */
+    private class CallListener extends EventListener {
+
+        private long callStartNanos;
+        private long connectMillis = -1;
+        private long connectStartNanos;
+        private long dnsMillis = -1;
+        private long dnsStartNanos;
+        private long responseBytes = -1;
+        private long secureConnectStartNanos;
+        private int statusCode = -1;
+        private long tlsMillis = -1;
+
+        @Override
+        public void callEnd(Call call) {
+            complete(call, null);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException e) {
+            complete(call, e);
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                               @Nullable Protocol protocol) {
+            connectMillis = millisSince(connectStartNanos);
+            getConnectionMetrics(call).connectLatency.record(connectMillis);
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                                  @Nullable Protocol protocol, IOException e) {
+            getConnectionMetrics(call).connectFailureCount.incrementAndGet();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            dnsMillis = millisSince(dnsStartNanos);
+            getConnectionMetrics(call).dnsLatency.record(dnsMillis);
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStartNanos = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            responseBytes = byteCount;
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            statusCode = response.code();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+            tlsMillis = millisSince(secureConnectStartNanos);
+            getConnectionMetrics(call).tlsLatency.record(tlsMillis);
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStartNanos = System.nanoTime();
+        }
+
+        private void complete(Call call, @Nullable IOException failure) {
+            HttpUrl url = call.request().url();
+            record(new CompletedCall(toBaseUrl(url), call.request().method() + " " + toEndpointTemplate(url), this,
+                    millisSince(callStartNanos), failure));
+        }
+
+        private long millisSince(long startNanos) {
+            return NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+    }
+}
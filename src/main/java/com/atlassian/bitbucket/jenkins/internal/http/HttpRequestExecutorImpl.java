@@ -3,93 +3,448 @@ package com.atlassian.bitbucket.jenkins.internal.http;
 import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
 import com.atlassian.bitbucket.jenkins.internal.client.HttpRequestExecutor;
 import com.atlassian.bitbucket.jenkins.internal.client.exception.*;
+import com.atlassian.bitbucket.jenkins.internal.http.CircuitBreakerRegistry.CircuitBreaker;
+import com.atlassian.bitbucket.jenkins.internal.http.ConcurrencyLimiterRegistry.Permit;
+import com.atlassian.bitbucket.jenkins.internal.http.ServerAwareCallFactory.ConnectionPoolStatistics;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEvent;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEventType;
+import com.google.common.annotations.VisibleForTesting;
 import hudson.Plugin;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import okhttp3.*;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.atlassian.bitbucket.jenkins.internal.client.HttpRequestExecutor.ResponseConsumer.EMPTY_RESPONSE;
 import static com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials.ANONYMOUS_CREDENTIALS;
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toBaseUrl;
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toEndpointTemplate;
 import static java.net.HttpURLConnection.*;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toMap;
 import static org.apache.http.HttpHeaders.AUTHORIZATION;
+import static org.apache.http.HttpHeaders.IF_MODIFIED_SINCE;
+import static org.apache.http.HttpHeaders.IF_NONE_MATCH;
+import static org.apache.http.HttpHeaders.RETRY_AFTER;
 
+@Singleton
 public class HttpRequestExecutorImpl implements HttpRequestExecutor {
 
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
     private static final int BAD_REQUEST_FAMILY = 4;
-    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
     private static final Logger log = Logger.getLogger(HttpRequestExecutorImpl.class.getName());
+    private static final Headers NO_HEADERS = Headers.of();
+    private static final FlightRecorderEventType REST_CALL_EVENT =
+            FlightRecorderEventType.builder("com.atlassian.bitbucket.jenkins.RestCall", "Bitbucket REST Call")
+                    .field("method", String.class, "Method")
+                    .field("endpoint", String.class, "Endpoint")
+                    .field("statusCode", int.class, "Status Code")
+                    .field("attempts", int.class, "Attempts")
+                    .build();
     private static final int SERVER_ERROR_FAMILY = 5;
 
+    private final CircuitBreakerRegistry circuitBreakers;
+    private final ConcurrencyLimiterRegistry concurrencyLimiters;
     private final Call.Factory httpCallFactory;
+    private final ConcurrentMap<String, AtomicLong> retryCounts = new ConcurrentHashMap<>();
+    private final RetryPolicy retryPolicy;
+    private final Supplier<ScheduledExecutorService> retryScheduler;
 
-    @Inject
     public HttpRequestExecutorImpl() {
-        this(new OkHttpClient.Builder().addInterceptor(new UserAgentInterceptor()).build());
+        this(new CircuitBreakerRegistry(), new ConcurrencyLimiterRegistry(), new HttpMetricsRecorder());
+    }
+
+    @Inject
+    public HttpRequestExecutorImpl(CircuitBreakerRegistry circuitBreakers,
+                                   ConcurrencyLimiterRegistry concurrencyLimiters,
+                                   HttpMetricsRecorder metricsRecorder) {
+        this(new ServerAwareCallFactory(new OkHttpClient.Builder()
+                        .addInterceptor(new UserAgentInterceptor())
+                        .eventListenerFactory(metricsRecorder)
+                        .build()),
+                RetryPolicy.fromSystemProperties(), circuitBreakers, concurrencyLimiters, Timer::get);
     }
 
     public HttpRequestExecutorImpl(Call.Factory httpCallFactory) {
+        this(httpCallFactory, RetryPolicy.NONE);
+    }
+
+    public HttpRequestExecutorImpl(Call.Factory httpCallFactory, RetryPolicy retryPolicy) {
+        this(httpCallFactory, retryPolicy, new CircuitBreakerRegistry(), new ConcurrencyLimiterRegistry(), Timer::get);
+    }
+
+    @VisibleForTesting
+    HttpRequestExecutorImpl(Call.Factory httpCallFactory, RetryPolicy retryPolicy,
+                            CircuitBreakerRegistry circuitBreakers, ConcurrencyLimiterRegistry concurrencyLimiters,
+                            Supplier<ScheduledExecutorService> retryScheduler) {
+        this.circuitBreakers = circuitBreakers;
+        this.concurrencyLimiters = concurrencyLimiters;
         this.httpCallFactory = httpCallFactory;
+        this.retryPolicy = retryPolicy;
+        this.retryScheduler = retryScheduler;
+    }
+
+    /**
+     * Returns the utilization of the connection pools used by this executor, keyed by server id.
+     *
+     * @return a snapshot of the connection pool statistics, empty if this executor does not manage its own pools
+     */
+    public Map<String, ConnectionPoolStatistics> getConnectionPoolStatistics() {
+        if (httpCallFactory instanceof ServerAwareCallFactory) {
+            return ((ServerAwareCallFactory) httpCallFactory).getConnectionPoolStatistics();
+        }
+        return emptyMap();
+    }
+
+    /**
+     * Drops whatever this executor derived from the global Bitbucket configuration, such as the dedicated clients of
+     * servers that are no longer configured. Called whenever the configuration is saved.
+     */
+    public void onConfigurationChanged() {
+        if (httpCallFactory instanceof ServerAwareCallFactory) {
+            ((ServerAwareCallFactory) httpCallFactory).onConfigurationChanged();
+        }
+    }
+
+    /**
+     * Returns how many times requests have been retried since this executor was created, keyed by endpoint template
+     * (see {@link com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils}).
+     *
+     * @return a snapshot of the retry counts
+     */
+    public Map<String, Long> getRetryCounts() {
+        return retryCounts.entrySet().stream().collect(toMap(Map.Entry::getKey, entry -> entry.getValue().get()));
     }
 
     @Override
     public void executeDelete(HttpUrl url, BitbucketCredentials credentials) {
-        Request.Builder requestBuilder = new Request.Builder().url(url).delete();
-        executeRequest(requestBuilder, credentials, EMPTY_RESPONSE);
+        executeRequest(deleteRequest(url), credentials, EMPTY_RESPONSE);
+    }
+
+    @Override
+    public CompletableFuture<Void> executeDeleteAsync(HttpUrl url, BitbucketCredentials credentials) {
+        return executeRequestAsync(deleteRequest(url), credentials, EMPTY_RESPONSE);
     }
 
     @Override
     public <T> T executeGet(HttpUrl url, BitbucketCredentials credentials, ResponseConsumer<T> consumer) {
-        Request.Builder requestBuilder = new Request.Builder().url(url);
-        return executeRequest(requestBuilder, credentials, consumer);
+        return executeGet(url, credentials, NO_HEADERS, consumer);
+    }
+
+    @Override
+    public <T> T executeGet(HttpUrl url, BitbucketCredentials credentials, Headers headers,
+                            ResponseConsumer<T> consumer) {
+        return executeRequest(getRequest(url, headers), credentials, consumer);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executeGetAsync(HttpUrl url, BitbucketCredentials credentials,
+                                                    ResponseConsumer<T> consumer) {
+        return executeGetAsync(url, credentials, NO_HEADERS, consumer);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executeGetAsync(HttpUrl url, BitbucketCredentials credentials, Headers headers,
+                                                    ResponseConsumer<T> consumer) {
+        return executeRequestAsync(getRequest(url, headers), credentials, consumer);
     }
 
     @Override
     public <T> T executePost(HttpUrl url, BitbucketCredentials credential, String requestBodyAsJson,
                              ResponseConsumer<T> consumer, Headers headers) {
-        Request.Builder requestBuilder =
-                new Request.Builder().post(RequestBody.create(JSON, requestBodyAsJson)).url(url).headers(headers);
-        return executeRequest(requestBuilder, credential, consumer);
+        return executePost(url, credential, jsonBody(requestBodyAsJson), consumer, headers);
+    }
+
+    @Override
+    public <T> T executePost(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                             ResponseConsumer<T> consumer, Headers headers) {
+        return executeRequest(postRequest(url, requestBody, headers), credentials, consumer);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executePostAsync(HttpUrl url, BitbucketCredentials credentials,
+                                                     String requestBodyAsJson, ResponseConsumer<T> consumer,
+                                                     Headers headers) {
+        return executePostAsync(url, credentials, jsonBody(requestBodyAsJson), consumer, headers);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executePostAsync(HttpUrl url, BitbucketCredentials credentials,
+                                                     RequestBody requestBody, ResponseConsumer<T> consumer,
+                                                     Headers headers) {
+        return executeRequestAsync(postRequest(url, requestBody, headers), credentials, consumer);
+    }
+
+    @Override
+    public <T> T executeRetrySafePost(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                                      ResponseConsumer<T> consumer, Headers headers) {
+        return executeRequest(postRequest(url, requestBody, headers).tag(RetrySafe.class, RetrySafe.INSTANCE),
+                credentials, consumer);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executeRetrySafePostAsync(HttpUrl url, BitbucketCredentials credentials,
+                                                              RequestBody requestBody, ResponseConsumer<T> consumer,
+                                                              Headers headers) {
+        return executeRequestAsync(postRequest(url, requestBody, headers).tag(RetrySafe.class, RetrySafe.INSTANCE),
+                credentials, consumer);
     }
 
     @Override
     public <T> T executePut(HttpUrl url, BitbucketCredentials credentials, String requestBodyAsJson,
                             ResponseConsumer<T> consumer) {
-        Request.Builder requestBuilder =
-                new Request.Builder().put(RequestBody.create(JSON, requestBodyAsJson)).url(url);
-        return executeRequest(requestBuilder, credentials, consumer);
+        return executePut(url, credentials, jsonBody(requestBodyAsJson), consumer);
+    }
+
+    @Override
+    public <T> T executePut(HttpUrl url, BitbucketCredentials credentials, RequestBody requestBody,
+                            ResponseConsumer<T> consumer) {
+        return executeRequest(putRequest(url, requestBody), credentials, consumer);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executePutAsync(HttpUrl url, BitbucketCredentials credentials,
+                                                    String requestBodyAsJson, ResponseConsumer<T> consumer) {
+        return executePutAsync(url, credentials, jsonBody(requestBodyAsJson), consumer);
+    }
+
+    @Override
+    public <T> CompletableFuture<T> executePutAsync(HttpUrl url, BitbucketCredentials credentials,
+                                                    RequestBody requestBody, ResponseConsumer<T> consumer) {
+        return executeRequestAsync(putRequest(url, requestBody), credentials, consumer);
+    }
+
+    private static Request.Builder deleteRequest(HttpUrl url) {
+        return new Request.Builder().url(url).delete();
+    }
+
+    private static Request.Builder getRequest(HttpUrl url, Headers headers) {
+        return new Request.Builder().url(url).headers(headers);
+    }
+
+    private static RequestBody jsonBody(String requestBodyAsJson) {
+        return RequestBody.create(JSON, requestBodyAsJson);
+    }
+
+    private static Request.Builder postRequest(HttpUrl url, RequestBody requestBody, Headers headers) {
+        return new Request.Builder().post(requestBody).url(url).headers(headers);
+    }
+
+    private static Request.Builder putRequest(HttpUrl url, RequestBody requestBody) {
+        return new Request.Builder().put(requestBody).url(url);
     }
 
     private <T> T executeRequest(Request.Builder requestBuilder, BitbucketCredentials credentials,
                                  ResponseConsumer<T> consumer) {
+        addAuthentication(credentials, requestBuilder);
+        Request request = requestBuilder.build();
+        CircuitBreaker circuitBreaker = circuitBreakers.get(request.url());
+        FlightRecorderEvent event = REST_CALL_EVENT.begin();
+        long startMillis = System.currentTimeMillis();
+        int attempt = 0;
+        int statusCode = -1;
         try {
-            addAuthentication(credentials, requestBuilder);
-            Response response = httpCallFactory.newCall(requestBuilder.build()).execute();
-            int responseCode = response.code();
-
-            try (ResponseBody body = response.body()) {
-                if (response.isSuccessful()) {
-                    log.fine("Bitbucket - call successful");
-                    return consumer.consume(response);
+            while (true) {
+                attempt++;
+                if (!circuitBreaker.tryAcquire()) {
+                    throw circuitOpenException(request);
+                }
+                Response response;
+                boolean recorded = false;
+                try {
+                    Permit permit = acquirePermit(request);
+                    try {
+                        response = httpCallFactory.newCall(request).execute();
+                    } catch (IOException e) {
+                        permit.release(isOverloaded(e));
+                        circuitBreaker.record(e);
+                        recorded = true;
+                        long retryDelay = getRetryDelay(request, e, attempt, startMillis);
+                        if (retryDelay < 0) {
+                            throw toClientException(e);
+                        }
+                        sleepBeforeRetry(retryDelay);
+                        continue;
+                    } catch (RuntimeException e) {
+                        permit.discard();
+                        throw e;
+                    }
+                    statusCode = response.code();
+                    permit.release(isOverloaded(statusCode));
+                    circuitBreaker.record(statusCode);
+                    recorded = true;
+                } finally {
+                    if (!recorded) {
+                        // Interrupted or failed before an outcome, a trial request must not keep the circuit
+                        circuitBreaker.onInconclusive();
+                    }
+                }
+                long retryDelay = getRetryDelay(request, response, attempt, startMillis);
+                if (retryDelay < 0) {
+                    try {
+                        return handleResponse(request, response, consumer);
+                    } catch (IOException e) {
+                        throw toClientException(e);
+                    }
                 }
-                handleError(responseCode, body == null ? null : body.string());
+                response.close();
+                sleepBeforeRetry(retryDelay);
             }
-        } catch (ConnectException | SocketTimeoutException e) {
-            log.log(Level.FINE, "Bitbucket - Connection failed", e);
-            throw new ConnectionFailureException(e);
-        } catch (IOException e) {
-            log.log(Level.FINE, "Bitbucket - io exception", e);
-            throw new BitbucketClientException(e);
+        } finally {
+            commitEvent(event, request, attempt, statusCode);
+        }
+    }
+
+    private static void commitEvent(FlightRecorderEvent event, Request request, int attempts, int statusCode) {
+        if (event.isEnabled()) {
+            event.set("method", request.method())
+                    .set("endpoint", toEndpointTemplate(request.url()))
+                    .set("statusCode", statusCode)
+                    .set("attempts", attempts)
+                    .commit();
+        }
+    }
+
+    /**
+     * Waits until the concurrency limit of the server allows the request to be sent.
+     */
+    private Permit acquirePermit(Request request) {
+        CompletableFuture<Permit> permit =
+                concurrencyLimiters.acquire(request.url(), RequestPriority.of(request.url()));
+        try {
+            return permit.get();
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false)) {
+                // The permit was granted in the meantime
+                permit.join().discard();
+            }
+            Thread.currentThread().interrupt();
+            throw toClientException(new InterruptedIOException("Interrupted while waiting to send the request"));
+        } catch (ExecutionException e) {
+            throw new BitbucketClientException("Failed to acquire a permit to send the request", e.getCause());
+        }
+    }
+
+    private static boolean isOverloaded(IOException e) {
+        return e instanceof SocketTimeoutException;
+    }
+
+    private static boolean isOverloaded(int responseCode) {
+        return responseCode == HTTP_TOO_MANY_REQUESTS || responseCode == HTTP_BAD_GATEWAY ||
+               responseCode == HTTP_UNAVAILABLE || responseCode == HTTP_GATEWAY_TIMEOUT;
+    }
+
+    private static void sleepBeforeRetry(long delayMillis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw toClientException(new InterruptedIOException("Interrupted while waiting to retry the request"));
+        }
+    }
+
+    private <T> CompletableFuture<T> executeRequestAsync(Request.Builder requestBuilder,
+                                                         BitbucketCredentials credentials,
+                                                         ResponseConsumer<T> consumer) {
+        addAuthentication(credentials, requestBuilder);
+        AsyncRequest<T> asyncRequest = new AsyncRequest<>(requestBuilder.build(), consumer);
+        asyncRequest.attempt();
+        return asyncRequest.result;
+    }
+
+    private static ConnectionFailureException circuitOpenException(Request request) {
+        return new ConnectionFailureException(new ConnectException(
+                "Requests to " + toBaseUrl(request.url()) + " are failing fast, the server has been unreachable"));
+    }
+
+    /**
+     * Returns how long to wait before retrying a request that failed with the given exception, or a negative value if
+     * it must not be retried.
+     */
+    private long getRetryDelay(Request request, IOException e, int attempt, long startMillis) {
+        if (!isRetrySafe(request) || !retryPolicy.isRetryable(e)) {
+            return -1;
+        }
+        return getRetryDelay(request, attempt, startMillis, null);
+    }
+
+    /**
+     * Returns how long to wait before retrying a request that was answered with the given response, or a negative value
+     * if the response must be handled as is.
+     */
+    private long getRetryDelay(Request request, Response response, int attempt, long startMillis) {
+        if (!isRetrySafe(request) || !retryPolicy.isRetryable(response.code())) {
+            return -1;
+        }
+        return getRetryDelay(request, attempt, startMillis, response.header(RETRY_AFTER));
+    }
+
+    private long getRetryDelay(Request request, int attempt, long startMillis, @Nullable String retryAfter) {
+        long delay = retryPolicy.getDelayMillis(attempt, System.currentTimeMillis() - startMillis, retryAfter);
+        if (delay >= 0) {
+            String endpoint = toEndpointTemplate(request.url());
+            retryCounts.computeIfAbsent(endpoint, key -> new AtomicLong()).incrementAndGet();
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(String.format("Bitbucket - retrying %s %s in %dms (attempt %d of %d)", request.method(),
+                        endpoint, delay, attempt + 1, retryPolicy.getMaxAttempts()));
+            }
+        }
+        return delay;
+    }
+
+    private static boolean isRetrySafe(Request request) {
+        switch (request.method()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+                return true;
+            default:
+                return request.tag(RetrySafe.class) != null;
+        }
+    }
+
+    private static <T> T handleResponse(Request request, Response response,
+                                        ResponseConsumer<T> consumer) throws IOException {
+        try (ResponseBody body = response.body()) {
+            if (response.isSuccessful() || isNotModified(request, response)) {
+                log.fine("Bitbucket - call successful");
+                return consumer.consume(response);
+            }
+            handleError(response.code(), body == null ? null : body.string());
         }
         throw new UnhandledErrorException("Unhandled error", -1, null);
     }
 
+    private static boolean isNotModified(Request request, Response response) {
+        return response.code() == HTTP_NOT_MODIFIED &&
+               (request.header(IF_NONE_MATCH) != null || request.header(IF_MODIFIED_SINCE) != null);
+    }
+
+    private static BitbucketClientException toClientException(IOException e) {
+        if (e instanceof ConnectException || e instanceof SocketTimeoutException) {
+            log.log(Level.FINE, "Bitbucket - Connection failed", e);
+            return new ConnectionFailureException(e);
+        }
+        log.log(Level.FINE, "Bitbucket - io exception", e);
+        return new BitbucketClientException(e);
+    }
+
     private void addAuthentication(BitbucketCredentials credential, Request.Builder requestBuilder) {
         if (credential != ANONYMOUS_CREDENTIALS) {
             requestBuilder.addHeader(AUTHORIZATION, credential.toHeaderValue());
@@ -132,6 +487,140 @@ public class HttpRequestExecutorImpl implements HttpRequestExecutor {
         throw new UnhandledErrorException("Unhandled error", responseCode, body);
     }
 
+    /**
+     * Marks a request that is safe to retry even though its method is not idempotent.
+     */
+    private enum RetrySafe {
+        INSTANCE
+    }
+
+    /**
+     * A request executed on the HTTP client threads. Retries are scheduled rather than waited for, so no thread is
+     * blocked between attempts. Cancelling the result cancels the call in flight as well as any pending retry.
+     */
+    private class AsyncRequest<T> implements Callback {
+
+        private final CircuitBreaker circuitBreaker;
+        private final ResponseConsumer<T> consumer;
+        private final Request request;
+        private final FlightRecorderEvent event = REST_CALL_EVENT.begin();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long startMillis = System.currentTimeMillis();
+        private volatile int attempt;
+        private volatile Call call;
+        private volatile int statusCode = -1;
+        private volatile Permit permit;
+        private volatile CompletableFuture<Permit> pendingPermit;
+
+        AsyncRequest(Request request, ResponseConsumer<T> consumer) {
+            this.circuitBreaker = circuitBreakers.get(request.url());
+            this.consumer = consumer;
+            this.request = request;
+            result.whenComplete((value, throwable) -> {
+                commitEvent(event, request, attempt, statusCode);
+                if (!result.isCancelled()) {
+                    return;
+                }
+                CompletableFuture<Permit> currentPendingPermit = pendingPermit;
+                if (currentPendingPermit != null) {
+                    currentPendingPermit.cancel(false);
+                }
+                Call currentCall = call;
+                if (currentCall != null) {
+                    currentCall.cancel();
+                }
+            });
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            permit.release(isOverloaded(e));
+            circuitBreaker.record(e);
+            long retryDelay = getRetryDelay(request, e, attempt, startMillis);
+            if (retryDelay < 0) {
+                result.completeExceptionally(toClientException(e));
+            } else {
+                retryAfter(retryDelay);
+            }
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            statusCode = response.code();
+            permit.release(isOverloaded(statusCode));
+            circuitBreaker.record(statusCode);
+            long retryDelay = getRetryDelay(request, response, attempt, startMillis);
+            if (retryDelay >= 0) {
+                response.close();
+                retryAfter(retryDelay);
+                return;
+            }
+            try {
+                result.complete(handleResponse(request, response, consumer));
+            } catch (IOException e) {
+                result.completeExceptionally(toClientException(e));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        void attempt() {
+            if (result.isDone()) {
+                return;
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                result.completeExceptionally(circuitOpenException(request));
+                return;
+            }
+            CompletableFuture<Permit> nextPermit =
+                    concurrencyLimiters.acquire(request.url(), RequestPriority.of(request.url()));
+            pendingPermit = nextPermit;
+            nextPermit.whenComplete((grantedPermit, throwable) -> {
+                if (throwable == null) {
+                    send(grantedPermit);
+                    return;
+                }
+                // Cancelled along with the result, or the limiter failed: nothing was sent
+                circuitBreaker.onInconclusive();
+                result.completeExceptionally(
+                        new BitbucketClientException("Failed to acquire a permit to send the request", throwable));
+            });
+        }
+
+        private void send(Permit grantedPermit) {
+            if (result.isDone()) {
+                grantedPermit.discard();
+                circuitBreaker.onInconclusive();
+                return;
+            }
+            permit = grantedPermit;
+            attempt++;
+            Call currentCall;
+            try {
+                currentCall = httpCallFactory.newCall(request);
+                call = currentCall;
+                currentCall.enqueue(this);
+            } catch (RuntimeException e) {
+                grantedPermit.discard();
+                circuitBreaker.onInconclusive();
+                result.completeExceptionally(e);
+                return;
+            }
+            if (result.isCancelled()) {
+                // The result was cancelled while this attempt was being started
+                currentCall.cancel();
+            }
+        }
+
+        private void retryAfter(long delayMillis) {
+            try {
+                retryScheduler.get().schedule(this::attempt, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(new BitbucketClientException("Failed to schedule a retry", e));
+            }
+        }
+    }
+
     /**
      * Having this as a client level interceptor means we can configure it once to set the
      * user-agent and not have to worry about setting the header for every request.
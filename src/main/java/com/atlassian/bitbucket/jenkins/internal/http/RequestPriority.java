@@ -0,0 +1,45 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import okhttp3.HttpUrl;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.EndpointTemplateUtils.toEndpointTemplate;
+
+/**
+ * The order in which requests waiting for a Bitbucket Server instance are let through once the
+ * {@link ConcurrencyLimiterRegistry concurrency limit} of the instance has been reached. Requests of a higher priority
+ * go first, so background traffic does not hold up requests a user is waiting for, unless a request of a lower
+ * priority has been waiting for too long.
+ */
+public enum RequestPriority {
+
+    /**
+     * Requests a user or a running build waits for, such as filling in forms or resolving repositories. This is the
+     * priority of any request that does not belong to one of the other classes.
+     */
+    INTERACTIVE,
+    /**
+     * Posting build statuses and test results.
+     */
+    BUILD_STATUS,
+    /**
+     * Listing, registering and removing webhooks.
+     */
+    WEBHOOK_REGISTRATION;
+
+    /**
+     * Returns the priority of a request to the given URL, based on the REST endpoint it calls.
+     *
+     * @param url the request URL
+     * @return the priority of the request
+     */
+    public static RequestPriority of(HttpUrl url) {
+        String endpoint = toEndpointTemplate(url);
+        if (endpoint.startsWith("/rest/build-status/") || endpoint.endsWith("/builds")) {
+            return BUILD_STATUS;
+        }
+        if (endpoint.endsWith("/webhooks") || endpoint.endsWith("/webhooks/{webhookId}")) {
+            return WEBHOOK_REGISTRATION;
+        }
+        return INTERACTIVE;
+    }
+}
@@ -0,0 +1,136 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.Immutable;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+
+/**
+ * Decides whether, and after how long, a failed request to Bitbucket Server is retried. Requests are retried when the
+ * server could not be reached, timed out, answered {@code 429 Too Many Requests} or failed with a transient server
+ * error. The delay between attempts grows exponentially with random jitter, unless the server asked for a specific
+ * delay with a {@code Retry-After} header. A request is never retried past the total time budget.
+ * <p>
+ * The policy only decides <em>when</em> to retry, the caller must make sure the request is safe to repeat.
+ */
+@Immutable
+public final class RetryPolicy {
+
+    /**
+     * A policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, 0);
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final long initialDelayMillis;
+    private final int maxAttempts;
+    private final long maxDelayMillis;
+    private final long maxTotalMillis;
+
+    /**
+     * @param maxAttempts        the maximum number of attempts, including the first one
+     * @param initialDelayMillis the delay before the first retry, doubled for every following retry
+     * @param maxDelayMillis     the maximum delay between two attempts
+     * @param maxTotalMillis     the maximum time between the first attempt and the start of the last retry
+     */
+    public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis, long maxTotalMillis) {
+        this.initialDelayMillis = Math.max(0, initialDelayMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.maxTotalMillis = Math.max(0, maxTotalMillis);
+    }
+
+    /**
+     * Creates the policy configured through system properties. By default a request is attempted up to 3 times,
+     * starting with a 500ms delay, never waiting more than 10 seconds between attempts or retrying after 30 seconds.
+     *
+     * @return the configured retry policy
+     */
+    public static RetryPolicy fromSystemProperties() {
+        return new RetryPolicy(
+                (int) Math.min(parsePositiveLongFromSystemProperty("bitbucket.client.retry.attempts", 3), 10),
+                parsePositiveLongFromSystemProperty("bitbucket.client.retry.delay", 500),
+                parsePositiveLongFromSystemProperty("bitbucket.client.retry.max.delay", 10000),
+                parsePositiveLongFromSystemProperty("bitbucket.client.retry.max.total", 30000));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns whether a request that failed with the given exception may succeed when retried.
+     *
+     * @param e the failure
+     * @return {@code true} if the failure is transient
+     */
+    public boolean isRetryable(Exception e) {
+        return e instanceof ConnectException || e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Returns whether a request that was answered with the given status code may succeed when retried.
+     *
+     * @param responseCode the HTTP status code
+     * @return {@code true} if the status code signals a transient failure
+     */
+    public boolean isRetryable(int responseCode) {
+        switch (responseCode) {
+            case HTTP_TOO_MANY_REQUESTS:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns how long to wait before the next attempt, or a negative value if the request must not be retried
+     * because the maximum number of attempts or the total time budget has been used up.
+     *
+     * @param attempt       the number of attempts made so far
+     * @param elapsedMillis the time since the first attempt started
+     * @param retryAfter    the value of the {@code Retry-After} header of the failed response, if any
+     * @return the delay in milliseconds, or a negative value to stop retrying
+     */
+    public long getDelayMillis(int attempt, long elapsedMillis, @CheckForNull String retryAfter) {
+        if (attempt >= maxAttempts) {
+            return -1;
+        }
+        long delay = parseRetryAfter(retryAfter);
+        if (delay < 0) {
+            long exponentialDelay = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt - 1, 30));
+            // Equal jitter, so concurrent callers spread out without any of them retrying immediately
+            delay = exponentialDelay / 2 + ThreadLocalRandom.current().nextLong(exponentialDelay / 2 + 1);
+        }
+        return elapsedMillis + delay > maxTotalMillis ? -1 : delay;
+    }
+
+    private static long parseRetryAfter(@CheckForNull String retryAfter) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, so it must be an HTTP date
+        }
+        try {
+            ZonedDateTime retryAt = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(retryAt.getZone()), retryAt).toMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketPluginConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketServerConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.config.HttpClientProfile;
+import com.google.common.annotations.VisibleForTesting;
+import jenkins.model.GlobalConfiguration;
+import okhttp3.*;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.commons.lang3.StringUtils.removeEnd;
+
+/**
+ * Creates calls using a dedicated {@link OkHttpClient} for every Bitbucket Server instance that has a
+ * {@link HttpClientProfile}. The dedicated clients are derived from one shared base client, so they share its
+ * interceptors, but each one has its own connection pool, dispatcher, timeouts and protocols. Requests to URLs that do
+ * not belong to a server with a profile use the base client.
+ * <p>
+ * The configured servers are looked up once and kept until {@link #onConfigurationChanged()} is called, which also
+ * drops the dedicated clients of servers that are no longer configured with a profile.
+ * <p>
+ * Note that OkHttp only applies the per host request limit of the dispatcher to asynchronous calls.
+ */
+@ThreadSafe
+public class ServerAwareCallFactory implements Call.Factory {
+
+    public static final String SHARED_CLIENT_ID = "shared";
+
+    private final OkHttpClient baseClient;
+    private final ConcurrentMap<String, ServerClient> serverClients = new ConcurrentHashMap<>();
+    private final Supplier<List<BitbucketServerConfiguration>> serverSupplier;
+    private volatile List<BitbucketServerConfiguration> servers;
+
+    public ServerAwareCallFactory(OkHttpClient baseClient) {
+        this(baseClient, ServerAwareCallFactory::getConfiguredServers);
+    }
+
+    @VisibleForTesting
+    ServerAwareCallFactory(OkHttpClient baseClient, Supplier<List<BitbucketServerConfiguration>> serverSupplier) {
+        this.baseClient = baseClient;
+        this.serverSupplier = serverSupplier;
+    }
+
+    @Override
+    public Call newCall(Request request) {
+        return getClient(request.url()).newCall(request);
+    }
+
+    /**
+     * Returns the client that requests to the given URL are made with.
+     *
+     * @param url the request URL
+     * @return the dedicated client of the server the URL belongs to, or the shared client
+     */
+    public OkHttpClient getClient(HttpUrl url) {
+        String urlString = url.toString();
+        for (BitbucketServerConfiguration server : getServers()) {
+            HttpClientProfile profile = server.getHttpClientProfile();
+            if (profile != null && isServerUrl(server.getBaseUrl(), urlString)) {
+                return getServerClient(server, profile);
+            }
+        }
+        return baseClient;
+    }
+
+    /**
+     * Returns the utilization of every connection pool, keyed by server id. The base client is reported under
+     * {@link #SHARED_CLIENT_ID}.
+     *
+     * @return a snapshot of the connection pool statistics
+     */
+    public Map<String, ConnectionPoolStatistics> getConnectionPoolStatistics() {
+        Map<String, ConnectionPoolStatistics> statistics = new LinkedHashMap<>();
+        statistics.put(SHARED_CLIENT_ID, new ConnectionPoolStatistics(baseClient));
+        serverClients.forEach((serverId, serverClient) ->
+                statistics.put(serverId, new ConnectionPoolStatistics(serverClient.client)));
+        return statistics;
+    }
+
+    /**
+     * Forgets the configured servers, so they are looked up again on the next request, and drops the dedicated clients
+     * of servers that are no longer configured with a profile. Called whenever the global Bitbucket configuration is
+     * saved.
+     */
+    public void onConfigurationChanged() {
+        servers = null;
+        Set<String> profiledServerIds = new HashSet<>();
+        for (BitbucketServerConfiguration server : getServers()) {
+            if (server.getHttpClientProfile() != null) {
+                profiledServerIds.add(server.getId());
+            }
+        }
+        serverClients.entrySet().removeIf(entry -> {
+            if (profiledServerIds.contains(entry.getKey())) {
+                return false;
+            }
+            entry.getValue().client.connectionPool().evictAll();
+            return true;
+        });
+    }
+
+    @CheckForNull
+    private static List<BitbucketServerConfiguration> getConfiguredServers() {
+        try {
+            BitbucketPluginConfiguration configuration =
+                    GlobalConfiguration.all().get(BitbucketPluginConfiguration.class);
+            return configuration == null ? null : configuration.getServerList();
+        } catch (IllegalStateException e) {
+            // Jenkins is not running, so there are no configured servers
+            return null;
+        }
+    }
+
+    private static boolean isServerUrl(String baseUrl, String url) {
+        String normalizedBaseUrl = removeEnd(baseUrl, "/");
+        return url.startsWith(normalizedBaseUrl) &&
+               (url.length() == normalizedBaseUrl.length() || url.charAt(normalizedBaseUrl.length()) == '/');
+    }
+
+    private OkHttpClient createClient(HttpClientProfile profile) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(profile.getMaxRequestsPerHost());
+        return baseClient.newBuilder()
+                .connectionPool(new ConnectionPool(profile.getMaxIdleConnections(), profile.getKeepAliveSeconds(),
+                        SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(profile.getConnectTimeoutSeconds(), SECONDS)
+                .readTimeout(profile.getReadTimeoutSeconds(), SECONDS)
+                .writeTimeout(profile.getWriteTimeoutSeconds(), SECONDS)
+                .protocols(profile.isPreferHttp2() ?
+                        asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : singletonList(Protocol.HTTP_1_1))
+                .build();
+    }
+
+    private List<BitbucketServerConfiguration> getServers() {
+        List<BitbucketServerConfiguration> current = servers;
+        if (current == null) {
+            current = serverSupplier.get();
+            if (current == null) {
+                // The configuration is not loaded yet, look it up again on the next request
+                return emptyList();
+            }
+            servers = current;
+        }
+        return current;
+    }
+
+    private OkHttpClient getServerClient(BitbucketServerConfiguration server, HttpClientProfile profile) {
+        ServerClient existing = serverClients.get(server.getId());
+        if (existing != null && existing.profile.equals(profile)) {
+            return existing.client;
+        }
+        return serverClients.compute(server.getId(), (serverId, current) -> {
+            if (current != null) {
+                if (current.profile.equals(profile)) {
+                    return current;
+                }
+                // The profile has been reconfigured, drop the idle connections of the old pool
+                current.client.connectionPool().evictAll();
+            }
+            return new ServerClient(profile, createClient(profile));
+        }).client;
+    }
+
+    /**
+     * A snapshot of the utilization of a connection pool and its dispatcher.
+     */
+    public static final class ConnectionPoolStatistics {
+
+        private final int connectionCount;
+        private final int idleConnectionCount;
+        private final int queuedCallsCount;
+        private final int runningCallsCount;
+
+        ConnectionPoolStatistics(OkHttpClient client) {
+            connectionCount = client.connectionPool().connectionCount();
+            idleConnectionCount = client.connectionPool().idleConnectionCount();
+            queuedCallsCount = client.dispatcher().queuedCallsCount();
+            runningCallsCount = client.dispatcher().runningCallsCount();
+        }
+
+        public int getConnectionCount() {
+            return connectionCount;
+        }
+
+        public int getIdleConnectionCount() {
+            return idleConnectionCount;
+        }
+
+        public int getQueuedCallsCount() {
+            return queuedCallsCount;
+        }
+
+        public int getRunningCallsCount() {
+            return runningCallsCount;
+        }
+    }
+
+    private static final class ServerClient {
+
+        private final OkHttpClient client;
+        private final HttpClientProfile profile;
+
+        private ServerClient(HttpClientProfile profile, OkHttpClient client) {
+            this.client = client;
+            this.profile = profile;
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.atlassian.bitbucket.jenkins.internal.model;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Objects;
+
 import static java.util.Objects.requireNonNull;
 
 public class BitbucketRef {
@@ -21,6 +23,20 @@ public class BitbucketRef {
         this.type = requireNonNull(type, "type");
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        BitbucketRef that = (BitbucketRef) o;
+        return Objects.equals(id, that.id) &&
+               Objects.equals(displayId, that.displayId) &&
+               Objects.equals(type, that.type);
+    }
+
     public String getDisplayId() {
         return displayId;
     }
@@ -32,4 +48,9 @@ public class BitbucketRef {
     public BitbucketRefType getType() {
         return type;
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, displayId, type);
+    }
 }
@@ -3,6 +3,8 @@ package com.atlassian.bitbucket.jenkins.internal.model;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.Objects;
+
 import static java.util.Objects.requireNonNull;
 
 public class BitbucketRefChange {
@@ -27,6 +29,22 @@ public class BitbucketRefChange {
         this.type = requireNonNull(type, "type");
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        BitbucketRefChange that = (BitbucketRefChange) o;
+        return Objects.equals(ref, that.ref) &&
+               Objects.equals(refId, that.refId) &&
+               Objects.equals(fromHash, that.fromHash) &&
+               Objects.equals(toHash, that.toHash) &&
+               Objects.equals(type, that.type);
+    }
+
     public String getFromHash() {
         return fromHash;
     }
@@ -46,4 +64,9 @@ public class BitbucketRefChange {
     public BitbucketRefChangeType getType() {
         return type;
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ref, refId, fromHash, toHash, type);
+    }
 }
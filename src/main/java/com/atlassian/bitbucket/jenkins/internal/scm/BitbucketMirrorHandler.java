@@ -15,6 +15,8 @@ import hudson.util.ListBoxModel.Option;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -98,15 +100,39 @@ public class BitbucketMirrorHandler {
         BitbucketRepository repository =
                 bitbucketRepoFetcher.fetchRepo(client, mirrorFetchRequest.getProjectNameOrKey(), mirrorFetchRequest.getRepoNameOrSlug());
         BitbucketMirrorClient mirrorClient = client.getMirroredRepositoriesClient(repository.getId());
-        return mirrorClient.getMirroredRepositoryDescriptors()
+        // Request the details from every mirror at once rather than one mirror after the other
+        List<CompletableFuture<BitbucketMirroredRepository>> mirroredRepos = mirrorClient.getMirroredRepositoryDescriptors()
                 .getValues()
                 .stream()
                 .map(repoDescriptor -> fetchMirroredRepo(mirrorClient, repoDescriptor, repository.getId()))
+                .collect(Collectors.toList());
+        return mirroredRepos
+                .stream()
+                .map(BitbucketMirrorHandler::join)
                 .filter(BitbucketMirroredRepository::isAvailable)
                 .map(mirrorDetails -> new EnrichedBitbucketMirroredRepository(repository, mirrorDetails))
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Waits for the mirrored repository, rethrowing an unexpected failure as-is rather than wrapped in a
+     * {@link CompletionException}, as it would be if the details were fetched one mirror after the other.
+     */
+    private static BitbucketMirroredRepository join(CompletableFuture<BitbucketMirroredRepository> mirroredRepo) {
+        try {
+            return mirroredRepo.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
     private Option createOption(String existingSelection,
                                 EnrichedBitbucketMirroredRepository mirroredRepo) {
         String mirrorName = mirroredRepo.getMirroringDetails().getMirrorName();
@@ -126,16 +152,19 @@ public class BitbucketMirrorHandler {
         }
     }
 
-    private BitbucketMirroredRepository fetchMirroredRepo(BitbucketMirrorClient client,
-                                                          BitbucketMirroredRepositoryDescriptor repoDescriptor,
-                                                          int repositoryId) {
-        try {
-            return client.getRepositoryDetails(repoDescriptor);
-        } catch (BitbucketClientException e) {
+    private CompletableFuture<BitbucketMirroredRepository> fetchMirroredRepo(BitbucketMirrorClient client,
+                                                                             BitbucketMirroredRepositoryDescriptor repoDescriptor,
+                                                                             int repositoryId) {
+        return client.getRepositoryDetailsAsync(repoDescriptor).exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (!(cause instanceof BitbucketClientException)) {
+                // Only a mirror that could not be reached is tolerated, anything else is a bug
+                throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+            }
             LOGGER.log(FINE, "Failed to retrieve repository information from mirror: " +
-                             repoDescriptor.getMirrorServer().getName(), e);
+                             repoDescriptor.getMirrorServer().getName(), cause);
             return new BitbucketMirroredRepository(false, emptyMap(),
                     repoDescriptor.getMirrorServer().getName(), repositoryId, BitbucketMirroredRepositoryStatus.NOT_MIRRORED);
-        }
+        });
     }
 }
@@ -9,6 +9,8 @@ import com.atlassian.bitbucket.jenkins.internal.credentials.GlobalCredentialsPro
 import com.atlassian.bitbucket.jenkins.internal.credentials.JenkinsToBitbucketCredentials;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketBuildStatus;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketCICapabilities;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEvent;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEventType;
 import com.cloudbees.plugins.credentials.Credentials;
 import com.google.common.annotations.VisibleForTesting;
 import hudson.Extension;
@@ -28,6 +30,13 @@ public class BuildStatusPoster extends RunListener<Run<?, ?>> {
     private static final String BUILD_STATUS_ERROR_MSG = "Failed to post build status, additional information:";
     private static final String BUILD_STATUS_FORMAT =
             "Posting build status of %s to %s for commit id [%s] and ref '%s'";
+    private static final FlightRecorderEventType BUILD_STATUS_EVENT = FlightRecorderEventType
+            .builder("com.atlassian.bitbucket.jenkins.BuildStatusPost", "Bitbucket Build Status Post")
+            .field("job", String.class, "Job")
+            .field("server", String.class, "Server")
+            .field("state", String.class, "State")
+            .field("success", boolean.class, "Success")
+            .build();
     private static final Logger LOGGER = Logger.getLogger(BuildStatusPoster.class.getName());
     private static final String NO_SERVER_MSG =
             "Failed to post build status as the provided Bitbucket Server config does not exist";
@@ -76,6 +85,10 @@ public class BuildStatusPoster extends RunListener<Run<?, ?>> {
     private void postBuildStatus(BitbucketServerConfiguration server, BitbucketRevisionAction revisionAction,
                                  Run<?, ?> run, TaskListener listener) {
         GlobalCredentialsProvider globalCredentialsProvider = server.getGlobalCredentialsProvider(run.getParent());
+        FlightRecorderEvent recorderEvent = BUILD_STATUS_EVENT.begin()
+                .set("job", run.getParent().getFullName())
+                .set("server", server.getServerName());
+        boolean success = false;
         try {
             BitbucketClientFactory bbsClient = getBbsClient(server, globalCredentialsProvider);
             BitbucketCICapabilities ciCapabilities = bbsClient.getCapabilityClient().getCICapabilities();
@@ -90,14 +103,18 @@ public class BuildStatusPoster extends RunListener<Run<?, ?>> {
             listener.getLogger().println(String.format(BUILD_STATUS_FORMAT,
                     buildStatus.getState(), server.getServerName(), revisionAction.getRevisionSha1(),
                     buildStatus.getRef()));
+            recorderEvent.set("state", buildStatus.getState());
 
             bbsClient.getBuildStatusClient(revisionAction.getRevisionSha1(), revisionAction.getBitbucketSCMRepo(), ciCapabilities)
                     .post(buildStatus);
+            success = true;
         } catch (RuntimeException e) {
             String errorMsg = BUILD_STATUS_ERROR_MSG + ' ' + e.getMessage();
             LOGGER.info(errorMsg);
             listener.getLogger().println(errorMsg);
             LOGGER.log(Level.FINE, "Stacktrace from build status failure", e);
+        } finally {
+            recorderEvent.set("success", success).commit();
         }
     }
 
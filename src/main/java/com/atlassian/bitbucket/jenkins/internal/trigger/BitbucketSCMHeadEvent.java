@@ -0,0 +1,149 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirrorServer;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketNamedLink;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChange;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChangeType;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefType;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMSource;
+import hudson.scm.SCM;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.plugins.git.GitBranchSCMHead;
+import jenkins.plugins.git.GitBranchSCMRevision;
+import jenkins.plugins.git.GitTagSCMHead;
+import jenkins.plugins.git.GitTagSCMRevision;
+import jenkins.scm.api.*;
+
+import javax.annotation.CheckForNull;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.unmodifiableMap;
+import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
+
+/**
+ * Tells the {@link SCMSource}s building a repository that some of its branches or tags were created, updated or
+ * removed, so multibranch projects only look at the heads that changed instead of indexing every head again.
+ * <p>
+ * A webhook is turned into one event per kind of change, see {@link #of}. An event only matches the
+ * {@link BitbucketSCMSource}s of the repository, on the server and, for mirror synchronized webhooks, the mirror it
+ * came from, and the plain Git sources building one of its clone URLs. Branches are reported as
+ * {@link GitBranchSCMHead}s and tags as {@link GitTagSCMHead}s, so sources discovering tags see them change too.
+ */
+final class BitbucketSCMHeadEvent extends SCMHeadEvent<RefsChangedWebhookEvent> {
+
+    private final List<BitbucketRefChange> changes;
+    private final Predicate<String> isMatchingServer;
+
+    private BitbucketSCMHeadEvent(Type type, RefsChangedWebhookEvent payload, List<BitbucketRefChange> changes,
+                                  Predicate<String> isMatchingServer) {
+        super(type, payload, payload.getRepository().getSlug());
+        this.changes = changes;
+        this.isMatchingServer = isMatchingServer;
+    }
+
+    /**
+     * Creates the events for a webhook: a {@link Type#CREATED CREATED} event for the branches and tags added, an
+     * {@link Type#UPDATED UPDATED} event for those updated and a {@link Type#REMOVED REMOVED} event for those deleted,
+     * skipping the kinds of change the webhook does not contain.
+     *
+     * @param payload          the webhook
+     * @param isMatchingServer whether the repository of the webhook is on the server with the given id
+     * @return the events to fire
+     */
+    static List<BitbucketSCMHeadEvent> of(RefsChangedWebhookEvent payload, Predicate<String> isMatchingServer) {
+        Map<BitbucketRefChangeType, List<BitbucketRefChange>> changesByType =
+                new EnumMap<>(BitbucketRefChangeType.class);
+        payload.getChanges().stream()
+                .filter(change -> change.getRef().getType() != null)
+                .forEach(change -> changesByType.computeIfAbsent(change.getType(), type -> new ArrayList<>())
+                        .add(change));
+        List<BitbucketSCMHeadEvent> events = new ArrayList<>(changesByType.size());
+        changesByType.forEach((type, changes) ->
+                events.add(new BitbucketSCMHeadEvent(toEventType(type), payload, changes, isMatchingServer)));
+        return events;
+    }
+
+    @Override
+    public String getSourceName() {
+        return getPayload().getRepository().getName();
+    }
+
+    @Override
+    public Map<SCMHead, SCMRevision> heads(SCMSource source) {
+        if (!isMatch(source)) {
+            return emptyMap();
+        }
+        Map<SCMHead, SCMRevision> heads = new HashMap<>();
+        for (BitbucketRefChange change : changes) {
+            String name = change.getRef().getDisplayId();
+            // A removed head has no revision
+            boolean removed = getType() == Type.REMOVED;
+            if (change.getRef().getType() == BitbucketRefType.TAG) {
+                // The time the tag was created is not part of the webhook, the time it was pushed is the closest
+                GitTagSCMHead head = new GitTagSCMHead(name, getPayload().getDate().getTime());
+                heads.put(head, removed ? null : new GitTagSCMRevision(head, change.getToHash()));
+            } else {
+                GitBranchSCMHead head = new GitBranchSCMHead(name);
+                heads.put(head, removed ? null : new GitBranchSCMRevision(head, change.getToHash()));
+            }
+        }
+        return unmodifiableMap(heads);
+    }
+
+    @Override
+    public boolean isMatch(SCMNavigator navigator) {
+        return false;
+    }
+
+    @Override
+    public boolean isMatch(SCMSource source) {
+        RefsChangedWebhookEvent payload = getPayload();
+        BitbucketRepository repository = payload.getRepository();
+        if (source instanceof BitbucketSCMSource) {
+            BitbucketSCMSource bitbucketSource = (BitbucketSCMSource) source;
+            return equalsIgnoreCase(bitbucketSource.getProjectKey(), repository.getProject().getKey()) &&
+                   equalsIgnoreCase(bitbucketSource.getRepositorySlug(), repository.getSlug()) &&
+                   isMatchingMirror(bitbucketSource.getMirrorName()) &&
+                   isMatchingServer.test(bitbucketSource.getServerId());
+        }
+        if (source instanceof AbstractGitSCMSource) {
+            String remote = ((AbstractGitSCMSource) source).getRemote();
+            return repository.getCloneUrls().stream()
+                    .map(BitbucketNamedLink::getHref)
+                    .anyMatch(cloneUrl -> equalsIgnoreCase(cloneUrl, remote));
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isMatch(SCM scm) {
+        // Jobs building an SCM on their own are triggered by the BitbucketWebhookTrigger instead
+        return false;
+    }
+
+    private static Type toEventType(BitbucketRefChangeType type) {
+        switch (type) {
+            case ADD:
+                return Type.CREATED;
+            case DELETE:
+                return Type.REMOVED;
+            default:
+                return Type.UPDATED;
+        }
+    }
+
+    private boolean isMatchingMirror(@CheckForNull String mirrorName) {
+        RefsChangedWebhookEvent payload = getPayload();
+        if (!(payload instanceof MirrorSynchronizedWebhookEvent)) {
+            return true;
+        }
+        return ((MirrorSynchronizedWebhookEvent) payload).getMirrorServer()
+                .map(BitbucketMirrorServer::getName)
+                .orElse("")
+                .equals(defaultString(mirrorName));
+    }
+}
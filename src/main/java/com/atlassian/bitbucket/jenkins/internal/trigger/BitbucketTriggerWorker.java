@@ -1,5 +1,9 @@
 package com.atlassian.bitbucket.jenkins.internal.trigger;
 
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChange;
+import com.atlassian.bitbucket.jenkins.internal.trigger.RefChangeTriggerDecider.Decision;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEvent;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEventType;
 import hudson.Util;
 import hudson.model.Action;
 import hudson.model.Job;
@@ -20,9 +24,16 @@ public class BitbucketTriggerWorker implements Runnable {
 
     private static final Action[] ACTION_ARRAY = new Action[0];
     private static final Logger LOGGER = Logger.getLogger(BitbucketTriggerWorker.class.getName());
+    private static final FlightRecorderEventType POLL_EVENT =
+            FlightRecorderEventType.builder("com.atlassian.bitbucket.jenkins.TriggerPoll", "Bitbucket Trigger Poll")
+                    .field("job", String.class, "Job")
+                    .field("changesFound", boolean.class, "Changes Found")
+                    .field("pollSkipped", boolean.class, "Poll Skipped")
+                    .build();
     private final List<Action> actions = new ArrayList<>();
     @CheckForNull
     private final Job<?, ?> job;
+    private final Map<String, String> refChanges = new TreeMap<>();
     private final SCMTriggerItem triggerItem;
 
     public BitbucketTriggerWorker(
@@ -30,8 +41,24 @@ public class BitbucketTriggerWorker implements Runnable {
             SCMTriggerItem triggerItem,
             Action causeAction,
             List<Action> additionalActions) {
+        this(job, triggerItem, causeAction, additionalActions, Collections.emptyList());
+    }
+
+    /**
+     * Creates a worker which, when given the ref changes of the webhook, decides from them whether to build instead
+     * of polling the repository, whenever the outcome of polling can be predicted.
+     *
+     * @see RefChangeTriggerDecider
+     */
+    public BitbucketTriggerWorker(
+            @CheckForNull Job<?, ?> job,
+            SCMTriggerItem triggerItem,
+            Action causeAction,
+            List<Action> additionalActions,
+            Collection<BitbucketRefChange> refChanges) {
         actions.add(causeAction);
         actions.addAll(additionalActions);
+        refChanges.forEach(refChange -> this.refChanges.put(refChange.getRefId(), refChange.getToHash()));
         this.triggerItem = triggerItem;
         this.job = job;
     }
@@ -45,12 +72,13 @@ public class BitbucketTriggerWorker implements Runnable {
             return false;
         }
         BitbucketTriggerWorker runner = (BitbucketTriggerWorker) o;
-        return Objects.equals(job, runner.job);
+        // Workers with different ref changes must not be merged, or the changes of one would never be looked at
+        return Objects.equals(job, runner.job) && Objects.equals(refChanges, runner.refChanges);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(job);
+        return Objects.hash(job, refChanges);
     }
 
     @Override
@@ -67,11 +95,28 @@ public class BitbucketTriggerWorker implements Runnable {
                     "Starting polling: "
                             + DateFormat.getDateTimeInstance().format(new Date(start)));
 
-            PollingResult result = triggerItem.poll(listener);
-            logger.println("Poll complete. Took " + Util.getTimeSpanString(System.currentTimeMillis() - start));
+            FlightRecorderEvent recorderEvent = POLL_EVENT.begin();
+            Decision decision = refChanges.isEmpty() ? Decision.POLL :
+                    RefChangeTriggerDecider.decide(job, triggerItem, refChanges);
+            boolean hasChanges;
+            if (decision == Decision.POLL) {
+                PollingResult result = triggerItem.poll(listener);
+                hasChanges = result.hasChanges();
+                logger.println("Poll complete. Took " + Util.getTimeSpanString(System.currentTimeMillis() - start));
+                if (hasChanges) {
+                    logger.println("Changes since last build: " + result.change);
+                }
+            } else {
+                hasChanges = decision == Decision.BUILD;
+                logger.println("Polling skipped, the webhook changed " + refChanges + (hasChanges ?
+                        " which includes revisions not built yet" : " which does not include revisions to build"));
+            }
+            recorderEvent.set("job", job.getFullName())
+                    .set("changesFound", hasChanges)
+                    .set("pollSkipped", decision != Decision.POLL)
+                    .commit();
 
-            if (result.hasChanges()) {
-                logger.println("Changes since last build: " + result.change);
+            if (hasChanges) {
                 triggerItem.scheduleBuild2(0, actions.toArray(ACTION_ARRAY));
             }
         } catch (IOException | RuntimeException e) {
@@ -0,0 +1,180 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirrorServer;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChange;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChangeType;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
+import com.google.common.annotations.VisibleForTesting;
+import jenkins.util.Timer;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static java.lang.String.format;
+
+/**
+ * Merges the webhooks received for the same repository within a short window, so a burst of pushes, rebases or
+ * mirror synchronizations scans and triggers the jobs of the repository once instead of once per webhook.
+ * <p>
+ * The first webhook for a repository opens a window of {@code bitbucket.webhook.coalescing.window.millis}. Webhooks of
+ * the same kind received for the repository until the window closes are merged into it: the changes of every ref are
+ * kept, with the hash each ref was first changed from and the latest hash it was changed to. Refs changed and mirror
+ * synchronized webhooks, and mirror synchronizations from different mirrors, are never merged together. The window
+ * defaults to 0, which handles every webhook on its own as soon as it is received.
+ * <p>
+ * Every submitted webhook gets a future completed once the merged webhook it belongs to has been handled, so the
+ * caller can tell when a webhook has actually been processed rather than just parked in its window.
+ */
+@ThreadSafe
+@Singleton
+public class BitbucketWebhookCoalescer {
+
+    /**
+     * How long to wait for more webhooks for a repository before handling them. Defaults to 0, which disables
+     * coalescing.
+     */
+    public static final long WINDOW_MILLIS =
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.coalescing.window.millis", 0);
+
+    private static final Logger LOGGER = Logger.getLogger(BitbucketWebhookCoalescer.class.getName());
+
+    private final Supplier<ScheduledExecutorService> executor;
+    @GuardedBy("this")
+    private final Map<String, PendingEvent> pendingEvents = new HashMap<>();
+    private final long windowMillis;
+
+    @Inject
+    public BitbucketWebhookCoalescer() {
+        this(WINDOW_MILLIS, Timer::get);
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookCoalescer(long windowMillis, Supplier<ScheduledExecutorService> executor) {
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Hands a webhook to the handler, merged with the other webhooks received for the same repository within the
+     * window. Without a window, the handler is called right away on the calling thread.
+     *
+     * @param event   the webhook
+     * @param handler the handler of the merged webhook
+     * @return a future completed once the handler has been called with the merged webhook, or completed
+     *         exceptionally if the handler failed
+     */
+    public CompletableFuture<Void> submit(RefsChangedWebhookEvent event, Consumer<RefsChangedWebhookEvent> handler) {
+        if (windowMillis <= 0) {
+            handler.accept(event);
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = toKey(event);
+        PendingEvent pendingEvent;
+        synchronized (this) {
+            pendingEvent = pendingEvents.get(key);
+            if (pendingEvent != null) {
+                pendingEvent.merge(event);
+                return pendingEvent.handled;
+            }
+            pendingEvent = new PendingEvent(event);
+            pendingEvents.put(key, pendingEvent);
+        }
+        executor.get().schedule(() -> flush(key, handler), windowMillis, TimeUnit.MILLISECONDS);
+        return pendingEvent.handled;
+    }
+
+    private static String toKey(RefsChangedWebhookEvent event) {
+        BitbucketRepository repository = event.getRepository();
+        String mirrorName = event instanceof MirrorSynchronizedWebhookEvent ?
+                ((MirrorSynchronizedWebhookEvent) event).getMirrorServer()
+                        .map(BitbucketMirrorServer::getName)
+                        .orElse("") : null;
+        return String.join("\n", event.getClass().getName(), String.valueOf(mirrorName),
+                String.valueOf(repository.getSelfLink()), repository.getProject().getKey().toLowerCase(Locale.ROOT),
+                repository.getSlug().toLowerCase(Locale.ROOT));
+    }
+
+    private void flush(String key, Consumer<RefsChangedWebhookEvent> handler) {
+        PendingEvent pendingEvent;
+        synchronized (this) {
+            pendingEvent = pendingEvents.remove(key);
+        }
+        if (pendingEvent == null) {
+            return;
+        }
+        if (pendingEvent.mergedCount > 1) {
+            LOGGER.fine(format("Merged %d webhooks for %s/%s", pendingEvent.mergedCount,
+                    pendingEvent.latest.getRepository().getProject().getKey(),
+                    pendingEvent.latest.getRepository().getSlug()));
+        }
+        try {
+            handler.accept(pendingEvent.toEvent());
+            pendingEvent.handled.complete(null);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to process a webhook", e);
+            pendingEvent.handled.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * The webhooks merged so far for a repository.
+     */
+    private static final class PendingEvent {
+
+        private final Map<String, BitbucketRefChange> changes = new LinkedHashMap<>();
+        private final CompletableFuture<Void> handled = new CompletableFuture<>();
+        private RefsChangedWebhookEvent latest;
+        private int mergedCount;
+
+        private PendingEvent(RefsChangedWebhookEvent event) {
+            latest = event;
+            merge(event);
+        }
+
+        private static BitbucketRefChange merge(BitbucketRefChange first, BitbucketRefChange last) {
+            BitbucketRefChangeType type = last.getType();
+            if (first.getType() == BitbucketRefChangeType.ADD && type == BitbucketRefChangeType.UPDATE) {
+                // The ref did not exist before the first webhook
+                type = BitbucketRefChangeType.ADD;
+            }
+            return new BitbucketRefChange(last.getRef(), last.getRefId(), first.getFromHash(), last.getToHash(),
+                    type);
+        }
+
+        private void merge(RefsChangedWebhookEvent event) {
+            mergedCount++;
+            // Webhooks can be processed out of order, the one sent last wins
+            boolean isLatest = !event.getDate().before(latest.getDate());
+            if (isLatest) {
+                latest = event;
+            }
+            for (BitbucketRefChange change : event.getChanges()) {
+                changes.merge(change.getRefId(), change, (existing, added) ->
+                        isLatest ? merge(existing, added) : merge(added, existing));
+            }
+        }
+
+        private RefsChangedWebhookEvent toEvent() {
+            List<BitbucketRefChange> mergedChanges = new ArrayList<>(changes.values());
+            if (latest instanceof MirrorSynchronizedWebhookEvent) {
+                MirrorSynchronizedWebhookEvent mirrorEvent = (MirrorSynchronizedWebhookEvent) latest;
+                return new MirrorSynchronizedWebhookEvent(mirrorEvent.getActor().orElse(null),
+                        mirrorEvent.getMirrorServer().orElse(null), mirrorEvent.getEventKey(), mirrorEvent.getDate(),
+                        mergedChanges, mirrorEvent.getRepository(), mirrorEvent.getSyncType().orElse(null));
+            }
+            return new RefsChangedWebhookEvent(latest.getActor().orElse(null), latest.getEventKey(),
+                    latest.getDate(), mergedChanges, latest.getRepository());
+        }
+    }
+}
@@ -5,28 +5,19 @@ import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirrorServer;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketNamedLink;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChangeType;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
-import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCM;
-import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
-import hudson.plugins.git.GitSCM;
-import hudson.scm.SCM;
+import com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookJobIndex.IndexedJob;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEvent;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEventType;
 import hudson.security.ACL;
 import hudson.security.ACLContext;
-import hudson.triggers.Trigger;
-import hudson.triggers.TriggerDescriptor;
-import jenkins.model.Jenkins;
 import jenkins.model.ParameterizedJobMixIn;
-import jenkins.plugins.git.GitBranchSCMHead;
-import jenkins.plugins.git.GitBranchSCMRevision;
-import jenkins.scm.api.*;
-import jenkins.triggers.SCMTriggerItem;
-import org.eclipse.jgit.transport.RemoteConfig;
-import org.jenkinsci.plugins.workflow.cps.CpsScmFlowDefinition;
-import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import jenkins.scm.api.SCMHeadEvent;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -38,29 +29,43 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
 @Singleton
 public class BitbucketWebhookConsumer {
 
+    private static final FlightRecorderEventType JOB_MATCHING_EVENT = FlightRecorderEventType
+            .builder("com.atlassian.bitbucket.jenkins.WebhookJobMatching", "Bitbucket Webhook Job Matching")
+            .field("repository", String.class, "Repository")
+            .field("jobsScanned", int.class, "Jobs Scanned")
+            .field("jobsMatched", int.class, "Jobs Matched")
+            .build();
     private static final Logger LOGGER = Logger.getLogger(BitbucketWebhookConsumer.class.getName());
 
     @Inject
     private BitbucketPluginConfiguration bitbucketPluginConfiguration;
-
-    void process(RefsChangedWebhookEvent event) {
+    @Inject
+    private BitbucketWebhookCoalescer coalescer;
+    @Inject
+    private BitbucketWebhookJobIndex jobIndex;
+
+    /**
+     * Processes a refs changed webhook, possibly merged with other webhooks for the same repository.
+     *
+     * @param event the webhook
+     * @return a future completed once the webhook has been processed
+     */
+    CompletableFuture<Void> process(RefsChangedWebhookEvent event) {
         BitbucketRepository repository = event.getRepository();
         LOGGER.fine(format("Received refs changed event from repo: %s/%s  ", repository.getProject().getKey(), repository.getSlug()));
-        if (!isEligibleRefs(event)) {
-            return;
-        }
-        RefChangedDetails refChangedDetails = new RefChangedDetails(event);
-        triggerJob(event, refChangedDetails);
+        return coalescer.submit(event, this::handle);
     }
 
-    void process(MirrorSynchronizedWebhookEvent event) {
+    /**
+     * Processes a mirror synchronized webhook, possibly merged with other webhooks for the same mirror and repository.
+     *
+     * @param event the webhook
+     * @return a future completed once the webhook has been processed
+     */
+    CompletableFuture<Void> process(MirrorSynchronizedWebhookEvent event) {
         BitbucketRepository repository = event.getRepository();
         LOGGER.fine(format("Received Mirror Synchronized changed event from repo: %s/%s  ", repository.getProject().getKey(), repository.getSlug()));
-        if (!isEligibleRefs(event)) {
-            return;
-        }
-        RefChangedDetails refChangedDetails = new RefChangedDetails(event);
-        triggerJob(event, refChangedDetails);
+        return coalescer.submit(event, this::handle);
     }
 
     private static Set<String> eligibleRefs(RefsChangedWebhookEvent event) {
@@ -71,90 +76,24 @@ public class BitbucketWebhookConsumer {
                 .collect(Collectors.toSet());
     }
 
-    private static Optional<? extends SCM> getScmFromWorkflowJob(WorkflowJob job) {
-        if (job.getDefinition() instanceof CpsScmFlowDefinition) {
-            CpsScmFlowDefinition scmFlowDefinition = (CpsScmFlowDefinition) job.getDefinition();
-            return of(scmFlowDefinition.getScm());
-        } else {
-            LOGGER.info(format("Webhook triggering job with no SCM: %s ", job.getFullDisplayName()));
-            return empty();
-        }
-    }
-
-    private static Collection<? extends SCM> getScms(ParameterizedJobMixIn.ParameterizedJob<?, ?> job) {
-        SCMTriggerItem triggerItem = SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem(job);
-        if (triggerItem instanceof WorkflowJob) {
-            return getScmFromWorkflowJob((WorkflowJob) triggerItem)
-                    .map(Collections::singleton)
-                    .orElse(Collections.emptySet());
-        } else if (triggerItem != null) {
-            return triggerItem.getSCMs();
-        }
-        return Collections.emptySet();
-    }
-
-    private static boolean hasMatchingRepository(RefChangedDetails refChangedDetails,
-                                                 GitSCM scm) {
-        return scm.getRepositories().stream()
-                .anyMatch(scmRepo -> matchingRepo(refChangedDetails.getCloneLinks(), scmRepo));
-    }
-
-    private static boolean matchingRepo(Set<String> cloneLinks, RemoteConfig repo) {
-        return repo.getURIs().stream().anyMatch(uri -> {
-            String uriStr = uri.toString();
-            return cloneLinks.stream()
-                    .anyMatch(link -> link.equalsIgnoreCase(uriStr));
-        });
-    }
-
-    private static boolean matchingRepo(BitbucketRepository repository, BitbucketSCMRepository scmRepo) {
-        return scmRepo.getProjectKey().equalsIgnoreCase(repository.getProject().getKey()) &&
-               scmRepo.getRepositorySlug().equalsIgnoreCase(repository.getSlug());
-    }
-
-    private static Optional<TriggerDetails> toTriggerDetails(ParameterizedJobMixIn.ParameterizedJob<?, ?> job) {
-        BitbucketWebhookTriggerImpl trigger = triggerFrom(job);
-        if (trigger != null) {
-            return of(new TriggerDetails(job, trigger));
-        }
-        return empty();
-    }
-
-    @Nullable
-    private static BitbucketWebhookTriggerImpl triggerFrom(ParameterizedJobMixIn.ParameterizedJob<?, ?> job) {
-        Map<TriggerDescriptor, Trigger<?>> triggers = job.getTriggers();
-        for (Trigger<?> candidate : triggers.values()) {
-            if (candidate instanceof BitbucketWebhookTriggerImpl) {
-                return (BitbucketWebhookTriggerImpl) candidate;
-            }
+    private boolean isMatchingJob(RefChangedDetails refChangedDetails, IndexedJob indexedJob) {
+        if (!indexedJob.isBitbucketSCM()) {
+            // Plain Git jobs are only indexed by the clone URLs they build
+            return true;
         }
-        return null;
-    }
-
-    private boolean hasMatchingRepository(RefChangedDetails refChangedDetails,
-                                          ParameterizedJobMixIn.ParameterizedJob<?, ?> job) {
-        Collection<? extends SCM> scms = getScms(job);
-        for (SCM scm : scms) {
-            if (scm instanceof GitSCM) {
-                return hasMatchingRepository(refChangedDetails, (GitSCM) scm);
-            } else if (scm instanceof BitbucketSCM) {
-                return hasMatchingRepository(refChangedDetails, (BitbucketSCM) scm);
-            }
+        if (refChangedDetails.isMirrorSyncEvent() &&
+            !refChangedDetails.getMirrorName().equals(indexedJob.getMirrorName())) {
+            return false;
         }
-        return false;
+        return isMatchingServer(refChangedDetails.getRepository(), indexedJob.getServerId());
     }
 
-    private boolean hasMatchingRepository(RefChangedDetails refChangedDetails,
-                                          BitbucketSCM scm) {
-        if (refChangedDetails.isMirrorSyncEvent() && !refChangedDetails.getMirrorName().equals(scm.getMirrorName())) {
-            return false;
-        }
-        return bitbucketPluginConfiguration.getServerById(scm.getServerId())
+    private boolean isMatchingServer(BitbucketRepository repository, @Nullable String serverId) {
+        return bitbucketPluginConfiguration.getServerById(serverId)
                 .map(serverConfig -> {
-                    String selfLink = refChangedDetails.getRepository().getSelfLink();
+                    String selfLink = repository.getSelfLink();
                     if (isBlank(selfLink) || selfLink.startsWith(serverConfig.getBaseUrl())) {
-                        return scm.getRepositories().stream()
-                                .anyMatch(scmRepo -> matchingRepo(refChangedDetails.getRepository(), scmRepo));
+                        return true;
                     }
                     LOGGER.info(format("Base URL of incoming repository selflink - [%s] and bitbucket server configured URL - [%s] seems to be be different",
                             isBlank(selfLink) ? "unknown" : selfLink,
@@ -165,56 +104,59 @@ public class BitbucketWebhookConsumer {
 
     private boolean isEligibleRefs(RefsChangedWebhookEvent event) {
         if (eligibleRefs(event).isEmpty()) {
-            LOGGER.fine("Skipping processing of refs changed event because no refs have been added or updated");
+            LOGGER.fine("Not triggering jobs for refs changed event because no refs have been added or updated");
             return false;
         }
         return true;
     }
 
-    private void triggerJob(RefsChangedWebhookEvent event,
-                            RefChangedDetails refChangedDetails) {
+    private void handle(RefsChangedWebhookEvent event) {
         try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
-            BitbucketWebhookTriggerRequest.Builder requestBuilder = BitbucketWebhookTriggerRequest.builder();
-            event.getActor().ifPresent(requestBuilder::actor);
-
-            Jenkins.get().getAllItems(ParameterizedJobMixIn.ParameterizedJob.class)
-                    .stream()
-                    .map(BitbucketWebhookConsumer::toTriggerDetails)
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .filter(triggerDetails -> hasMatchingRepository(refChangedDetails, triggerDetails.getJob()))
-                    .peek(triggerDetails -> LOGGER.fine("Triggering " + triggerDetails.getJob().getFullDisplayName()))
-                    .forEach(triggerDetails -> triggerDetails.getTrigger().trigger(requestBuilder.build()));
-            //fire the head event to indicate to the SCMSources that changes have happened.
-            BitbucketSCMHeadEvent.fireNow(new BitbucketSCMHeadEvent(SCMEvent.Type.UPDATED, event, event.getRepository().getSlug()));
+            if (isEligibleRefs(event)) {
+                triggerJob(event);
+            }
+            // Tell the SCM sources of the repository which of their heads changed
+            BitbucketSCMHeadEvent.of(event, serverId -> isMatchingServer(event.getRepository(), serverId))
+                    .forEach(SCMHeadEvent::fireNow);
         }
     }
 
-    private static class BitbucketSCMHeadEvent extends SCMHeadEvent<RefsChangedWebhookEvent> {
-
-        public BitbucketSCMHeadEvent(Type type, RefsChangedWebhookEvent payload, String origin) {
-            super(type, payload, origin);
-        }
+    private void triggerJob(RefsChangedWebhookEvent event) {
+        RefChangedDetails refChangedDetails = event instanceof MirrorSynchronizedWebhookEvent ?
+                new RefChangedDetails((MirrorSynchronizedWebhookEvent) event) : new RefChangedDetails(event);
+        BitbucketWebhookTriggerRequest.Builder requestBuilder = BitbucketWebhookTriggerRequest.builder()
+                .refChanges(event.getChanges().stream()
+                        .filter(refChange -> refChange.getType() != BitbucketRefChangeType.DELETE)
+                        .collect(Collectors.toList()));
+        event.getActor().ifPresent(requestBuilder::actor);
 
-        @Override
-        public String getSourceName() {
-            return getPayload().getRepository().getName();
-        }
-
-        @Override
-        public Map<SCMHead, SCMRevision> heads(SCMSource source) {
-            return getPayload().getChanges().stream().collect(Collectors.toMap(change -> new GitBranchSCMHead(change.getRef().getDisplayId()), change -> new GitBranchSCMRevision(new GitBranchSCMHead(change.getRef().getDisplayId()), change.getToHash())));
-        }
-
-        @Override
-        public boolean isMatch(SCMNavigator navigator) {
-            return false;
-        }
-
-        @Override
-        public boolean isMatch(SCM scm) {
-            return false; //see comment on the overriden method
+        FlightRecorderEvent recorderEvent = JOB_MATCHING_EVENT.begin();
+        BitbucketRepository repository = event.getRepository();
+        Collection<IndexedJob> candidates = jobIndex.getJobs(repository.getProject().getKey(),
+                repository.getSlug(), refChangedDetails.getCloneLinks());
+        List<TriggerDetails> matchingJobs = candidates.stream()
+                .filter(indexedJob -> isMatchingJob(refChangedDetails, indexedJob))
+                .map(BitbucketWebhookConsumer::toTriggerDetails)
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toList());
+        recorderEvent.set("repository", repository.getProject().getKey() + "/" + repository.getSlug())
+                .set("jobsScanned", candidates.size())
+                .set("jobsMatched", matchingJobs.size())
+                .commit();
+
+        matchingJobs.stream()
+                .peek(triggerDetails -> LOGGER.fine("Triggering " + triggerDetails.getJob().getFullDisplayName()))
+                .forEach(triggerDetails -> triggerDetails.getTrigger().trigger(requestBuilder.build()));
+    }
+
+    private static Optional<TriggerDetails> toTriggerDetails(IndexedJob indexedJob) {
+        ParameterizedJobMixIn.ParameterizedJob<?, ?> job = indexedJob.getJob();
+        BitbucketWebhookTriggerImpl trigger = job == null ? null : BitbucketWebhookJobIndex.getTrigger(job);
+        if (trigger != null) {
+            return of(new TriggerDetails(job, trigger));
         }
+        return empty();
     }
 
     private static final class RefChangedDetails {
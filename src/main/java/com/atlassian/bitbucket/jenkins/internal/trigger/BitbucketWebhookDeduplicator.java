@@ -0,0 +1,149 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirrorServer;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static java.util.stream.Collectors.joining;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Remembers the webhooks received recently, so a webhook delivered more than once, for instance because Bitbucket
+ * Server timed out waiting for the answer and sent it again, is only processed once.
+ * <p>
+ * A webhook is identified by its {@code X-Request-Id} header. When the header is missing, it is identified by a hash
+ * of its event key, mirror, repository and the hash every ref was changed to. A refs changed webhook and the mirror
+ * synchronized webhook of the same change are not duplicates: jobs building from the mirror have to wait for the
+ * latter. Webhooks are remembered for {@code bitbucket.webhook.dedup.ttl.millis}, and at most
+ * {@code bitbucket.webhook.dedup.max.entries} of them are remembered. Setting either to 0 disables deduplication.
+ */
+@ThreadSafe
+@Singleton
+public class BitbucketWebhookDeduplicator {
+
+    /**
+     * The maximum number of webhooks remembered. Defaults to 10000.
+     */
+    public static final int MAX_ENTRIES =
+            (int) Math.min(parsePositiveLongFromSystemProperty("bitbucket.webhook.dedup.max.entries", 10000), 1000000);
+    /**
+     * How long a webhook is remembered. Defaults to 10 minutes.
+     */
+    public static final long TTL_MILLIS =
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.dedup.ttl.millis", 10 * 60 * 1000);
+
+    private final LongSupplier clock;
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final int maxEntries;
+    @GuardedBy("this")
+    private final LinkedHashMap<String, Long> receivedAt = new LinkedHashMap<>();
+    private final long ttlMillis;
+
+    @Inject
+    public BitbucketWebhookDeduplicator() {
+        this(MAX_ENTRIES, TTL_MILLIS, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookDeduplicator(int maxEntries, long ttlMillis, LongSupplier clock) {
+        this.clock = clock;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the key identifying a webhook.
+     *
+     * @param requestId the {@code X-Request-Id} header of the webhook, if set
+     * @param event     the webhook
+     * @return the key of the webhook
+     */
+    public static String toKey(@Nullable String requestId, RefsChangedWebhookEvent event) {
+        if (isNotBlank(requestId)) {
+            return "request:" + requestId;
+        }
+        BitbucketRepository repository = event.getRepository();
+        String mirrorName = event instanceof MirrorSynchronizedWebhookEvent ?
+                ((MirrorSynchronizedWebhookEvent) event).getMirrorServer()
+                        .map(BitbucketMirrorServer::getName)
+                        .orElse("") : "";
+        String changes = event.getChanges().stream()
+                .map(change -> change.getRefId() + "=" + change.getToHash() + "/" + change.getType())
+                .sorted()
+                .collect(joining(","));
+        return "hash:" + sha256Hex(String.join("\n", event.getEventKey(), mirrorName,
+                String.valueOf(repository.getSelfLink()), String.valueOf(repository.getId()), changes));
+    }
+
+    /**
+     * @return the number of webhooks recognized as duplicates
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * @return the number of webhooks currently remembered
+     */
+    public synchronized int getSize() {
+        return receivedAt.size();
+    }
+
+    /**
+     * Forgets a webhook, so it is processed if delivered again. This is used when the webhook could not be accepted.
+     *
+     * @param key the key of the webhook
+     */
+    public synchronized void forget(String key) {
+        receivedAt.remove(key);
+    }
+
+    /**
+     * Remembers a webhook, unless it has been received recently already.
+     *
+     * @param key the key of the webhook, see {@link #toKey}
+     * @return {@code true} if the webhook should be processed, {@code false} if it is a duplicate
+     */
+    public boolean register(String key) {
+        if (maxEntries == 0 || ttlMillis == 0) {
+            return true;
+        }
+        long now = clock.getAsLong();
+        synchronized (this) {
+            expire(now);
+            if (receivedAt.containsKey(key)) {
+                duplicateCount.incrementAndGet();
+                return false;
+            }
+            receivedAt.put(key, now);
+            if (receivedAt.size() > maxEntries) {
+                Iterator<String> eldest = receivedAt.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return true;
+    }
+
+    @GuardedBy("this")
+    private void expire(long now) {
+        // Entries are in the order they were received, so the expired entries are at the head
+        Iterator<Map.Entry<String, Long>> entries = receivedAt.entrySet().iterator();
+        while (entries.hasNext() && now - entries.next().getValue() >= ttlMillis) {
+            entries.remove();
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package com.atlassian.bitbucket.jenkins.internal.trigger;
 
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRepository;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEvent;
+import com.atlassian.bitbucket.jenkins.internal.util.FlightRecorderEventType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import hudson.Extension;
 import hudson.model.UnprotectedRootAction;
 import hudson.util.HttpResponses;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses.HttpResponseException;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.verb.POST;
@@ -14,38 +20,75 @@ import javax.annotation.CheckForNull;
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
 
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Receives the webhooks of Bitbucket Server. Webhooks larger than {@code bitbucket.webhook.max.payload.bytes} are
+ * rejected, and webhooks for a repository nothing builds, or only deleting refs of a repository no multibranch project
+ * builds, are acknowledged without being fully parsed. Any other webhook is validated and parsed on the request
+ * thread, then queued on the {@link BitbucketWebhookQueue} and answered with {@code 202 Accepted}, or with
+ * {@code 503 Service Unavailable} if the queue is full. Webhooks delivered more than once are answered with
+ * {@code 202 Accepted} without being queued again, see {@link BitbucketWebhookDeduplicator}.
+ */
 @Extension
 public class BitbucketWebhookEndpoint implements UnprotectedRootAction {
 
     public static final String BIBUCKET_WEBHOOK_URL = "bitbucket-server-webhook";
     public static final String X_EVENT_KEY = "X-Event-Key";
+    public static final String X_REQUEST_ID = "X-Request-Id";
 
     private static final String APPLICATION_JSON = "application/json";
     private static final Logger LOGGER = Logger.getLogger(BitbucketWebhookEndpoint.class.getName());
+    /**
+     * The largest webhook body accepted, in bytes. Defaults to 10 MiB.
+     */
+    private static final int MAX_PAYLOAD_BYTES = (int) Math.min(
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.max.payload.bytes", 10 * 1024 * 1024),
+            Integer.MAX_VALUE - 1);
+    private static final int RETRY_AFTER_SECONDS = 30;
+    private static final FlightRecorderEventType WEBHOOK_RECEIVED_EVENT = FlightRecorderEventType
+            .builder("com.atlassian.bitbucket.jenkins.WebhookReceived", "Bitbucket Webhook Received")
+            .field("eventType", String.class, "Event Type")
+            .field("repository", String.class, "Repository")
+            .millisField("parseTime", "Parse Time")
+            .build();
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Inject
-    private BitbucketWebhookConsumer webhookConsumer;
+    private BitbucketWebhookDeduplicator deduplicator;
+    @Inject
+    private BitbucketWebhookJobIndex jobIndex;
+    @Inject
+    private BitbucketWebhookQueue webhookQueue;
 
     @POST
     public HttpResponse doTrigger(StaplerRequest request, StaplerResponse response) {
-        validateContentType(request);
-
-        String eventKey = getEventKey(request);
-
-        switch (BitbucketWebhookEvent.findByEventId(eventKey)) {
-            case DIAGNOSTICS_PING_EVENT:
-                return org.kohsuke.stapler.HttpResponses.ok();
-            case REPO_REF_CHANGE:
-                return processRefChangedEvent(request);
-            case MIRROR_SYNCHRONIZED_EVENT:
-                return processMirrorSynchronizedEvent(request);
-            default:
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-                return HttpResponses.errorJSON("Event is not supported: " + eventKey);
+        FlightRecorderEvent recorderEvent = WEBHOOK_RECEIVED_EVENT.begin();
+        try {
+            validateContentType(request);
+
+            String eventKey = getEventKey(request);
+            recorderEvent.set("eventType", eventKey);
+
+            switch (BitbucketWebhookEvent.findByEventId(eventKey)) {
+                case DIAGNOSTICS_PING_EVENT:
+                    return org.kohsuke.stapler.HttpResponses.ok();
+                case REPO_REF_CHANGE:
+                    return queueEvent(request, response, eventKey, RefsChangedWebhookEvent.class, recorderEvent);
+                case MIRROR_SYNCHRONIZED_EVENT:
+                    return queueEvent(request, response, eventKey, MirrorSynchronizedWebhookEvent.class,
+                            recorderEvent);
+                default:
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    return HttpResponses.errorJSON("Event is not supported: " + eventKey);
+            }
+        } finally {
+            recorderEvent.commit();
         }
     }
 
@@ -76,10 +119,17 @@ public class BitbucketWebhookEndpoint implements UnprotectedRootAction {
         return eventKey;
     }
 
-    private <T> T parse(StaplerRequest request, Class<T> type) {
+    private <T extends RefsChangedWebhookEvent> T parse(String payload, Class<T> type,
+                                                        FlightRecorderEvent recorderEvent) {
+        long start = System.nanoTime();
         try {
-            T event = objectMapper.readValue(request.getInputStream(), type);
+            T event = objectMapper.readValue(payload, type);
             LOGGER.fine(String.format("Payload: %s", event));
+            if (recorderEvent.isEnabled()) {
+                BitbucketRepository repository = event.getRepository();
+                recorderEvent.set("parseTime", NANOSECONDS.toMillis(System.nanoTime() - start))
+                        .set("repository", repository.getProject().getKey() + "/" + repository.getSlug());
+            }
             return event;
         } catch (IOException e) {
             String error = "Failed to parse the body: " + e.getMessage();
@@ -88,16 +138,76 @@ public class BitbucketWebhookEndpoint implements UnprotectedRootAction {
         }
     }
 
-    private HttpResponse processMirrorSynchronizedEvent(StaplerRequest request) {
-        MirrorSynchronizedWebhookEvent event = parse(request, MirrorSynchronizedWebhookEvent.class);
-        webhookConsumer.process(event);
-        return org.kohsuke.stapler.HttpResponses.ok();
+    private HttpResponse queueEvent(StaplerRequest request, StaplerResponse response, String eventKey,
+                                    Class<? extends RefsChangedWebhookEvent> type, FlightRecorderEvent recorderEvent) {
+        String payload = readBody(request);
+        if (isIgnorable(summarize(payload))) {
+            LOGGER.fine(String.format("Ignoring a %s webhook without changes to build", eventKey));
+            return org.kohsuke.stapler.HttpResponses.status(HttpServletResponse.SC_ACCEPTED);
+        }
+        RefsChangedWebhookEvent event = parse(payload, type, recorderEvent);
+        String deliveryKey = BitbucketWebhookDeduplicator.toKey(request.getHeader(X_REQUEST_ID), event);
+        if (!deduplicator.register(deliveryKey)) {
+            LOGGER.fine(String.format("Ignoring a duplicate %s webhook", eventKey));
+            return org.kohsuke.stapler.HttpResponses.status(HttpServletResponse.SC_ACCEPTED);
+        }
+        if (!webhookQueue.offer(eventKey, payload, event)) {
+            // Let the webhook through when Bitbucket Server delivers it again
+            deduplicator.forget(deliveryKey);
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            throw org.kohsuke.stapler.HttpResponses.errorWithoutStack(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    "The webhook queue is full");
+        }
+        return org.kohsuke.stapler.HttpResponses.status(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    private static String readBody(StaplerRequest request) {
+        if (request.getContentLength() > MAX_PAYLOAD_BYTES) {
+            throw payloadTooLarge();
+        }
+        try {
+            byte[] body = IOUtils.toByteArray(new BoundedInputStream(request.getInputStream(), MAX_PAYLOAD_BYTES + 1));
+            if (body.length > MAX_PAYLOAD_BYTES) {
+                throw payloadTooLarge();
+            }
+            return new String(body, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            String error = "Failed to read the body: " + e.getMessage();
+            LOGGER.severe(error);
+            throw org.kohsuke.stapler.HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, error);
+        }
+    }
+
+    private static HttpResponseException payloadTooLarge() {
+        String error = "The body is larger than " + MAX_PAYLOAD_BYTES + " bytes";
+        LOGGER.severe(error);
+        return org.kohsuke.stapler.HttpResponses.errorWithoutStack(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                error);
+    }
+
+    /**
+     * Webhooks only deleting refs are ignored unless an SCM source builds the repository, as jobs are not triggered by
+     * deleted refs, but the branches removed from a multibranch project are.
+     */
+    private boolean isIgnorable(WebhookPayloadSummary summary) {
+        return summary.isIgnorable() || (summary.isRemovingRefsOnly() &&
+                                         !jobIndex.hasSourceOwners(summary.getProjectKey(), summary.getSlug(),
+                                                 summary.getCloneUrls()));
     }
 
-    private HttpResponse processRefChangedEvent(StaplerRequest request) {
-        RefsChangedWebhookEvent event = parse(request, RefsChangedWebhookEvent.class);
-        webhookConsumer.process(event);
-        return org.kohsuke.stapler.HttpResponses.ok();
+    /**
+     * Reads only what is needed to know whether the webhook can be ignored, before parsing all of it.
+     */
+    private WebhookPayloadSummary summarize(String payload) {
+        try {
+            return WebhookPayloadSummary.read(objectMapper, payload,
+                    summary -> jobIndex.isSubscribed(summary.getProjectKey(), summary.getSlug(),
+                            summary.getCloneUrls()));
+        } catch (IOException e) {
+            String error = "Failed to parse the body: " + e.getMessage();
+            LOGGER.severe(error);
+            throw org.kohsuke.stapler.HttpResponses.errorWithoutStack(HttpServletResponse.SC_BAD_REQUEST, error);
+        }
     }
 
     private void validateContentType(StaplerRequest request) {
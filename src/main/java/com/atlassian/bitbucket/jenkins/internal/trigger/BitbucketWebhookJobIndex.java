@@ -0,0 +1,541 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCM;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMSource;
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.plugins.git.GitSCM;
+import hudson.scm.SCM;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.triggers.Trigger;
+import hudson.triggers.TriggerDescriptor;
+import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn.ParameterizedJob;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import jenkins.triggers.SCMTriggerItem;
+import org.jenkinsci.plugins.workflow.cps.CpsScmFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.stream.Collectors.toSet;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * An index of the jobs with a {@link BitbucketWebhookTriggerImpl}, keyed by the repositories they build, so a webhook
+ * only has to look at the jobs subscribed to its repository instead of every job on the instance. Jobs building a
+ * {@link BitbucketSCM} are keyed by project key and repository slug, and jobs building a plain {@link GitSCM} by clone
+ * URL, both case-insensitively. Each entry records the server id and mirror name of the job, which the caller checks
+ * against the event.
+ * <p>
+ * Jobs building a {@link BitbucketSCM} are also keyed by the server, repository and mirror they register a webhook
+ * for, so {@link #hasRegisteredWebhook} can tell whether another job already registered it without looking at every
+ * job.
+ * <p>
+ * Multibranch projects and organization folders are indexed by the repositories of their SCM sources too, so
+ * {@link #isSubscribed} can tell whether anything on the instance cares about a repository. They are never returned by
+ * {@link #getJobs}, as they are notified through {@code SCMHeadEvent}s instead.
+ * <p>
+ * The index is built from every job the first time it is used, and kept up to date as jobs are created, saved,
+ * renamed, moved and deleted. It is discarded and rebuilt when Jenkins reloads its configuration from disk.
+ */
+@ThreadSafe
+@Singleton
+public class BitbucketWebhookJobIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(BitbucketWebhookJobIndex.class.getName());
+    private static final int MAX_BUILD_ATTEMPTS = 3;
+
+    @GuardedBy("this")
+    private boolean built;
+    @GuardedBy("this")
+    private final Map<String, Set<String>> jobsByCloneUrl = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<String, Set<String>> jobsByRepository = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<String, Set<String>> jobsByRegistration = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<String, IndexedJob> jobs = new HashMap<>();
+    private final Supplier<Jenkins> jenkins;
+    /**
+     * Counts the changes to jobs while the index is not built, so a build which read a job before it changed starts
+     * over.
+     */
+    @GuardedBy("this")
+    private long modificationCount;
+
+    @Inject
+    public BitbucketWebhookJobIndex() {
+        this(Jenkins::get);
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookJobIndex(Supplier<Jenkins> jenkins) {
+        this.jenkins = jenkins;
+    }
+
+    /**
+     * Returns the jobs building the given repository, either as a Bitbucket SCM repository or through one of its clone
+     * URLs.
+     *
+     * @param projectKey the key of the project of the repository
+     * @param slug       the slug of the repository
+     * @param cloneUrls  the clone URLs of the repository
+     * @return the jobs subscribed to the repository
+     */
+    public Collection<IndexedJob> getJobs(String projectKey, String slug, Collection<String> cloneUrls) {
+        build();
+        synchronized (this) {
+            Set<String> fullNames = getSubscribers(projectKey, slug, cloneUrls);
+            List<IndexedJob> result = new ArrayList<>(fullNames.size());
+            fullNames.stream()
+                    .map(jobs::get)
+                    .filter(indexedJob -> !indexedJob.sourceOwner)
+                    .forEach(result::add);
+            return result;
+        }
+    }
+
+    /**
+     * Returns whether an SCM source owner, such as a multibranch project, builds the given repository.
+     *
+     * @param projectKey the key of the project of the repository
+     * @param slug       the slug of the repository
+     * @param cloneUrls  the clone URLs of the repository
+     * @return {@code true} if an SCM source owner builds the repository, {@code false} otherwise
+     */
+    public boolean hasSourceOwners(String projectKey, String slug, Collection<String> cloneUrls) {
+        build();
+        synchronized (this) {
+            return getSubscribers(projectKey, slug, cloneUrls).stream()
+                    .anyMatch(fullName -> jobs.get(fullName).sourceOwner);
+        }
+    }
+
+    /**
+     * Returns whether a job other than the given one has registered the webhook of a repository.
+     *
+     * @param excludedJob the full name of the job asking, which is not considered
+     * @param repository  the repository
+     * @return {@code true} if another job with a {@link BitbucketWebhookTriggerImpl} builds the repository from the
+     *         same server and mirror, and has registered its webhook
+     */
+    public boolean hasRegisteredWebhook(String excludedJob, BitbucketSCMRepository repository) {
+        build();
+        synchronized (this) {
+            return jobsByRegistration.getOrDefault(BitbucketWebhookRegistrar.toKey(repository), emptySet()).stream()
+                    .filter(fullName -> !fullName.equals(excludedJob))
+                    .map(jobs::get)
+                    .anyMatch(indexedJob -> indexedJob.bitbucketSCM != null &&
+                                            indexedJob.bitbucketSCM.isWebhookRegistered());
+        }
+    }
+
+    /**
+     * Returns whether a job with a {@link BitbucketWebhookTriggerImpl} still relies on the webhook of a repository.
+     *
+     * @param repository the repository the webhook is registered for
+     * @return {@code true} if a triggered job builds the repository from the same server and mirror, {@code false}
+     *         otherwise
+     */
+    public boolean isRegistrationUsed(BitbucketSCMRepository repository) {
+        build();
+        synchronized (this) {
+            return !jobsByRegistration.getOrDefault(BitbucketWebhookRegistrar.toKey(repository), emptySet())
+                    .isEmpty();
+        }
+    }
+
+    /**
+     * Returns whether a job or an SCM source owner builds the given repository, either as a Bitbucket repository or
+     * through one of its clone URLs.
+     *
+     * @param projectKey the key of the project of the repository
+     * @param slug       the slug of the repository
+     * @param cloneUrls  the clone URLs of the repository
+     * @return {@code true} if a webhook for the repository has anything to trigger, {@code false} otherwise
+     */
+    public boolean isSubscribed(String projectKey, String slug, Collection<String> cloneUrls) {
+        build();
+        synchronized (this) {
+            return !getSubscribers(projectKey, slug, cloneUrls).isEmpty();
+        }
+    }
+
+    /**
+     * Discards the index, so it is rebuilt from every job the next time it is used.
+     */
+    public synchronized void invalidate() {
+        built = false;
+        modificationCount++;
+        jobs.clear();
+        jobsByCloneUrl.clear();
+        jobsByRegistration.clear();
+        jobsByRepository.clear();
+    }
+
+    /**
+     * Re-indexes a job after it has been created or changed.
+     *
+     * @param item the item that changed
+     */
+    void onChanged(Item item) {
+        if (!(item instanceof ParameterizedJob || item instanceof SCMSourceOwner)) {
+            return;
+        }
+        synchronized (this) {
+            if (!built) {
+                // The job will be read when the index is built, which starts over if it is being built already
+                modificationCount++;
+                return;
+            }
+        }
+        // Read the job outside of the lock, the job may be locked by the thread saving it
+        IndexedJob indexedJob = item instanceof ParameterizedJob ? toIndexedJob((ParameterizedJob<?, ?>) item) :
+                toIndexedSourceOwner((SCMSourceOwner) item);
+        synchronized (this) {
+            if (built) {
+                remove(item.getFullName());
+                if (indexedJob != null) {
+                    add(indexedJob);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes an item, and every item it contains, from the index.
+     *
+     * @param fullName the full name of the item
+     */
+    synchronized void onDeleted(String fullName) {
+        modificationCount++;
+        String childPrefix = fullName + "/";
+        new ArrayList<>(jobs.keySet()).stream()
+                .filter(name -> name.equals(fullName) || name.startsWith(childPrefix))
+                .forEach(this::remove);
+    }
+
+    void onLocationChanged(Item item, String oldFullName) {
+        onDeleted(oldFullName);
+        onChanged(item);
+    }
+
+    @Nullable
+    static BitbucketWebhookTriggerImpl getTrigger(ParameterizedJob<?, ?> job) {
+        Map<TriggerDescriptor, Trigger<?>> triggers = job.getTriggers();
+        for (Trigger<?> candidate : triggers.values()) {
+            if (candidate instanceof BitbucketWebhookTriggerImpl) {
+                return (BitbucketWebhookTriggerImpl) candidate;
+            }
+        }
+        return null;
+    }
+
+    private static Collection<? extends SCM> getScms(ParameterizedJob<?, ?> job) {
+        SCMTriggerItem triggerItem = SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem(job);
+        if (triggerItem instanceof WorkflowJob) {
+            WorkflowJob workflowJob = (WorkflowJob) triggerItem;
+            if (workflowJob.getDefinition() instanceof CpsScmFlowDefinition) {
+                return singleton(((CpsScmFlowDefinition) workflowJob.getDefinition()).getScm());
+            }
+            LOGGER.info(format("Webhook triggering job with no SCM: %s ", job.getFullDisplayName()));
+            return emptySet();
+        } else if (triggerItem != null) {
+            return triggerItem.getSCMs();
+        }
+        return emptySet();
+    }
+
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    @CheckForNull
+    private static IndexedJob toIndexedJob(ParameterizedJob<?, ?> job) {
+        if (getTrigger(job) == null) {
+            return null;
+        }
+        // Only the first supported SCM of a job is matched against webhooks
+        for (SCM scm : getScms(job)) {
+            if (scm instanceof GitSCM) {
+                Set<String> cloneUrls = ((GitSCM) scm).getRepositories().stream()
+                        .flatMap(remoteConfig -> remoteConfig.getURIs().stream())
+                        .map(uri -> normalize(uri.toString()))
+                        .collect(toSet());
+                return new IndexedJob(job.getFullName(), cloneUrls, emptySet(), emptySet(), null, false);
+            } else if (scm instanceof BitbucketSCM) {
+                BitbucketSCM bitbucketSCM = (BitbucketSCM) scm;
+                Set<String> repositories = bitbucketSCM.getRepositories().stream()
+                        .map(BitbucketWebhookJobIndex::toRepositoryKey)
+                        .collect(toSet());
+                Set<String> registrations = bitbucketSCM.getRepositories().stream()
+                        .map(BitbucketWebhookRegistrar::toKey)
+                        .collect(toSet());
+                return new IndexedJob(job.getFullName(), emptySet(), repositories, registrations, bitbucketSCM,
+                        false);
+            }
+        }
+        return null;
+    }
+
+    @CheckForNull
+    private static IndexedJob toIndexedSourceOwner(SCMSourceOwner owner) {
+        Set<String> cloneUrls = new HashSet<>();
+        Set<String> repositories = new HashSet<>();
+        for (SCMSource source : owner.getSCMSources()) {
+            String remote = null;
+            if (source instanceof BitbucketSCMSource) {
+                BitbucketSCMSource bitbucketSource = (BitbucketSCMSource) source;
+                if (isNotBlank(bitbucketSource.getProjectKey()) && isNotBlank(bitbucketSource.getRepositorySlug())) {
+                    repositories.add(toRepositoryKey(bitbucketSource.getProjectKey(),
+                            bitbucketSource.getRepositorySlug()));
+                }
+                remote = bitbucketSource.getRemote();
+            } else if (source instanceof AbstractGitSCMSource) {
+                remote = ((AbstractGitSCMSource) source).getRemote();
+            }
+            if (isNotBlank(remote)) {
+                cloneUrls.add(normalize(remote));
+            }
+        }
+        if (cloneUrls.isEmpty() && repositories.isEmpty()) {
+            return null;
+        }
+        return new IndexedJob(owner.getFullName(), cloneUrls, repositories, emptySet(), null, true);
+    }
+
+    private static String toRepositoryKey(BitbucketSCMRepository repository) {
+        return toRepositoryKey(repository.getProjectKey(), repository.getRepositorySlug());
+    }
+
+    private static String toRepositoryKey(String projectKey, String slug) {
+        return normalize(projectKey) + "/" + normalize(slug);
+    }
+
+    @GuardedBy("this")
+    private void add(IndexedJob indexedJob) {
+        jobs.put(indexedJob.getFullName(), indexedJob);
+        indexedJob.cloneUrls.forEach(cloneUrl ->
+                jobsByCloneUrl.computeIfAbsent(cloneUrl, key -> new HashSet<>()).add(indexedJob.getFullName()));
+        indexedJob.repositories.forEach(repository ->
+                jobsByRepository.computeIfAbsent(repository, key -> new HashSet<>()).add(indexedJob.getFullName()));
+        indexedJob.registrations.forEach(registration ->
+                jobsByRegistration.computeIfAbsent(registration, key -> new HashSet<>())
+                        .add(indexedJob.getFullName()));
+    }
+
+    /**
+     * Builds the index from every job, unless it is built already. The jobs are read outside of the lock, as a job
+     * may be locked by the thread saving it, and the index is only swapped in under the lock. If jobs change while
+     * they are read, they are read again, up to {@link #MAX_BUILD_ATTEMPTS} times.
+     */
+    private void build() {
+        for (int attempt = 1; ; attempt++) {
+            long startModificationCount;
+            synchronized (this) {
+                if (built) {
+                    return;
+                }
+                startModificationCount = modificationCount;
+            }
+            List<IndexedJob> indexedJobs = readJobs();
+            synchronized (this) {
+                if (built) {
+                    return;
+                }
+                if (startModificationCount == modificationCount || attempt == MAX_BUILD_ATTEMPTS) {
+                    jobs.clear();
+                    jobsByCloneUrl.clear();
+                    jobsByRegistration.clear();
+                    jobsByRepository.clear();
+                    indexedJobs.forEach(this::add);
+                    built = true;
+                    LOGGER.fine(format("Indexed %d jobs triggered by Bitbucket webhooks", jobs.size()));
+                    return;
+                }
+            }
+        }
+    }
+
+    private List<IndexedJob> readJobs() {
+        List<IndexedJob> indexedJobs = new ArrayList<>();
+        try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+            // A single pass over the items, looking at each of them once
+            for (Item item : jenkins.get().getAllItems(Item.class)) {
+                IndexedJob indexedJob = null;
+                if (item instanceof ParameterizedJob) {
+                    indexedJob = toIndexedJob((ParameterizedJob<?, ?>) item);
+                } else if (item instanceof SCMSourceOwner) {
+                    indexedJob = toIndexedSourceOwner((SCMSourceOwner) item);
+                }
+                if (indexedJob != null) {
+                    indexedJobs.add(indexedJob);
+                }
+            }
+        }
+        return indexedJobs;
+    }
+
+    @GuardedBy("this")
+    private Set<String> getSubscribers(String projectKey, String slug, Collection<String> cloneUrls) {
+        Set<String> fullNames = new HashSet<>(jobsByRepository.getOrDefault(toRepositoryKey(projectKey, slug),
+                emptySet()));
+        for (String cloneUrl : cloneUrls) {
+            fullNames.addAll(jobsByCloneUrl.getOrDefault(normalize(cloneUrl), emptySet()));
+        }
+        return fullNames;
+    }
+
+    @GuardedBy("this")
+    private void remove(String fullName) {
+        IndexedJob indexedJob = jobs.remove(fullName);
+        if (indexedJob == null) {
+            return;
+        }
+        indexedJob.cloneUrls.forEach(cloneUrl -> removeFrom(jobsByCloneUrl, cloneUrl, fullName));
+        indexedJob.repositories.forEach(repository -> removeFrom(jobsByRepository, repository, fullName));
+        indexedJob.registrations.forEach(registration -> removeFrom(jobsByRegistration, registration, fullName));
+    }
+
+    private static void removeFrom(Map<String, Set<String>> index, String key, String fullName) {
+        Set<String> fullNames = index.get(key);
+        if (fullNames != null && fullNames.remove(fullName) && fullNames.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * A job subscribed to a repository.
+     */
+    public static final class IndexedJob {
+
+        private final BitbucketSCM bitbucketSCM;
+        private final Set<String> cloneUrls;
+        private final String fullName;
+        private final String mirrorName;
+        private final Set<String> registrations;
+        private final Set<String> repositories;
+        private final String serverId;
+        private final boolean sourceOwner;
+
+        private IndexedJob(String fullName, Set<String> cloneUrls, Set<String> repositories,
+                           Set<String> registrations, @Nullable BitbucketSCM bitbucketSCM, boolean sourceOwner) {
+            this.bitbucketSCM = bitbucketSCM;
+            this.cloneUrls = cloneUrls;
+            this.fullName = fullName;
+            this.mirrorName = bitbucketSCM == null ? null : bitbucketSCM.getMirrorName();
+            this.registrations = registrations;
+            this.repositories = repositories;
+            this.serverId = bitbucketSCM == null ? null : bitbucketSCM.getServerId();
+            this.sourceOwner = sourceOwner;
+        }
+
+        public String getFullName() {
+            return fullName;
+        }
+
+        /**
+         * @return the mirror the job builds from, or {@code null} if it is not a Bitbucket SCM job
+         */
+        @CheckForNull
+        public String getMirrorName() {
+            return mirrorName;
+        }
+
+        /**
+         * @return the id of the server the job builds from, or {@code null} if it is not a Bitbucket SCM job
+         */
+        @CheckForNull
+        public String getServerId() {
+            return serverId;
+        }
+
+        /**
+         * @return {@code true} if the job builds a {@link BitbucketSCM}, {@code false} if it builds a plain
+         *         {@link GitSCM}
+         */
+        public boolean isBitbucketSCM() {
+            return !repositories.isEmpty();
+        }
+
+        /**
+         * @return the job, or {@code null} if it no longer exists
+         */
+        @CheckForNull
+        ParameterizedJob<?, ?> getJob() {
+            return Jenkins.get().getItemByFullName(fullName, ParameterizedJob.class);
+        }
+    }
+
+    @Extension
+    public static class JobListener extends ItemListener {
+
+        @Inject
+        private BitbucketWebhookJobIndex index;
+
+        @Override
+        public void onCopied(Item src, Item item) {
+            index.onChanged(item);
+        }
+
+        @Override
+        public void onCreated(Item item) {
+            index.onChanged(item);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            index.onDeleted(item.getFullName());
+        }
+
+        @Override
+        public void onLoaded() {
+            index.invalidate();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            index.onLocationChanged(item, oldFullName);
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            index.onChanged(item);
+        }
+    }
+
+    @Extension
+    public static class JobSaveListener extends SaveableListener {
+
+        @Inject
+        private BitbucketWebhookJobIndex index;
+
+        @Override
+        public void onChange(Saveable saveable, XmlFile file) {
+            if (saveable instanceof ParameterizedJob || saveable instanceof SCMSourceOwner) {
+                index.onChanged((Item) saveable);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Publishes how webhooks are processed through the Jenkins metrics plugin, when it is installed:
+ * <ul>
+ *     <li>{@code bitbucket.webhook.queue.depth} and {@code .rejected}, gauges of the webhooks waiting to be processed
+ *     and of those rejected because the queue was full</li>
+ *     <li>{@code bitbucket.webhook.queue.wait.p50}, {@code .p95} and {@code .p99}, gauges of how long webhooks waited
+ *     to be processed, in milliseconds</li>
+ *     <li>{@code bitbucket.webhook.duplicates}, a gauge of the webhooks ignored because they had been delivered
+ *     already</li>
+ *     <li>{@code bitbucket.webhook.trigger.poll.skipped.ratio}, a gauge of the share of webhook triggers decided from
+ *     the webhook payload instead of polling the repository</li>
+ * </ul>
+ */
+@Extension(optional = true)
+public class BitbucketWebhookMetricProvider extends MetricProvider {
+
+    private static final String PREFIX = name("bitbucket", "webhook");
+    private static final String QUEUE_PREFIX = name(PREFIX, "queue");
+
+    @Inject
+    private BitbucketWebhookDeduplicator deduplicator;
+    @Inject
+    private BitbucketWebhookQueue webhookQueue;
+
+    @Override
+    public MetricSet getMetricSet() {
+        return () -> {
+            Map<String, Metric> metrics = new HashMap<>();
+            metrics.put(name(QUEUE_PREFIX, "depth"), (Gauge<Integer>) () -> webhookQueue.getStatistics().getDepth());
+            metrics.put(name(QUEUE_PREFIX, "rejected"),
+                    (Gauge<Long>) () -> webhookQueue.getStatistics().getRejectedCount());
+            for (String percentile : new String[]{"p50", "p95", "p99"}) {
+                metrics.put(name(QUEUE_PREFIX, "wait", percentile), (Gauge<Long>) () ->
+                        webhookQueue.getStatistics().getWaitTime().getPercentiles().get(percentile));
+            }
+            metrics.put(name(PREFIX, "duplicates"), (Gauge<Long>) () -> deduplicator.getDuplicateCount());
+            metrics.put(name(PREFIX, "trigger", "poll", "skipped", "ratio"),
+                    (Gauge<Double>) () -> RefChangeTriggerDecider.getStatistics().getSkippedPollRatio());
+            return metrics;
+        };
+    }
+}
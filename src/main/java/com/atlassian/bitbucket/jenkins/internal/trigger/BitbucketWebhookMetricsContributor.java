@@ -0,0 +1,46 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.http.BitbucketMetricsContributor;
+import hudson.Extension;
+
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Adds the webhook sections to the metrics exposed at {@code /bitbucket-client-metrics}: the depth and wait time of
+ * the incoming webhook queue, the number of duplicate webhooks, how often webhooks triggered jobs without polling,
+ * the state of the registered webhooks, and how often registering them was rejected for lack of permission.
+ */
+@Extension
+public class BitbucketWebhookMetricsContributor extends BitbucketMetricsContributor {
+
+    @Inject
+    private BitbucketWebhookDeduplicator deduplicator;
+    @Inject
+    private RetryingWebhookHandler retryingWebhookHandler;
+    @Inject
+    private BitbucketWebhookQueue webhookQueue;
+    @Inject
+    private BitbucketWebhookRegistrar webhookRegistrar;
+
+    @Override
+    public void contribute(Map<String, Object> metrics) {
+        metrics.put("webhookQueue", webhookQueue.getStatistics());
+        Map<String, Long> deduplication = new LinkedHashMap<>();
+        deduplication.put("duplicateCount", deduplicator.getDuplicateCount());
+        deduplication.put("size", (long) deduplicator.getSize());
+        metrics.put("webhookDeduplication", deduplication);
+        metrics.put("webhookTriggers", RefChangeTriggerDecider.getStatistics());
+        Map<String, Long> registrations = new LinkedHashMap<>();
+        registrations.put("registeredCount", (long) webhookRegistrar.getRegistrations().size());
+        registrations.put("collapsedCount", webhookRegistrar.getCollapsedCount());
+        registrations.put("skippedCount", webhookRegistrar.getSkippedCount());
+        registrations.put("repairedCount", webhookRegistrar.getRepairedCount());
+        metrics.put("webhookRegistrations", registrations);
+        Map<String, Long> credentials = new LinkedHashMap<>();
+        credentials.put("memoHitCount", retryingWebhookHandler.getMemoHitCount());
+        credentials.put("wastedAttemptCount", retryingWebhookHandler.getWastedAttemptCount());
+        metrics.put("webhookCredentials", credentials);
+    }
+}
@@ -0,0 +1,356 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.http.HttpMetricsRecorder.LatencyHistogram;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static java.lang.String.format;
+
+/**
+ * Holds the webhooks accepted by the {@link BitbucketWebhookEndpoint} until a pool of worker threads hands them to the
+ * {@link BitbucketWebhookConsumer}, so Bitbucket Server gets its answer without waiting for the jobs to be matched and
+ * triggered.
+ * <p>
+ * The queue is bounded by {@code bitbucket.webhook.queue.capacity}; once full, new webhooks are rejected so Bitbucket
+ * Server backs off instead of the queue growing without limit. Setting the capacity to 0 disables the queue, and
+ * webhooks are then processed on the request thread. Every queued webhook is written to
+ * {@code JENKINS_HOME/bitbucket-webhook-queue} and only deleted once it has been processed, so webhooks still pending
+ * when Jenkins stops are processed after it starts again.
+ */
+@ThreadSafe
+@Singleton
+public class BitbucketWebhookQueue {
+
+    /**
+     * The number of webhooks that can wait to be processed. Defaults to 1000, 0 disables the queue.
+     */
+    public static final int CAPACITY = (int) Math.min(
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.queue.capacity", 1000), Integer.MAX_VALUE);
+    /**
+     * The number of threads processing the queued webhooks. Defaults to 4.
+     */
+    public static final int WORKERS =
+            (int) Math.max(1, Math.min(parsePositiveLongFromSystemProperty("bitbucket.webhook.queue.workers", 4), 64));
+
+    static final String DIRECTORY_NAME = "bitbucket-webhook-queue";
+
+    private static final String FILE_SUFFIX = ".json";
+    private static final Logger LOGGER = Logger.getLogger(BitbucketWebhookQueue.class.getName());
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final int capacity;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Supplier<File> directory;
+    private final AtomicLong failedCount = new AtomicLong();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final BlockingQueue<QueuedWebhook> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final BitbucketWebhookConsumer webhookConsumer;
+    private final int workerCount;
+    @GuardedBy("this")
+    private boolean recovered;
+    @GuardedBy("this")
+    private ExecutorService workers;
+
+    @Inject
+    public BitbucketWebhookQueue(BitbucketWebhookConsumer webhookConsumer) {
+        this(webhookConsumer, CAPACITY, WORKERS, () -> new File(Jenkins.get().getRootDir(), DIRECTORY_NAME));
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookQueue(BitbucketWebhookConsumer webhookConsumer, int capacity, int workerCount,
+                          Supplier<File> directory) {
+        this.capacity = capacity;
+        this.directory = directory;
+        this.webhookConsumer = webhookConsumer;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * @return the number of webhooks queued, processed and rejected, and how long they waited to be processed
+     */
+    public QueueStatistics getStatistics() {
+        return new QueueStatistics(this);
+    }
+
+    /**
+     * Queues a webhook to be processed by a worker thread.
+     *
+     * @param eventKey the event key of the webhook
+     * @param payload  the body of the webhook, persisted until it has been processed
+     * @param event    the parsed body of the webhook
+     * @return {@code true} if the webhook was queued, {@code false} if the queue is full
+     */
+    public boolean offer(String eventKey, String payload, RefsChangedWebhookEvent event) {
+        long receivedAt = System.currentTimeMillis();
+        if (capacity == 0) {
+            acceptedCount.incrementAndGet();
+            process(new QueuedWebhook(event, receivedAt, null));
+            return true;
+        }
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            LOGGER.warning(format("The webhook queue is full, rejecting a %s webhook", eventKey));
+            return false;
+        }
+        acceptedCount.incrementAndGet();
+        enqueue(new QueuedWebhook(event, receivedAt, persist(eventKey, payload, receivedAt)));
+        return true;
+    }
+
+    /**
+     * Queues the webhooks that were still pending when Jenkins stopped. This runs once the jobs are loaded, so the
+     * webhooks can be matched against them.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public void recover() {
+        synchronized (this) {
+            if (recovered) {
+                return;
+            }
+            recovered = true;
+        }
+        File[] files = directory.get().listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        // File names start with the time the webhook was received, so they sort in arrival order
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                JsonNode node = objectMapper.readTree(file);
+                String eventKey = node.get("eventKey").asText();
+                RefsChangedWebhookEvent event = readEvent(eventKey, node.get("payload").asText());
+                depth.incrementAndGet();
+                enqueue(new QueuedWebhook(event, node.get("receivedAt").asLong(), file));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Discarding the unreadable queued webhook " + file, e);
+                delete(file);
+            }
+        }
+        LOGGER.info(format("Recovered %d queued webhooks", depth.get()));
+    }
+
+    @Terminator
+    public synchronized void stop() {
+        if (workers != null) {
+            // Webhooks not processed yet, or interrupted while being processed, stay on disk and are recovered on the
+            // next start
+            workers.shutdownNow();
+            try {
+                if (!workers.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.warning("Timed out waiting for the webhook queue workers to stop");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            workers = null;
+        }
+    }
+
+    private static void delete(@CheckForNull File file) {
+        if (file != null && !file.delete() && file.exists()) {
+            LOGGER.warning("Failed to delete the queued webhook " + file);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                QueuedWebhook webhook = queue.take();
+                depth.decrementAndGet();
+                process(webhook);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(QueuedWebhook webhook) {
+        startWorkers();
+        queue.add(webhook);
+    }
+
+    @CheckForNull
+    private File persist(String eventKey, String payload, long receivedAt) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("eventKey", eventKey);
+        entry.put("receivedAt", receivedAt);
+        entry.put("payload", payload);
+        try {
+            Path dir = directory.get().toPath();
+            Files.createDirectories(dir);
+            Path file = dir.resolve(format("%015d-%09d%s", receivedAt, sequence.incrementAndGet(), FILE_SUFFIX));
+            Path tmp = dir.resolve(file.getFileName() + ".tmp");
+            Files.write(tmp, objectMapper.writeValueAsString(entry).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            return file.toFile();
+        } catch (IOException | RuntimeException e) {
+            // Still process the webhook, it just won't survive a restart
+            LOGGER.log(Level.WARNING, "Failed to persist a queued webhook", e);
+            return null;
+        }
+    }
+
+    private void process(QueuedWebhook webhook) {
+        waitTime.record(Math.max(0, System.currentTimeMillis() - webhook.receivedAt));
+        CompletableFuture<Void> processed;
+        try {
+            if (webhook.event instanceof MirrorSynchronizedWebhookEvent) {
+                processed = webhookConsumer.process((MirrorSynchronizedWebhookEvent) webhook.event);
+            } else {
+                processed = webhookConsumer.process(webhook.event);
+            }
+        } catch (RuntimeException e) {
+            processed = new CompletableFuture<>();
+            processed.completeExceptionally(e);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // Jenkins is stopping and the webhook may only be partly processed, process it again after the restart
+            LOGGER.fine("Interrupted while processing a webhook, keeping it for the next start");
+            return;
+        }
+        // The consumer may hold the webhook back to merge it with the next ones, the file must outlive that
+        processed.whenComplete((ignored, e) -> {
+            if (e == null) {
+                processedCount.incrementAndGet();
+            } else {
+                failedCount.incrementAndGet();
+                LOGGER.log(Level.WARNING, "Failed to process a webhook", e);
+            }
+            delete(webhook.file);
+        });
+    }
+
+    private RefsChangedWebhookEvent readEvent(String eventKey, String payload) throws IOException {
+        switch (BitbucketWebhookEvent.findByEventId(eventKey)) {
+            case REPO_REF_CHANGE:
+                return objectMapper.readValue(payload, RefsChangedWebhookEvent.class);
+            case MIRROR_SYNCHRONIZED_EVENT:
+                return objectMapper.readValue(payload, MirrorSynchronizedWebhookEvent.class);
+            default:
+                throw new IOException("Event is not supported: " + eventKey);
+        }
+    }
+
+    private synchronized void startWorkers() {
+        if (workers != null || workerCount == 0) {
+            return;
+        }
+        workers = Executors.newFixedThreadPool(workerCount,
+                new NamingThreadFactory(new DaemonThreadFactory(), "BitbucketWebhookQueue"));
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::drain);
+        }
+    }
+
+    public static final class QueueStatistics {
+
+        private final long acceptedCount;
+        private final int capacity;
+        private final int depth;
+        private final long failedCount;
+        private final long processedCount;
+        private final long rejectedCount;
+        private final LatencyHistogram waitTime;
+
+        private QueueStatistics(BitbucketWebhookQueue queue) {
+            acceptedCount = queue.acceptedCount.get();
+            capacity = queue.capacity;
+            depth = Math.max(0, queue.depth.get());
+            failedCount = queue.failedCount.get();
+            processedCount = queue.processedCount.get();
+            rejectedCount = queue.rejectedCount.get();
+            waitTime = queue.waitTime;
+        }
+
+        public long getAcceptedCount() {
+            return acceptedCount;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return the number of webhooks waiting to be processed
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getFailedCount() {
+            return failedCount;
+        }
+
+        public long getProcessedCount() {
+            return processedCount;
+        }
+
+        /**
+         * @return the number of webhooks rejected because the queue was full
+         */
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * @return how long webhooks waited between being received and being processed
+         */
+        public LatencyHistogram getWaitTime() {
+            return waitTime;
+        }
+    }
+
+    private static final class QueuedWebhook {
+
+        private final RefsChangedWebhookEvent event;
+        private final File file;
+        private final long receivedAt;
+
+        private QueuedWebhook(RefsChangedWebhookEvent event, long receivedAt, @CheckForNull File file) {
+            this.event = event;
+            this.file = file;
+            this.receivedAt = receivedAt;
+        }
+    }
+}
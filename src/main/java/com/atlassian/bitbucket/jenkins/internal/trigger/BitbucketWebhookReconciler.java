@@ -0,0 +1,197 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketPluginConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketServerConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+
+import javax.inject.Inject;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Verifies the webhooks remembered by the {@link BitbucketWebhookRegistrar} in the background, and repairs the ones
+ * which were deleted or changed on Bitbucket Server.
+ * <p>
+ * Every {@code bitbucket.webhook.reconciliation.period.millis}, at most
+ * {@code bitbucket.webhook.reconciliation.batch.size} webhooks not verified for
+ * {@code bitbucket.webhook.reconciliation.max.age.millis} are registered again, oldest first, waiting
+ * {@code bitbucket.webhook.reconciliation.delay.millis} between two of them so Bitbucket Server is not flooded. A
+ * webhook which could not be registered again is retried after the maximum age, then twice as long after every
+ * further failure up to a week, so webhooks which keep failing do not hold up the others. A webhook which no job with
+ * a {@link BitbucketWebhookTriggerImpl} uses anymore, for the same server, repository and mirror, is forgotten, but
+ * left on Bitbucket Server. Setting the maximum age to 0 disables reconciliation.
+ */
+@Extension
+public class BitbucketWebhookReconciler extends AsyncPeriodicWork {
+
+    /**
+     * The maximum number of webhooks verified per run. Defaults to 50.
+     */
+    public static final int BATCH_SIZE = (int) Math.min(
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.reconciliation.batch.size", 50), 10000);
+    /**
+     * How long to wait between verifying two webhooks. Defaults to 1 second.
+     */
+    public static final long DELAY_MILLIS =
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.reconciliation.delay.millis", 1000);
+    /**
+     * How long a webhook is trusted after it was last verified. Defaults to 24 hours.
+     */
+    public static final long MAX_AGE_MILLIS =
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.reconciliation.max.age.millis",
+                    TimeUnit.HOURS.toMillis(24));
+    /**
+     * How often the reconciliation runs. Defaults to 1 hour.
+     */
+    public static final long PERIOD_MILLIS =
+            Math.max(parsePositiveLongFromSystemProperty("bitbucket.webhook.reconciliation.period.millis",
+                    TimeUnit.HOURS.toMillis(1)), TimeUnit.MINUTES.toMillis(1));
+
+    private static final String CONTEXT = "Bitbucket webhook reconciliation";
+    private static final Logger LOGGER = Logger.getLogger(BitbucketWebhookReconciler.class.getName());
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final long VERIFY_TIMEOUT_MINUTES = 5;
+
+    private final int batchSize;
+    private final LongSupplier clock;
+    private final long delayMillis;
+    private final long maxAgeMillis;
+    @Inject
+    private BitbucketPluginConfiguration bitbucketPluginConfiguration;
+    @Inject
+    private BitbucketWebhookJobIndex jobIndex;
+    @Inject
+    private BitbucketWebhookRegistrar registrar;
+    @Inject
+    private RetryingWebhookHandler retryingWebhookHandler;
+
+    public BitbucketWebhookReconciler() {
+        this(BATCH_SIZE, DELAY_MILLIS, MAX_AGE_MILLIS, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookReconciler(int batchSize, long delayMillis, long maxAgeMillis, LongSupplier clock) {
+        super("Bitbucket webhook reconciliation");
+        this.batchSize = batchSize;
+        this.clock = clock;
+        this.delayMillis = delayMillis;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookReconciler(int batchSize, long delayMillis, long maxAgeMillis, LongSupplier clock,
+                               BitbucketPluginConfiguration bitbucketPluginConfiguration,
+                               BitbucketWebhookJobIndex jobIndex, BitbucketWebhookRegistrar registrar,
+                               RetryingWebhookHandler retryingWebhookHandler) {
+        this(batchSize, delayMillis, maxAgeMillis, clock);
+        this.bitbucketPluginConfiguration = bitbucketPluginConfiguration;
+        this.jobIndex = jobIndex;
+        this.registrar = registrar;
+        this.retryingWebhookHandler = retryingWebhookHandler;
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return PERIOD_MILLIS;
+    }
+
+    /**
+     * Verifies the webhooks due for verification, longest overdue first, up to the batch size.
+     *
+     * @return the number of webhooks successfully verified
+     */
+    @VisibleForTesting
+    int reconcile() throws InterruptedException {
+        if (maxAgeMillis == 0 || batchSize == 0) {
+            return 0;
+        }
+        long now = clock.getAsLong();
+        List<BitbucketWebhookRegistration> due = registrar.getRegistrations().stream()
+                .filter(registration -> getDueTime(registration) <= now)
+                .sorted(Comparator.comparingLong(this::getDueTime))
+                .limit(batchSize)
+                .collect(toList());
+        int verified = 0;
+        try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+            for (int i = 0; i < due.size(); i++) {
+                if (i > 0 && delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+                if (verify(due.get(i).toRepository())) {
+                    verified++;
+                }
+            }
+        }
+        if (!due.isEmpty()) {
+            LOGGER.fine(format("Verified %d of %d webhooks", verified, due.size()));
+        }
+        return verified;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        // Verifying webhooks is never urgent, it must not slow down anything else
+        Thread thread = Thread.currentThread();
+        int priority = thread.getPriority();
+        thread.setPriority(Thread.MIN_PRIORITY);
+        try {
+            reconcile();
+        } finally {
+            thread.setPriority(priority);
+        }
+    }
+
+    /**
+     * Returns when a webhook is due for verification: once it is older than the maximum age, or, if registering it
+     * again failed, after a delay doubling with every failure in a row.
+     */
+    private long getDueTime(BitbucketWebhookRegistration registration) {
+        if (registration.getFailureCount() == 0) {
+            return registration.getLastVerified() + maxAgeMillis;
+        }
+        long maxDelay = Math.max(maxAgeMillis, MAX_RETRY_DELAY_MILLIS);
+        long delay = maxAgeMillis;
+        for (int i = 1; i < registration.getFailureCount() && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        return registration.getLastFailure() + Math.min(delay, maxDelay);
+    }
+
+    private boolean verify(BitbucketSCMRepository repository) throws InterruptedException {
+        Optional<BitbucketServerConfiguration> server = bitbucketPluginConfiguration.getServerById(
+                repository.getServerId());
+        if (!server.isPresent() || !jobIndex.isRegistrationUsed(repository)) {
+            registrar.forget(repository);
+            return false;
+        }
+        BitbucketServerConfiguration serverConfiguration = server.get();
+        try {
+            return registrar.register(repository, true, () -> retryingWebhookHandler.register(
+                    serverConfiguration.getBaseUrl(), serverConfiguration.getGlobalCredentialsProvider(CONTEXT),
+                    repository))
+                    .get(VERIFY_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            // Verified again on the next run, as the registration is still due
+            LOGGER.log(Level.FINE, "Failed to verify the webhook of " + BitbucketWebhookRegistrar.toKey(repository),
+                    e);
+            return false;
+        }
+    }
+}
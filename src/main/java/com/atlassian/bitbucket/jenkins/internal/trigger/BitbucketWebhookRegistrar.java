@@ -0,0 +1,310 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhook;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
+import static java.lang.String.format;
+import static org.apache.commons.lang3.StringUtils.defaultString;
+
+/**
+ * Registers webhooks in the background, away from the threads loading and saving jobs.
+ * <p>
+ * Registrations are collapsed per repository: while a webhook is being registered for a server, project, repository
+ * and mirror, asking to register it again waits for the same registration. Repositories are registered in parallel,
+ * with at most {@code bitbucket.webhook.registration.concurrency} registrations running per server at a time.
+ * Completed registrations are remembered in {@code JENKINS_HOME/bitbucket-webhook-registrations.json}, with the id,
+ * events and callback URL of the webhook and when it was last verified, so loading jobs after a restart does not
+ * register their webhooks again unless they are reconfigured, or the remembered webhook no longer matches the Jenkins
+ * root URL or the events the job needs. The {@link BitbucketWebhookReconciler} verifies the remembered webhooks
+ * periodically.
+ */
+@ThreadSafe
+@Singleton
+public class BitbucketWebhookRegistrar {
+
+    /**
+     * The number of webhooks registered in parallel on each server. Defaults to 4, 0 registers webhooks on the
+     * calling thread.
+     */
+    public static final int CONCURRENCY = (int) Math.min(
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.registration.concurrency", 4), 32);
+
+    static final String FILE_NAME = "bitbucket-webhook-registrations.json";
+
+    private static final Logger LOGGER = Logger.getLogger(BitbucketWebhookRegistrar.class.getName());
+
+    private final LongSupplier clock;
+    private final AtomicLong collapsedCount = new AtomicLong();
+    private final int concurrency;
+    @GuardedBy("this")
+    private final Map<String, ExecutorService> executors = new HashMap<>();
+    private final Supplier<File> file;
+    private final Object fileLock = new Object();
+    @GuardedBy("this")
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new HashMap<>();
+    @GuardedBy("this")
+    private boolean loaded;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    @GuardedBy("this")
+    private final Map<String, BitbucketWebhookRegistration> registered = new TreeMap<>();
+    private final AtomicLong repairedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    @Inject
+    public BitbucketWebhookRegistrar() {
+        this(CONCURRENCY, () -> new File(Jenkins.get().getRootDir(), FILE_NAME));
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookRegistrar(int concurrency, @CheckForNull Supplier<File> file) {
+        this(concurrency, file, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    BitbucketWebhookRegistrar(int concurrency, @CheckForNull Supplier<File> file, LongSupplier clock) {
+        this.clock = clock;
+        this.concurrency = concurrency;
+        this.file = file;
+    }
+
+    /**
+     * @return the number of registrations which waited for a registration of the same repository already running
+     */
+    public long getCollapsedCount() {
+        return collapsedCount.get();
+    }
+
+    /**
+     * @return the remembered webhooks, ordered by repository
+     */
+    public synchronized List<BitbucketWebhookRegistration> getRegistrations() {
+        load();
+        return new ArrayList<>(registered.values());
+    }
+
+    /**
+     * @return the number of registrations which found the webhook recreated or changed since it was last registered
+     */
+    public long getRepairedCount() {
+        return repairedCount.get();
+    }
+
+    /**
+     * @return the number of registrations skipped because the webhook had been registered already
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Returns whether the webhook of a repository has been registered.
+     *
+     * @param repository the repository
+     * @return {@code true} if the webhook of the repository has been registered, {@code false} otherwise
+     */
+    public synchronized boolean isRegistered(BitbucketSCMRepository repository) {
+        load();
+        return registered.containsKey(toKey(repository));
+    }
+
+    /**
+     * Forgets the webhook of a repository, for instance because no job builds the repository anymore. The webhook
+     * itself is left on Bitbucket Server.
+     *
+     * @param repository the repository
+     */
+    public void forget(BitbucketSCMRepository repository) {
+        synchronized (this) {
+            load();
+            if (registered.remove(toKey(repository)) == null) {
+                return;
+            }
+        }
+        save();
+    }
+
+    /**
+     * Registers the webhook of a repository in the background, unless it is being registered already.
+     *
+     * @param repository   the repository to register the webhook for
+     * @param force        {@code true} to register the webhook even if it has been registered before, for instance
+     *                     because the job was reconfigured
+     * @param registration registers the webhook and returns it, throwing an exception if it could not
+     * @return a future completed with {@code true} once the webhook is registered, or {@code false} if it could not be
+     */
+    public CompletableFuture<Boolean> register(BitbucketSCMRepository repository, boolean force,
+                                               Supplier<BitbucketWebhook> registration) {
+        return register(repository, force, remembered -> true, registration);
+    }
+
+    /**
+     * Registers the webhook of a repository in the background, unless it is being registered already, or it has been
+     * registered before and the remembered webhook is still current.
+     *
+     * @param repository   the repository to register the webhook for
+     * @param force        {@code true} to register the webhook even if it has been registered before, for instance
+     *                     because the job was reconfigured
+     * @param isCurrent    whether a remembered webhook still matches what registering it now would ask for, such as
+     *                     the callback URL of the current Jenkins root URL
+     * @param registration registers the webhook and returns it, throwing an exception if it could not
+     * @return a future completed with {@code true} once the webhook is registered, or {@code false} if it could not be
+     */
+    public CompletableFuture<Boolean> register(BitbucketSCMRepository repository, boolean force,
+                                               Predicate<BitbucketWebhookRegistration> isCurrent,
+                                               Supplier<BitbucketWebhook> registration) {
+        String key = toKey(repository);
+        CompletableFuture<Boolean> future;
+        synchronized (this) {
+            load();
+            CompletableFuture<Boolean> pending = inFlight.get(key);
+            if (pending != null) {
+                collapsedCount.incrementAndGet();
+                return pending;
+            }
+            BitbucketWebhookRegistration remembered = registered.get(key);
+            if (!force && remembered != null && isCurrent.test(remembered)) {
+                skippedCount.incrementAndGet();
+                return CompletableFuture.completedFuture(true);
+            }
+            future = new CompletableFuture<>();
+            inFlight.put(key, future);
+        }
+        Runnable task = () -> run(repository, key, registration, future);
+        if (concurrency == 0) {
+            task.run();
+        } else {
+            getExecutor(repository.getServerId()).execute(task);
+        }
+        return future;
+    }
+
+    @Terminator
+    public synchronized void stop() {
+        executors.values().forEach(ExecutorService::shutdownNow);
+        executors.clear();
+    }
+
+    /**
+     * Returns the key of the webhook of a repository: the server, project, repository and mirror it is registered for.
+     *
+     * @param repository the repository
+     * @return the key of the webhook
+     */
+    static String toKey(BitbucketSCMRepository repository) {
+        return String.join("/", defaultString(repository.getServerId()),
+                defaultString(repository.getProjectKey()).toLowerCase(Locale.ROOT),
+                defaultString(repository.getRepositorySlug()).toLowerCase(Locale.ROOT),
+                defaultString(repository.getMirrorName()));
+    }
+
+    private synchronized ExecutorService getExecutor(String serverId) {
+        return executors.computeIfAbsent(defaultString(serverId), id -> {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "BitbucketWebhookRegistrar-" + id));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    @GuardedBy("this")
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File registrations = file == null ? null : file.get();
+        if (registrations == null || !registrations.isFile()) {
+            return;
+        }
+        try {
+            List<BitbucketWebhookRegistration> entries = objectMapper.readValue(registrations,
+                    new TypeReference<List<BitbucketWebhookRegistration>>() {});
+            entries.forEach(entry -> registered.put(toKey(entry.toRepository()), entry));
+        } catch (IOException e) {
+            // The webhooks are registered again as jobs are loaded
+            LOGGER.log(Level.WARNING, "Failed to read the registered webhooks from " + registrations, e);
+        }
+    }
+
+    private void run(BitbucketSCMRepository repository, String key, Supplier<BitbucketWebhook> registration,
+                     CompletableFuture<Boolean> future) {
+        BitbucketWebhookRegistration result = null;
+        boolean changed = true;
+        try {
+            result = BitbucketWebhookRegistration.of(repository, registration.get(), clock.getAsLong());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "There was a problem while trying to add webhook", e);
+        } finally {
+            synchronized (this) {
+                inFlight.remove(key);
+                if (result != null) {
+                    BitbucketWebhookRegistration previous = registered.put(key, result);
+                    if (previous != null && previous.differsFrom(result)) {
+                        repairedCount.incrementAndGet();
+                    }
+                } else {
+                    // A failed registration keeps the previous one, to be verified again once it is due
+                    changed = registered.computeIfPresent(key,
+                            (ignored, previous) -> previous.withFailure(clock.getAsLong())) != null;
+                }
+            }
+        }
+        if (changed) {
+            save();
+        }
+        future.complete(result != null);
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        synchronized (fileLock) {
+            List<BitbucketWebhookRegistration> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(registered.values());
+            }
+            try {
+                Path target = file.get().toPath();
+                Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                objectMapper.writeValue(tmp.toFile(), snapshot);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                // Only costs registering the webhooks again after a restart
+                LOGGER.log(Level.WARNING, format("Failed to save the %d registered webhooks", snapshot.size()), e);
+            }
+        }
+    }
+}
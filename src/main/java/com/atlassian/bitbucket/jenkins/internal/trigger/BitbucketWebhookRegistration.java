@@ -0,0 +1,185 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhook;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A webhook registered by the plugin, as remembered by the {@link BitbucketWebhookRegistrar}: the repository it is
+ * registered for, its id, events and callback URL on Bitbucket Server, when it was last verified to exist, and how
+ * often verifying it has failed since.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class BitbucketWebhookRegistration {
+
+    private final String callbackUrl;
+    private final String credentialsId;
+    private final Set<String> events;
+    private final int failureCount;
+    private final long lastFailure;
+    private final long lastVerified;
+    private final String mirrorName;
+    private final String projectKey;
+    private final String projectName;
+    private final String repositoryName;
+    private final String repositorySlug;
+    private final String serverId;
+    private final int webhookId;
+
+    @JsonCreator
+    public BitbucketWebhookRegistration(@JsonProperty("credentialsId") @Nullable String credentialsId,
+                                        @JsonProperty("projectName") String projectName,
+                                        @JsonProperty("projectKey") String projectKey,
+                                        @JsonProperty("repositoryName") String repositoryName,
+                                        @JsonProperty("repositorySlug") String repositorySlug,
+                                        @JsonProperty("serverId") @Nullable String serverId,
+                                        @JsonProperty("mirrorName") @Nullable String mirrorName,
+                                        @JsonProperty("webhookId") int webhookId,
+                                        @JsonProperty("events") @Nullable Set<String> events,
+                                        @JsonProperty("callbackUrl") @Nullable String callbackUrl,
+                                        @JsonProperty("lastVerified") long lastVerified,
+                                        @JsonProperty("failureCount") int failureCount,
+                                        @JsonProperty("lastFailure") long lastFailure) {
+        this.credentialsId = credentialsId;
+        this.projectName = projectName;
+        this.projectKey = projectKey;
+        this.repositoryName = repositoryName;
+        this.repositorySlug = repositorySlug;
+        this.serverId = serverId;
+        this.mirrorName = mirrorName;
+        this.webhookId = webhookId;
+        this.events = events == null ? Collections.emptySet() : Collections.unmodifiableSet(new TreeSet<>(events));
+        this.callbackUrl = callbackUrl;
+        this.lastVerified = lastVerified;
+        this.failureCount = failureCount;
+        this.lastFailure = lastFailure;
+    }
+
+    /**
+     * Creates the registration of the webhook of a repository.
+     *
+     * @param repository the repository the webhook is registered for
+     * @param webhook    the webhook, or {@code null} if its details are not known
+     * @param verifiedAt when the webhook was registered or verified, in milliseconds since the epoch
+     * @return the registration
+     */
+    static BitbucketWebhookRegistration of(BitbucketSCMRepository repository, @Nullable BitbucketWebhook webhook,
+                                           long verifiedAt) {
+        return new BitbucketWebhookRegistration(repository.getCredentialsId(), repository.getProjectName(),
+                repository.getProjectKey(), repository.getRepositoryName(), repository.getRepositorySlug(),
+                repository.getServerId(), repository.getMirrorName(), webhook == null ? 0 : webhook.getId(),
+                webhook == null ? null : webhook.getEvents(), webhook == null ? null : webhook.getUrl(), verifiedAt,
+                0, 0);
+    }
+
+    @CheckForNull
+    public String getCallbackUrl() {
+        return callbackUrl;
+    }
+
+    @CheckForNull
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public Set<String> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the number of times in a row registering the webhook again has failed since it was last verified
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return when registering the webhook again last failed, in milliseconds since the epoch, or 0 if it has not
+     */
+    public long getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return when the webhook was last registered or verified, in milliseconds since the epoch
+     */
+    public long getLastVerified() {
+        return lastVerified;
+    }
+
+    @CheckForNull
+    public String getMirrorName() {
+        return mirrorName;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    public String getRepositorySlug() {
+        return repositorySlug;
+    }
+
+    @CheckForNull
+    public String getServerId() {
+        return serverId;
+    }
+
+    /**
+     * @return the id of the webhook on Bitbucket Server, or 0 if it is not known
+     */
+    public int getWebhookId() {
+        return webhookId;
+    }
+
+    /**
+     * Returns whether this registration describes a different webhook than another registration of the same
+     * repository, because the webhook was recreated or its events or callback URL changed.
+     *
+     * @param other the other registration
+     * @return {@code true} if the webhooks differ, {@code false} otherwise
+     */
+    boolean differsFrom(BitbucketWebhookRegistration other) {
+        return webhookId != other.webhookId || !Objects.equals(callbackUrl, other.callbackUrl) ||
+               !events.equals(other.events);
+    }
+
+    /**
+     * Returns a copy of this registration recording that registering the webhook again failed, keeping when it was
+     * last verified.
+     *
+     * @param failedAt when registering the webhook failed, in milliseconds since the epoch
+     * @return the registration with one more failure
+     */
+    BitbucketWebhookRegistration withFailure(long failedAt) {
+        return new BitbucketWebhookRegistration(credentialsId, projectName, projectKey, repositoryName, repositorySlug,
+                serverId, mirrorName, webhookId, events, callbackUrl, lastVerified, failureCount + 1, failedAt);
+    }
+
+    /**
+     * @return the repository the webhook is registered for
+     */
+    @JsonIgnore
+    BitbucketSCMRepository toRepository() {
+        return new BitbucketSCMRepository(credentialsId, projectName, projectKey, repositoryName, repositorySlug,
+                serverId, mirrorName);
+    }
+}
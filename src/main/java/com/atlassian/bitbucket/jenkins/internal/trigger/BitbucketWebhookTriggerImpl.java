@@ -5,22 +5,18 @@ import com.atlassian.bitbucket.jenkins.internal.config.BitbucketPluginConfigurat
 import com.atlassian.bitbucket.jenkins.internal.config.BitbucketServerConfiguration;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhook;
 import com.atlassian.bitbucket.jenkins.internal.provider.JenkinsProvider;
-import com.atlassian.bitbucket.jenkins.internal.provider.JenkinsProviderModule;
 import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCM;
 import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
-import com.google.inject.Guice;
+import com.google.common.annotations.VisibleForTesting;
 import hudson.Extension;
 import hudson.model.CauseAction;
 import hudson.model.Item;
 import hudson.model.Job;
 import hudson.scm.SCM;
-import hudson.security.ACL;
-import hudson.security.ACLContext;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
 import hudson.util.NamingThreadFactory;
 import hudson.util.SequentialExecutionQueue;
-import jenkins.model.ParameterizedJobMixIn;
 import jenkins.triggers.SCMTriggerItem;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
@@ -31,16 +27,16 @@ import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.util.Collection;
-import java.util.Objects;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
-import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
+import static java.util.Collections.emptyList;
 import static java.util.Objects.requireNonNull;
 import static jenkins.triggers.SCMTriggerItem.SCMTriggerItems.asSCMTriggerItem;
-import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
         implements BitbucketWebhookTrigger {
@@ -77,8 +73,7 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
             Optional<SCM> maybeScm = fetchWorkflowSCM(triggerItem);
             maybeScm.ifPresent(scm -> {
                 if (scm instanceof BitbucketSCM) {
-                    boolean isAdded = descriptor.addTrigger(project, (BitbucketSCM) scm);
-                    ((BitbucketSCM) scm).setWebhookRegistered(isAdded);
+                    descriptor.addTrigger(project, (BitbucketSCM) scm, newInstance);
                 }
             });
         } else if (triggerItem != null) {
@@ -89,10 +84,7 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
                     .map(scm -> (BitbucketSCM) scm)
                     .filter(scm -> !scm.isWebhookRegistered())
                     .filter(scm -> !checkTriggerExists(descriptor, scm))
-                    .forEach(scm -> {
-                        boolean isAdded = descriptor.addTrigger(project, scm);
-                        scm.setWebhookRegistered(isAdded);
-                    });
+                    .forEach(scm -> descriptor.addTrigger(project, scm, newInstance));
         }
     }
 
@@ -133,7 +125,9 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
      * Returns true if the registration should be skipped. The entire point of skipping registration is to avoid
      * excessive remote calls to bitbucket server every time some configuration is changed.
      *
-     * For pipeline job, this is invoked every time a build is run.
+     * For pipeline job, this is invoked every time a build is run, and for every job during Jenkins startup. Pipeline
+     * jobs are not skipped, but their webhooks are registered in the background and only once per repository, see
+     * {@link BitbucketWebhookRegistrar}.
      *
      * We can't always continue registration check if newInstance is false since during Jenkin startup, this is invoked
      * for every job. Making remote call to Bitbucket server would make the startup slow.
@@ -157,6 +151,10 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
         private RetryingWebhookHandler retryingWebhookHandler;
         @Inject
         private BitbucketPluginConfiguration bitbucketPluginConfiguration;
+        @Inject
+        private BitbucketWebhookJobIndex jobIndex;
+        @Inject
+        private BitbucketWebhookRegistrar webhookRegistrar;
         private transient JenkinsProvider jenkinsProvider;
 
         @SuppressWarnings("TransientFieldInNonSerializableClass")
@@ -171,10 +169,23 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
                                                  RetryingWebhookHandler webhookHandler,
                                                  JenkinsProvider jenkinsProvider,
                                                  BitbucketPluginConfiguration bitbucketPluginConfiguration) {
+            // Registers webhooks on the calling thread, without remembering them
+            this(queue, webhookHandler, jenkinsProvider, bitbucketPluginConfiguration,
+                    new BitbucketWebhookRegistrar(0, null), new BitbucketWebhookJobIndex(jenkinsProvider::get));
+        }
+
+        public BitbucketWebhookTriggerDescriptor(SequentialExecutionQueue queue,
+                                                 RetryingWebhookHandler webhookHandler,
+                                                 JenkinsProvider jenkinsProvider,
+                                                 BitbucketPluginConfiguration bitbucketPluginConfiguration,
+                                                 BitbucketWebhookRegistrar webhookRegistrar,
+                                                 BitbucketWebhookJobIndex jobIndex) {
             this.queue = queue;
             this.retryingWebhookHandler = webhookHandler;
             this.jenkinsProvider = jenkinsProvider;
             this.bitbucketPluginConfiguration = bitbucketPluginConfiguration;
+            this.webhookRegistrar = webhookRegistrar;
+            this.jobIndex = jobIndex;
         }
 
         @Override
@@ -202,17 +213,26 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
                 SCMTriggerItem triggerItem,
                 BitbucketWebhookTriggerRequest triggerRequest) {
             CauseAction causeAction = new CauseAction(new BitbucketWebhookTriggerCause(triggerRequest));
-            queue.execute(new BitbucketTriggerWorker(job, triggerItem, causeAction, triggerRequest.getAdditionalActions()));
+            queue.execute(new BitbucketTriggerWorker(job, triggerItem, causeAction, triggerRequest.getAdditionalActions(),
+                    RefChangeTriggerDecider.ENABLED ? triggerRequest.getRefChanges() : emptyList()));
         }
 
-        private boolean addTrigger(Item item, BitbucketSCM scm) {
-            try {
-                scm.getRepositories().forEach(repo -> registerWebhook(item, repo));
-                return true;
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "There was a problem while trying to add webhook", ex);
-                throw ex;
-            }
+        /**
+         * Registers the webhooks of the repositories of an SCM in the background, and flags the SCM once they are all
+         * registered.
+         *
+         * @param item  the job building the SCM
+         * @param scm   the SCM
+         * @param force {@code true} to register webhooks registered before again, when the job has been configured
+         */
+        private void addTrigger(Item item, BitbucketSCM scm, boolean force) {
+            List<CompletableFuture<Boolean>> registrations = scm.getRepositories().stream()
+                    .map(repo -> webhookRegistrar.register(repo, force, retryingWebhookHandler::isCurrent,
+                            () -> registerWebhook(item, repo)))
+                    .collect(Collectors.toList());
+            CompletableFuture.allOf(registrations.toArray(new CompletableFuture<?>[0]))
+                    .thenRun(() -> scm.setWebhookRegistered(
+                            registrations.stream().allMatch(CompletableFuture::join)));
         }
 
         private static SequentialExecutionQueue createSequentialQueue() {
@@ -222,7 +242,7 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
                             new NamingThreadFactory(Executors.defaultThreadFactory(), "BitbucketWebhookTrigger")));
         }
 
-        private void registerWebhook(Item item, BitbucketSCMRepository repository) {
+        private BitbucketWebhook registerWebhook(Item item, BitbucketSCMRepository repository) {
             requireNonNull(repository.getServerId());
             BitbucketServerConfiguration bitbucketServerConfiguration = getServer(repository.getServerId());
 
@@ -231,46 +251,20 @@ public class BitbucketWebhookTriggerImpl extends Trigger<Job<?, ?>>
                     bitbucketServerConfiguration.getGlobalCredentialsProvider(item),
                     repository);
             LOGGER.info("Webhook returned -" + webhook);
+            return webhook;
         }
 
-        private boolean webhookExists(Job<?, ?> project, BitbucketSCM input) {
-            try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
-                if (jenkinsProvider == null) {
-                    Guice.createInjector(new JenkinsProviderModule()).injectMembers(this);
-                }
-                return jenkinsProvider
-                        .get().getAllItems(ParameterizedJobMixIn.ParameterizedJob.class)
-                        .stream()
-                        .filter(item -> !item.equals(project))
-                        .filter(BitbucketWebhookTriggerDescriptor::isTriggerEnabled)
-                        .map(item -> asSCMTriggerItem(item))
-                        .filter(Objects::nonNull)
-                        .map(scmItem -> scmItem.getSCMs())
-                        .flatMap(Collection::stream)
-                        .filter(scm -> scm instanceof BitbucketSCM)
-                        .map(scm -> ((BitbucketSCM) scm).getRepositories())
-                        .flatMap(Collection::stream)
-                        .anyMatch(scm -> isExistingWebhookOnRepo(input, scm));
-            }
-        }
-
-        private static boolean isTriggerEnabled(ParameterizedJobMixIn.ParameterizedJob job) {
-            return job.getTriggers()
-                    .values()
-                    .stream()
-                    .anyMatch(v -> v instanceof BitbucketWebhookTriggerImpl);
-        }
-
-        private boolean isExistingWebhookOnRepo(BitbucketSCM scm, BitbucketSCMRepository repository) {
-            return scm.isWebhookRegistered() &&
-                   scm.getRepositories().stream().allMatch(r -> r.getServerId().equals(repository.getServerId()) &&
-                                                                r.getProjectKey().equals(repository.getProjectKey()) &&
-                                                                r.getRepositorySlug().equals(repository.getRepositorySlug()) &&
-                                                                !isMirrorConfigurationDifferent(r));
-        }
-
-        private boolean isMirrorConfigurationDifferent(BitbucketSCMRepository r) {
-            return isEmpty(r.getMirrorName()) ^ isEmpty(r.getMirrorName());
+        /**
+         * Returns whether another job has already registered the webhooks of every repository of an SCM.
+         *
+         * @param project the job building the SCM
+         * @param input   the SCM
+         * @return {@code true} if the webhooks do not need to be registered, {@code false} otherwise
+         */
+        @VisibleForTesting
+        boolean webhookExists(Job<?, ?> project, BitbucketSCM input) {
+            return input.getRepositories().stream()
+                    .allMatch(repository -> jobIndex.hasRegisteredWebhook(project.getFullName(), repository));
         }
 
         private BitbucketServerConfiguration getServer(String serverId) {
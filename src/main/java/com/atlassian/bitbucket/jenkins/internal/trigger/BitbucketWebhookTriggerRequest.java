@@ -1,5 +1,6 @@
 package com.atlassian.bitbucket.jenkins.internal.trigger;
 
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChange;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketUser;
 import hudson.model.Action;
 
@@ -12,10 +13,12 @@ public final class BitbucketWebhookTriggerRequest {
 
     private final BitbucketUser actor;
     private final List<Action> additionalActions;
+    private final List<BitbucketRefChange> refChanges;
 
     private BitbucketWebhookTriggerRequest(Builder builder) {
         actor = builder.actor;
         additionalActions = builder.additionalActions;
+        refChanges = builder.refChanges;
     }
 
     public static Builder builder() {
@@ -31,7 +34,9 @@ public final class BitbucketWebhookTriggerRequest {
             return false;
         }
         BitbucketWebhookTriggerRequest that = (BitbucketWebhookTriggerRequest) o;
-        return Objects.equals(actor, that.actor) && Objects.equals(additionalActions, that.additionalActions);
+        return Objects.equals(actor, that.actor) &&
+               Objects.equals(additionalActions, that.additionalActions) &&
+               Objects.equals(refChanges, that.refChanges);
     }
 
     public Optional<BitbucketUser> getActor() {
@@ -42,14 +47,23 @@ public final class BitbucketWebhookTriggerRequest {
         return additionalActions;
     }
 
+    /**
+     * @return the ref changes of the webhook which triggered the request, used to decide whether to build without
+     *         polling the repository
+     */
+    public List<BitbucketRefChange> getRefChanges() {
+        return refChanges;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(actor, additionalActions);
+        return Objects.hash(actor, additionalActions, refChanges);
     }
 
     public static final class Builder {
 
         private final List<Action> additionalActions = new ArrayList<>();
+        private final List<BitbucketRefChange> refChanges = new ArrayList<>();
         private BitbucketUser actor;
 
         public Builder actor(@Nullable BitbucketUser value) {
@@ -62,6 +76,11 @@ public final class BitbucketWebhookTriggerRequest {
             return this;
         }
 
+        public Builder refChanges(Collection<BitbucketRefChange> refChanges) {
+            this.refChanges.addAll(refChanges);
+            return this;
+        }
+
         public BitbucketWebhookTriggerRequest build() {
             return new BitbucketWebhookTriggerRequest(this);
         }
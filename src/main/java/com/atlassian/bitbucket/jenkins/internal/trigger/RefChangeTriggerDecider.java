@@ -0,0 +1,190 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCM;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.plugins.git.extensions.impl.MessageExclusion;
+import hudson.plugins.git.extensions.impl.PathRestriction;
+import hudson.plugins.git.extensions.impl.UserExclusion;
+import hudson.plugins.git.util.BuildData;
+import hudson.scm.SCM;
+import jenkins.triggers.SCMTriggerItem;
+import org.eclipse.jgit.lib.ObjectId;
+
+import javax.annotation.CheckForNull;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a webhook should build a job by comparing the hashes the refs were changed to with the revisions
+ * the job has already built, instead of polling the repository. This is opt-in, through the
+ * {@code bitbucket.webhook.trigger.skip.polling} system property.
+ * <p>
+ * The payload is only trusted when the outcome of polling can be predicted: the job builds a single Git repository
+ * with branch specifiers that don't use variables, has no extension excluding revisions from polling, and has already
+ * been built. In every other case the decision is {@link Decision#POLL}.
+ */
+public final class RefChangeTriggerDecider {
+
+    public static final boolean ENABLED = Boolean.getBoolean("bitbucket.webhook.trigger.skip.polling");
+
+    private static final String BRANCH_PREFIX = "refs/heads/";
+    private static final AtomicLong BUILD_COUNT = new AtomicLong();
+    private static final AtomicLong NO_CHANGES_COUNT = new AtomicLong();
+    private static final AtomicLong POLL_COUNT = new AtomicLong();
+
+    private RefChangeTriggerDecider() {
+        throw new UnsupportedOperationException(
+                RefChangeTriggerDecider.class.getName() + " should not be instantiated");
+    }
+
+    /**
+     * @return how often webhooks were decided from their payload, and how often the repository had to be polled
+     */
+    public static DecisionStatistics getStatistics() {
+        return new DecisionStatistics(BUILD_COUNT.get(), NO_CHANGES_COUNT.get(), POLL_COUNT.get());
+    }
+
+    /**
+     * Decides whether the given ref changes should build the job.
+     *
+     * @param job         the job triggered by the webhook
+     * @param triggerItem the job, as an item which can be polled
+     * @param refChanges  the hash each ref was changed to, keyed by ref id
+     * @return the decision, which is {@link Decision#POLL} whenever the payload is not enough to decide
+     */
+    static Decision decide(Job<?, ?> job, SCMTriggerItem triggerItem, Map<String, String> refChanges) {
+        Decision decision = decideFromPayload(job, triggerItem, refChanges);
+        switch (decision) {
+            case BUILD:
+                BUILD_COUNT.incrementAndGet();
+                break;
+            case NO_CHANGES:
+                NO_CHANGES_COUNT.incrementAndGet();
+                break;
+            default:
+                POLL_COUNT.incrementAndGet();
+        }
+        return decision;
+    }
+
+    private static Decision decideFromPayload(Job<?, ?> job, SCMTriggerItem triggerItem,
+                                              Map<String, String> refChanges) {
+        if (refChanges.isEmpty()) {
+            return Decision.POLL;
+        }
+        GitSCM gitSCM = getGitSCM(triggerItem.getSCMs());
+        if (gitSCM == null || gitSCM.getRepositories().size() != 1 || !isPredictable(gitSCM)) {
+            return Decision.POLL;
+        }
+        Run<?, ?> lastBuild = job.getLastBuild();
+        BuildData buildData = lastBuild == null ? null : gitSCM.getBuildData(lastBuild);
+        if (buildData == null) {
+            return Decision.POLL;
+        }
+        String remoteName = gitSCM.getRepositories().get(0).getName();
+        for (Map.Entry<String, String> refChange : refChanges.entrySet()) {
+            if (!isBuiltBranch(gitSCM, remoteName, refChange.getKey())) {
+                continue;
+            }
+            if (!ObjectId.isId(refChange.getValue())) {
+                return Decision.POLL;
+            }
+            if (!buildData.hasBeenBuilt(ObjectId.fromString(refChange.getValue()))) {
+                return Decision.BUILD;
+            }
+        }
+        // Either none of the refs is built by the job, or their new revisions have all been built already
+        return Decision.NO_CHANGES;
+    }
+
+    @CheckForNull
+    private static GitSCM getGitSCM(Collection<? extends SCM> scms) {
+        if (scms.size() != 1) {
+            return null;
+        }
+        SCM scm = scms.iterator().next();
+        if (scm instanceof BitbucketSCM) {
+            return ((BitbucketSCM) scm).getGitSCM();
+        }
+        return scm instanceof GitSCM ? (GitSCM) scm : null;
+    }
+
+    private static boolean isBuiltBranch(GitSCM gitSCM, String remoteName, String refId) {
+        String branchName = refId.startsWith(BRANCH_PREFIX) ? refId.substring(BRANCH_PREFIX.length()) : null;
+        for (BranchSpec branchSpec : gitSCM.getBranches()) {
+            if (branchSpec.matches(refId) ||
+                (branchName != null && branchSpec.matchesRepositoryBranch(remoteName, branchName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPredictable(GitSCM gitSCM) {
+        for (BranchSpec branchSpec : gitSCM.getBranches()) {
+            if (branchSpec.getName().contains("$")) {
+                return false;
+            }
+        }
+        for (GitSCMExtension extension : gitSCM.getExtensions()) {
+            if (extension instanceof MessageExclusion || extension instanceof PathRestriction ||
+                extension instanceof UserExclusion) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    enum Decision {
+        /**
+         * A ref built by the job was changed to a revision it has not built yet.
+         */
+        BUILD,
+        /**
+         * None of the changed refs is built by the job, or their new revisions have been built already.
+         */
+        NO_CHANGES,
+        /**
+         * The payload is not enough to decide, the repository has to be polled.
+         */
+        POLL
+    }
+
+    public static final class DecisionStatistics {
+
+        private final long buildCount;
+        private final long noChangesCount;
+        private final long pollCount;
+
+        private DecisionStatistics(long buildCount, long noChangesCount, long pollCount) {
+            this.buildCount = buildCount;
+            this.noChangesCount = noChangesCount;
+            this.pollCount = pollCount;
+        }
+
+        public long getBuildCount() {
+            return buildCount;
+        }
+
+        public long getNoChangesCount() {
+            return noChangesCount;
+        }
+
+        public long getPollCount() {
+            return pollCount;
+        }
+
+        /**
+         * @return the share of webhooks that were decided without polling, between 0 and 1
+         */
+        public double getSkippedPollRatio() {
+            long total = buildCount + noChangesCount + pollCount;
+            return total == 0 ? 0 : (double) (buildCount + noChangesCount) / total;
+        }
+    }
+}
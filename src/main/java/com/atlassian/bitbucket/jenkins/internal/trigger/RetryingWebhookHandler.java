@@ -15,11 +15,19 @@ import com.atlassian.bitbucket.jenkins.internal.trigger.register.BitbucketWebhoo
 import com.atlassian.bitbucket.jenkins.internal.trigger.register.WebhookHandler;
 import com.atlassian.bitbucket.jenkins.internal.trigger.register.WebhookRegisterRequest;
 import com.atlassian.bitbucket.jenkins.internal.trigger.register.WebhookRegistrationFailed;
+import com.google.common.annotations.VisibleForTesting;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.MIRROR_SYNCHRONIZED_EVENT;
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.REPO_REF_CHANGE;
+import static com.atlassian.bitbucket.jenkins.internal.util.SystemPropertyUtils.parsePositiveLongFromSystemProperty;
 import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
@@ -29,14 +37,30 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
  * 1. Global admin is used. If failed then,
  * 2. Job credential is used. If failed then,
  * 3. Global credentials is used.
+ * <p>
+ * The credentials which last succeeded are remembered per server, project and repository, for at most
+ * {@code bitbucket.webhook.credentials.memo.max.entries} repositories, and tried first the next time. They are
+ * forgotten as soon as they fail. Job credentials are only tried first for a job with the same credentials.
  */
 @Singleton
 public class RetryingWebhookHandler {
 
+    /**
+     * The maximum number of repositories for which the credentials which last succeeded are remembered. Defaults to
+     * 1000, 0 disables remembering them.
+     */
+    public static final int MEMO_MAX_ENTRIES = (int) Math.min(
+            parsePositiveLongFromSystemProperty("bitbucket.webhook.credentials.memo.max.entries", 1000), 100000);
+
     private final InstanceBasedNameGenerator instanceBasedNameGenerator;
     private final JenkinsToBitbucketCredentials jenkinsToBitbucketCredentials;
     private final JenkinsProvider jenkinsProvider;
+    private final AtomicLong memoHitCount = new AtomicLong();
+    @GuardedBy("this")
+    private final LinkedHashMap<String, RememberedCredentials> memo = new LinkedHashMap<>(16, 0.75f, true);
+    private final int memoMaxEntries;
     private final BitbucketClientFactoryProvider provider;
+    private final AtomicLong wastedAttemptCount = new AtomicLong();
 
     @Inject
     public RetryingWebhookHandler(
@@ -44,12 +68,63 @@ public class RetryingWebhookHandler {
             BitbucketClientFactoryProvider provider,
             InstanceBasedNameGenerator instanceBasedNameGenerator,
             JenkinsToBitbucketCredentials jenkinsToBitbucketCredentials) {
+        this(jenkinsProvider, provider, instanceBasedNameGenerator, jenkinsToBitbucketCredentials, MEMO_MAX_ENTRIES);
+    }
+
+    @VisibleForTesting
+    RetryingWebhookHandler(
+            JenkinsProvider jenkinsProvider,
+            BitbucketClientFactoryProvider provider,
+            InstanceBasedNameGenerator instanceBasedNameGenerator,
+            JenkinsToBitbucketCredentials jenkinsToBitbucketCredentials,
+            int memoMaxEntries) {
+        this.memoMaxEntries = memoMaxEntries;
         this.jenkinsProvider = requireNonNull(jenkinsProvider);
         this.provider = requireNonNull(provider);
         this.instanceBasedNameGenerator = requireNonNull(instanceBasedNameGenerator);
         this.jenkinsToBitbucketCredentials = requireNonNull(jenkinsToBitbucketCredentials);
     }
 
+    /**
+     * @return the number of registrations which succeeded with the credentials which last succeeded for the
+     *         repository
+     */
+    public long getMemoHitCount() {
+        return memoHitCount.get();
+    }
+
+    /**
+     * @return the number of times credentials were rejected before the webhook could be registered, or before giving up
+     */
+    public long getWastedAttemptCount() {
+        return wastedAttemptCount.get();
+    }
+
+    /**
+     * Returns whether a remembered webhook still matches what registering it now would ask for: the callback URL of
+     * the current Jenkins root URL, and the event for a repository or a mirror. A mirror webhook may subscribe to
+     * refs changed events when the server does not support mirror synchronized events.
+     *
+     * @param registration the remembered webhook
+     * @return {@code true} if the webhook does not need to be registered again, {@code false} otherwise
+     */
+    public boolean isCurrent(BitbucketWebhookRegistration registration) {
+        String jenkinsUrl = jenkinsProvider.get().getRootUrl();
+        if (isBlank(jenkinsUrl)) {
+            // Registering it again would fail anyway
+            return true;
+        }
+        if (!BitbucketWebhookHandler.toCallbackUrl(jenkinsUrl).equals(registration.getCallbackUrl())) {
+            return false;
+        }
+        Set<String> events = registration.getEvents();
+        if (events.contains(REPO_REF_CHANGE.getEventId())) {
+            return true;
+        }
+        return registration.toRepository().isMirrorConfigured() &&
+               events.contains(MIRROR_SYNCHRONIZED_EVENT.getEventId());
+    }
+
     public BitbucketWebhook register(String bitbucketBaseUrl,
                                      GlobalCredentialsProvider globalCredentialsProvider,
                                      BitbucketSCMRepository repository) {
@@ -69,7 +144,8 @@ public class RetryingWebhookHandler {
                 .build();
         String jobCredentials = repository.getCredentialsId();
         try {
-            return registerWithRetry(bitbucketBaseUrl, globalCredentialsProvider, jobCredentials, request);
+            return registerWithRetry(bitbucketBaseUrl, globalCredentialsProvider, jobCredentials, request,
+                    toMemoKey(bitbucketBaseUrl, repository));
         } catch (Exception ex) {
             String message =
                     "Failed to register webhook in bitbucket server with url " + bitbucketBaseUrl;
@@ -90,46 +166,112 @@ public class RetryingWebhookHandler {
         return handler.register(request);
     }
 
-    @Nullable
-    private BitbucketWebhook registerUsingCredentialsQuietly(String bitbucketUrl,
-                                                             BitbucketCredentials credentials,
-                                                             WebhookRegisterRequest request) {
-        try {
-            return this.registerUsingCredentials(bitbucketUrl, credentials, request);
-        } catch (AuthorizationException exception) {
+    private BitbucketWebhook registerWithRetry(
+            String bitbucketUrl,
+            GlobalCredentialsProvider globalCredentialsProvider,
+            @Nullable String jobCredentials,
+            WebhookRegisterRequest request,
+            String memoKey) {
+        CredentialsTier remembered = getMemo(memoKey, jobCredentials);
+        List<CredentialsTier> tiers = new ArrayList<>(EnumSet.allOf(CredentialsTier.class));
+        if (remembered != null) {
+            tiers.remove(remembered);
+            tiers.add(0, remembered);
+        }
+        AuthorizationException lastFailure = null;
+        for (CredentialsTier tier : tiers) {
+            Optional<BitbucketCredentials> credentials = toCredentials(tier, globalCredentialsProvider, jobCredentials);
+            if (!credentials.isPresent()) {
+                continue;
+            }
+            try {
+                BitbucketWebhook result = registerUsingCredentials(bitbucketUrl, credentials.get(), request);
+                if (tier == remembered) {
+                    memoHitCount.incrementAndGet();
+                }
+                putMemo(memoKey, new RememberedCredentials(tier, tier == CredentialsTier.JOB ? jobCredentials : null));
+                return result;
+            } catch (AuthorizationException e) {
+                wastedAttemptCount.incrementAndGet();
+                if (tier == remembered) {
+                    removeMemo(memoKey);
+                }
+                lastFailure = e;
+            }
+        }
+        if (lastFailure != null) {
+            throw lastFailure;
+        }
+        return null;
+    }
+
+    private static String toMemoKey(String bitbucketUrl, BitbucketSCMRepository repository) {
+        return String.join("/", bitbucketUrl, String.valueOf(repository.getProjectKey()).toLowerCase(Locale.ROOT),
+                String.valueOf(repository.getRepositorySlug()).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the credentials which last succeeded for the repository, unless they were the credentials of a job with
+     * different credentials.
+     */
+    @CheckForNull
+    private synchronized CredentialsTier getMemo(String memoKey, @Nullable String jobCredentials) {
+        RememberedCredentials remembered = memo.get(memoKey);
+        if (remembered == null ||
+            remembered.tier == CredentialsTier.JOB && !Objects.equals(remembered.jobCredentials, jobCredentials)) {
             return null;
         }
+        return remembered.tier;
     }
 
-    private BitbucketWebhook registerWithRetry(
-            String bitbucketUrl,
-            GlobalCredentialsProvider globalCredentialsProvider,
-            String jobCredentials,
-            WebhookRegisterRequest request) {
-        BitbucketWebhook result;
-        result = globalCredentialsProvider
-                .getGlobalAdminCredentials()
-                .map(c ->
-                        registerUsingCredentialsQuietly(
-                                bitbucketUrl,
-                                jenkinsToBitbucketCredentials.toBitbucketCredentials(c),
-                                request))
-                .orElse(null);
-        if (result == null) {
-            BitbucketCredentials credentials = jenkinsToBitbucketCredentials.toBitbucketCredentials(jobCredentials);
-            result = registerUsingCredentialsQuietly(bitbucketUrl, credentials, request);
+    private synchronized void putMemo(String memoKey, RememberedCredentials remembered) {
+        if (memoMaxEntries == 0) {
+            return;
+        }
+        memo.put(memoKey, remembered);
+        if (memo.size() > memoMaxEntries) {
+            Iterator<String> eldest = memo.keySet().iterator();
+            eldest.next();
+            eldest.remove();
         }
+    }
+
+    private synchronized void removeMemo(String memoKey) {
+        memo.remove(memoKey);
+    }
+
+    private Optional<BitbucketCredentials> toCredentials(CredentialsTier tier,
+                                                         GlobalCredentialsProvider globalCredentialsProvider,
+                                                         @Nullable String jobCredentials) {
+        switch (tier) {
+            case GLOBAL_ADMIN:
+                return globalCredentialsProvider.getGlobalAdminCredentials()
+                        .map(c -> jenkinsToBitbucketCredentials.toBitbucketCredentials(c));
+            case JOB:
+                return Optional.of(jenkinsToBitbucketCredentials.toBitbucketCredentials(jobCredentials));
+            default:
+                return globalCredentialsProvider.getGlobalCredentials()
+                        .map(c -> jenkinsToBitbucketCredentials.toBitbucketCredentials(c));
+        }
+    }
+
+    /**
+     * The credentials webhooks are registered with, in the order they are tried by default.
+     */
+    private enum CredentialsTier {
+        GLOBAL_ADMIN,
+        JOB,
+        GLOBAL
+    }
+
+    private static final class RememberedCredentials {
+
+        private final String jobCredentials;
+        private final CredentialsTier tier;
 
-        if (result == null) {
-            result = globalCredentialsProvider
-                    .getGlobalCredentials()
-                    .map(c ->
-                            registerUsingCredentials(
-                                    bitbucketUrl,
-                                    jenkinsToBitbucketCredentials.toBitbucketCredentials(c),
-                                    request))
-                    .orElse(null);
+        private RememberedCredentials(CredentialsTier tier, @Nullable String jobCredentials) {
+            this.tier = tier;
+            this.jobCredentials = jobCredentials;
         }
-        return result;
     }
-}
\ No newline at end of file
+}
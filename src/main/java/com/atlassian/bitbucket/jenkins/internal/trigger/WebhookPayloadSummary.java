@@ -0,0 +1,150 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketRefChangeType;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The parts of a refs changed or mirror synchronized webhook needed to decide whether it is worth parsing: the
+ * repository it is for, and whether any ref was added or updated.
+ * <p>
+ * The payload is read as a stream of tokens, without binding it to the model, and reading stops as soon as the
+ * webhook is known to be irrelevant, or as soon as both the repository and a ref added or updated have been read.
+ * Only the repository is read as a tree, as it is small and its fields come in no particular order.
+ */
+final class WebhookPayloadSummary {
+
+    private final List<String> cloneUrls = new ArrayList<>();
+    private boolean changesRead;
+    private boolean eligibleChanges;
+    private String projectKey;
+    private boolean repositoryRead;
+    private String slug;
+    private boolean subscribed;
+
+    private WebhookPayloadSummary() {
+    }
+
+    /**
+     * Reads the summary of a webhook.
+     *
+     * @param objectMapper the mapper to read the payload with
+     * @param payload      the body of the webhook
+     * @param isSubscribed whether anything is interested in the repository of the webhook, once it has been read
+     * @return the summary of the webhook
+     * @throws IOException if the payload is not valid JSON
+     */
+    static WebhookPayloadSummary read(ObjectMapper objectMapper, String payload,
+                                      Predicate<WebhookPayloadSummary> isSubscribed) throws IOException {
+        WebhookPayloadSummary summary = new WebhookPayloadSummary();
+        JsonFactory factory = objectMapper.getFactory();
+        try (JsonParser parser = factory.createParser(payload)) {
+            parser.setCodec(objectMapper);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return summary;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("repository".equals(field) && value == JsonToken.START_OBJECT) {
+                    summary.readRepository(parser.readValueAsTree());
+                    summary.subscribed = summary.repositoryRead && isSubscribed.test(summary);
+                    if (summary.repositoryRead && (!summary.subscribed || summary.changesRead)) {
+                        return summary;
+                    }
+                } else if ("changes".equals(field) && value == JsonToken.START_ARRAY) {
+                    summary.readChanges(parser);
+                    if (summary.repositoryRead) {
+                        return summary;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return summary;
+    }
+
+    List<String> getCloneUrls() {
+        return Collections.unmodifiableList(cloneUrls);
+    }
+
+    @CheckForNull
+    String getProjectKey() {
+        return projectKey;
+    }
+
+    @CheckForNull
+    String getSlug() {
+        return slug;
+    }
+
+    /**
+     * @return {@code true} if the webhook can be ignored because nothing is interested in its repository
+     */
+    boolean isIgnorable() {
+        return repositoryRead && !subscribed;
+    }
+
+    /**
+     * @return {@code true} if every change of the webhook deletes a ref, which only matters to SCM sources
+     */
+    boolean isRemovingRefsOnly() {
+        return repositoryRead && changesRead && !eligibleChanges;
+    }
+
+    /**
+     * Reads the changes until one adds or updates a ref. If the repository has not been read yet, the rest of the
+     * changes are skipped so reading can go on.
+     */
+    private void readChanges(JsonParser parser) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (eligibleChanges) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("type".equals(field) && value == JsonToken.VALUE_STRING &&
+                    !BitbucketRefChangeType.DELETE.name().equals(parser.getText())) {
+                    eligibleChanges = true;
+                    if (repositoryRead) {
+                        // Nothing else is needed, the caller stops reading
+                        changesRead = true;
+                        return;
+                    }
+                }
+                parser.skipChildren();
+            }
+        }
+        changesRead = true;
+    }
+
+    private void readRepository(JsonNode repository) {
+        JsonNode projectKeyNode = repository.path("project").path("key");
+        JsonNode slugNode = repository.path("slug");
+        if (!projectKeyNode.isTextual() || !slugNode.isTextual()) {
+            return;
+        }
+        projectKey = projectKeyNode.asText();
+        slug = slugNode.asText();
+        for (JsonNode cloneLink : repository.path("links").path("clone")) {
+            JsonNode href = cloneLink.path("href");
+            if (href.isTextual()) {
+                cloneUrls.add(href.asText());
+            }
+        }
+        repositoryRead = true;
+    }
+}
@@ -54,13 +54,22 @@ public class BitbucketWebhookHandler implements WebhookHandler {
         return process(request, event);
     }
 
-    private String constructCallbackUrl(WebhookRegisterRequest request) {
-        String jenkinsUrl = request.getJenkinsUrl();
-        StringBuilder url = new StringBuilder(request.getJenkinsUrl());
+    /**
+     * Returns the URL Bitbucket Server delivers the webhooks of a Jenkins instance to.
+     *
+     * @param jenkinsUrl the root URL of the Jenkins instance
+     * @return the callback URL of the webhooks
+     */
+    public static String toCallbackUrl(String jenkinsUrl) {
+        StringBuilder url = new StringBuilder(jenkinsUrl);
         url = jenkinsUrl.endsWith("/") ? url : url.append("/");
         return url.append(CALLBACK_URL_SUFFIX).toString();
     }
 
+    private String constructCallbackUrl(WebhookRegisterRequest request) {
+        return toCallbackUrl(request.getJenkinsUrl());
+    }
+
     private BitbucketWebhookRequest createRequest(WebhookRegisterRequest request, BitbucketWebhookEvent event) {
         return BitbucketWebhookRequest.Builder.aRequestFor(event.getEventId())
                 .withCallbackTo(constructCallbackUrl(request))
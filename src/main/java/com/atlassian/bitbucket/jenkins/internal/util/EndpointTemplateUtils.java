@@ -0,0 +1,77 @@
+package com.atlassian.bitbucket.jenkins.internal.util;
+
+import okhttp3.HttpUrl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.commons.lang3.StringUtils.isNumeric;
+import static org.apache.commons.lang3.StringUtils.removeEnd;
+
+public class EndpointTemplateUtils {
+
+    private static final Map<String, String> PARAMETER_AFTER_SEGMENT = new HashMap<>();
+    private static final String REST_SEGMENT = "rest";
+
+    static {
+        PARAMETER_AFTER_SEGMENT.put("commits", "{commitId}");
+        PARAMETER_AFTER_SEGMENT.put("projects", "{projectKey}");
+        PARAMETER_AFTER_SEGMENT.put("repos", "{repositorySlug}");
+        PARAMETER_AFTER_SEGMENT.put("users", "{userSlug}");
+        PARAMETER_AFTER_SEGMENT.put("webhooks", "{webhookId}");
+    }
+
+    /**
+     * Returns the base URL of the Bitbucket Server instance a REST URL points at, which is everything before the
+     * {@code rest} segment of the path, without a trailing slash. E.g.
+     * {@code http://bitbucket/context/rest/api/1.0/projects?start=25} becomes {@code http://bitbucket/context}. A URL
+     * that does not point at a REST resource is returned without its query string and fragment.
+     *
+     * @param url a URL pointing at a Bitbucket Server instance
+     * @return the base URL of the instance
+     */
+    public static String toBaseUrl(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        int end = segments.indexOf(REST_SEGMENT);
+        HttpUrl.Builder baseUrl = url.newBuilder().encodedPath("/").query(null).fragment(null);
+        for (String segment : segments.subList(0, end < 0 ? segments.size() : end)) {
+            if (!segment.isEmpty()) {
+                baseUrl.addPathSegment(segment);
+            }
+        }
+        return removeEnd(baseUrl.build().toString(), "/");
+    }
+
+    /**
+     * Turns a Bitbucket REST URL into the template of the endpoint it calls, so calls to the same endpoint for
+     * different projects, repositories or commits can be grouped together. The context path of the server and the query
+     * string are dropped, e.g. {@code http://bitbucket/context/rest/api/1.0/projects/PROJ/repos/repo/webhooks?start=25}
+     * becomes {@code /rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/webhooks}.
+     *
+     * @param url a URL pointing at a Bitbucket Server REST resource
+     * @return the endpoint template of the URL
+     */
+    public static String toEndpointTemplate(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        int start = segments.indexOf(REST_SEGMENT);
+        StringBuilder template = new StringBuilder();
+        String previous = "";
+        for (String segment : segments.subList(Math.max(start, 0), segments.size())) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            template.append('/');
+            String parameter = PARAMETER_AFTER_SEGMENT.get(previous);
+            if (parameter != null) {
+                template.append(parameter);
+            } else if (isNumeric(segment)) {
+                template.append("{id}");
+            } else {
+                template.append(segment);
+            }
+            previous = segment;
+        }
+        return template.length() == 0 ? "/" : template.toString();
+    }
+}
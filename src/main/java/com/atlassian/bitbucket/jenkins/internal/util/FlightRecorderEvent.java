@@ -0,0 +1,50 @@
+package com.atlassian.bitbucket.jenkins.internal.util;
+
+/**
+ * A single Java Flight Recorder event, timed from its creation by {@link FlightRecorderEventType#begin()} until it is
+ * committed. Events are not thread safe, but may be committed on a different thread from the one that began them.
+ */
+public class FlightRecorderEvent {
+
+    static final FlightRecorderEvent DISABLED = new FlightRecorderEvent(null, null);
+
+    private final Object event;
+    private final FlightRecorderEventType type;
+
+    FlightRecorderEvent(FlightRecorderEventType type, Object event) {
+        this.event = event;
+        this.type = type;
+    }
+
+    /**
+     * Records the event, with the time elapsed since it began as its duration.
+     */
+    public void commit() {
+        if (event != null) {
+            type.commit(event);
+        }
+    }
+
+    /**
+     * Returns whether the event will be recorded. Values that are costly to compute should only be set if it is.
+     *
+     * @return {@code true} if the event is being recorded
+     */
+    public boolean isEnabled() {
+        return event != null;
+    }
+
+    /**
+     * Sets a field of the event.
+     *
+     * @param field the name of the field
+     * @param value the value, which must match the type of the field
+     * @return this event
+     */
+    public FlightRecorderEvent set(String field, Object value) {
+        if (event != null) {
+            type.set(event, field, value);
+        }
+        return this;
+    }
+}
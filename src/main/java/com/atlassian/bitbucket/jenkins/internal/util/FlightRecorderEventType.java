@@ -0,0 +1,242 @@
+package com.atlassian.bitbucket.jenkins.internal.util;
+
+import javax.annotation.CheckForNull;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.util.Arrays.asList;
+
+/**
+ * A Java Flight Recorder event type emitted by this plugin, so recordings taken in production can attribute time to
+ * the plugin without enabling FINE logging. All types are listed under the {@value #CATEGORY} category.
+ * <p>
+ * The plugin is built for Java 8, where the {@code jdk.jfr} API is not always available, so the types are defined at
+ * runtime through {@code jdk.jfr.EventFactory} using reflection instead of subclassing {@code jdk.jfr.Event}. On a JVM
+ * without the API, events are silently dropped. An event is only created while a recording has its type enabled:
+ * the {@code jdk.jfr.EventType} is looked up once when the type is built, so an event that is not recorded costs a
+ * single reflective {@code EventType.isEnabled()} call and allocates nothing.
+ */
+public final class FlightRecorderEventType {
+
+    public static final String CATEGORY = "Bitbucket Server Integration";
+
+    private static final Logger LOGGER = Logger.getLogger(FlightRecorderEventType.class.getName());
+    @CheckForNull
+    private static final FlightRecorderApi API = FlightRecorderApi.load();
+
+    private final Object eventFactory;
+    private final Object eventType;
+    private final List<String> fieldNames;
+
+    private FlightRecorderEventType(@CheckForNull Object eventFactory, List<String> fieldNames) {
+        this.eventFactory = eventFactory;
+        this.eventType = eventFactory == null ? null : getEventType(eventFactory);
+        this.fieldNames = fieldNames;
+    }
+
+    /**
+     * Starts a builder of an event type.
+     *
+     * @param name  the unique name of the event type, e.g. {@code com.atlassian.bitbucket.jenkins.WebhookReceived}
+     * @param label the human readable name of the event type
+     * @return a builder of the event type
+     */
+    public static Builder builder(String name, String label) {
+        return new Builder(name, label);
+    }
+
+    /**
+     * Starts timing an event of this type. The event is recorded, with its duration, once it is
+     * {@link FlightRecorderEvent#commit() committed}.
+     *
+     * @return the event, which does nothing if this type is not being recorded
+     */
+    public FlightRecorderEvent begin() {
+        if (eventType == null) {
+            return FlightRecorderEvent.DISABLED;
+        }
+        try {
+            if (!(Boolean) API.isTypeEnabled.invoke(eventType)) {
+                return FlightRecorderEvent.DISABLED;
+            }
+            Object event = API.newEvent.invoke(eventFactory);
+            API.begin.invoke(event);
+            return new FlightRecorderEvent(this, event);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to create a flight recorder event", e);
+            return FlightRecorderEvent.DISABLED;
+        }
+    }
+
+    @CheckForNull
+    private static Object getEventType(Object eventFactory) {
+        try {
+            return API.getEventType.invoke(eventFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to look up a flight recorder event type", e);
+            return null;
+        }
+    }
+
+    void commit(Object event) {
+        try {
+            API.commit.invoke(event);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to commit a flight recorder event", e);
+        }
+    }
+
+    void set(Object event, String field, Object value) {
+        int index = fieldNames.indexOf(field);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+        try {
+            API.set.invoke(event, index, value);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to set field " + field + " of a flight recorder event", e);
+        }
+    }
+
+    public static final class Builder {
+
+        private final List<Field> fields = new ArrayList<>();
+        private final String label;
+        private final String name;
+
+        private Builder(String name, String label) {
+            this.label = label;
+            this.name = name;
+        }
+
+        public FlightRecorderEventType build() {
+            List<String> fieldNames = new ArrayList<>();
+            fields.forEach(field -> fieldNames.add(field.name));
+            return new FlightRecorderEventType(createEventFactory(), Collections.unmodifiableList(fieldNames));
+        }
+
+        /**
+         * Adds a field to the event type.
+         *
+         * @param name  the name of the field
+         * @param type  the type of the field, either {@code String} or a primitive type
+         * @param label the human readable name of the field
+         * @return this builder
+         */
+        public Builder field(String name, Class<?> type, String label) {
+            fields.add(new Field(name, type, label, false));
+            return this;
+        }
+
+        /**
+         * Adds a {@code long} field holding a duration in milliseconds to the event type.
+         *
+         * @param name  the name of the field
+         * @param label the human readable name of the field
+         * @return this builder
+         */
+        public Builder millisField(String name, String label) {
+            fields.add(new Field(name, long.class, label, true));
+            return this;
+        }
+
+        @CheckForNull
+        private Object createEventFactory() {
+            if (API == null) {
+                return null;
+            }
+            try {
+                List<Object> annotations = asList(
+                        API.newAnnotation(API.nameAnnotation, name),
+                        API.newAnnotation(API.labelAnnotation, label),
+                        API.newAnnotation(API.categoryAnnotation, new String[]{CATEGORY}));
+                List<Object> valueDescriptors = new ArrayList<>();
+                for (Field field : fields) {
+                    List<Object> fieldAnnotations = new ArrayList<>();
+                    fieldAnnotations.add(API.newAnnotation(API.labelAnnotation, field.label));
+                    if (field.millis) {
+                        fieldAnnotations.add(API.newAnnotation(API.timespanAnnotation, "MILLISECONDS"));
+                    }
+                    valueDescriptors.add(API.valueDescriptor.newInstance(field.type, field.name, fieldAnnotations));
+                }
+                return API.create.invoke(null, annotations, valueDescriptors);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed to define the flight recorder event " + name, e);
+                return null;
+            }
+        }
+    }
+
+    private static final class Field {
+
+        private final String label;
+        private final boolean millis;
+        private final String name;
+        private final Class<?> type;
+
+        private Field(String name, Class<?> type, String label, boolean millis) {
+            this.label = label;
+            this.millis = millis;
+            this.name = name;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The parts of the {@code jdk.jfr} API used to define and emit events.
+     */
+    private static final class FlightRecorderApi {
+
+        private final Constructor<?> annotationElement;
+        private final Method begin;
+        private final Class<?> categoryAnnotation;
+        private final Method commit;
+        private final Method create;
+        private final Method getEventType;
+        private final Method isTypeEnabled;
+        private final Class<?> labelAnnotation;
+        private final Class<?> nameAnnotation;
+        private final Method newEvent;
+        private final Method set;
+        private final Class<?> timespanAnnotation;
+        private final Constructor<?> valueDescriptor;
+
+        private FlightRecorderApi() throws ReflectiveOperationException {
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+            annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            begin = eventClass.getMethod("begin");
+            categoryAnnotation = Class.forName("jdk.jfr.Category");
+            commit = eventClass.getMethod("commit");
+            create = eventFactoryClass.getMethod("create", List.class, List.class);
+            getEventType = eventFactoryClass.getMethod("getEventType");
+            isTypeEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+            labelAnnotation = Class.forName("jdk.jfr.Label");
+            nameAnnotation = Class.forName("jdk.jfr.Name");
+            newEvent = eventFactoryClass.getMethod("newEvent");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            timespanAnnotation = Class.forName("jdk.jfr.Timespan");
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                    .getConstructor(Class.class, String.class, List.class);
+        }
+
+        @CheckForNull
+        static FlightRecorderApi load() {
+            try {
+                return new FlightRecorderApi();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                LOGGER.log(Level.FINE, "Java Flight Recorder is not available, no events will be recorded", e);
+                return null;
+            }
+        }
+
+        Object newAnnotation(Class<?> annotationType, Object value) throws ReflectiveOperationException {
+            return annotationElement.newInstance(annotationType, value);
+        }
+    }
+}
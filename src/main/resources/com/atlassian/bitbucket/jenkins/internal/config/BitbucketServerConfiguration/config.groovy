@@ -10,6 +10,13 @@ f.section() {
         }
     }
 
+    def circuitState = instance == null ? null : descriptor.getCircuitState(instance.baseUrl)
+    if (circuitState != null) {
+        f.entry() {
+            div(class: "warning", _("bitbucket.circuit.open", circuitState))
+        }
+    }
+
     f.entry(title: _("bitbucket.server.name"), field: "serverName") {
         f.textbox(placeholder: "To help your users identify this instance", checkMethod: "post")
     }
@@ -26,6 +33,10 @@ f.section() {
         c.select(context: app, includeUser: false, expressionAllowed: false, checkMethod: "post")
     }
 
+    f.advanced() {
+        f.optionalProperty(title: _("bitbucket.http.client.profile"), field: "httpClientProfile")
+    }
+
     f.block() {
         f.validateButton(
                 title: _("bitbucket.test.connection"),
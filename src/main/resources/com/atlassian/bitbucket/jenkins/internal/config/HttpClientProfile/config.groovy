@@ -0,0 +1,32 @@
+package com.atlassian.bitbucket.jenkins.internal.config.HttpClientProfile
+
+def f = namespace(lib.FormTagLib)
+
+f.entry(title: _("bitbucket.http.max.idle.connections"), field: "maxIdleConnections") {
+    f.number(clazz: "positive-number", min: 0, default: 5)
+}
+
+f.entry(title: _("bitbucket.http.keep.alive"), field: "keepAliveSeconds") {
+    f.number(clazz: "positive-number", min: 1, default: 300)
+}
+
+f.entry(title: _("bitbucket.http.connect.timeout"), field: "connectTimeoutSeconds") {
+    f.number(clazz: "positive-number", min: 0, default: 10)
+}
+
+f.entry(title: _("bitbucket.http.read.timeout"), field: "readTimeoutSeconds") {
+    f.number(clazz: "positive-number", min: 0, default: 10)
+}
+
+f.entry(title: _("bitbucket.http.write.timeout"), field: "writeTimeoutSeconds") {
+    f.number(clazz: "positive-number", min: 0, default: 10)
+}
+
+f.entry(title: _("bitbucket.http.max.requests.per.host"), field: "maxRequestsPerHost") {
+    f.number(clazz: "positive-number", min: 1, default: 5,
+            checkMethod: "post")
+}
+
+f.entry(title: _("bitbucket.http.prefer.http2"), field: "preferHttp2") {
+    f.checkbox(default: true)
+}
@@ -1,13 +1,20 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
 import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketClientException;
+import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesCache;
 import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesSupplier;
 import com.atlassian.bitbucket.jenkins.internal.model.AtlassianServerCapabilities;
+import okhttp3.HttpUrl;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.BITBUCKET_BASE_URL;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
@@ -18,9 +25,18 @@ public class BitbucketCapabilitiesClientImplTest {
     private BitbucketCapabilitiesSupplier capabilitiesSupplier;
     @Mock
     private AtlassianServerCapabilities newCapabilities, cachedCapabilities;
-    @InjectMocks
+    @Mock
+    private BitbucketRequestExecutor requestExecutor;
+    private BitbucketCapabilitiesCache capabilitiesCache;
     private BitbucketCapabilitiesClientImpl capabilitiesClient;
 
+    @Before
+    public void setup() {
+        when(requestExecutor.getBaseUrl()).thenReturn(HttpUrl.parse(BITBUCKET_BASE_URL));
+        capabilitiesCache = new BitbucketCapabilitiesCache(Runnable::run);
+        capabilitiesClient = createClient();
+    }
+
     @Test(expected = BitbucketClientException.class)
     public void testGetServerCapabilitiesExceptionFromSupplier() {
         doThrow(new BitbucketClientException("Client exception")).when(capabilitiesSupplier).get();
@@ -32,6 +48,7 @@ public class BitbucketCapabilitiesClientImplTest {
         when(capabilitiesSupplier.get()).thenReturn(newCapabilities);
         assertEquals(newCapabilities, capabilitiesClient.getServerCapabilities());
         verify(capabilitiesSupplier).get();
+        assertEquals(1, capabilitiesCache.getMissCount());
     }
 
     @Test
@@ -42,5 +59,58 @@ public class BitbucketCapabilitiesClientImplTest {
 
         assertEquals(cachedCapabilities, capabilitiesClient.getServerCapabilities());
         verifyNoMoreInteractions(capabilitiesSupplier);
+        assertEquals(1, capabilitiesCache.getHitCount());
+    }
+
+    @Test
+    public void testGetServerCapabilitiesSharedAcrossClients() {
+        when(capabilitiesSupplier.get()).thenReturn(cachedCapabilities);
+        capabilitiesClient.getServerCapabilities();
+
+        assertEquals(cachedCapabilities, createClient().getServerCapabilities());
+        verify(capabilitiesSupplier).get();
+    }
+
+    @Test
+    public void testGetServerCapabilitiesAfterInvalidate() {
+        when(capabilitiesSupplier.get()).thenReturn(cachedCapabilities, newCapabilities);
+        capabilitiesClient.getServerCapabilities();
+        capabilitiesCache.invalidateAll();
+
+        assertEquals(newCapabilities, capabilitiesClient.getServerCapabilities());
+        verify(capabilitiesSupplier, times(2)).get();
+    }
+
+    @Test
+    public void testGetServerCapabilitiesLoadedOnceForConcurrentMisses() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(capabilitiesSupplier.get()).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await();
+            return cachedCapabilities;
+        });
+        AtomicReference<AtlassianServerCapabilities> firstResult = new AtomicReference<>();
+        Thread first = new Thread(() -> firstResult.set(capabilitiesClient.getServerCapabilities()));
+        first.start();
+        loading.await();
+        AtomicReference<AtlassianServerCapabilities> secondResult = new AtomicReference<>();
+        Thread second = new Thread(() -> secondResult.set(createClient().getServerCapabilities()));
+        second.start();
+        while (second.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(cachedCapabilities, firstResult.get());
+        assertEquals(cachedCapabilities, secondResult.get());
+        verify(capabilitiesSupplier).get();
+        assertEquals(2, capabilitiesCache.getMissCount());
+    }
+
+    private BitbucketCapabilitiesClientImpl createClient() {
+        return new BitbucketCapabilitiesClientImpl(requestExecutor, capabilitiesSupplier, capabilitiesCache);
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
 import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketMissingCapabilityException;
+import com.atlassian.bitbucket.jenkins.internal.client.supply.BitbucketCapabilitiesCache;
 import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
 import com.atlassian.bitbucket.jenkins.internal.fixture.FakeRemoteHttpServer;
 import com.atlassian.bitbucket.jenkins.internal.http.HttpRequestExecutorImpl;
@@ -230,6 +231,19 @@ public class BitbucketClientFactoryImplTest {
         assertThat(projects.getValues().size(), equalTo(4));
     }
 
+    @Test
+    public void testGetProjectPageWithPageSize() {
+        String url = BITBUCKET_BASE_URL + "/rest/api/1.0/projects?name=myFilter&limit=100";
+
+        String projectPage = readFileToString("/project-page-filtered-response.json");
+        mockExecutor.mapUrlToResult(url, projectPage);
+
+        BitbucketPage<BitbucketProject> projects =
+                anonymousClientFactory.getSearchClient("myFilter").findProjects(100);
+
+        assertThat(projects.getValues().size(), equalTo(1));
+    }
+
     @Test
     public void testGetProjectPageFiltered() {
         String url = BITBUCKET_BASE_URL + "/rest/api/1.0/projects?name=myFilter";
@@ -273,6 +287,29 @@ public class BitbucketClientFactoryImplTest {
         assertThat(httpCloneUrl.getHref(), equalTo("http://localhost:7990/bitbucket/scm/project_1/rep_1.git"));
     }
 
+    @Test
+    public void testFindRepository() {
+        String url = BITBUCKET_BASE_URL + "/rest/api/1.0/repos?projectname=PROJ&name=rep_1";
+        mockExecutor.mapUrlToResult(url, readFileToString("/repo-filter-response.json"));
+
+        Optional<BitbucketRepository> repository = anonymousClientFactory.getSearchClient("PROJ")
+                .findRepository("rep_1", r -> "rep_1".equals(r.getName()));
+
+        assertThat(repository.map(BitbucketRepository::getSlug), equalTo(Optional.of("rep_1")));
+        mockExecutor.ensureResponseBodyClosed();
+    }
+
+    @Test
+    public void testFindRepositoryNoMatch() {
+        String url = BITBUCKET_BASE_URL + "/rest/api/1.0/repos?projectname=PROJ&name=rep_1";
+        mockExecutor.mapUrlToResult(url, readFileToString("/repo-filter-response.json"));
+
+        Optional<BitbucketRepository> repository = anonymousClientFactory.getSearchClient("PROJ")
+                .findRepository("rep_1", r -> false);
+
+        assertThat(repository.isPresent(), equalTo(false));
+    }
+
     @Test
     public void testGetRepoPageFiltered() {
         String url = BITBUCKET_BASE_URL + "/rest/api/1.0/repos?projectname=my%20project%20name&name=rep";
@@ -333,7 +370,9 @@ public class BitbucketClientFactoryImplTest {
     private BitbucketClientFactoryImpl getClientFactory(
             String url, BitbucketCredentials credentials) {
         HttpRequestExecutor executor = new HttpRequestExecutorImpl(mockExecutor);
-        return new BitbucketClientFactoryImpl(url, credentials, OBJECT_MAPPER, executor);
+        return new BitbucketClientFactoryImpl(url, credentials, new JsonReaderWriterRegistry(OBJECT_MAPPER), executor,
+                new BitbucketCapabilitiesCache(Runnable::run), BitbucketResponseCache.DISABLED,
+                GetRequestCoalescer.DISABLED);
     }
 
     private String readCapabilitiesResponseFromFile() {
@@ -1,20 +1,40 @@
 package com.atlassian.bitbucket.jenkins.internal.client;
 
+import com.atlassian.bitbucket.jenkins.internal.client.HttpRequestExecutor.ResponseConsumer;
 import com.atlassian.bitbucket.jenkins.internal.client.exception.NoContentException;
+import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
 import com.atlassian.bitbucket.jenkins.internal.fixture.FakeRemoteHttpServer;
 import com.atlassian.bitbucket.jenkins.internal.http.HttpRequestExecutorImpl;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketProject;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketResponse;
+import okhttp3.*;
 import org.junit.Test;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials.ANONYMOUS_CREDENTIALS;
 import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.BITBUCKET_BASE_URL;
 import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.OBJECT_MAPPER;
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 public class BitbucketRequestExecutorTest {
 
+    private static final String PROJECT_JSON = "{\"key\":\"PROJ\",\"name\":\"Project\"}";
+    private static final String PROJECT_URL = BITBUCKET_BASE_URL + "/rest/api/1.0/projects/PROJ";
+
     private final FakeRemoteHttpServer fakeRemoteHttpServer = new FakeRemoteHttpServer();
     private final HttpRequestExecutor requestExecutor = new HttpRequestExecutorImpl(fakeRemoteHttpServer);
     private final BitbucketRequestExecutor bitbucketRequestExecutor =
             new BitbucketRequestExecutor(BITBUCKET_BASE_URL, requestExecutor, OBJECT_MAPPER, ANONYMOUS_CREDENTIALS);
+    private final BitbucketResponseCache responseCache = new BitbucketResponseCache(10);
+    private final BitbucketRequestExecutor cachingRequestExecutor =
+            new BitbucketRequestExecutor(BITBUCKET_BASE_URL, requestExecutor, OBJECT_MAPPER, ANONYMOUS_CREDENTIALS,
+                    responseCache);
 
     @Test(expected = NoContentException.class)
     public void testNoBody() {
@@ -22,4 +42,92 @@ public class BitbucketRequestExecutorTest {
 
         bitbucketRequestExecutor.makeGetRequest(bitbucketRequestExecutor.getBaseUrl(), Object.class);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCachedResponseIsRevalidated() {
+        fakeRemoteHttpServer.mapUrlToResultWithHeaders(PROJECT_URL, PROJECT_JSON, singletonMap("ETag", "\"v1\""));
+        BitbucketProject first = getProject(cachingRequestExecutor).getBody();
+        assertThat(fakeRemoteHttpServer.getHeaderValue(PROJECT_URL, "If-None-Match"), nullValue());
+
+        fakeRemoteHttpServer.mapUrlToResponseCode(PROJECT_URL, 304);
+        BitbucketProject second = getProject(cachingRequestExecutor).getBody();
+
+        assertThat(fakeRemoteHttpServer.getHeaderValue(PROJECT_URL, "If-None-Match"), equalTo("\"v1\""));
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.getName(), equalTo(first.getName()));
+        BitbucketResponseCache.EndpointStatistics statistics =
+                responseCache.getStatistics().get("/rest/api/1.0/projects/{projectKey}");
+        assertThat(statistics.getHitCount(), equalTo(1L));
+        assertThat(statistics.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void testModifiedResponseReplacesCachedResponse() {
+        fakeRemoteHttpServer.mapUrlToResultWithHeaders(PROJECT_URL, PROJECT_JSON, singletonMap("ETag", "\"v1\""));
+        getProject(cachingRequestExecutor);
+
+        fakeRemoteHttpServer.mapUrlToResultWithHeaders(PROJECT_URL, "{\"key\":\"PROJ\",\"name\":\"Renamed\"}",
+                singletonMap("ETag", "\"v2\""));
+        assertThat(getProject(cachingRequestExecutor).getBody().getName(), equalTo("Renamed"));
+
+        fakeRemoteHttpServer.mapUrlToResponseCode(PROJECT_URL, 304);
+        assertThat(getProject(cachingRequestExecutor).getBody().getName(), equalTo("Renamed"));
+        assertThat(fakeRemoteHttpServer.getHeaderValue(PROJECT_URL, "If-None-Match"), equalTo("\"v2\""));
+    }
+
+    @Test
+    public void testResponseWithoutValidatorIsNotCached() {
+        fakeRemoteHttpServer.mapUrlToResult(PROJECT_URL, PROJECT_JSON);
+        getProject(cachingRequestExecutor);
+        getProject(cachingRequestExecutor);
+
+        assertThat(fakeRemoteHttpServer.getHeaderValue(PROJECT_URL, "If-None-Match"), nullValue());
+        assertThat(responseCache.size(), equalTo(0));
+    }
+
+    @Test
+    public void testDisabledCacheSendsNoConditionalHeaders() {
+        fakeRemoteHttpServer.mapUrlToResultWithHeaders(PROJECT_URL, PROJECT_JSON, singletonMap("ETag", "\"v1\""));
+        getProject(bitbucketRequestExecutor);
+        getProject(bitbucketRequestExecutor);
+
+        assertThat(fakeRemoteHttpServer.getHeaderValue(PROJECT_URL, "If-None-Match"), nullValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCoalescedCallersReceiveTheirOwnCopy() {
+        HttpRequestExecutor coalescedRequestExecutor = mock(HttpRequestExecutor.class);
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        AtomicReference<ResponseConsumer<Object>> consumer = new AtomicReference<>();
+        when(coalescedRequestExecutor.executeGetAsync(any(HttpUrl.class), any(BitbucketCredentials.class),
+                any(ResponseConsumer.class))).thenAnswer(invocation -> {
+            consumer.set(invocation.getArgument(2));
+            return response;
+        });
+        BitbucketRequestExecutor coalescingRequestExecutor = new BitbucketRequestExecutor(BITBUCKET_BASE_URL,
+                coalescedRequestExecutor, new JsonReaderWriterRegistry(OBJECT_MAPPER), ANONYMOUS_CREDENTIALS,
+                BitbucketResponseCache.DISABLED, new GetRequestCoalescer(true));
+
+        CompletableFuture<BitbucketResponse<BitbucketProject>> first =
+                coalescingRequestExecutor.makeGetRequestAsync(HttpUrl.parse(PROJECT_URL), BitbucketProject.class);
+        CompletableFuture<BitbucketResponse<BitbucketProject>> second =
+                coalescingRequestExecutor.makeGetRequestAsync(HttpUrl.parse(PROJECT_URL), BitbucketProject.class);
+        response.complete(consumer.get().consume(new Response.Builder()
+                .request(new Request.Builder().url(PROJECT_URL).build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.parse("application/json"), PROJECT_JSON))
+                .build()));
+
+        verify(coalescedRequestExecutor).executeGetAsync(any(HttpUrl.class), any(BitbucketCredentials.class),
+                any(ResponseConsumer.class));
+        assertThat(second.join().getBody(), not(sameInstance(first.join().getBody())));
+        assertThat(second.join().getBody().getName(), equalTo("Project"));
+    }
+
+    private static BitbucketResponse<BitbucketProject> getProject(BitbucketRequestExecutor executor) {
+        return executor.makeGetRequest(HttpUrl.parse(PROJECT_URL), BitbucketProject.class);
+    }
+}
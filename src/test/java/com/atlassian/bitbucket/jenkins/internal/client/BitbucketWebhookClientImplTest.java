@@ -78,6 +78,17 @@ public class BitbucketWebhookClientImplTest {
         assertThat(events, hasItems(repoRefEvent, mirrorSyncEvent));
     }
 
+    @Test
+    public void testFetchingOfExistingWebhooksWithPageSize() {
+        String response = readFileToString("/webhook/web_hooks_in_system.json");
+        String url = format(WEBHOOK_URL + "?limit=100", BITBUCKET_BASE_URL, projectKey, repoSlug);
+        fakeRemoteHttpServer.mapUrlToResult(url, response);
+
+        List<BitbucketWebhook> webhooks = client.getWebhooks(100).collect(toList());
+
+        assertThat(webhooks.size(), is(equalTo(2)));
+    }
+
     @Test
     public void testRegisterWebhook() throws IOException {
         String repoRefEvent = "repo:refs_changed";
@@ -127,6 +138,22 @@ public class BitbucketWebhookClientImplTest {
         assertThat(next.isLastPage(), is(true));
     }
 
+    @Test
+    public void testNextPageFetchingUsesServerLimitWhenClamped() {
+        NextPageFetcherImpl fetcher =
+                new NextPageFetcherImpl(parse(BITBUCKET_BASE_URL), bitbucketRequestExecutor, 1000);
+        fakeRemoteHttpServer.mapUrlToResult(
+                BITBUCKET_BASE_URL + "?start=500&limit=500",
+                readFileToString("/webhook/web_hooks_in_system_last_page.json"));
+        BitbucketPage<BitbucketWebhook> firstPage = new BitbucketPage<>();
+        firstPage.setLimit(500);
+        firstPage.setNextPageStart(500);
+
+        BitbucketPage<BitbucketWebhook> next = fetcher.next(firstPage);
+
+        assertThat(next.isLastPage(), is(true));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testLastPageDoesNotHaveNext() {
         NextPageFetcherImpl fetcher = new NextPageFetcherImpl(parse(BITBUCKET_BASE_URL), bitbucketRequestExecutor);
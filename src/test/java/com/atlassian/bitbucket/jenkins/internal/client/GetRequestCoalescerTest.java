@@ -0,0 +1,168 @@
+package com.atlassian.bitbucket.jenkins.internal.client;
+
+import com.atlassian.bitbucket.jenkins.internal.client.exception.NotFoundException;
+import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
+import okhttp3.HttpUrl;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials.ANONYMOUS_CREDENTIALS;
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GetRequestCoalescerTest {
+
+    private static final HttpUrl URL =
+            HttpUrl.parse("http://localhost:7990/bitbucket/rest/api/1.0/projects/PROJ/repos/repo");
+
+    private final GetRequestCoalescer coalescer = new GetRequestCoalescer(true);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final CountDownLatch requestStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseRequest = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAsyncRequestsAreCoalesced() throws Exception {
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        Object value = new Object();
+
+        CompletableFuture<Object> first = coalescer.executeAsync(URL, ANONYMOUS_CREDENTIALS, Object.class, () -> {
+            requestCount.incrementAndGet();
+            return response;
+        });
+        CompletableFuture<Object> second = coalescer.executeAsync(URL, ANONYMOUS_CREDENTIALS, Object.class, () -> {
+            requestCount.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        second.cancel(true);
+        response.complete(value);
+
+        assertThat(first.get(), is(sameInstance(value)));
+        assertThat(requestCount.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        Object value = new Object();
+        Future<Object> first = executor.submit(() -> coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class,
+                () -> blockingRequest(value)));
+        requestStarted.await();
+        Future<Object> second = executor.submit(() -> coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class,
+                () -> blockingRequest(new Object())));
+        waitForCoalescedCaller();
+        releaseRequest.countDown();
+
+        assertThat(first.get(), is(sameInstance(value)));
+        assertThat(second.get(), is(sameInstance(value)));
+        assertThat(requestCount.get(), is(equalTo(1)));
+        GetRequestCoalescer.EndpointStatistics statistics = coalescer.getStatistics()
+                .get("/rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}");
+        assertThat(statistics.getRequestCount(), is(equalTo(1L)));
+        assertThat(statistics.getCoalescedCount(), is(equalTo(1L)));
+        assertThat(statistics.getCoalescingRatio(), is(equalTo(0.5)));
+    }
+
+    @Test
+    public void testDifferentCredentialsAreNotCoalesced() throws Exception {
+        BitbucketCredentials credentials = mock(BitbucketCredentials.class);
+        when(credentials.toHeaderValue()).thenReturn("Bearer token");
+        Future<Object> first = executor.submit(() -> coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class,
+                () -> blockingRequest(new Object())));
+        requestStarted.await();
+
+        Object value = new Object();
+        assertThat(coalescer.execute(URL, credentials, Object.class, () -> value), is(sameInstance(value)));
+        releaseRequest.countDown();
+        first.get();
+    }
+
+    @Test
+    public void testDifferentTypesAreNotCoalesced() throws Exception {
+        Future<Object> first = executor.submit(() -> coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class,
+                () -> blockingRequest(new Object())));
+        requestStarted.await();
+
+        String value = "value";
+        assertThat(coalescer.execute(URL, ANONYMOUS_CREDENTIALS, String.class, () -> value), is(sameInstance(value)));
+        releaseRequest.countDown();
+        first.get();
+    }
+
+    @Test
+    public void testDisabled() {
+        GetRequestCoalescer disabled = GetRequestCoalescer.DISABLED;
+
+        disabled.execute(URL, ANONYMOUS_CREDENTIALS, Object.class, requestCount::incrementAndGet);
+        disabled.execute(URL, ANONYMOUS_CREDENTIALS, Object.class, requestCount::incrementAndGet);
+
+        assertThat(requestCount.get(), is(equalTo(2)));
+        assertThat(disabled.getStatistics().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testFailureIsShared() throws Exception {
+        NotFoundException failure = new NotFoundException("not found", null);
+        Future<Object> first = executor.submit(() -> coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class,
+                () -> {
+                    blockingRequest(null);
+                    throw failure;
+                }));
+        requestStarted.await();
+        Future<Object> second = executor.submit(() -> coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class,
+                () -> blockingRequest(new Object())));
+        waitForCoalescedCaller();
+        releaseRequest.countDown();
+
+        for (Future<Object> result : asList(first, second)) {
+            try {
+                result.get();
+                fail("Expected the request to fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is(sameInstance(failure)));
+            }
+        }
+        assertThat(requestCount.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testSequentialRequestsAreNotCoalesced() {
+        coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class, requestCount::incrementAndGet);
+        coalescer.execute(URL, ANONYMOUS_CREDENTIALS, Object.class, requestCount::incrementAndGet);
+
+        assertThat(requestCount.get(), is(equalTo(2)));
+    }
+
+    private Object blockingRequest(Object value) {
+        requestCount.incrementAndGet();
+        requestStarted.countDown();
+        try {
+            releaseRequest.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return value;
+    }
+
+    private void waitForCoalescedCaller() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (coalescer.getStatistics().values().stream()
+                       .mapToLong(GetRequestCoalescer.EndpointStatistics::getCoalescedCount).sum() == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("The second caller did not join the request in flight");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.atlassian.bitbucket.jenkins.internal.client;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketPage;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketProject;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.OBJECT_MAPPER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JsonReaderWriterRegistryTest {
+
+    private final JsonReaderWriterRegistry registry = new JsonReaderWriterRegistry(OBJECT_MAPPER);
+
+    @Test
+    public void testReadersAreCached() {
+        assertThat(registry.getReader(BitbucketProject.class), sameInstance(registry.getReader(BitbucketProject.class)));
+    }
+
+    @Test
+    public void testPageReadersAreSharedAcrossTypeReferences() {
+        assertThat(registry.getReader(new TypeReference<BitbucketPage<BitbucketProject>>() {}),
+                sameInstance(registry.getReader(new TypeReference<BitbucketPage<BitbucketProject>>() {})));
+    }
+
+    @Test
+    public void testReadsPages() throws IOException {
+        BitbucketPage<BitbucketProject> page =
+                registry.getReader(new TypeReference<BitbucketPage<BitbucketProject>>() {})
+                        .readValue("{\"values\":[{\"key\":\"PROJ\",\"name\":\"Project\"}],\"isLastPage\":true}");
+
+        assertThat(page.isLastPage(), equalTo(true));
+        assertThat(page.getValues().get(0).getKey(), equalTo("PROJ"));
+    }
+
+    @Test
+    public void testWriterDoesNotCloseTarget() throws IOException {
+        CloseTrackingOutputStream out = new CloseTrackingOutputStream();
+
+        registry.getWriter(BitbucketProject.class).writeValue(out, new BitbucketProject("PROJ", null, "Project"));
+
+        assertThat(out.closed, equalTo(false));
+        assertThat(new String(out.toByteArray(), UTF_8), containsString("\"key\":\"PROJ\""));
+    }
+
+    private static class CloseTrackingOutputStream extends ByteArrayOutputStream {
+
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -69,7 +69,8 @@ public class ModernBitbucketBuildStatusClientImplTest {
     public void testPost() {
         BitbucketBuildStatus buildStatus = createTestBuildStatus("refs/testref");
         client.post(buildStatus);
-        verify(executor).makePostRequest(ArgumentMatchers.any(HttpUrl.class), eq(buildStatus), captor.capture());
+        verify(executor).makeRetrySafePostRequest(ArgumentMatchers.any(HttpUrl.class), eq(buildStatus),
+                captor.capture());
 
         Headers headers = captor.getValue();
         assertThat(headers.get("BBS-Signature-Algorithm"), equalTo("SHA256withRSA"));
@@ -81,7 +82,8 @@ public class ModernBitbucketBuildStatusClientImplTest {
     public void testPostNoRef() {
         BitbucketBuildStatus buildStatus = createTestBuildStatus(null);
         client.post(buildStatus);
-        verify(executor).makePostRequest(ArgumentMatchers.any(HttpUrl.class), eq(buildStatus), captor.capture());
+        verify(executor).makeRetrySafePostRequest(ArgumentMatchers.any(HttpUrl.class), eq(buildStatus),
+                captor.capture());
 
         Headers headers = captor.getValue();
         assertThat(headers.get("BBS-Signature-Algorithm"), equalTo("SHA256withRSA"));
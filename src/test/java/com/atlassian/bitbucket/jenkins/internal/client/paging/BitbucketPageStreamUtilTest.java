@@ -6,6 +6,13 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.convertToElementStream;
@@ -13,8 +20,11 @@ import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.junit.Assert.assertThat;
-import static org.junit.Assert.assertTrue;
-import static org.mockito.Mockito.when;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
 public class BitbucketPageStreamUtilTest {
@@ -59,4 +69,127 @@ public class BitbucketPageStreamUtilTest {
 
         assertTrue(stream.collect(toList()).size() == 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testPrefetchingPageStream() {
+        BitbucketPage<Integer> firstPage = page(false, 1, 2);
+        BitbucketPage<Integer> secondPage = page(false, 3, 4);
+        BitbucketPage<Integer> lastPage = page(true, 5, 6);
+        when(nextPageFetcher.next(firstPage)).thenReturn(secondPage);
+        when(nextPageFetcher.next(secondPage)).thenReturn(lastPage);
+
+        Stream<BitbucketPage<Integer>> stream =
+                BitbucketPageStreamUtil.toStream(firstPage, nextPageFetcher, 2, Runnable::run);
+
+        assertThat(convertToElementStream(stream).collect(toList()), contains(1, 2, 3, 4, 5, 6));
+    }
+
+    @Test
+    public void testPrefetchingUsesDedicatedThreads() {
+        BitbucketPage<Integer> firstPage = page(false, 1);
+        BitbucketPage<Integer> lastPage = page(true, 2);
+        List<String> fetchingThreads = new ArrayList<>();
+        when(nextPageFetcher.next(firstPage)).thenAnswer(invocation -> {
+            fetchingThreads.add(Thread.currentThread().getName());
+            return lastPage;
+        });
+
+        Stream<BitbucketPage<Integer>> stream = BitbucketPageStreamUtil.toStream(firstPage, nextPageFetcher, 1);
+
+        assertThat(convertToElementStream(stream).collect(toList()), contains(1, 2));
+        assertThat(fetchingThreads.get(0), startsWith("BitbucketPagePrefetcher"));
+    }
+
+    @Test
+    public void testPrefetchingFetchesNextPageBeforeItIsConsumed() {
+        BitbucketPage<Integer> firstPage = page(false, 1);
+        BitbucketPage<Integer> secondPage = page(false, 2);
+        when(nextPageFetcher.next(firstPage)).thenReturn(secondPage);
+
+        Iterator<BitbucketPage<Integer>> iterator =
+                BitbucketPageStreamUtil.toStream(firstPage, nextPageFetcher, 1, Runnable::run).iterator();
+
+        assertThat(iterator.next(), sameInstance(firstPage));
+        verify(nextPageFetcher).next(firstPage);
+        verify(nextPageFetcher, never()).next(secondPage);
+    }
+
+    @Test
+    public void testPrefetchingSurfacesErrorsToConsumer() {
+        BitbucketPage<Integer> firstPage = page(false, 1);
+        IllegalStateException failure = new IllegalStateException("Failed to fetch page");
+        when(nextPageFetcher.next(firstPage)).thenThrow(failure);
+
+        Iterator<BitbucketPage<Integer>> iterator =
+                BitbucketPageStreamUtil.toStream(firstPage, nextPageFetcher, 2, Runnable::run).iterator();
+        iterator.next();
+
+        try {
+            iterator.next();
+            fail("Expected the fetch failure to be thrown");
+        } catch (IllegalStateException e) {
+            assertThat(e, sameInstance(failure));
+        }
+    }
+
+    @Test
+    public void testPrefetchingCancelledWhenStreamClosed() {
+        List<Runnable> tasks = new ArrayList<>();
+        BitbucketPage<Integer> firstPage = page(false, 1);
+
+        Stream<BitbucketPage<Integer>> stream =
+                BitbucketPageStreamUtil.toStream(firstPage, nextPageFetcher, 2, tasks::add);
+        stream.iterator().next();
+        stream.close();
+        tasks.forEach(Runnable::run);
+
+        verify(nextPageFetcher, never()).next(any());
+    }
+
+    @Test
+    public void testPrefetchingEndsAtNullPage() {
+        BitbucketPage<Integer> firstPage = page(false, 1, 2);
+        when(nextPageFetcher.next(firstPage)).thenReturn(null);
+
+        Stream<BitbucketPage<Integer>> stream =
+                BitbucketPageStreamUtil.toStream(firstPage, nextPageFetcher, 2, Runnable::run);
+
+        assertThat(convertToElementStream(stream).collect(toList()), contains(1, 2));
+    }
+
+    @Test
+    public void testPrefetchingInterruptedWhenStreamClosed() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BitbucketPage<Integer> firstPage = page(false, 1);
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch interrupted = new CountDownLatch(1);
+            when(nextPageFetcher.next(firstPage)).thenAnswer(invocation -> {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            });
+
+            Stream<BitbucketPage<Integer>> stream =
+                    BitbucketPageStreamUtil.toStream(firstPage, nextPageFetcher, 1, executor);
+            stream.iterator().next();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            stream.close();
+
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static BitbucketPage<Integer> page(boolean lastPage, Integer... values) {
+        BitbucketPage<Integer> page = new BitbucketPage<>();
+        page.setValues(asList(values));
+        page.setLastPage(lastPage);
+        return page;
+    }
+}
@@ -0,0 +1,73 @@
+package com.atlassian.bitbucket.jenkins.internal.client.paging;
+
+import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketClientException;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.OBJECT_MAPPER;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketPageValuesIteratorTest {
+
+    @Test
+    public void testReadsValues() throws IOException {
+        String page = "{\"size\":3,\"values\":[{\"a\":1},{\"a\":2},{\"a\":3}],\"isLastPage\":true}";
+
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(page)) {
+            List<Value> values = stream(parser).collect(toList());
+
+            assertThat(values.stream().map(v -> v.a).collect(toList()), contains(1, 2, 3));
+        }
+    }
+
+    @Test
+    public void testSkipsFieldsBeforeValues() throws IOException {
+        String page = "{\"links\":{\"self\":[{\"href\":\"x\"}]},\"filter\":[1,2],\"values\":[{\"a\":1}]}";
+
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(page)) {
+            assertThat(stream(parser).map(v -> v.a).collect(toList()), contains(1));
+        }
+    }
+
+    @Test
+    public void testMissingValues() throws IOException {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser("{\"size\":0,\"isLastPage\":true}")) {
+            assertThat(stream(parser).count(), equalTo(0L));
+        }
+    }
+
+    @Test
+    public void testStopsReadingAtFirstMatch() throws IOException {
+        // The second value is malformed, it must never be read
+        String page = "{\"values\":[{\"a\":1},{\"a\":\"not a number\"}]}";
+
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(page)) {
+            Iterator<Value> values = stream(parser).iterator();
+
+            assertThat(values.next().a, equalTo(1));
+        }
+    }
+
+    @Test(expected = BitbucketClientException.class)
+    public void testNotAPage() throws IOException {
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser("[1,2]")) {
+            stream(parser).count();
+        }
+    }
+
+    private static Stream<Value> stream(JsonParser parser) {
+        return BitbucketPageValuesIterator.stream(parser, OBJECT_MAPPER.readerFor(Value.class));
+    }
+
+    public static class Value {
+
+        public int a;
+    }
+}
@@ -16,6 +16,8 @@ import static java.util.Objects.requireNonNull;
 import static org.apache.commons.lang3.StringUtils.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -122,7 +124,12 @@ public class FakeRemoteHttpServer implements Call.Factory {
             int returnCode = requireNonNull(urlToReturnCode.get(url), "Input URL " + url);
             Map<String, String> headers = requireNonNull(this.headers.get(url));
             Call mockCall = mock(Call.class);
-            when(mockCall.execute()).thenReturn(getResponse(url, returnCode, headers, mockBody));
+            Response response = getResponse(url, returnCode, headers, mockBody);
+            when(mockCall.execute()).thenReturn(response);
+            lenient().doAnswer(invocation -> {
+                invocation.<Callback>getArgument(0).onResponse(mockCall, response);
+                return null;
+            }).when(mockCall).enqueue(any(Callback.class));
             return mockCall;
         } catch (IOException ex) {
             throw new RuntimeException(ex);
@@ -132,7 +139,12 @@ public class FakeRemoteHttpServer implements Call.Factory {
     private Call mockCallToThrowException(String url) {
         try {
             Call mockCall = mock(Call.class);
-            when(mockCall.execute()).thenThrow(urlToException.get(url));
+            Exception exception = urlToException.get(url);
+            when(mockCall.execute()).thenThrow(exception);
+            lenient().doAnswer(invocation -> {
+                invocation.<Callback>getArgument(0).onFailure(mockCall, (IOException) exception);
+                return null;
+            }).when(mockCall).enqueue(any(Callback.class));
             return mockCall;
         } catch (IOException ex) {
             throw new RuntimeException(ex);
@@ -0,0 +1,28 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import org.junit.Test;
+
+import static com.atlassian.bitbucket.jenkins.internal.http.BitbucketClientMetricProvider.toSegment;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketClientMetricProviderTest {
+
+    @Test
+    public void testBaseUrlSegment() {
+        assertThat(toSegment("https://bitbucket.example.com:7990/bitbucket"),
+                is(equalTo("https_bitbucket_example_com_7990_bitbucket")));
+    }
+
+    @Test
+    public void testEmptySegment() {
+        assertThat(toSegment("/"), is(equalTo("unknown")));
+    }
+
+    @Test
+    public void testEndpointSegment() {
+        assertThat(toSegment("GET /rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}"),
+                is(equalTo("GET_rest_api_1_0_projects_projectKey_repos_repositorySlug")));
+    }
+}
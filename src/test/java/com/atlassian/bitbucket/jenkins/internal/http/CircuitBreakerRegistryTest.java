@@ -0,0 +1,144 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.atlassian.bitbucket.jenkins.internal.http.CircuitBreakerRegistry.CircuitBreaker;
+import com.atlassian.bitbucket.jenkins.internal.http.CircuitBreakerRegistry.State;
+import okhttp3.HttpUrl;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.net.HttpURLConnection.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CircuitBreakerRegistryTest {
+
+    private static final String BASE_URL = "http://localhost:7990/bitbucket";
+    private static final HttpUrl REST_URL = HttpUrl.parse(BASE_URL + "/rest/api/1.0/projects?start=25");
+
+    private final AtomicLong clock = new AtomicLong();
+    private final CircuitBreakerRegistry registry = new CircuitBreakerRegistry(2, 1000, clock::get);
+
+    @Test
+    public void testCircuitClosesAfterSuccessfulTrial() {
+        CircuitBreaker circuitBreaker = open();
+        clock.set(1000);
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(registry.getState(BASE_URL), is(State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+
+        circuitBreaker.record(HTTP_OK);
+
+        assertThat(registry.getState(BASE_URL), is(State.CLOSED));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = registry.get(REST_URL);
+
+        circuitBreaker.record(new ConnectException());
+        assertThat(registry.getState(BASE_URL), is(State.CLOSED));
+        circuitBreaker.record(HTTP_UNAVAILABLE);
+
+        assertThat(registry.getState(BASE_URL), is(State.OPEN));
+        assertThat(registry.getState(BASE_URL + "/"), is(State.OPEN));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+        assertThat(registry.getStates(), hasEntry(BASE_URL, State.OPEN));
+    }
+
+    @Test
+    public void testAbandonedTrialTimesOut() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(2, 1000, 5000, clock::get);
+        CircuitBreaker circuitBreaker = registry.get(REST_URL);
+        circuitBreaker.record(HTTP_UNAVAILABLE);
+        circuitBreaker.record(HTTP_UNAVAILABLE);
+        clock.set(1000);
+        circuitBreaker.tryAcquire();
+
+        clock.set(5999);
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+        clock.set(6000);
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(registry.getState(BASE_URL), is(State.HALF_OPEN));
+    }
+
+    @Test
+    public void testInconclusiveTrialReleasesCircuit() {
+        CircuitBreaker circuitBreaker = open();
+        clock.set(1000);
+        circuitBreaker.tryAcquire();
+
+        circuitBreaker.onInconclusive();
+
+        assertThat(registry.getState(BASE_URL), is(State.OPEN));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testCircuitReopensAfterFailedTrial() {
+        CircuitBreaker circuitBreaker = open();
+        clock.set(1000);
+        circuitBreaker.tryAcquire();
+
+        circuitBreaker.record(HTTP_GATEWAY_TIMEOUT);
+
+        assertThat(registry.getState(BASE_URL), is(State.OPEN));
+        clock.set(1999);
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+        clock.set(2000);
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testClientErrorsAndOtherFailuresDoNotOpenCircuit() {
+        CircuitBreaker circuitBreaker = registry.get(REST_URL);
+
+        circuitBreaker.record(new IOException());
+        circuitBreaker.record(HTTP_NOT_FOUND);
+        circuitBreaker.record(HTTP_INTERNAL_ERROR);
+        circuitBreaker.record(new IOException());
+
+        assertThat(registry.getState(BASE_URL), is(State.CLOSED));
+    }
+
+    @Test
+    public void testDisabled() {
+        CircuitBreakerRegistry disabled = new CircuitBreakerRegistry(0, 1000, clock::get);
+        CircuitBreaker circuitBreaker = disabled.get(REST_URL);
+
+        for (int i = 0; i < 10; i++) {
+            circuitBreaker.record(new ConnectException());
+        }
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testSuccessResetsFailureCount() {
+        CircuitBreaker circuitBreaker = registry.get(REST_URL);
+
+        circuitBreaker.record(new ConnectException());
+        circuitBreaker.record(HTTP_OK);
+        circuitBreaker.record(new ConnectException());
+
+        assertThat(registry.getState(BASE_URL), is(State.CLOSED));
+    }
+
+    @Test
+    public void testUnknownServerIsClosed() {
+        assertThat(registry.getState("http://unknown:7990"), is(State.CLOSED));
+        assertThat(registry.getState("not a url"), is(State.CLOSED));
+        assertThat(registry.getState(null), is(State.CLOSED));
+    }
+
+    private CircuitBreaker open() {
+        CircuitBreaker circuitBreaker = registry.get(REST_URL);
+        circuitBreaker.record(new ConnectException());
+        circuitBreaker.record(new ConnectException());
+        return circuitBreaker;
+    }
+}
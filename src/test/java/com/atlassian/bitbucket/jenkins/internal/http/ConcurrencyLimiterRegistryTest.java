@@ -0,0 +1,180 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.atlassian.bitbucket.jenkins.internal.http.ConcurrencyLimiterRegistry.LimiterStatistics;
+import com.atlassian.bitbucket.jenkins.internal.http.ConcurrencyLimiterRegistry.Permit;
+import okhttp3.HttpUrl;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.atlassian.bitbucket.jenkins.internal.http.RequestPriority.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrencyLimiterRegistryTest {
+
+    private static final String BASE_URL = "http://localhost:7990/bitbucket";
+    private static final HttpUrl URL = HttpUrl.parse(BASE_URL + "/rest/api/1.0/projects");
+
+    private final AtomicLong clock = new AtomicLong(10000);
+    private final ConcurrencyLimiterRegistry registry = new ConcurrencyLimiterRegistry(2, 4, clock::get);
+
+    @Test
+    public void testCancelledWaiterIsSkipped() {
+        Permit first = registry.acquire(URL, INTERACTIVE).join();
+        registry.acquire(URL, INTERACTIVE).join();
+        CompletableFuture<Permit> cancelled = registry.acquire(URL, INTERACTIVE);
+        CompletableFuture<Permit> waiting = registry.acquire(URL, INTERACTIVE);
+        cancelled.cancel(false);
+
+        first.release(false);
+
+        assertThat(waiting.isDone(), is(true));
+        assertThat(getStatistics().getInFlightCount(), is(equalTo(2)));
+        assertThat(getStatistics().getQueuedCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testDisabled() {
+        ConcurrencyLimiterRegistry disabled = new ConcurrencyLimiterRegistry(2, 0, clock::get);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(disabled.acquire(URL, INTERACTIVE).isDone(), is(true));
+        }
+        assertThat(disabled.getStatistics().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testLimitDecreasesOnOverload() {
+        Permit first = registry.acquire(URL, INTERACTIVE).join();
+        Permit second = registry.acquire(URL, INTERACTIVE).join();
+
+        first.release(true);
+        second.release(true);
+
+        // The second failure is part of the same overload, so the limit is only halved once
+        assertThat(getStatistics().getLimit(), is(equalTo(1)));
+        clock.addAndGet(1000);
+        registry.acquire(URL, INTERACTIVE).join().release(true);
+        assertThat(getStatistics().getLimit(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testLimitDecreasesOnSlowResponse() {
+        for (int i = 0; i < 2; i++) {
+            Permit permit = registry.acquire(URL, INTERACTIVE).join();
+            clock.addAndGet(100);
+            permit.release(false);
+        }
+        Permit first = registry.acquire(URL, INTERACTIVE).join();
+        Permit second = registry.acquire(URL, INTERACTIVE).join();
+        clock.addAndGet(100);
+        first.release(false);
+        assertThat(getStatistics().getLimit(), is(equalTo(2)));
+
+        clock.addAndGet(1000);
+        second.release(false);
+
+        assertThat(getStatistics().getLimit(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testLimitStableWithFastAndSlowEndpoints() {
+        HttpUrl fastUrl = HttpUrl.parse(BASE_URL + "/rest/capabilities");
+        for (int i = 0; i < 20; i++) {
+            Permit fast = registry.acquire(fastUrl, INTERACTIVE).join();
+            Permit slow = registry.acquire(URL, INTERACTIVE).join();
+            clock.addAndGet(5);
+            fast.release(false);
+            clock.addAndGet(195);
+            slow.release(false);
+            clock.addAndGet(1000);
+        }
+
+        assertThat(getStatistics().getLimit(), is(greaterThanOrEqualTo(2)));
+    }
+
+    @Test
+    public void testLimitIncreasesWhileInUse() {
+        registry.acquire(URL, INTERACTIVE).join().release(false);
+
+        for (int i = 0; i < 20; i++) {
+            List<Permit> permits = new ArrayList<>();
+            for (int j = getStatistics().getLimit(); j > 0; j--) {
+                permits.add(registry.acquire(URL, INTERACTIVE).join());
+            }
+            permits.forEach(permit -> permit.release(false));
+        }
+
+        assertThat(getStatistics().getLimit(), is(equalTo(4)));
+    }
+
+    @Test
+    public void testLimitDoesNotIncreaseWhenNotInUse() {
+        for (int i = 0; i < 10; i++) {
+            registry.acquire(URL, INTERACTIVE).join().release(false);
+        }
+
+        assertThat(getStatistics().getLimit(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testRequestsOverLimitWaitByPriority() {
+        Permit first = registry.acquire(URL, INTERACTIVE).join();
+        Permit second = registry.acquire(URL, INTERACTIVE).join();
+        CompletableFuture<Permit> webhook = registry.acquire(URL, WEBHOOK_REGISTRATION);
+        CompletableFuture<Permit> buildStatus = registry.acquire(URL, BUILD_STATUS);
+        CompletableFuture<Permit> interactive = registry.acquire(URL, INTERACTIVE);
+        assertThat(getStatistics().getQueuedCount(), is(equalTo(3)));
+
+        first.release(false);
+        assertThat(interactive.isDone(), is(true));
+        assertThat(buildStatus.isDone(), is(false));
+
+        second.release(false);
+        assertThat(buildStatus.isDone(), is(true));
+        assertThat(webhook.isDone(), is(false));
+
+        interactive.join().release(false);
+        assertThat(webhook.isDone(), is(true));
+    }
+
+    @Test
+    public void testRequestWaitingTooLongGoesFirst() {
+        ConcurrencyLimiterRegistry aging = new ConcurrencyLimiterRegistry(1, 1, 1000, clock::get);
+        Permit first = aging.acquire(URL, INTERACTIVE).join();
+        CompletableFuture<Permit> webhook = aging.acquire(URL, WEBHOOK_REGISTRATION);
+        clock.addAndGet(500);
+        CompletableFuture<Permit> interactive = aging.acquire(URL, INTERACTIVE);
+
+        first.release(false);
+        assertThat(interactive.isDone(), is(true));
+        assertThat(webhook.isDone(), is(false));
+
+        CompletableFuture<Permit> lateInteractive = aging.acquire(URL, INTERACTIVE);
+        clock.addAndGet(500);
+        interactive.join().release(false);
+        assertThat(webhook.isDone(), is(true));
+        assertThat(lateInteractive.isDone(), is(false));
+
+        webhook.join().release(false);
+        assertThat(lateInteractive.isDone(), is(true));
+    }
+
+    @Test
+    public void testReleaseTwiceHasNoEffect() {
+        Permit permit = registry.acquire(URL, INTERACTIVE).join();
+
+        permit.release(false);
+        permit.release(false);
+
+        assertThat(getStatistics().getInFlightCount(), is(equalTo(0)));
+    }
+
+    private LimiterStatistics getStatistics() {
+        return registry.getStatistics().get(BASE_URL);
+    }
+}
@@ -0,0 +1,123 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.atlassian.bitbucket.jenkins.internal.http.HttpMetricsRecorder.CompletedCall;
+import com.atlassian.bitbucket.jenkins.internal.http.HttpMetricsRecorder.EndpointMetrics;
+import com.atlassian.bitbucket.jenkins.internal.http.HttpMetricsRecorder.LatencyHistogram;
+import okhttp3.*;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HttpMetricsRecorderTest {
+
+    private static final String BASE_URL = "http://localhost:7990/bitbucket";
+    private static final String WEBHOOKS_ENDPOINT =
+            "GET /rest/api/1.0/projects/{projectKey}/repos/{repositorySlug}/webhooks";
+
+    private final HttpMetricsRecorder recorder = new HttpMetricsRecorder();
+
+    @Test
+    public void testConnectionTimingsAreRecorded() {
+        Call call = mockCall("GET", "/rest/api/1.0/projects");
+        InetSocketAddress address = InetSocketAddress.createUnresolved("localhost", 7990);
+        EventListener listener = recorder.create(call);
+
+        listener.callStart(call);
+        listener.dnsStart(call, "localhost");
+        listener.dnsEnd(call, "localhost", emptyList());
+        listener.connectStart(call, address, Proxy.NO_PROXY);
+        listener.connectFailed(call, address, Proxy.NO_PROXY, null, new ConnectException());
+        listener.connectStart(call, address, Proxy.NO_PROXY);
+        listener.secureConnectStart(call);
+        listener.secureConnectEnd(call, null);
+        listener.connectEnd(call, address, Proxy.NO_PROXY, Protocol.HTTP_1_1);
+        listener.callEnd(call);
+
+        HttpMetricsRecorder.ConnectionMetrics metrics = recorder.getConnectionMetrics().get(BASE_URL);
+        assertThat(metrics.getDnsLatency().getCount(), is(equalTo(1L)));
+        assertThat(metrics.getConnectLatency().getCount(), is(equalTo(1L)));
+        assertThat(metrics.getTlsLatency().getCount(), is(equalTo(1L)));
+        assertThat(metrics.getConnectFailureCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testFailedCallIsRecorded() {
+        Call call = mockCall("GET", "/rest/api/1.0/projects/PROJ/repos/repo/webhooks");
+        EventListener listener = recorder.create(call);
+
+        listener.callStart(call);
+        listener.callFailed(call, new ConnectException());
+
+        EndpointMetrics metrics = recorder.getEndpointMetrics().get(WEBHOOKS_ENDPOINT);
+        assertThat(metrics.getLatency().getCount(), is(equalTo(1L)));
+        assertThat(metrics.getFailureCount(), is(equalTo(1L)));
+        assertThat(metrics.getStatusCodeCounts().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(20);
+        }
+        histogram.record(400);
+        histogram.record(70000);
+
+        assertThat(histogram.getCount(), is(equalTo(100L)));
+        assertThat(histogram.getMaxMillis(), is(equalTo(70000L)));
+        assertThat(histogram.getMeanMillis(), is(equalTo((98 * 20 + 400 + 70000) / 100L)));
+        assertThat(histogram.getBuckets(), hasEntry("<=25ms", 98L));
+        assertThat(histogram.getBuckets(), hasEntry("<=500ms", 1L));
+        assertThat(histogram.getBuckets(), hasEntry(">60000ms", 1L));
+        assertThat(histogram.getPercentileMillis(50), is(equalTo(25L)));
+        assertThat(histogram.getPercentileMillis(99), is(equalTo(500L)));
+        assertThat(histogram.getPercentileMillis(100), is(equalTo(70000L)));
+    }
+
+    @Test
+    public void testSuccessfulCallIsRecorded() {
+        List<CompletedCall> observed = new ArrayList<>();
+        recorder.addObserver(observed::add);
+        Call call = mockCall("GET", "/rest/api/1.0/projects/PROJ/repos/repo/webhooks");
+        EventListener listener = recorder.create(call);
+
+        listener.callStart(call);
+        listener.responseHeadersEnd(call, new Response.Builder()
+                .request(call.request())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .build());
+        listener.responseBodyEnd(call, 1024);
+        listener.callEnd(call);
+
+        EndpointMetrics metrics = recorder.getEndpointMetrics().get(WEBHOOKS_ENDPOINT);
+        assertThat(metrics.getLatency().getCount(), is(equalTo(1L)));
+        assertThat(metrics.getFailureCount(), is(equalTo(0L)));
+        assertThat(metrics.getResponseBytes(), is(equalTo(1024L)));
+        assertThat(metrics.getStatusCodeCounts(), hasEntry(200, 1L));
+        assertThat(observed, hasSize(1));
+        assertThat(observed.get(0).getBaseUrl(), is(equalTo(BASE_URL)));
+        assertThat(observed.get(0).getStatusCode(), is(equalTo(200)));
+        assertThat(observed.get(0).getDnsMillis(), is(equalTo(-1L)));
+    }
+
+    private static Call mockCall(String method, String path) {
+        Call call = mock(Call.class);
+        when(call.request()).thenReturn(new Request.Builder()
+                .url(BASE_URL + path)
+                .method(method, null)
+                .build());
+        return call;
+    }
+}
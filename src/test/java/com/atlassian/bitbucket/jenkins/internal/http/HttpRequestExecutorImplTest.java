@@ -4,7 +4,10 @@ import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials
 import com.atlassian.bitbucket.jenkins.internal.client.HttpRequestExecutor;
 import com.atlassian.bitbucket.jenkins.internal.client.exception.*;
 import com.atlassian.bitbucket.jenkins.internal.fixture.FakeRemoteHttpServer;
+import okhttp3.Call;
+import okhttp3.Headers;
 import okhttp3.HttpUrl;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
@@ -17,16 +20,31 @@ import org.mockito.junit.MockitoJUnitRunner;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials.ANONYMOUS_CREDENTIALS;
 import static java.net.HttpURLConnection.*;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
 import static okhttp3.HttpUrl.parse;
 import static org.apache.http.HttpHeaders.AUTHORIZATION;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -39,6 +57,8 @@ public class HttpRequestExecutorImplTest {
     private BitbucketCredentials credential;
     private FakeRemoteHttpServer factory = new FakeRemoteHttpServer();
     private HttpRequestExecutor httpBasedRequestExecutor = new HttpRequestExecutorImpl(factory);
+    private AtomicInteger retryingCalls = new AtomicInteger();
+    private ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
 
     @Before
     public void setup() {
@@ -47,6 +67,7 @@ public class HttpRequestExecutorImplTest {
 
     @After
     public void teardown() {
+        retryScheduler.shutdownNow();
         factory.ensureResponseBodyClosed();
     }
 
@@ -66,6 +87,48 @@ public class HttpRequestExecutorImplTest {
         httpBasedRequestExecutor.executeGet(PARSED_BASE_URL, credential, response -> null);
     }
 
+    @Test
+    public void testAsyncConnectExceptionCompletesExceptionally() {
+        factory.mapUrlToException(BASE_URL, new ConnectException());
+
+        CompletableFuture<Object> result =
+                httpBasedRequestExecutor.executeGetAsync(PARSED_BASE_URL, credential, response -> null);
+
+        assertAsyncFailure(result, ConnectionFailureException.class);
+    }
+
+    @Test
+    public void testAsyncGet() throws Exception {
+        factory.mapUrlToResult(BASE_URL, "hello");
+
+        CompletableFuture<String> result = httpBasedRequestExecutor.executeGetAsync(PARSED_BASE_URL, credential,
+                response -> IOUtils.toString(response.body().byteStream(), UTF_8));
+
+        assertThat(result.get(), is(equalTo("hello")));
+        assertThat(factory.getHeaderValue(BASE_URL, AUTHORIZATION), is(equalTo("xyz")));
+    }
+
+    @Test
+    public void testAsyncNotFoundCompletesExceptionally() {
+        factory.mapUrlToResponseCode(BASE_URL, HTTP_NOT_FOUND);
+
+        CompletableFuture<Object> result =
+                httpBasedRequestExecutor.executeGetAsync(PARSED_BASE_URL, credential, response -> null);
+
+        assertAsyncFailure(result, NotFoundException.class);
+    }
+
+    @Test
+    public void testAsyncPost() throws Exception {
+        String requestBody = "aRequest";
+        factory.mapPostRequestToResult(BASE_URL, requestBody, "response");
+
+        httpBasedRequestExecutor.executePostAsync(PARSED_BASE_URL, credential, requestBody,
+                response -> null, Headers.of(emptyMap())).get();
+
+        assertThat(factory.getRequest(BASE_URL).method(), is(equalTo("POST")));
+    }
+
     @Test(expected = BadRequestException.class)
     public void testBadRequest() {
         factory.mapUrlToResponseCode(BASE_URL, HTTP_BAD_REQUEST);
@@ -163,10 +226,194 @@ public class HttpRequestExecutorImplTest {
         httpBasedRequestExecutor.executeGet(PARSED_BASE_URL, credential, response -> null);
     }
 
+    @Test
+    public void testOpenCircuitFailsFast() {
+        AtomicInteger calls = new AtomicInteger();
+        HttpRequestExecutor executor = new HttpRequestExecutorImpl(request -> {
+            calls.incrementAndGet();
+            return factory.newCall(request);
+        }, RetryPolicy.NONE, new CircuitBreakerRegistry(2, 60000, System::currentTimeMillis),
+                new ConcurrencyLimiterRegistry(), () -> retryScheduler);
+        factory.mapUrlToException(BASE_URL, new ConnectException());
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                executor.executeGet(PARSED_BASE_URL, credential, response -> null);
+                fail("Expected the call to fail with ConnectionFailureException");
+            } catch (ConnectionFailureException e) {
+                // expected
+            }
+        }
+        CompletableFuture<Object> result = executor.executeGetAsync(PARSED_BASE_URL, credential, response -> null);
+
+        assertAsyncFailure(result, ConnectionFailureException.class);
+        assertThat(calls.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testCancelWhileWaitingForPermitReleasesTrial() {
+        AtomicLong clock = new AtomicLong();
+        CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(2, 1000, clock::get);
+        ConcurrencyLimiterRegistry concurrencyLimiters = mock(ConcurrencyLimiterRegistry.class);
+        when(concurrencyLimiters.acquire(any(), any())).thenReturn(new CompletableFuture<>());
+        HttpRequestExecutor executor = new HttpRequestExecutorImpl(factory, RetryPolicy.NONE, circuitBreakers,
+                concurrencyLimiters, () -> retryScheduler);
+        openCircuit(circuitBreakers, clock);
+
+        CompletableFuture<Object> result = executor.executeGetAsync(PARSED_BASE_URL, credential, response -> null);
+        assertThat(circuitBreakers.getState(BASE_URL), is(CircuitBreakerRegistry.State.HALF_OPEN));
+        result.cancel(true);
+
+        assertThat(circuitBreakers.getState(BASE_URL), is(CircuitBreakerRegistry.State.OPEN));
+        assertThat(circuitBreakers.get(PARSED_BASE_URL).tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testInterruptWhileWaitingForPermitReleasesTrial() {
+        AtomicLong clock = new AtomicLong();
+        CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry(2, 1000, clock::get);
+        ConcurrencyLimiterRegistry concurrencyLimiters = mock(ConcurrencyLimiterRegistry.class);
+        when(concurrencyLimiters.acquire(any(), any())).thenReturn(new CompletableFuture<>());
+        HttpRequestExecutor executor = new HttpRequestExecutorImpl(factory, RetryPolicy.NONE, circuitBreakers,
+                concurrencyLimiters, () -> retryScheduler);
+        openCircuit(circuitBreakers, clock);
+
+        Thread.currentThread().interrupt();
+        try {
+            executor.executeGet(PARSED_BASE_URL, credential, response -> null);
+            fail("Expected the call to fail with BitbucketClientException");
+        } catch (BitbucketClientException e) {
+            assertThat(Thread.interrupted(), is(true));
+        }
+
+        assertThat(circuitBreakers.getState(BASE_URL), is(CircuitBreakerRegistry.State.OPEN));
+        assertThat(circuitBreakers.get(PARSED_BASE_URL).tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testRetryAsyncGetAfterServerError() throws Exception {
+        HttpRequestExecutorImpl executor = createRetryingExecutor(
+                () -> factory.mapUrlToResponseCode(BASE_URL, HTTP_UNAVAILABLE),
+                () -> factory.mapUrlToResult(BASE_URL, "hello"));
+
+        CompletableFuture<String> result = executor.executeGetAsync(PARSED_BASE_URL, credential,
+                response -> IOUtils.toString(response.body().byteStream(), UTF_8));
+
+        assertThat(result.get(), is(equalTo("hello")));
+        assertThat(retryingCalls.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testRetryGetAfterServerError() {
+        HttpRequestExecutorImpl executor = createRetryingExecutor(
+                () -> factory.mapUrlToResponseCode(BASE_URL, HTTP_BAD_GATEWAY),
+                () -> factory.mapUrlToResponseCode(BASE_URL, HTTP_UNAVAILABLE),
+                () -> factory.mapUrlToResult(BASE_URL, "hello"));
+
+        String result = executor.executeGet(PARSED_BASE_URL, credential,
+                response -> IOUtils.toString(response.body().byteStream(), UTF_8));
+
+        assertThat(result, is(equalTo("hello")));
+        assertThat(retryingCalls.get(), is(equalTo(3)));
+        assertThat(executor.getRetryCounts().values(), contains(2L));
+    }
+
+    @Test
+    public void testRetryGivesUpAfterMaxAttempts() {
+        HttpRequestExecutorImpl executor =
+                createRetryingExecutor(() -> factory.mapUrlToException(BASE_URL, new ConnectException()));
+
+        try {
+            executor.executeGet(PARSED_BASE_URL, credential, response -> null);
+            fail("Expected the call to fail with ConnectionFailureException");
+        } catch (ConnectionFailureException e) {
+            assertThat(retryingCalls.get(), is(equalTo(3)));
+        }
+    }
+
+    @Test
+    public void testRetryNotAttemptedForClientError() {
+        HttpRequestExecutorImpl executor =
+                createRetryingExecutor(() -> factory.mapUrlToResponseCode(BASE_URL, HTTP_NOT_FOUND));
+
+        try {
+            executor.executeGet(PARSED_BASE_URL, credential, response -> null);
+            fail("Expected the call to fail with NotFoundException");
+        } catch (NotFoundException e) {
+            assertThat(retryingCalls.get(), is(equalTo(1)));
+            assertThat(executor.getRetryCounts().isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void testRetryNotAttemptedForPost() {
+        HttpRequestExecutorImpl executor =
+                createRetryingExecutor(() -> factory.mapUrlToResponseCode(BASE_URL, HTTP_UNAVAILABLE));
+
+        try {
+            executor.executePost(PARSED_BASE_URL, credential, "aRequest", response -> null, Headers.of(emptyMap()));
+            fail("Expected the call to fail with ServerErrorException");
+        } catch (ServerErrorException e) {
+            assertThat(retryingCalls.get(), is(equalTo(1)));
+        }
+    }
+
+    @Test
+    public void testRetrySafePostAfterServerError() {
+        HttpRequestExecutorImpl executor = createRetryingExecutor(
+                () -> factory.mapUrlToResponseCode(BASE_URL, HTTP_UNAVAILABLE),
+                () -> factory.mapUrlToResult(BASE_URL, "response"));
+
+        executor.executeRetrySafePost(PARSED_BASE_URL, credential, RequestBody.create(null, "aRequest"),
+                response -> null, Headers.of(emptyMap()));
+
+        assertThat(retryingCalls.get(), is(equalTo(2)));
+        assertThat(factory.getRequest(BASE_URL).method(), is(equalTo("POST")));
+    }
+
     @Test(expected = ServerErrorException.class)
     public void testUnavailable() {
         factory.mapUrlToResponseCode(BASE_URL, HTTP_UNAVAILABLE);
 
         httpBasedRequestExecutor.executeGet(PARSED_BASE_URL, credential, response -> null);
     }
+
+    /**
+     * Creates an executor that retries immediately, up to 3 attempts. Each call first applies the next of the given
+     * mappings to the fake server, the last mapping stays in place for any further calls.
+     */
+    private HttpRequestExecutorImpl createRetryingExecutor(Runnable... mappings) {
+        Deque<Runnable> remainingMappings = new ArrayDeque<>(asList(mappings));
+        Call.Factory callFactory = request -> {
+            retryingCalls.incrementAndGet();
+            Runnable mapping = remainingMappings.poll();
+            if (mapping != null) {
+                mapping.run();
+            }
+            return factory.newCall(request);
+        };
+        return new HttpRequestExecutorImpl(callFactory, new RetryPolicy(3, 0, 0, 60000), new CircuitBreakerRegistry(),
+                new ConcurrencyLimiterRegistry(), () -> retryScheduler);
+    }
+
+    /**
+     * Opens the circuit of the server and lets its open period pass, so the next request becomes the trial request.
+     */
+    private static void openCircuit(CircuitBreakerRegistry circuitBreakers, AtomicLong clock) {
+        circuitBreakers.get(PARSED_BASE_URL).record(HTTP_UNAVAILABLE);
+        circuitBreakers.get(PARSED_BASE_URL).record(HTTP_UNAVAILABLE);
+        clock.addAndGet(1000);
+    }
+
+    private static void assertAsyncFailure(CompletableFuture<?> result,
+                                           Class<? extends BitbucketClientException> exceptionClass) {
+        try {
+            result.get();
+            fail("Expected the call to fail with " + exceptionClass.getSimpleName());
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(exceptionClass)));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
\ No newline at end of file
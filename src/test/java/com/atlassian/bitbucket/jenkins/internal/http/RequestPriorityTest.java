@@ -0,0 +1,35 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import org.junit.Test;
+
+import static com.atlassian.bitbucket.jenkins.internal.http.RequestPriority.*;
+import static okhttp3.HttpUrl.parse;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RequestPriorityTest {
+
+    private static final String BASE_URL = "http://localhost:7990/bitbucket";
+
+    @Test
+    public void testBuildStatus() {
+        assertThat(RequestPriority.of(parse(BASE_URL + "/rest/build-status/1.0/commits/abc123")), is(BUILD_STATUS));
+        assertThat(RequestPriority.of(parse(BASE_URL + "/rest/api/1.0/projects/PROJ/repos/repo/commits/abc123/builds")),
+                is(BUILD_STATUS));
+    }
+
+    @Test
+    public void testInteractive() {
+        assertThat(RequestPriority.of(parse(BASE_URL + "/rest/api/1.0/projects/PROJ/repos?name=repo")),
+                is(INTERACTIVE));
+        assertThat(RequestPriority.of(parse(BASE_URL + "/rest/capabilities")), is(INTERACTIVE));
+    }
+
+    @Test
+    public void testWebhookRegistration() {
+        assertThat(RequestPriority.of(parse(BASE_URL + "/rest/api/1.0/projects/PROJ/repos/repo/webhooks")),
+                is(WEBHOOK_REGISTRATION));
+        assertThat(RequestPriority.of(parse(BASE_URL + "/rest/api/1.0/projects/PROJ/repos/repo/webhooks/12")),
+                is(WEBHOOK_REGISTRATION));
+    }
+}
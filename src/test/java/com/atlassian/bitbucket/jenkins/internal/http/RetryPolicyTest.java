@@ -0,0 +1,77 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(4, 100, 300, 10000);
+
+    @Test
+    public void testDelayGrowsExponentiallyWithJitter() {
+        assertThat(policy.getDelayMillis(1, 0, null), is(both(greaterThanOrEqualTo(50L)).and(lessThanOrEqualTo(100L))));
+        assertThat(policy.getDelayMillis(2, 0, null), is(both(greaterThanOrEqualTo(100L)).and(lessThanOrEqualTo(200L))));
+    }
+
+    @Test
+    public void testDelayIsCappedAtMaxDelay() {
+        assertThat(policy.getDelayMillis(3, 0, null), is(both(greaterThanOrEqualTo(150L)).and(lessThanOrEqualTo(300L))));
+    }
+
+    @Test
+    public void testNoRetryAfterMaxAttempts() {
+        assertThat(policy.getDelayMillis(4, 0, null), is(lessThan(0L)));
+    }
+
+    @Test
+    public void testNoRetryBeyondTotalTime() {
+        assertThat(policy.getDelayMillis(1, 9950, "1"), is(lessThan(0L)));
+        assertThat(policy.getDelayMillis(1, 10000, null), is(lessThan(0L)));
+    }
+
+    @Test
+    public void testNoneNeverRetries() {
+        assertThat(RetryPolicy.NONE.getDelayMillis(1, 0, null), is(lessThan(0L)));
+    }
+
+    @Test
+    public void testRetryAfterDate() {
+        String retryAfter = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(5));
+
+        assertThat(policy.getDelayMillis(1, 0, retryAfter), is(both(greaterThan(3000L)).and(lessThanOrEqualTo(5000L))));
+    }
+
+    @Test
+    public void testRetryAfterInvalidFallsBackToBackoff() {
+        assertThat(policy.getDelayMillis(1, 0, "soon"), is(both(greaterThanOrEqualTo(50L)).and(lessThanOrEqualTo(100L))));
+    }
+
+    @Test
+    public void testRetryAfterSeconds() {
+        assertThat(policy.getDelayMillis(1, 0, "2"), is(equalTo(2000L)));
+    }
+
+    @Test
+    public void testRetryableExceptions() {
+        assertThat(policy.isRetryable(new ConnectException()), is(true));
+        assertThat(policy.isRetryable(new SocketTimeoutException()), is(true));
+        assertThat(policy.isRetryable(new IOException()), is(false));
+    }
+
+    @Test
+    public void testRetryableResponseCodes() {
+        assertThat(policy.isRetryable(429), is(true));
+        assertThat(policy.isRetryable(503), is(true));
+        assertThat(policy.isRetryable(501), is(false));
+        assertThat(policy.isRetryable(404), is(false));
+    }
+}
@@ -0,0 +1,110 @@
+package com.atlassian.bitbucket.jenkins.internal.http;
+
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketServerConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.config.HttpClientProfile;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+import static okhttp3.HttpUrl.parse;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ServerAwareCallFactoryTest {
+
+    private static final String BASE_URL = "http://localhost:7990/bitbucket";
+
+    private final OkHttpClient baseClient = new OkHttpClient();
+    private final List<BitbucketServerConfiguration> servers = new ArrayList<>();
+    private final AtomicInteger serverLookupCount = new AtomicInteger();
+    private ServerAwareCallFactory callFactory;
+    private BitbucketServerConfiguration server;
+
+    @Before
+    public void setup() {
+        server = new BitbucketServerConfiguration("adminCredentialsId", BASE_URL, null, "serverId");
+        servers.add(server);
+        callFactory = new ServerAwareCallFactory(baseClient, () -> {
+            serverLookupCount.incrementAndGet();
+            return new ArrayList<>(servers);
+        });
+    }
+
+    @Test
+    public void testRemovedServerClientIsDropped() {
+        server.setHttpClientProfile(new HttpClientProfile());
+        callFactory.getClient(parse(BASE_URL));
+        servers.clear();
+
+        callFactory.onConfigurationChanged();
+
+        assertThat(callFactory.getConnectionPoolStatistics().keySet(),
+                contains(ServerAwareCallFactory.SHARED_CLIENT_ID));
+        assertThat(callFactory.getClient(parse(BASE_URL)), is(sameInstance(baseClient)));
+    }
+
+    @Test
+    public void testServersAreLookedUpAgainOnlyAfterConfigurationChange() {
+        callFactory.getClient(parse(BASE_URL));
+        callFactory.getClient(parse(BASE_URL + "/rest/capabilities"));
+        assertThat(serverLookupCount.get(), is(1));
+
+        callFactory.onConfigurationChanged();
+        callFactory.getClient(parse(BASE_URL));
+
+        assertThat(serverLookupCount.get(), is(2));
+    }
+
+    @Test
+    public void testServerWithoutProfileUsesBaseClient() {
+        assertThat(callFactory.getClient(parse(BASE_URL + "/rest/capabilities")), is(sameInstance(baseClient)));
+    }
+
+    @Test
+    public void testServerWithProfileUsesDedicatedClient() {
+        HttpClientProfile profile = new HttpClientProfile();
+        profile.setReadTimeoutSeconds(30);
+        profile.setMaxRequestsPerHost(20);
+        profile.setPreferHttp2(false);
+        server.setHttpClientProfile(profile);
+
+        OkHttpClient client = callFactory.getClient(parse(BASE_URL + "/rest/capabilities"));
+
+        assertThat(client, is(not(sameInstance(baseClient))));
+        assertThat(client.connectionPool(), is(not(sameInstance(baseClient.connectionPool()))));
+        assertThat(client.readTimeoutMillis(), is(30000));
+        assertThat(client.dispatcher().getMaxRequestsPerHost(), is(20));
+        assertThat(client.protocols(), is(singletonList(Protocol.HTTP_1_1)));
+        assertThat(callFactory.getClient(parse(BASE_URL + "/rest/api/1.0/projects")), is(sameInstance(client)));
+        assertThat(callFactory.getConnectionPoolStatistics().keySet(),
+                contains(ServerAwareCallFactory.SHARED_CLIENT_ID, "serverId"));
+    }
+
+    @Test
+    public void testUrlOutsideServerUsesBaseClient() {
+        server.setHttpClientProfile(new HttpClientProfile());
+
+        assertThat(callFactory.getClient(parse("http://localhost:7990/bitbucket-mirror/rest/capabilities")),
+                is(sameInstance(baseClient)));
+        assertThat(callFactory.getClient(parse("http://mirror.example.com/rest/capabilities")),
+                is(sameInstance(baseClient)));
+    }
+
+    @Test
+    public void testChangedProfileCreatesNewClient() {
+        server.setHttpClientProfile(new HttpClientProfile());
+        OkHttpClient client = callFactory.getClient(parse(BASE_URL));
+
+        HttpClientProfile changedProfile = new HttpClientProfile();
+        changedProfile.setMaxIdleConnections(20);
+        server.setHttpClientProfile(changedProfile);
+
+        assertThat(callFactory.getClient(parse(BASE_URL)), is(not(sameInstance(client))));
+    }
+}
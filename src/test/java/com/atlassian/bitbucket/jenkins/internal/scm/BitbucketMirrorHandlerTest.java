@@ -3,6 +3,7 @@ package com.atlassian.bitbucket.jenkins.internal.scm;
 import com.atlassian.bitbucket.jenkins.internal.client.BitbucketClientFactory;
 import com.atlassian.bitbucket.jenkins.internal.client.BitbucketClientFactoryProvider;
 import com.atlassian.bitbucket.jenkins.internal.client.BitbucketMirrorClient;
+import com.atlassian.bitbucket.jenkins.internal.client.exception.BitbucketClientException;
 import com.atlassian.bitbucket.jenkins.internal.config.BitbucketPluginConfiguration;
 import com.atlassian.bitbucket.jenkins.internal.config.BitbucketServerConfiguration;
 import com.atlassian.bitbucket.jenkins.internal.credentials.BitbucketCredentials;
@@ -17,6 +18,7 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirroredRepositoryStatus.AVAILABLE;
@@ -24,11 +26,15 @@ import static com.atlassian.bitbucket.jenkins.internal.model.BitbucketMirroredRe
 import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.*;
 import static java.lang.String.format;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.hamcrest.collection.IsIterableWithSize.iterableWithSize;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsIterableContaining.hasItems;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -93,6 +99,37 @@ public class BitbucketMirrorHandlerTest {
                 .collect(Collectors.toList()), hasItems("Primary Server=", "Mirror0=Mirror0[selected]", "Mirror1=Mirror1"));
     }
 
+    @Test
+    public void testFetchAsListBoxSkipsUnreachableMirror() {
+        Map<String, BitbucketMirroredRepositoryDescriptor> descriptors =
+                createMirroredRepoDescriptors(2);
+        mockMirroredRepo(descriptors.get("Mirror0"));
+        mockFailedMirroredRepo(descriptors.get("Mirror1"), new BitbucketClientException("Mirror unreachable"));
+
+        List<Option> options =
+                bitbucketMirrorHandler.fetchAsListBox(new MirrorFetchRequest(BITBUCKET_BASE_URL, CREDENTIAL_ID, globalCredentialsProvider, PROJECT, REPO, "Mirror0"));
+
+        assertThat(options.stream()
+                .map(Option::toString)
+                .collect(Collectors.toList()), contains("Primary Server=", "Mirror0=Mirror0[selected]"));
+    }
+
+    @Test
+    public void testFetchAsListBoxPropagatesUnexpectedFailure() {
+        Map<String, BitbucketMirroredRepositoryDescriptor> descriptors =
+                createMirroredRepoDescriptors(2);
+        mockMirroredRepo(descriptors.get("Mirror0"));
+        IllegalStateException failure = new IllegalStateException("Bug");
+        mockFailedMirroredRepo(descriptors.get("Mirror1"), failure);
+
+        try {
+            bitbucketMirrorHandler.fetchAsListBox(new MirrorFetchRequest(BITBUCKET_BASE_URL, CREDENTIAL_ID, globalCredentialsProvider, PROJECT, REPO, "Mirror0"));
+            fail("Expected the failure to be propagated");
+        } catch (IllegalStateException e) {
+            assertThat(e, is(sameInstance(failure)));
+        }
+    }
+
     @Test
     public void testFindMirroredRepository() {
         Map<String, BitbucketMirroredRepositoryDescriptor> descriptors =
@@ -163,10 +200,16 @@ public class BitbucketMirrorHandlerTest {
                 new BitbucketMirroredRepository(
                         status == AVAILABLE, repoLinks, descriptor.getMirrorServer().getName(), REPO_ID, status);
 
-        when(bbRepoMirrorsClient.getRepositoryDetails(descriptor)).thenReturn(mirroredRepo);
+        when(bbRepoMirrorsClient.getRepositoryDetailsAsync(descriptor)).thenReturn(completedFuture(mirroredRepo));
         return repoCloneUrl;
     }
 
+    private void mockFailedMirroredRepo(BitbucketMirroredRepositoryDescriptor descriptor, Throwable failure) {
+        CompletableFuture<BitbucketMirroredRepository> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        when(bbRepoMirrorsClient.getRepositoryDetailsAsync(descriptor)).thenReturn(future);
+    }
+
     private Map<String, BitbucketMirroredRepositoryDescriptor> createMirroredRepoDescriptors(int count) {
         Map<String, BitbucketMirroredRepositoryDescriptor> r = new HashMap<>();
         BitbucketPage<BitbucketMirroredRepositoryDescriptor> page = new BitbucketPage<>();
@@ -121,18 +121,17 @@ public class BitbucketScmFormFillDelegateTest {
                 return page;
             });
 
-            when(searchClient.findRepositories(any()))
+            lenient().when(searchClient.findRepositories(any()))
                     .thenAnswer((Answer<BitbucketPage<BitbucketRepository>>) findRepositoriesInvocation -> {
-                        String partialRepositoryName = findRepositoriesInvocation.getArgument(0);
                         BitbucketPage<BitbucketRepository> page = new BitbucketPage<>();
-                        ArrayList<BitbucketRepository> results = new ArrayList<>();
-                        results.add(new BitbucketRepository(0, partialRepositoryName + "-full-name", emptyMap(), project,
-                                partialRepositoryName + "-slug", RepositoryState.AVAILABLE));
-                        results.add(new BitbucketRepository(0, partialRepositoryName + "-full-name2", emptyMap(), project,
-                                partialRepositoryName + "-slug2", RepositoryState.AVAILABLE));
-                        page.setValues(results);
+                        page.setValues(findRepositories(findRepositoriesInvocation.getArgument(0), project));
                         return page;
                     });
+            lenient().when(searchClient.findRepository(any(), any()))
+                    .thenAnswer((Answer<Optional<BitbucketRepository>>) findRepositoryInvocation ->
+                            findRepositories(findRepositoryInvocation.getArgument(0), project).stream()
+                                    .filter(findRepositoryInvocation.getArgument(1))
+                                    .findFirst());
             return searchClient;
         });
 
@@ -470,4 +469,13 @@ public class BitbucketScmFormFillDelegateTest {
         assertEquals(searchTerm + "-full-name2", v2.get("name"));
         verifyProject((JSONObject) v2.get("project"), projectName + "-key", projectName + "-full-name");
     }
-}
\ No newline at end of file
+
+    private static List<BitbucketRepository> findRepositories(String partialRepositoryName, BitbucketProject project) {
+        ArrayList<BitbucketRepository> results = new ArrayList<>();
+        results.add(new BitbucketRepository(0, partialRepositoryName + "-full-name", emptyMap(), project,
+                partialRepositoryName + "-slug", RepositoryState.AVAILABLE));
+        results.add(new BitbucketRepository(0, partialRepositoryName + "-full-name2", emptyMap(), project,
+                partialRepositoryName + "-slug2", RepositoryState.AVAILABLE));
+        return results;
+    }
+}
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static java.util.Collections.emptyList;
@@ -113,20 +114,17 @@ public class BitbucketScmFormValidationDelegateTest {
                 return page;
             });
 
-            when(searchClient.findRepositories(any()))
+            lenient().when(searchClient.findRepositories(any()))
                     .thenAnswer((Answer<BitbucketPage<BitbucketRepository>>) findRepositoriesInvocation -> {
-                        String partialRepositoryName = findRepositoriesInvocation.getArgument(0);
                         BitbucketPage<BitbucketRepository> page = new BitbucketPage<>();
-                        ArrayList<BitbucketRepository> results = new ArrayList<>();
-                        results.add(new BitbucketRepository(0,
-                                partialRepositoryName + "-full-name", emptyMap(), project,
-                                partialRepositoryName + "-slug", RepositoryState.AVAILABLE));
-                        results.add(new BitbucketRepository(0,
-                                partialRepositoryName + "-full-name2", emptyMap(), project,
-                                partialRepositoryName + "-slug2", RepositoryState.AVAILABLE));
-                        page.setValues(results);
+                        page.setValues(findRepositories(findRepositoriesInvocation.getArgument(0), project));
                         return page;
                     });
+            lenient().when(searchClient.findRepository(any(), any()))
+                    .thenAnswer((Answer<Optional<BitbucketRepository>>) findRepositoryInvocation ->
+                            findRepositories(findRepositoryInvocation.getArgument(0), project).stream()
+                                    .filter(findRepositoryInvocation.getArgument(1))
+                                    .findFirst());
             return searchClient;
         });
 
@@ -271,4 +269,15 @@ public class BitbucketScmFormValidationDelegateTest {
         return singletonMap("self", singletonList(new BitbucketNamedLink(null,
                 "http://localhost:7990/bitbucket/projects/" + projectKey)));
     }
-}
\ No newline at end of file
+
+    private static List<BitbucketRepository> findRepositories(String partialRepositoryName, BitbucketProject project) {
+        ArrayList<BitbucketRepository> results = new ArrayList<>();
+        results.add(new BitbucketRepository(0,
+                partialRepositoryName + "-full-name", emptyMap(), project,
+                partialRepositoryName + "-slug", RepositoryState.AVAILABLE));
+        results.add(new BitbucketRepository(0,
+                partialRepositoryName + "-full-name2", emptyMap(), project,
+                partialRepositoryName + "-slug2", RepositoryState.AVAILABLE));
+        return results;
+    }
+}
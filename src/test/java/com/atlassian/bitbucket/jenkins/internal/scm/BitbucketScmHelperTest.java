@@ -76,11 +76,10 @@ public class BitbucketScmHelperTest {
         BitbucketProject expectedProject = new BitbucketProject("myProject", null, "my project");
         projectPage.setValues(singletonList(expectedProject));
         when(searchClient.findProjects()).thenReturn(projectPage);
-        BitbucketPage<BitbucketRepository> repositoryPage = new BitbucketPage<>();
         BitbucketRepository expectedRepo =
                 new BitbucketRepository(0, "my repo", null, expectedProject, "myRepo", RepositoryState.AVAILABLE);
-        repositoryPage.setValues(singletonList(expectedRepo));
-        when(searchClient.findRepositories("my repo")).thenReturn(repositoryPage);
+        when(searchClient.findRepository(eq("my repo"), any()))
+                .thenAnswer(invocation -> Optional.of(expectedRepo).filter(invocation.getArgument(1)));
 
         BitbucketRepository repo = bitbucketScmHelper.getRepository("my project", "my repo");
         assertThat(repo.getName(), equalTo("my repo"));
@@ -124,7 +123,7 @@ public class BitbucketScmHelperTest {
         BitbucketProject expectedProject = new BitbucketProject("myProject", null, "my project");
         projectPage.setValues(singletonList(expectedProject));
         when(searchClient.findProjects()).thenReturn(projectPage);
-        when(searchClient.findRepositories("my repo")).thenThrow(new BitbucketClientException("", 500, ""));
+        when(searchClient.findRepository(eq("my repo"), any())).thenThrow(new BitbucketClientException("", 500, ""));
 
         BitbucketRepository repo = bitbucketScmHelper.getRepository("my project", "my repo");
         assertThat(repo.getName(), equalTo("my repo"));
@@ -148,7 +147,7 @@ public class BitbucketScmHelperTest {
         BitbucketProject expectedProject = new BitbucketProject("myProject", null, "my project");
         projectPage.setValues(singletonList(expectedProject));
         when(searchClient.findProjects()).thenReturn(projectPage);
-        when(searchClient.findRepositories("my repo")).thenThrow(new NotFoundException("", ""));
+        when(searchClient.findRepository(eq("my repo"), any())).thenThrow(new NotFoundException("", ""));
 
         BitbucketRepository repo = bitbucketScmHelper.getRepository("my project", "my repo");
         assertThat(repo.getName(), equalTo("my repo"));
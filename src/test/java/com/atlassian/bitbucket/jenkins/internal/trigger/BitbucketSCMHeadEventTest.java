@@ -0,0 +1,171 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.*;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMSource;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.plugins.git.GitBranchSCMHead;
+import jenkins.plugins.git.GitBranchSCMRevision;
+import jenkins.plugins.git.GitTagSCMHead;
+import jenkins.plugins.git.GitTagSCMRevision;
+import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMRevision;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.MIRROR_SYNCHRONIZED_EVENT;
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.REPO_REF_CHANGE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BitbucketSCMHeadEventTest {
+
+    private static final String CLONE_URL = "http://localhost:7990/scm/proj/repo.git";
+    private static final String SERVER_ID = "serverId";
+
+    @Mock
+    private AbstractGitSCMSource gitSource;
+    @Mock
+    private BitbucketSCMSource source;
+
+    @Before
+    public void setup() {
+        lenient().when(source.getProjectKey()).thenReturn("proj");
+        lenient().when(source.getRepositorySlug()).thenReturn("REPO");
+        lenient().when(source.getMirrorName()).thenReturn("");
+        lenient().when(source.getServerId()).thenReturn(SERVER_ID);
+    }
+
+    @Test
+    public void testDifferentRepositoryDoesNotMatch() {
+        when(source.getRepositorySlug()).thenReturn("other");
+        BitbucketSCMHeadEvent event = single(refsChanged(change("master", BitbucketRefChangeType.UPDATE)));
+
+        assertThat(event.isMatch(source), is(false));
+        assertThat(event.heads(source).entrySet(), is(empty()));
+    }
+
+    @Test
+    public void testDifferentServerDoesNotMatch() {
+        BitbucketSCMHeadEvent event = BitbucketSCMHeadEvent.of(
+                refsChanged(change("master", BitbucketRefChangeType.UPDATE)), serverId -> false).get(0);
+
+        assertThat(event.isMatch(source), is(false));
+    }
+
+    @Test
+    public void testEventPerChangeType() {
+        List<BitbucketSCMHeadEvent> events = BitbucketSCMHeadEvent.of(refsChanged(
+                change("added", BitbucketRefChangeType.ADD),
+                change("updated", BitbucketRefChangeType.UPDATE),
+                change("deleted", BitbucketRefChangeType.DELETE),
+                new BitbucketRefChange(new BitbucketRef("refs/tags/v1", "v1", BitbucketRefType.TAG), "refs/tags/v1",
+                        "a", "b", BitbucketRefChangeType.UPDATE)), SERVER_ID::equals);
+
+        assertThat(events.stream().map(SCMEvent::getType).collect(toList()),
+                containsInAnyOrder(SCMEvent.Type.CREATED, SCMEvent.Type.UPDATED, SCMEvent.Type.REMOVED));
+        BitbucketSCMHeadEvent updated = events.stream()
+                .filter(event -> event.getType() == SCMEvent.Type.UPDATED)
+                .findFirst()
+                .get();
+        assertThat(updated.heads(source).keySet(), containsInAnyOrder((SCMHead) new GitBranchSCMHead("updated"),
+                new GitTagSCMHead("v1", 0)));
+    }
+
+    @Test
+    public void testGitSourceMatchesCloneUrl() {
+        when(gitSource.getRemote()).thenReturn(CLONE_URL.toUpperCase());
+        BitbucketSCMHeadEvent event = single(refsChanged(change("master", BitbucketRefChangeType.UPDATE)));
+
+        assertThat(event.isMatch(gitSource), is(true));
+    }
+
+    @Test
+    public void testHeadsOfMatchingSource() {
+        BitbucketSCMHeadEvent event = single(refsChanged(change("master", BitbucketRefChangeType.UPDATE)));
+
+        Map<SCMHead, SCMRevision> heads = event.heads(source);
+
+        GitBranchSCMHead head = new GitBranchSCMHead("master");
+        SCMRevision revision = new GitBranchSCMRevision(head, "tohash");
+        assertThat(heads, is(equalTo(singletonMap((SCMHead) head, revision))));
+    }
+
+    @Test
+    public void testHeadsOfTags() {
+        BitbucketSCMHeadEvent created = single(refsChanged(tagChange("v1", BitbucketRefChangeType.ADD)));
+        BitbucketSCMHeadEvent removed = single(refsChanged(tagChange("v0", BitbucketRefChangeType.DELETE)));
+
+        GitTagSCMHead head = new GitTagSCMHead("v1", 0);
+        assertThat(created.getType(), is(SCMEvent.Type.CREATED));
+        assertThat(created.heads(source), is(equalTo(singletonMap((SCMHead) head,
+                new GitTagSCMRevision(head, "tohash")))));
+        assertThat(removed.getType(), is(SCMEvent.Type.REMOVED));
+        assertThat(removed.heads(source).keySet(), contains((SCMHead) new GitTagSCMHead("v0", 0)));
+        assertThat(removed.heads(source).get(new GitTagSCMHead("v0", 0)), is(nullValue()));
+    }
+
+    @Test
+    public void testMirrorSynchronizedMatchesMirror() {
+        MirrorSynchronizedWebhookEvent payload = new MirrorSynchronizedWebhookEvent(null,
+                new BitbucketMirrorServer("1", "mirror"), MIRROR_SYNCHRONIZED_EVENT.getEventId(), new Date(),
+                singletonList(change("master", BitbucketRefChangeType.UPDATE)), repository(),
+                BitbucketRepositorySynchronizationType.INCREMENTAL);
+        BitbucketSCMHeadEvent event = single(payload);
+
+        assertThat(event.isMatch(source), is(false));
+        when(source.getMirrorName()).thenReturn("mirror");
+        assertThat(event.isMatch(source), is(true));
+    }
+
+    @Test
+    public void testRemovedHeadHasNoRevision() {
+        BitbucketSCMHeadEvent event = single(refsChanged(change("master", BitbucketRefChangeType.DELETE)));
+
+        assertThat(event.getType(), is(SCMEvent.Type.REMOVED));
+        Map<SCMHead, SCMRevision> heads = event.heads(source);
+        assertThat(heads.keySet(), contains((SCMHead) new GitBranchSCMHead("master")));
+        assertThat(heads.get(new GitBranchSCMHead("master")), is(nullValue()));
+    }
+
+    private static BitbucketRefChange change(String branch, BitbucketRefChangeType type) {
+        return new BitbucketRefChange(new BitbucketRef("refs/heads/" + branch, branch, BitbucketRefType.BRANCH),
+                "refs/heads/" + branch, "fromhash", "tohash", type);
+    }
+
+    private static BitbucketRefChange tagChange(String tag, BitbucketRefChangeType type) {
+        return new BitbucketRefChange(new BitbucketRef("refs/tags/" + tag, tag, BitbucketRefType.TAG),
+                "refs/tags/" + tag, "fromhash", "tohash", type);
+    }
+
+    private static RefsChangedWebhookEvent refsChanged(BitbucketRefChange... changes) {
+        return new RefsChangedWebhookEvent(null, REPO_REF_CHANGE.getEventId(), new Date(), asList(changes),
+                repository());
+    }
+
+    private static BitbucketRepository repository() {
+        return new BitbucketRepository(1, "repo", new BitbucketProject("PROJ", null, "Project"), "repo",
+                RepositoryState.AVAILABLE, singletonList(new BitbucketNamedLink("http", CLONE_URL)),
+                "http://localhost:7990/projects/PROJ/repos/repo");
+    }
+
+    private static BitbucketSCMHeadEvent single(RefsChangedWebhookEvent payload) {
+        List<BitbucketSCMHeadEvent> events = BitbucketSCMHeadEvent.of(payload, SERVER_ID::equals);
+        assertThat(events, hasSize(1));
+        return events.get(0);
+    }
+}
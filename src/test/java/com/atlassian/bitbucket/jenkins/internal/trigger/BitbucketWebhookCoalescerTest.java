@@ -0,0 +1,159 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.MIRROR_SYNCHRONIZED_EVENT;
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.REPO_REF_CHANGE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BitbucketWebhookCoalescerTest {
+
+    private static final long WINDOW_MILLIS = 2000;
+
+    private final List<RefsChangedWebhookEvent> handled = new ArrayList<>();
+    private BitbucketWebhookCoalescer coalescer;
+    @Mock
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setup() {
+        coalescer = new BitbucketWebhookCoalescer(WINDOW_MILLIS, () -> executor);
+    }
+
+    @Test
+    public void testDifferentRepositoriesAreNotMerged() {
+        coalescer.submit(refsChanged(repository("repo1"), 1, change("master", "a", "b")), handled::add);
+        coalescer.submit(refsChanged(repository("repo2"), 2, change("master", "c", "d")), handled::add);
+
+        runScheduledTasks(2);
+
+        assertThat(handled, hasSize(2));
+    }
+
+    @Test
+    public void testEventsAreMergedWithinWindow() {
+        BitbucketRepository repository = repository("repo");
+        coalescer.submit(refsChanged(repository, 1, change("master", "a", "b")), handled::add);
+        coalescer.submit(refsChanged(repository, 2, change("master", "b", "c"), change("feature", "e", "f")),
+                handled::add);
+
+        runScheduledTasks(1);
+
+        assertThat(handled, hasSize(1));
+        List<BitbucketRefChange> changes = handled.get(0).getChanges();
+        assertThat(changes, hasSize(2));
+        assertThat(changes.get(0).getRefId(), is(equalTo("refs/heads/master")));
+        assertThat(changes.get(0).getFromHash(), is(equalTo("a")));
+        assertThat(changes.get(0).getToHash(), is(equalTo("c")));
+        assertThat(changes.get(1).getRefId(), is(equalTo("refs/heads/feature")));
+    }
+
+    @Test
+    public void testFutureCompletesOnceHandled() {
+        BitbucketRepository repository = repository("repo");
+        CompletableFuture<Void> first =
+                coalescer.submit(refsChanged(repository, 1, change("master", "a", "b")), handled::add);
+        CompletableFuture<Void> second =
+                coalescer.submit(refsChanged(repository, 2, change("master", "b", "c")), handled::add);
+
+        assertThat(first.isDone(), is(false));
+        assertThat(second, is(sameInstance(first)));
+
+        runScheduledTasks(1);
+
+        assertThat(first.isDone(), is(true));
+        assertThat(first.isCompletedExceptionally(), is(false));
+    }
+
+    @Test
+    public void testFutureFailsWhenHandlerFails() {
+        CompletableFuture<Void> result = coalescer.submit(refsChanged(repository("repo"), 1,
+                change("master", "a", "b")), event -> {
+            throw new IllegalStateException("Failed to trigger");
+        });
+
+        runScheduledTasks(1);
+
+        assertThat(result.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void testLatestHashWinsWhenOutOfOrder() {
+        BitbucketRepository repository = repository("repo");
+        coalescer.submit(refsChanged(repository, 2, change("master", "b", "c")), handled::add);
+        coalescer.submit(refsChanged(repository, 1, change("master", "a", "b")), handled::add);
+
+        runScheduledTasks(1);
+
+        BitbucketRefChange change = handled.get(0).getChanges().get(0);
+        assertThat(change.getFromHash(), is(equalTo("a")));
+        assertThat(change.getToHash(), is(equalTo("c")));
+    }
+
+    @Test
+    public void testMirrorAndRefsChangedEventsAreNotMerged() {
+        BitbucketRepository repository = repository("repo");
+        coalescer.submit(refsChanged(repository, 1, change("master", "a", "b")), handled::add);
+        coalescer.submit(new MirrorSynchronizedWebhookEvent(null, new BitbucketMirrorServer("1", "mirror"),
+                MIRROR_SYNCHRONIZED_EVENT.getEventId(), new Date(2), singletonList(change("master", "a", "b")),
+                repository, BitbucketRepositorySynchronizationType.INCREMENTAL), handled::add);
+
+        runScheduledTasks(2);
+
+        assertThat(handled, hasSize(2));
+        assertThat(handled.get(1), is(instanceOf(MirrorSynchronizedWebhookEvent.class)));
+    }
+
+    @Test
+    public void testNoWindowHandlesImmediately() {
+        coalescer = new BitbucketWebhookCoalescer(0, () -> executor);
+        RefsChangedWebhookEvent event = refsChanged(repository("repo"), 1, change("master", "a", "b"));
+
+        coalescer.submit(event, handled::add);
+
+        assertThat(handled, contains(event));
+        verifyZeroInteractions(executor);
+    }
+
+    private static BitbucketRefChange change(String branch, String fromHash, String toHash) {
+        return new BitbucketRefChange(new BitbucketRef("refs/heads/" + branch, branch, BitbucketRefType.BRANCH),
+                "refs/heads/" + branch, fromHash, toHash, BitbucketRefChangeType.UPDATE);
+    }
+
+    private static RefsChangedWebhookEvent refsChanged(BitbucketRepository repository, long date,
+                                                       BitbucketRefChange... changes) {
+        return new RefsChangedWebhookEvent(null, REPO_REF_CHANGE.getEventId(), new Date(date), asList(changes),
+                repository);
+    }
+
+    private static BitbucketRepository repository(String slug) {
+        return new BitbucketRepository(1, slug, new BitbucketProject("PROJ", null, "Project"), slug,
+                RepositoryState.AVAILABLE, emptyList(), "http://localhost:7990/projects/PROJ/repos/" + slug);
+    }
+
+    private void runScheduledTasks(int count) {
+        ArgumentCaptor<Runnable> tasks = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(count)).schedule(tasks.capture(), eq(WINDOW_MILLIS), any());
+        tasks.getAllValues().forEach(Runnable::run);
+    }
+}
@@ -20,6 +20,7 @@ import org.junit.runner.RunWith;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.IOException;
@@ -59,8 +60,12 @@ public class BitbucketWebhookConsumerTest {
     private BitbucketSCM bitbucketSCM;
     @Mock
     private BitbucketWebhookTriggerImpl bitbucketTrigger;
+    @Spy
+    private BitbucketWebhookCoalescer coalescer = new BitbucketWebhookCoalescer();
     @InjectMocks
     private BitbucketWebhookConsumer consumer;
+    @Spy
+    private BitbucketWebhookJobIndex jobIndex = new BitbucketWebhookJobIndex();
     private FreeStyleProject gitProject;
     @Mock
     private GitSCM gitSCM;
@@ -165,10 +170,10 @@ public class BitbucketWebhookConsumerTest {
 
         verify(bitbucketTrigger, never())
                 .trigger(
-                        eq(BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).build()));
+                        eq(triggerRequest()));
         verify(workflowTrigger, never())
                 .trigger(
-                        eq(BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).build()));
+                        eq(triggerRequest()));
     }
 
     @Test
@@ -195,8 +200,8 @@ public class BitbucketWebhookConsumerTest {
 
         consumer.process(event);
 
-        verify(bitbucketTrigger).trigger(eq(BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).build()));
-        verify(workflowTrigger).trigger(eq(BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).build()));
+        verify(bitbucketTrigger).trigger(eq(triggerRequest()));
+        verify(workflowTrigger).trigger(eq(triggerRequest()));
     }
 
     @Test
@@ -211,10 +216,10 @@ public class BitbucketWebhookConsumerTest {
 
         verify(bitbucketTrigger)
                 .trigger(
-                        eq(BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).build()));
+                        eq(triggerRequest()));
         verify(workflowTrigger)
                 .trigger(
-                        eq(BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).build()));
+                        eq(triggerRequest()));
     }
 
     @Test
@@ -223,7 +228,7 @@ public class BitbucketWebhookConsumerTest {
 
         verify(gitTrigger)
                 .trigger(
-                        eq(BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).build()));
+                        eq(triggerRequest()));
         verify(nullBitbucketTrigger, never()).trigger(any());
     }
 
@@ -259,6 +264,10 @@ public class BitbucketWebhookConsumerTest {
         return singletonList(change);
     }
 
+    private BitbucketWebhookTriggerRequest triggerRequest() {
+        return BitbucketWebhookTriggerRequest.builder().actor(BITBUCKET_USER).refChanges(refChanges()).build();
+    }
+
     private BitbucketRepository repository(String cloneUrl, String projectKey, String repoSlug) {
         BitbucketNamedLink selfLink =
                 new BitbucketNamedLink("self", BITBUCKET_BASE_URL + "projects/jenkins/repos/jenkins/browse");
@@ -0,0 +1,90 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.*;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.MIRROR_SYNCHRONIZED_EVENT;
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.REPO_REF_CHANGE;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketWebhookDeduplicatorTest {
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private final BitbucketWebhookDeduplicator deduplicator = new BitbucketWebhookDeduplicator(2, 60000, clock::get);
+
+    @Test
+    public void testDuplicateIsRejected() {
+        assertThat(deduplicator.register("request:1"), is(true));
+        assertThat(deduplicator.register("request:1"), is(false));
+        assertThat(deduplicator.getDuplicateCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testEldestEntryIsEvicted() {
+        deduplicator.register("request:1");
+        deduplicator.register("request:2");
+        deduplicator.register("request:3");
+
+        assertThat(deduplicator.getSize(), is(equalTo(2)));
+        assertThat(deduplicator.register("request:1"), is(true));
+    }
+
+    @Test
+    public void testExpiredEntryIsForgotten() {
+        deduplicator.register("request:1");
+        clock.addAndGet(60000);
+
+        assertThat(deduplicator.register("request:1"), is(true));
+    }
+
+    @Test
+    public void testForget() {
+        deduplicator.register("request:1");
+        deduplicator.forget("request:1");
+
+        assertThat(deduplicator.register("request:1"), is(true));
+    }
+
+    @Test
+    public void testKeyFromPayload() {
+        String key = BitbucketWebhookDeduplicator.toKey(null, refsChanged("tohash", new Date(1)));
+
+        assertThat(BitbucketWebhookDeduplicator.toKey("", refsChanged("tohash", new Date(2))), is(equalTo(key)));
+        assertThat(BitbucketWebhookDeduplicator.toKey(null, refsChanged("otherhash", new Date(1))),
+                is(not(equalTo(key))));
+        assertThat(BitbucketWebhookDeduplicator.toKey(null, mirrorSynchronized("tohash")), is(not(equalTo(key))));
+    }
+
+    @Test
+    public void testKeyFromRequestId() {
+        assertThat(BitbucketWebhookDeduplicator.toKey("abc", refsChanged("tohash", new Date())),
+                is(equalTo("request:abc")));
+    }
+
+    private static BitbucketRefChange change(String toHash) {
+        return new BitbucketRefChange(new BitbucketRef("refs/heads/master", "master", BitbucketRefType.BRANCH),
+                "refs/heads/master", "fromhash", toHash, BitbucketRefChangeType.UPDATE);
+    }
+
+    private static MirrorSynchronizedWebhookEvent mirrorSynchronized(String toHash) {
+        return new MirrorSynchronizedWebhookEvent(null, new BitbucketMirrorServer("1", "mirror"),
+                MIRROR_SYNCHRONIZED_EVENT.getEventId(), new Date(), singletonList(change(toHash)), repository(),
+                BitbucketRepositorySynchronizationType.INCREMENTAL);
+    }
+
+    private static RefsChangedWebhookEvent refsChanged(String toHash, Date date) {
+        return new RefsChangedWebhookEvent(null, REPO_REF_CHANGE.getEventId(), date, singletonList(change(toHash)),
+                repository());
+    }
+
+    private static BitbucketRepository repository() {
+        return new BitbucketRepository(1, "repo", new BitbucketProject("PROJ", null, "Project"), "repo",
+                RepositoryState.AVAILABLE, emptyList(), "http://localhost:7990/projects/PROJ/repos/repo");
+    }
+}
@@ -41,7 +41,7 @@ public class BitbucketWebhookEndpointTest {
                 .when()
                 .post(BB_WEBHOOK_URL)
                 .then()
-                .statusCode(HttpServletResponse.SC_OK);
+                .statusCode(HttpServletResponse.SC_ACCEPTED);
     }
 
     @Test
@@ -59,7 +59,7 @@ public class BitbucketWebhookEndpointTest {
                 .when()
                 .post(BB_WEBHOOK_URL)
                 .then()
-                .statusCode(HttpServletResponse.SC_OK);
+                .statusCode(HttpServletResponse.SC_ACCEPTED);
     }
 
     @Test
@@ -77,7 +77,7 @@ public class BitbucketWebhookEndpointTest {
                 .when()
                 .post(BB_WEBHOOK_URL)
                 .then()
-                .statusCode(HttpServletResponse.SC_OK);
+                .statusCode(HttpServletResponse.SC_ACCEPTED);
     }
 
     @Test
@@ -0,0 +1,108 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookJobIndex.IndexedJob;
+import com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookTriggerImpl.BitbucketWebhookTriggerDescriptor;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.git.GitSCM;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketWebhookJobIndexTest {
+
+    private static final String CLONE_URL = "http://bitbucket.example.com/scm/proj/repo.git";
+
+    @ClassRule
+    public static JenkinsRule jenkins = new JenkinsRule();
+
+    private final BitbucketWebhookJobIndex index = new BitbucketWebhookJobIndex();
+    private FreeStyleProject project;
+
+    @Before
+    public void setup() throws Exception {
+        project = jenkins.createFreeStyleProject();
+        project.setScm(new GitSCM(CLONE_URL));
+        project.addTrigger(new BitbucketWebhookTriggerImpl());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        project.delete();
+    }
+
+    @Test
+    public void testDeletedJobIsRemoved() {
+        getJobNames();
+
+        index.onDeleted(project.getFullName());
+
+        assertThat(getJobNames(), empty());
+    }
+
+    @Test
+    public void testJobsAreReadOutsideOfTheLock() {
+        AtomicBoolean lockHeld = new AtomicBoolean();
+        BitbucketWebhookJobIndex[] lockingIndex = new BitbucketWebhookJobIndex[1];
+        lockingIndex[0] = new BitbucketWebhookJobIndex(() -> {
+            lockHeld.set(Thread.holdsLock(lockingIndex[0]));
+            return jenkins.jenkins;
+        });
+
+        assertThat(lockingIndex[0].isSubscribed("PROJ", "repo", singletonList(CLONE_URL)), is(true));
+        assertThat(lockHeld.get(), is(false));
+    }
+
+    @Test
+    public void testJobIsFoundByCloneUrlIgnoringCase() {
+        assertThat(getJobNames(), contains(project.getFullName()));
+    }
+
+    @Test
+    public void testRegistrationIsNotUsedByGitJob() {
+        BitbucketSCMRepository repository =
+                new BitbucketSCMRepository("credentialsId", "Project", "PROJ", "repo", "repo", "serverId", "");
+
+        assertThat(index.isSubscribed("PROJ", "repo", singletonList(CLONE_URL)), is(true));
+        assertThat(index.isRegistrationUsed(repository), is(false));
+    }
+
+    @Test
+    public void testJobWithoutTriggerIsRemoved() throws Exception {
+        getJobNames();
+        project.removeTrigger(jenkins.jenkins.getDescriptorByType(BitbucketWebhookTriggerDescriptor.class));
+
+        index.onChanged(project);
+
+        assertThat(getJobNames(), empty());
+    }
+
+    @Test
+    public void testRenamedJobIsFoundByItsNewName() throws Exception {
+        getJobNames();
+        String oldName = project.getFullName();
+        project.renameTo(oldName + "-renamed");
+
+        index.onLocationChanged(project, oldName);
+
+        assertThat(getJobNames(), contains(oldName + "-renamed"));
+    }
+
+    private List<String> getJobNames() {
+        Collection<IndexedJob> jobs = index.getJobs("PROJ", "repo", singletonList(CLONE_URL.toUpperCase()));
+        return jobs.stream().map(IndexedJob::getFullName).collect(toList());
+    }
+}
@@ -0,0 +1,142 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookQueue.QueueStatistics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.REPO_REF_CHANGE;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BitbucketWebhookQueueTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<BitbucketWebhookQueue> queues = new ArrayList<>();
+    private File directory;
+    private RefsChangedWebhookEvent event;
+    private String payload;
+    @Mock
+    private BitbucketWebhookConsumer webhookConsumer;
+
+    @Before
+    public void setup() throws IOException {
+        directory = temporaryFolder.newFolder();
+        payload = IOUtils.toString(getClass().getResource("/webhook/refs_changed_body.json"), StandardCharsets.UTF_8);
+        event = new ObjectMapper().readValue(payload, RefsChangedWebhookEvent.class);
+        lenient().when(webhookConsumer.process(any(RefsChangedWebhookEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @After
+    public void tearDown() {
+        queues.forEach(BitbucketWebhookQueue::stop);
+    }
+
+    @Test
+    public void testDisabledQueueProcessesOnCaller() {
+        BitbucketWebhookQueue queue = createQueue(0, 1);
+
+        assertThat(queue.offer(REPO_REF_CHANGE.getEventId(), payload, event), is(true));
+
+        verify(webhookConsumer).process(event);
+        assertThat(directory.list(), is(emptyArray()));
+    }
+
+    @Test
+    public void testFullQueueRejectsWebhook() {
+        BitbucketWebhookQueue queue = createQueue(1, 0);
+
+        assertThat(queue.offer(REPO_REF_CHANGE.getEventId(), payload, event), is(true));
+        assertThat(queue.offer(REPO_REF_CHANGE.getEventId(), payload, event), is(false));
+
+        QueueStatistics statistics = queue.getStatistics();
+        assertThat(statistics.getAcceptedCount(), is(equalTo(1L)));
+        assertThat(statistics.getDepth(), is(equalTo(1)));
+        assertThat(statistics.getRejectedCount(), is(equalTo(1L)));
+        assertThat(directory.list(), is(arrayWithSize(1)));
+    }
+
+    @Test
+    public void testInterruptedWebhookIsKept() {
+        when(webhookConsumer.process(any(RefsChangedWebhookEvent.class))).thenAnswer(invocation -> {
+            // What stopping the queue does to a worker in the middle of processing a webhook
+            Thread.currentThread().interrupt();
+            return CompletableFuture.completedFuture(null);
+        });
+        BitbucketWebhookQueue queue = createQueue(10, 1);
+
+        queue.offer(REPO_REF_CHANGE.getEventId(), payload, event);
+        verify(webhookConsumer, timeout(5000)).process(any(RefsChangedWebhookEvent.class));
+        queue.stop();
+
+        assertThat(directory.list(), is(arrayWithSize(1)));
+        assertThat(queue.getStatistics().getProcessedCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testPendingWebhooksAreRecovered() {
+        createQueue(10, 0).offer(REPO_REF_CHANGE.getEventId(), payload, event);
+
+        BitbucketWebhookQueue queue = createQueue(10, 1);
+        queue.recover();
+
+        verify(webhookConsumer, timeout(5000)).process(any(RefsChangedWebhookEvent.class));
+    }
+
+    @Test
+    public void testWebhookIsKeptUntilProcessed() throws InterruptedException {
+        CompletableFuture<Void> processed = new CompletableFuture<>();
+        when(webhookConsumer.process(any(RefsChangedWebhookEvent.class))).thenReturn(processed);
+        BitbucketWebhookQueue queue = createQueue(10, 0);
+        queue.offer(REPO_REF_CHANGE.getEventId(), payload, event);
+        BitbucketWebhookQueue worker = createQueue(10, 1);
+        worker.recover();
+        verify(webhookConsumer, timeout(5000)).process(any(RefsChangedWebhookEvent.class));
+
+        assertThat(directory.list(), is(arrayWithSize(1)));
+        assertThat(worker.getStatistics().getProcessedCount(), is(equalTo(0L)));
+
+        processed.complete(null);
+
+        for (int i = 0; i < 50 && directory.list().length > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(directory.list(), is(emptyArray()));
+        assertThat(worker.getStatistics().getProcessedCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testWebhookIsProcessed() {
+        BitbucketWebhookQueue queue = createQueue(10, 1);
+
+        assertThat(queue.offer(REPO_REF_CHANGE.getEventId(), payload, event), is(true));
+
+        verify(webhookConsumer, timeout(5000)).process(event);
+    }
+
+    private BitbucketWebhookQueue createQueue(int capacity, int workerCount) {
+        BitbucketWebhookQueue queue = new BitbucketWebhookQueue(webhookConsumer, capacity, workerCount, () -> directory);
+        queues.add(queue);
+        return queue;
+    }
+}
@@ -0,0 +1,176 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketPluginConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.config.BitbucketServerConfiguration;
+import com.atlassian.bitbucket.jenkins.internal.credentials.GlobalCredentialsProvider;
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhook;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import com.atlassian.bitbucket.jenkins.internal.trigger.register.WebhookRegistrationFailed;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singleton;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BitbucketWebhookReconcilerTest {
+
+    private static final String BASE_URL = "http://localhost:7990/bitbucket";
+    private static final long MAX_AGE_MILLIS = 1000;
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    @Mock
+    private BitbucketPluginConfiguration bitbucketPluginConfiguration;
+    @Mock
+    private GlobalCredentialsProvider globalCredentialsProvider;
+    @Mock
+    private BitbucketWebhookJobIndex jobIndex;
+    private BitbucketWebhookReconciler reconciler;
+    private BitbucketWebhookRegistrar registrar;
+    @Mock
+    private RetryingWebhookHandler retryingWebhookHandler;
+    @Mock
+    private BitbucketServerConfiguration serverConfiguration;
+
+    @Before
+    public void setup() {
+        registrar = new BitbucketWebhookRegistrar(0, null, clock::get);
+        reconciler = new BitbucketWebhookReconciler(2, 0, MAX_AGE_MILLIS, clock::get, bitbucketPluginConfiguration,
+                jobIndex, registrar, retryingWebhookHandler);
+        lenient().when(bitbucketPluginConfiguration.getServerById("serverId"))
+                .thenReturn(Optional.of(serverConfiguration));
+        lenient().when(serverConfiguration.getBaseUrl()).thenReturn(BASE_URL);
+        lenient().when(serverConfiguration.getGlobalCredentialsProvider(anyString()))
+                .thenReturn(globalCredentialsProvider);
+        lenient().when(jobIndex.isRegistrationUsed(any())).thenReturn(true);
+        lenient().when(retryingWebhookHandler.register(eq(BASE_URL), eq(globalCredentialsProvider), any()))
+                .thenReturn(webhook(2));
+    }
+
+    @Test
+    public void testBatchSizeIsRespected() throws Exception {
+        register("repo1");
+        clock.addAndGet(1);
+        register("repo2");
+        clock.addAndGet(1);
+        register("repo3");
+        clock.addAndGet(MAX_AGE_MILLIS);
+
+        assertThat(reconciler.reconcile(), is(equalTo(2)));
+
+        verify(retryingWebhookHandler, times(2)).register(eq(BASE_URL), eq(globalCredentialsProvider), any());
+        assertThat(registrar.getRegistrations().get(2).getLastVerified(), is(equalTo(1002L)));
+        assertThat(reconciler.reconcile(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        reconciler = new BitbucketWebhookReconciler(2, 0, 0, clock::get, bitbucketPluginConfiguration, jobIndex,
+                registrar, retryingWebhookHandler);
+        register("repo");
+        clock.addAndGet(MAX_AGE_MILLIS);
+
+        assertThat(reconciler.reconcile(), is(equalTo(0)));
+        verifyZeroInteractions(retryingWebhookHandler);
+    }
+
+    @Test
+    public void testFailingRegistrationsDoNotHoldUpOthers() throws Exception {
+        when(retryingWebhookHandler.register(eq(BASE_URL), eq(globalCredentialsProvider), any()))
+                .thenAnswer(invocation -> {
+                    BitbucketSCMRepository repository = invocation.getArgument(2);
+                    if (repository.getRepositorySlug().startsWith("broken")) {
+                        throw new WebhookRegistrationFailed("Rejected");
+                    }
+                    return webhook(2);
+                });
+        register("broken1");
+        register("broken2");
+        clock.addAndGet(1);
+        register("repo");
+        clock.addAndGet(MAX_AGE_MILLIS);
+
+        assertThat(reconciler.reconcile(), is(equalTo(0)));
+        BitbucketWebhookRegistration broken = registrar.getRegistrations().get(0);
+        assertThat(broken.getFailureCount(), is(equalTo(1)));
+        assertThat(broken.getLastVerified(), is(equalTo(1000L)));
+
+        assertThat(reconciler.reconcile(), is(equalTo(1)));
+        assertThat(registrar.getRegistrations().get(2).getLastVerified(), is(equalTo(2001L)));
+
+        clock.addAndGet(MAX_AGE_MILLIS);
+        assertThat(reconciler.reconcile(), is(equalTo(0)));
+        assertThat(registrar.getRegistrations().get(0).getFailureCount(), is(equalTo(2)));
+        // The next attempt waits twice as long, so the healthy webhook is verified meanwhile
+        clock.addAndGet(MAX_AGE_MILLIS);
+        assertThat(reconciler.reconcile(), is(equalTo(1)));
+        assertThat(registrar.getRegistrations().get(0).getFailureCount(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testFreshRegistrationIsNotVerified() throws Exception {
+        register("repo");
+        clock.addAndGet(MAX_AGE_MILLIS - 1);
+
+        assertThat(reconciler.reconcile(), is(equalTo(0)));
+        verifyZeroInteractions(retryingWebhookHandler);
+    }
+
+    @Test
+    public void testStaleRegistrationIsRepaired() throws Exception {
+        register("repo");
+        clock.addAndGet(MAX_AGE_MILLIS);
+
+        assertThat(reconciler.reconcile(), is(equalTo(1)));
+
+        BitbucketWebhookRegistration registration = registrar.getRegistrations().get(0);
+        assertThat(registration.getWebhookId(), is(equalTo(2)));
+        assertThat(registration.getLastVerified(), is(equalTo(1000 + MAX_AGE_MILLIS)));
+        assertThat(registrar.getRepairedCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testUnknownServerIsForgotten() throws Exception {
+        when(bitbucketPluginConfiguration.getServerById("serverId")).thenReturn(Optional.empty());
+        register("repo");
+        clock.addAndGet(MAX_AGE_MILLIS);
+
+        reconciler.reconcile();
+
+        assertThat(registrar.getRegistrations(), is(empty()));
+        verifyZeroInteractions(retryingWebhookHandler);
+    }
+
+    @Test
+    public void testUnusedRepositoryIsForgotten() throws Exception {
+        when(jobIndex.isRegistrationUsed(any())).thenReturn(false);
+        register("repo");
+        clock.addAndGet(MAX_AGE_MILLIS);
+
+        reconciler.reconcile();
+
+        assertThat(registrar.getRegistrations(), is(empty()));
+        verifyZeroInteractions(retryingWebhookHandler);
+    }
+
+    private void register(String slug) {
+        registrar.register(new BitbucketSCMRepository("credentialsId", "Project", "PROJ", slug, slug, "serverId", ""),
+                false, () -> webhook(1));
+    }
+
+    private static BitbucketWebhook webhook(int id) {
+        return new BitbucketWebhook(id, "webhook", singleton("repo:refs_changed"),
+                "http://jenkins/bitbucket-scmsource-webhook/trigger/", true);
+    }
+}
@@ -0,0 +1,199 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhook;
+import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singleton;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketWebhookRegistrarTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final AtomicLong clock = new AtomicLong(1000);
+    private final AtomicInteger registrations = new AtomicInteger();
+    private File file;
+
+    @Before
+    public void setup() {
+        file = new File(temporaryFolder.getRoot(), BitbucketWebhookRegistrar.FILE_NAME);
+    }
+
+    @Test
+    public void testFailedRegistrationKeepsPreviousRegistration() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file, clock::get);
+        registrar.register(repository("repo", ""), false, this::webhook);
+        clock.addAndGet(1000);
+
+        CompletableFuture<Boolean> result = registrar.register(repository("repo", ""), true, () -> {
+            throw new IllegalStateException("Bitbucket is down");
+        });
+
+        assertThat(result.join(), is(false));
+        BitbucketWebhookRegistration registration = registrar.getRegistrations().get(0);
+        assertThat(registration.getLastVerified(), is(equalTo(1000L)));
+        assertThat(registration.getFailureCount(), is(equalTo(1)));
+        assertThat(registration.getLastFailure(), is(equalTo(clock.get())));
+    }
+
+    @Test
+    public void testFailedRegistrationIsNotRemembered() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file);
+
+        CompletableFuture<Boolean> result = registrar.register(repository("repo", ""), false, () -> {
+            throw new IllegalStateException("Bitbucket is down");
+        });
+
+        assertThat(result.join(), is(false));
+        assertThat(registrar.isRegistered(repository("repo", "")), is(false));
+        registrar.register(repository("repo", ""), false, this::webhook);
+        assertThat(registrations.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testForcedRegistration() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file);
+
+        registrar.register(repository("repo", ""), false, this::webhook);
+        registrar.register(repository("REPO", ""), true, this::webhook);
+
+        assertThat(registrations.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testForget() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file);
+        registrar.register(repository("repo", ""), false, this::webhook);
+
+        registrar.forget(repository("repo", ""));
+
+        assertThat(registrar.isRegistered(repository("repo", "")), is(false));
+        assertThat(new BitbucketWebhookRegistrar(0, () -> file).getRegistrations(), is(empty()));
+    }
+
+    @Test
+    public void testMirrorsAreRegisteredSeparately() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file);
+
+        registrar.register(repository("repo", ""), false, this::webhook);
+        registrar.register(repository("repo", "mirror"), false, this::webhook);
+
+        assertThat(registrations.get(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testRegistrationInProgressIsCollapsed() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file);
+        CompletableFuture<?>[] nested = new CompletableFuture<?>[1];
+
+        CompletableFuture<Boolean> result = registrar.register(repository("repo", ""), false, () -> {
+            nested[0] = registrar.register(repository("repo", ""), true, this::webhook);
+            return webhook();
+        });
+
+        assertThat(registrations.get(), is(equalTo(1)));
+        assertThat(nested[0], is(sameInstance(result)));
+        assertThat(registrar.getCollapsedCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRegistrationDetailsAreRememberedAcrossRestarts() {
+        new BitbucketWebhookRegistrar(0, () -> file, clock::get)
+                .register(repository("repo", "mirror"), false, this::webhook);
+
+        List<BitbucketWebhookRegistration> restored =
+                new BitbucketWebhookRegistrar(0, () -> file).getRegistrations();
+
+        assertThat(restored, hasSize(1));
+        BitbucketWebhookRegistration registration = restored.get(0);
+        assertThat(registration.getWebhookId(), is(equalTo(1)));
+        assertThat(registration.getEvents(), contains("repo:refs_changed"));
+        assertThat(registration.getCallbackUrl(), is(equalTo("http://jenkins/bitbucket-scmsource-webhook/trigger/")));
+        assertThat(registration.getLastVerified(), is(equalTo(1000L)));
+        assertThat(registration.toRepository().getMirrorName(), is(equalTo("mirror")));
+        assertThat(registration.toRepository().getServerId(), is(equalTo("serverId")));
+    }
+
+    @Test
+    public void testOutdatedRegistrationIsRegisteredAgain() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file);
+        registrar.register(repository("repo", ""), false, this::webhook);
+
+        CompletableFuture<Boolean> result = registrar.register(repository("repo", ""), false,
+                remembered -> "http://new-jenkins/".equals(remembered.getCallbackUrl()), this::webhook);
+
+        assertThat(result.join(), is(true));
+        assertThat(registrations.get(), is(equalTo(2)));
+        assertThat(registrar.getSkippedCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testRegistrationIsRememberedAcrossRestarts() {
+        new BitbucketWebhookRegistrar(0, () -> file)
+                .register(repository("repo", ""), false, this::webhook);
+
+        BitbucketWebhookRegistrar restarted = new BitbucketWebhookRegistrar(0, () -> file);
+        CompletableFuture<Boolean> result =
+                restarted.register(repository("Repo", ""), false, this::webhook);
+
+        assertThat(result.join(), is(true));
+        assertThat(registrations.get(), is(equalTo(1)));
+        assertThat(restarted.getSkippedCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRegistrationRunsInBackground() throws Exception {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(2, () -> file);
+        Thread[] registeringThread = new Thread[1];
+        try {
+            CompletableFuture<Boolean> result = registrar.register(repository("repo", ""), false, () -> {
+                registeringThread[0] = Thread.currentThread();
+                return webhook();
+            });
+
+            assertThat(result.get(10, TimeUnit.SECONDS), is(true));
+            assertThat(registeringThread[0], is(not(sameInstance(Thread.currentThread()))));
+            assertThat(registrar.isRegistered(repository("repo", "")), is(true));
+        } finally {
+            registrar.stop();
+        }
+    }
+
+    @Test
+    public void testRepairedWebhookIsCounted() {
+        BitbucketWebhookRegistrar registrar = new BitbucketWebhookRegistrar(0, () -> file);
+        registrar.register(repository("repo", ""), false, this::webhook);
+        registrar.register(repository("repo", ""), true, this::webhook);
+
+        assertThat(registrar.getRepairedCount(), is(equalTo(0L)));
+
+        registrar.register(repository("repo", ""), true, () -> new BitbucketWebhook(2, "webhook",
+                singleton("repo:refs_changed"), "http://jenkins/bitbucket-scmsource-webhook/trigger/", true));
+
+        assertThat(registrar.getRepairedCount(), is(equalTo(1L)));
+        assertThat(registrar.getRegistrations().get(0).getWebhookId(), is(equalTo(2)));
+    }
+
+    private static BitbucketSCMRepository repository(String slug, String mirrorName) {
+        return new BitbucketSCMRepository("credentialsId", "Project", "PROJ", slug, slug, "serverId", mirrorName);
+    }
+
+    private BitbucketWebhook webhook() {
+        registrations.incrementAndGet();
+        return new BitbucketWebhook(1, "webhook", singleton("repo:refs_changed"),
+                "http://jenkins/bitbucket-scmsource-webhook/trigger/", true);
+    }
+}
@@ -225,6 +225,39 @@ public class BitbucketWebhookTriggerImplTest {
                         argThat(arg -> arg.equals(actualRepo)));
     }
 
+    @Test
+    public void testWebhookExistsScansJobsOnce() {
+        BitbucketSCM registeredScm = createSCM(createSCMRepo());
+        when(registeredScm.isWebhookRegistered()).thenReturn(true);
+        BitbucketWebhookTriggerImpl existingTrigger = new BitbucketWebhookTriggerImpl();
+        List<FreeStyleProject> jobs = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            FreeStyleProject job = mock(FreeStyleProject.class);
+            when(job.getFullName()).thenReturn("job" + i);
+            when(job.getTriggers()).thenReturn(Collections.singletonMap(descriptor, existingTrigger));
+            doReturn(scms(registeredScm)).when(job).getSCMs();
+            jobs.add(job);
+        }
+        when(jenkins.getAllItems(Item.class)).thenReturn(new ArrayList<>(jobs));
+
+        // Every job finds the webhook registered by the others, without every job being looked at again
+        jobs.forEach(job -> assertTrue(descriptor.webhookExists(job, registeredScm)));
+
+        verify(jenkins, times(1)).getAllItems(Item.class);
+    }
+
+    @Test
+    public void testWebhookExistsIgnoresTheJobItself() {
+        BitbucketSCM registeredScm = createSCM(createSCMRepo());
+        lenient().when(registeredScm.isWebhookRegistered()).thenReturn(true);
+        FreeStyleProject project = createFreestyleProjectWithSCM(registeredScm);
+        when(project.getFullName()).thenReturn("Project name");
+        when(project.getTriggers()).thenReturn(Collections.singletonMap(descriptor, new BitbucketWebhookTriggerImpl()));
+        when(jenkins.getAllItems(Item.class)).thenReturn(Collections.singletonList(project));
+
+        assertFalse(descriptor.webhookExists(project, registeredScm));
+    }
+
     @Test
     public void testWorkflowJobAreWebhookEligible() {
         BitbucketWebhookTriggerImpl t = new BitbucketWebhookTriggerImpl();
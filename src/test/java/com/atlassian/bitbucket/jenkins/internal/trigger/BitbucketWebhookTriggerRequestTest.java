@@ -0,0 +1,35 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.model.*;
+import org.junit.Test;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class BitbucketWebhookTriggerRequestTest {
+
+    private static final BitbucketUser ACTOR = new BitbucketUser("me", "me@example.com", "Me");
+
+    @Test
+    public void testEqualsComparesRefChanges() {
+        BitbucketWebhookTriggerRequest master = request("master");
+
+        assertThat(master, is(equalTo(request("master"))));
+        assertThat(master.hashCode(), is(equalTo(request("master").hashCode())));
+        assertThat(master, is(not(equalTo(request("feature")))));
+        assertThat(master, is(not(equalTo(BitbucketWebhookTriggerRequest.builder().actor(ACTOR).build()))));
+    }
+
+    private static BitbucketWebhookTriggerRequest request(String branch) {
+        BitbucketRef ref = new BitbucketRef("refs/heads/" + branch, branch, BitbucketRefType.BRANCH);
+        BitbucketRefChange change =
+                new BitbucketRefChange(ref, ref.getId(), "fromHash", "toHash", BitbucketRefChangeType.UPDATE);
+        return BitbucketWebhookTriggerRequest.builder()
+                .actor(ACTOR)
+                .refChanges(singletonList(change))
+                .build();
+    }
+}
@@ -0,0 +1,125 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.atlassian.bitbucket.jenkins.internal.trigger.RefChangeTriggerDecider.Decision;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.plugins.git.Branch;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.Revision;
+import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.plugins.git.extensions.GitSCMExtensionDescriptor;
+import hudson.plugins.git.extensions.impl.PathRestriction;
+import hudson.plugins.git.util.Build;
+import hudson.plugins.git.util.BuildData;
+import hudson.util.DescribableList;
+import jenkins.triggers.SCMTriggerItem;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RefChangeTriggerDeciderTest {
+
+    private static final String BUILT_HASH = "0a943a29376f2336b78312d99e65da17048951db";
+    private static final String NEW_HASH = "1d9b1f7b1e1a7f5e5f86c1ec3ab3a2e5e45b6b1c";
+
+    private final DescribableList<GitSCMExtension, GitSCMExtensionDescriptor> extensions =
+            new DescribableList<>(Saveable.NOOP);
+    @Mock
+    private GitSCM gitSCM;
+    @Mock
+    private Job<?, ?> job;
+    @Mock
+    private RemoteConfig remoteConfig;
+    @Mock
+    private Run<?, ?> run;
+    @Mock
+    private SCMTriggerItem triggerItem;
+
+    @Before
+    public void setup() {
+        BuildData buildData = new BuildData();
+        ObjectId builtHash = ObjectId.fromString(BUILT_HASH);
+        buildData.saveBuild(new Build(new Revision(builtHash, singletonList(new Branch("origin/master", builtHash))),
+                1, Result.SUCCESS));
+
+        lenient().doReturn(singletonList(gitSCM)).when(triggerItem).getSCMs();
+        lenient().when(gitSCM.getExtensions()).thenReturn(extensions);
+        lenient().when(gitSCM.getRepositories()).thenReturn(singletonList(remoteConfig));
+        lenient().when(gitSCM.getBranches()).thenReturn(singletonList(new BranchSpec("*/master")));
+        lenient().doReturn(run).when(job).getLastBuild();
+        lenient().when(gitSCM.getBuildData(run)).thenReturn(buildData);
+        lenient().when(remoteConfig.getName()).thenReturn("origin");
+    }
+
+    @Test
+    public void testBuiltRevisionHasNoChanges() {
+        assertThat(decide("refs/heads/master", BUILT_HASH), is(equalTo(Decision.NO_CHANGES)));
+    }
+
+    @Test
+    public void testExcludingExtensionPolls() {
+        extensions.add(new PathRestriction("src/.*", null));
+
+        assertThat(decide("refs/heads/master", NEW_HASH), is(equalTo(Decision.POLL)));
+    }
+
+    @Test
+    public void testJobNeverBuiltPolls() {
+        doReturn(null).when(job).getLastBuild();
+
+        assertThat(decide("refs/heads/master", NEW_HASH), is(equalTo(Decision.POLL)));
+    }
+
+    @Test
+    public void testMultipleRepositoriesPoll() {
+        when(gitSCM.getRepositories()).thenReturn(Collections.nCopies(2, remoteConfig));
+
+        assertThat(decide("refs/heads/master", NEW_HASH), is(equalTo(Decision.POLL)));
+    }
+
+    @Test
+    public void testNewRevisionBuilds() {
+        assertThat(decide("refs/heads/master", NEW_HASH), is(equalTo(Decision.BUILD)));
+    }
+
+    @Test
+    public void testNoRefChangesPoll() {
+        assertThat(RefChangeTriggerDecider.decide(job, triggerItem, emptyMap()), is(equalTo(Decision.POLL)));
+    }
+
+    @Test
+    public void testOtherBranchHasNoChanges() {
+        assertThat(decide("refs/heads/feature", NEW_HASH), is(equalTo(Decision.NO_CHANGES)));
+    }
+
+    @Test
+    public void testParameterizedBranchPolls() {
+        when(gitSCM.getBranches()).thenReturn(singletonList(new BranchSpec("*/${BRANCH}")));
+
+        assertThat(decide("refs/heads/master", NEW_HASH), is(equalTo(Decision.POLL)));
+    }
+
+    private Decision decide(String refId, String toHash) {
+        return RefChangeTriggerDecider.decide(job, triggerItem, singletonMap(refId, toHash));
+    }
+}
@@ -10,12 +10,14 @@ import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhook;
 import com.atlassian.bitbucket.jenkins.internal.model.BitbucketWebhookRequest;
 import com.atlassian.bitbucket.jenkins.internal.provider.JenkinsProvider;
 import com.atlassian.bitbucket.jenkins.internal.scm.BitbucketSCMRepository;
+import com.atlassian.bitbucket.jenkins.internal.trigger.register.BitbucketWebhookHandler;
 import com.atlassian.bitbucket.jenkins.internal.trigger.register.WebhookRegistrationFailed;
 import com.cloudbees.plugins.credentials.Credentials;
 import jenkins.model.Jenkins;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -23,12 +25,17 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import java.util.Optional;
 
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.MIRROR_SYNCHRONIZED_EVENT;
+import static com.atlassian.bitbucket.jenkins.internal.trigger.BitbucketWebhookEvent.REPO_REF_CHANGE;
 import static com.atlassian.bitbucket.jenkins.internal.util.TestUtils.*;
 import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -47,12 +54,13 @@ public class RetryingWebhookHandlerTest {
     private BitbucketCredentials globalCredentials;
     @Mock
     private BitbucketCredentials globalAdminCredentials;
+    private JenkinsToBitbucketCredentials jenkinsToBitbucketCredentials;
     private RetryingWebhookHandler retryingWebhookHandler;
     private GlobalCredentialsProvider globalCredentialsProvider;
 
     @Before
     public void setup() {
-        JenkinsToBitbucketCredentials jenkinsToBitbucketCredentials = mock(JenkinsToBitbucketCredentials.class);
+        jenkinsToBitbucketCredentials = mock(JenkinsToBitbucketCredentials.class);
         InstanceBasedNameGenerator instanceBasedNameGenerator = mockWebhookNameGenerator();
         JenkinsProvider jenkinsProvider = mock(JenkinsProvider.class);
         retryingWebhookHandler =
@@ -114,6 +122,88 @@ public class RetryingWebhookHandlerTest {
         retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, createSCMRepository());
     }
 
+    @Test
+    public void testRejectedRememberedCredentialsAreForgotten() {
+        BitbucketWebhook t = new BitbucketWebhook(1, WEBHOOK_NAME, emptySet(), "", true);
+        when(bitbucketWebhookClient.registerWebhook(any(BitbucketWebhookRequest.class)))
+                .thenThrow(AuthorizationException.class)
+                .thenThrow(AuthorizationException.class)
+                .thenReturn(t)
+                .thenThrow(AuthorizationException.class)
+                .thenReturn(t);
+
+        retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, createSCMRepository());
+        retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, createSCMRepository());
+        retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, createSCMRepository());
+
+        ArgumentCaptor<BitbucketCredentials> credentials = ArgumentCaptor.forClass(BitbucketCredentials.class);
+        verify(provider, times(6)).getClient(eq(BITBUCKET_BASE_URL), credentials.capture());
+        assertThat(credentials.getAllValues(), contains(globalAdminCredentials, jobCredentials, globalCredentials,
+                globalCredentials, globalAdminCredentials, globalAdminCredentials));
+        assertThat(retryingWebhookHandler.getMemoHitCount(), is(equalTo(0L)));
+        assertThat(retryingWebhookHandler.getWastedAttemptCount(), is(equalTo(3L)));
+    }
+
+    @Test
+    public void testRememberedJobCredentialsAreOnlyTriedFirstForTheSameCredentials() {
+        BitbucketCredentials otherJobCredentials = mock(BitbucketCredentials.class);
+        when(jenkinsToBitbucketCredentials.toBitbucketCredentials("other_cred")).thenReturn(otherJobCredentials);
+        BitbucketWebhook t = new BitbucketWebhook(1, WEBHOOK_NAME, emptySet(), "", true);
+        when(bitbucketWebhookClient.registerWebhook(any(BitbucketWebhookRequest.class)))
+                .thenThrow(AuthorizationException.class)
+                .thenReturn(t);
+
+        retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, createSCMRepository());
+        retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider,
+                new BitbucketSCMRepository("other_cred", PROJECT, PROJECT, REPO, REPO, SERVER_ID, ""));
+
+        ArgumentCaptor<BitbucketCredentials> credentials = ArgumentCaptor.forClass(BitbucketCredentials.class);
+        verify(provider, times(3)).getClient(eq(BITBUCKET_BASE_URL), credentials.capture());
+        assertThat(credentials.getAllValues(), contains(globalAdminCredentials, jobCredentials,
+                globalAdminCredentials));
+        assertThat(retryingWebhookHandler.getMemoHitCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testRememberedCredentialsAreTriedFirst() {
+        BitbucketWebhook t = new BitbucketWebhook(1, WEBHOOK_NAME, emptySet(), "", true);
+        when(bitbucketWebhookClient.registerWebhook(any(BitbucketWebhookRequest.class)))
+                .thenThrow(AuthorizationException.class)
+                .thenThrow(AuthorizationException.class)
+                .thenReturn(t);
+
+        retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, createSCMRepository());
+        BitbucketWebhook r =
+                retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, createSCMRepository());
+
+        assertThat(r, is(equalTo(t)));
+        verify(provider, times(1)).getClient(BITBUCKET_BASE_URL, globalAdminCredentials);
+        verify(provider, times(2)).getClient(BITBUCKET_BASE_URL, globalCredentials);
+        assertThat(retryingWebhookHandler.getMemoHitCount(), is(equalTo(1L)));
+        assertThat(retryingWebhookHandler.getWastedAttemptCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testRegisteredWebhookIsCurrent() {
+        String callbackUrl = BitbucketWebhookHandler.toCallbackUrl(BITBUCKET_BASE_URL);
+        BitbucketSCMRepository repository = createSCMRepository();
+        BitbucketWebhook t = new BitbucketWebhook(1, WEBHOOK_NAME, singleton(REPO_REF_CHANGE.getEventId()),
+                callbackUrl, true);
+        when(bitbucketWebhookClient.registerWebhook(any(BitbucketWebhookRequest.class))).thenReturn(t);
+
+        BitbucketWebhook webhook =
+                retryingWebhookHandler.register(BITBUCKET_BASE_URL, globalCredentialsProvider, repository);
+
+        assertThat(retryingWebhookHandler.isCurrent(BitbucketWebhookRegistration.of(repository, webhook, 0)),
+                is(true));
+        assertThat(retryingWebhookHandler.isCurrent(BitbucketWebhookRegistration.of(repository,
+                new BitbucketWebhook(1, WEBHOOK_NAME, singleton(REPO_REF_CHANGE.getEventId()),
+                        "http://old-jenkins/bitbucket-server-webhook/trigger", true), 0)), is(false));
+        assertThat(retryingWebhookHandler.isCurrent(BitbucketWebhookRegistration.of(repository,
+                new BitbucketWebhook(1, WEBHOOK_NAME, singleton(MIRROR_SYNCHRONIZED_EVENT.getEventId()),
+                        callbackUrl, true), 0)), is(false));
+    }
+
     @Test
     public void testSuccessfulWebhookRegistrationUsingJobCredentials() {
         BitbucketWebhook t = new BitbucketWebhook(1, WEBHOOK_NAME, emptySet(), "", true);
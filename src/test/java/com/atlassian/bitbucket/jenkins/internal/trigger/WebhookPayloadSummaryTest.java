@@ -0,0 +1,87 @@
+package com.atlassian.bitbucket.jenkins.internal.trigger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class WebhookPayloadSummaryTest {
+
+    private static final String REPOSITORY = "\"repository\":{\"slug\":\"repo\",\"project\":{\"key\":\"PROJ\"}," +
+                                             "\"links\":{\"clone\":[{\"href\":\"http://localhost:7990/scm/proj/repo.git\"," +
+                                             "\"name\":\"http\"}]}}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<WebhookPayloadSummary> checked = new ArrayList<>();
+
+    @Test
+    public void testChangesAfterRepository() throws IOException {
+        WebhookPayloadSummary summary = read("{" + REPOSITORY + "," + changes("DELETE", "UPDATE") + "}", true);
+
+        assertThat(summary.isIgnorable(), is(false));
+    }
+
+    @Test
+    public void testChangesBeforeRepository() throws IOException {
+        WebhookPayloadSummary summary = read("{" + changes("UPDATE", "DELETE") + "," + REPOSITORY + "}", true);
+
+        assertThat(summary.isIgnorable(), is(false));
+        assertThat(summary.isRemovingRefsOnly(), is(false));
+        assertThat(summary.getProjectKey(), is(equalTo("PROJ")));
+        assertThat(summary.getSlug(), is(equalTo("repo")));
+        assertThat(summary.getCloneUrls(), contains("http://localhost:7990/scm/proj/repo.git"));
+    }
+
+    @Test
+    public void testEmptyPayloadIsNotIgnorable() throws IOException {
+        assertThat(read("{}", true).isIgnorable(), is(false));
+        assertThat(checked, is(empty()));
+    }
+
+    @Test
+    public void testOnlyDeletedRefs() throws IOException {
+        WebhookPayloadSummary summary = read("{" + changes("DELETE", "DELETE") + "," + REPOSITORY + "}", true);
+
+        assertThat(summary.isIgnorable(), is(false));
+        assertThat(summary.isRemovingRefsOnly(), is(true));
+        assertThat(summary.getSlug(), is(equalTo("repo")));
+    }
+
+    @Test
+    public void testUnsubscribedRepositoryIsIgnorable() throws IOException {
+        WebhookPayloadSummary summary = read("{" + REPOSITORY + "," + changes("UPDATE") + "}", false);
+
+        assertThat(summary.isIgnorable(), is(true));
+        assertThat(checked, hasSize(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidJson() throws IOException {
+        read("{\"repository\":", true);
+    }
+
+    private static String changes(String... types) {
+        StringBuilder changes = new StringBuilder("\"changes\":[");
+        for (int i = 0; i < types.length; i++) {
+            if (i > 0) {
+                changes.append(',');
+            }
+            changes.append("{\"ref\":{\"id\":\"refs/heads/branch").append(i).append("\"},\"refId\":\"refs/heads/branch")
+                    .append(i).append("\",\"fromHash\":\"a\",\"toHash\":\"b\",\"type\":\"").append(types[i])
+                    .append("\"}");
+        }
+        return changes.append(']').toString();
+    }
+
+    private WebhookPayloadSummary read(String payload, boolean subscribed) throws IOException {
+        return WebhookPayloadSummary.read(objectMapper, payload, summary -> {
+            checked.add(summary);
+            return subscribed;
+        });
+    }
+}
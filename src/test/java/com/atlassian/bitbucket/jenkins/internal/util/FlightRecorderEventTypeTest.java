@@ -0,0 +1,25 @@
+package com.atlassian.bitbucket.jenkins.internal.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FlightRecorderEventTypeTest {
+
+    private final FlightRecorderEventType eventType =
+            FlightRecorderEventType.builder("com.atlassian.bitbucket.jenkins.Test", "Bitbucket Test")
+                    .field("job", String.class, "Job")
+                    .field("matched", boolean.class, "Matched")
+                    .millisField("parseTime", "Parse Time")
+                    .build();
+
+    @Test
+    public void testEventIsDisabledWithoutRecording() {
+        FlightRecorderEvent event = eventType.begin();
+
+        assertThat(event.isEnabled(), is(false));
+        // Setting fields and committing a disabled event does nothing
+        event.set("job", "job").set("matched", true).set("parseTime", 10L).commit();
+    }
+}